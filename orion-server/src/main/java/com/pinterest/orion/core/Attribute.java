@@ -19,13 +19,19 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 @JsonIgnoreProperties(value = {"publishingSensors"})
 public class Attribute {
 
-  private Set<String> publishingSensors;
-  private Object value;
-  private long updateTimestamp;
+  private static final AtomicLongFieldUpdater<Attribute> VERSION_UPDATER =
+      AtomicLongFieldUpdater.newUpdater(Attribute.class, "version");
+
+  private volatile Set<String> publishingSensors;
+  private volatile Object value;
+  private volatile long updateTimestamp;
+  @JsonIgnore
+  private volatile long version = 1;
 
   @JsonIgnore
   private boolean hidden = false;
@@ -46,6 +52,11 @@ public class Attribute {
     this.updateTimestamp = updateTimestamp;
     this.hidden = hidden;
   }
+
+  Attribute(Set<String> publishingSensors, Object value, long updateTimestamp, boolean hidden, long version) {
+    this(publishingSensors, value, updateTimestamp, hidden);
+    this.version = version;
+  }
   /**
    * @return the publishingSensor
    */
@@ -66,10 +77,15 @@ public class Attribute {
     return (T) value;
   }
   /**
-   * @param value the value to set
+   * @param value the value to set, the version is only bumped if it is not equal
+   *              to the current value
    */
   public void setValue(Object value) {
+    if (hasValue(value)) {
+      return;
+    }
     this.value = value;
+    VERSION_UPDATER.incrementAndGet(this);
   }
   /**
    * @return the updateTimestamp
@@ -84,6 +100,22 @@ public class Attribute {
     this.updateTimestamp = updateTimestamp;
   }
 
+  /**
+   * @return the version of the attribute, it increases every time the attribute is
+   * set to a value that is not equal to the previous one
+   */
+  @JsonIgnore
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * @return whether the attribute holds a value equal to the given one
+   */
+  boolean hasValue(Object other) {
+    return value == other || (value != null && value.equals(other));
+  }
+
   @Override
   public boolean equals(Object obj) {
     if(this == obj) {
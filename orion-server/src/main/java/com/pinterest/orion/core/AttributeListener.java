@@ -0,0 +1,36 @@
+/*******************************************************************************
+ * Copyright 2020 Pinterest, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.pinterest.orion.core;
+
+import java.util.Set;
+
+/**
+ * Receives the changes of the attributes it subscribed to on a {@link Context}.
+ */
+@FunctionalInterface
+public interface AttributeListener {
+
+  /**
+   * Called on a notifier thread after one or more of the subscribed attributes
+   * changed. Changes that happen before the listener runs are coalesced into a
+   * single call, so the current values should be read from the context.
+   *
+   * @param context the context the attributes belong to
+   * @param keys the keys of the attributes that changed since the last call
+   */
+  void onAttributesChanged(Context context, Set<String> keys);
+
+}
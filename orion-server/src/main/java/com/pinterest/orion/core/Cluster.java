@@ -19,7 +19,6 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
@@ -76,7 +75,7 @@ public abstract class Cluster extends State implements Plugin, Serializable {
     this.type = type;
     this.stateSink = stateSink;
     this.costCalculator = costCalculator;
-    this.nodeMap = new ConcurrentHashMap<>();
+    this.nodeMap = new LazyNodeMap();
     this.actionEngine = new ActionEngine(this, actionFactory, alertFactory, auditSink);
     this.automationEngine = new AutomationEngine(this, monitors, operators);
   }
@@ -95,9 +94,17 @@ public abstract class Cluster extends State implements Plugin, Serializable {
     actionEngine.start();
     automationEngine.initialize(config);
     if (stateSink != null) {
-      Cluster pastState = stateSink.deserialize(clusterId);
-      if (pastState != null) {
-        nodeMap.putAll(pastState.getNodeMap());
+      Map<String, Node> pastNodes = stateSink.deserializeNodes(clusterId);
+      if (pastNodes != null) {
+        if (nodeMap instanceof LazyNodeMap) {
+          // restored nodes are decoded when they are first accessed
+          ((LazyNodeMap) nodeMap).restore(pastNodes, node -> node.restoreTo(this));
+        } else {
+          for (Node node : pastNodes.values()) {
+            node.restoreTo(this);
+          }
+          nodeMap.putAll(pastNodes);
+        }
       } else {
         logger().log(Level.WARNING, "No past state for the cluster, skipping state restoration");
       }
@@ -183,6 +190,9 @@ public abstract class Cluster extends State implements Plugin, Serializable {
     } catch (Exception e) {
       logger().log(Level.SEVERE, "Node connection failed:" + heartbeat, e);
     }
+    if (stateSink != null) {
+      stateSink.checkpointNode(this, nodeInfo.getNodeId(), node);
+    }
     if (heartbeat.isReadOnly()) {
       if (!node.getCmdQueue().isEmpty()) {
         CmdResult result = node.getCmdQueue().peek().getResult();
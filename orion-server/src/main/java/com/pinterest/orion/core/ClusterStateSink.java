@@ -15,10 +15,37 @@
  *******************************************************************************/
 package com.pinterest.orion.core;
 
+import java.util.Map;
+
 public interface ClusterStateSink extends Plugin {
   
   void serialize(Cluster cluster);
   
   Cluster deserialize(String clusterId);
+
+  /**
+   * Restore the nodes of a cluster from its last checkpoint. Sinks that do not
+   * checkpoint the whole cluster object override this instead of deserialize.
+   *
+   * @return the restored nodes keyed by node id, null if there is no checkpoint
+   */
+  default Map<String, Node> deserializeNodes(String clusterId) {
+    Cluster cluster = deserialize(clusterId);
+    return cluster == null ? null : cluster.getNodeMap();
+  }
+
+  /**
+   * Record the latest state of a single node, called on every agent heartbeat.
+   * Sinks that only checkpoint the whole cluster can ignore it.
+   */
+  default void checkpointNode(Cluster cluster, String nodeId, Node node) {
+  }
+
+  /**
+   * Write the pending state and release the resources of the sink, called on
+   * server shutdown.
+   */
+  default void close() {
+  }
   
 }
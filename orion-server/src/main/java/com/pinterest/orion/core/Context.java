@@ -19,58 +19,246 @@ import com.fasterxml.jackson.annotation.JsonGetter;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonSetter;
-import org.w3c.dom.Attr;
 
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Contexts are key-value objects that keeps attributes for plugins to access.
+ *
+ * Setting an attribute to a value equal to its current one keeps the existing
+ * {@link Attribute} instance and only refreshes its update timestamp, the version
+ * of an attribute only moves when its value actually changes.
+ *
+ * {@link AttributeListener}s can subscribe to attributes by key, they are
+ * notified on a shared bounded notifier pool whenever the version of one of
+ * those attributes moves.
+ *
+ * The exposed attributes are served from an immutable snapshot that is only
+ * rebuilt after a visible attribute changed, attributes must therefore be written
+ * through the setters of the context rather than through {@link #getAttributes()}.
+ *
+ * Readers that need a consistent view across several attributes can take a
+ * {@link #snapshotAttributes() snapshot} and {@link #runOnSnapshot(Map, Runnable) run}
+ * on it, attribute reads of that thread are then served from the snapshot while
+ * writes still go to the context.
  */
 public abstract class Context {
+  private static final Logger logger = Logger.getLogger(Context.class.getCanonicalName());
+  private static final AtomicLongFieldUpdater<Context> EXPOSED_MOD_COUNT =
+      AtomicLongFieldUpdater.newUpdater(Context.class, "exposedModCount");
+  private static final ThreadLocal<PinnedSnapshot> PINNED_SNAPSHOT = new ThreadLocal<>();
   private Map<String, Attribute> attributes = new ConcurrentHashMap<>();
+  private transient volatile Map<String, List<Subscription>> subscriptions;
+  private transient volatile long exposedModCount;
+  private transient volatile ExposedSnapshot exposedSnapshot;
 
   public Attribute getAttribute(String key) {
-    return attributes.get(key);
+    return readableAttributes().get(key);
+  }
+
+  private Map<String, Attribute> readableAttributes() {
+    PinnedSnapshot pinned = PINNED_SNAPSHOT.get();
+    return pinned != null && pinned.context == this ? pinned.attributes : attributes;
+  }
+
+  /**
+   * @return an immutable copy of all attributes, hidden ones included
+   */
+  public Map<String, Attribute> snapshotAttributes() {
+    return ImmutableMap.copyOf(attributes);
+  }
+
+  /**
+   * Run the task with the attribute reads of this context on the current thread
+   * served from the snapshot, so that it sees all attributes as of the time the
+   * snapshot was taken. Writes of the task go to the context and are not visible
+   * to its reads.
+   *
+   * @param snapshot attributes taken by {@link #snapshotAttributes()}
+   */
+  public final void runOnSnapshot(Map<String, Attribute> snapshot, Runnable task) {
+    PinnedSnapshot previous = PINNED_SNAPSHOT.get();
+    PINNED_SNAPSHOT.set(new PinnedSnapshot(this, snapshot));
+    try {
+      task.run();
+    } finally {
+      if (previous == null) {
+        PINNED_SNAPSHOT.remove();
+      } else {
+        PINNED_SNAPSHOT.set(previous);
+      }
+    }
   }
 
   public void setHiddenAttribute(String key, Object value, Set<String> sensorKeys) {
-    attributes.put(key, new Attribute(sensorKeys, value, System.currentTimeMillis(), true));
+    updateAttribute(key, value, sensorKeys, true);
   }
 
   public void setHiddenAttribute(String key, Object value, String sensorKey) {
-    attributes.put(key, new Attribute(Collections.singleton(sensorKey), value, System.currentTimeMillis(), true));
+    updateAttribute(key, value, Collections.singleton(sensorKey), true);
   }
 
   public void setHiddenAttribute(String key, Object value){
-    attributes.put(key, new Attribute(null, value, System.currentTimeMillis(), true));
+    updateAttribute(key, value, null, true);
   }
 
   public void setHiddenAttributeInternal(String key, Attribute attribute) {
-    attributes.put(key, attribute);
+    putAttribute(key, attribute);
   }
 
   public void setAttribute(String key, Object value, Set<String> sensorKeys) {
-    attributes.put(key, new Attribute(sensorKeys, value, System.currentTimeMillis()));
+    updateAttribute(key, value, sensorKeys, false);
   }
 
   public void setAttribute(String key, Object value, String sensorKey) {
-    attributes.put(key, new Attribute(Collections.singleton(sensorKey), value, System.currentTimeMillis()));
+    updateAttribute(key, value, Collections.singleton(sensorKey), false);
   }
   
   public void setAttribute(String key, Object value){
-    attributes.put(key, new Attribute(null, value, System.currentTimeMillis()));
+    updateAttribute(key, value, null, false);
   }
 
   public void setAttributeInternal(String key, Attribute attribute) {
-    attributes.put(key, attribute);
+    putAttribute(key, attribute);
+  }
+
+  private void putAttribute(String key, Attribute attribute) {
+    Attribute previous = attributes.put(key, attribute);
+    if (previous != attribute) {
+      attributeChanged(key, isVisible(attribute) || isVisible(previous));
+    }
+  }
+
+  private static boolean isVisible(Attribute attribute) {
+    return attribute != null && !attribute.isHidden();
+  }
+
+  private void updateAttribute(String key, Object value, Set<String> sensorKeys, boolean hidden) {
+    long now = System.currentTimeMillis();
+    Attribute[] previous = new Attribute[1];
+    Attribute updated = attributes.compute(key, (k, current) -> {
+      previous[0] = current;
+      if (current != null && current.isHidden() == hidden && current.hasValue(value)) {
+        current.setPublishingSensors(sensorKeys);
+        current.setUpdateTimestamp(now);
+        return current;
+      }
+      return new Attribute(sensorKeys, value, now, hidden, current == null ? 1 : current.getVersion() + 1);
+    });
+    if (updated != previous[0]) {
+      attributeChanged(key, isVisible(updated) || isVisible(previous[0]));
+    }
+  }
+
+  /**
+   * Set the attribute only if the current attribute is the expected instance, null
+   * if the attribute is expected to be absent.
+   *
+   * @return whether the attribute was set
+   */
+  public boolean compareAndSetAttribute(String key,
+                                        Attribute expected,
+                                        Object value,
+                                        Set<String> sensorKeys,
+                                        boolean hidden) {
+    long now = System.currentTimeMillis();
+    boolean[] swapped = new boolean[1];
+    Attribute updated = attributes.compute(key, (k, current) -> {
+      if (current != expected) {
+        return current;
+      }
+      swapped[0] = true;
+      if (current != null && current.isHidden() == hidden && current.hasValue(value)) {
+        current.setPublishingSensors(sensorKeys);
+        current.setUpdateTimestamp(now);
+        return current;
+      }
+      return new Attribute(sensorKeys, value, now, hidden, current == null ? 1 : current.getVersion() + 1);
+    });
+    if (swapped[0] && updated != expected) {
+      attributeChanged(key, isVisible(updated) || isVisible(expected));
+    }
+    return swapped[0];
+  }
+
+  /**
+   * Notify the listener whenever one of the attributes changes. A listener that
+   * is still pending when further changes happen is notified once for all of them.
+   */
+  public void subscribe(Set<String> keys, AttributeListener listener) {
+    Subscription subscription = new Subscription(listener);
+    Map<String, List<Subscription>> subscriptionMap = getSubscriptions();
+    for (String key : keys) {
+      subscriptionMap.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>()).add(subscription);
+    }
+  }
+
+  public void unsubscribe(AttributeListener listener) {
+    Map<String, List<Subscription>> subscriptionMap = subscriptions;
+    if (subscriptionMap != null) {
+      for (List<Subscription> keySubscriptions : subscriptionMap.values()) {
+        keySubscriptions.removeIf(subscription -> subscription.listener == listener);
+      }
+    }
+  }
+
+  private Map<String, List<Subscription>> getSubscriptions() {
+    Map<String, List<Subscription>> subscriptionMap = subscriptions;
+    if (subscriptionMap == null) {
+      synchronized (this) {
+        subscriptionMap = subscriptions;
+        if (subscriptionMap == null) {
+          subscriptionMap = new ConcurrentHashMap<>();
+          subscriptions = subscriptionMap;
+        }
+      }
+    }
+    return subscriptionMap;
+  }
+
+  private void attributeChanged(String key, boolean visible) {
+    if (visible) {
+      EXPOSED_MOD_COUNT.incrementAndGet(this);
+    }
+    Map<String, List<Subscription>> subscriptionMap = subscriptions;
+    if (subscriptionMap == null) {
+      return;
+    }
+    List<Subscription> keySubscriptions = subscriptionMap.get(key);
+    if (keySubscriptions != null) {
+      for (Subscription subscription : keySubscriptions) {
+        subscription.changed(key);
+      }
+    }
+  }
+
+  /**
+   * @return the version of the attribute, which only changes when its value does, 0 if it is absent
+   */
+  public long getAttributeVersion(String key) {
+    Attribute attribute = readableAttributes().get(key);
+    return attribute == null ? 0 : attribute.getVersion();
   }
 
   public boolean containsAttribute(String key) {
-    return attributes.containsKey(key);
+    return readableAttributes().containsKey(key);
   }
 
   @JsonIgnore
@@ -78,15 +266,32 @@ public abstract class Context {
     return attributes;
   }
 
+  /**
+   * @return an immutable snapshot of the attributes that are not hidden
+   */
   @JsonGetter("attributes")
   public Map<String, Attribute> getExposedAttributes() {
-    return attributes.entrySet().parallelStream().filter(e -> !e.getValue().isHidden()).collect(
-        Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    // read the count before the attributes so that a change racing with the
+    // rebuild leaves the snapshot outdated rather than missing the change
+    long modCount = exposedModCount;
+    ExposedSnapshot snapshot = exposedSnapshot;
+    if (snapshot == null || snapshot.modCount != modCount) {
+      ImmutableMap.Builder<String, Attribute> builder = ImmutableMap.builder();
+      for (Map.Entry<String, Attribute> entry : attributes.entrySet()) {
+        if (!entry.getValue().isHidden()) {
+          builder.put(entry);
+        }
+      }
+      snapshot = new ExposedSnapshot(modCount, builder.build());
+      exposedSnapshot = snapshot;
+    }
+    return snapshot.attributes;
   }
 
   @JsonSetter("attributes")
   public void setAttributes(Map<String, Attribute> attributes) {
     this.attributes = attributes;
+    EXPOSED_MOD_COUNT.incrementAndGet(this);
   }
 
   @Override
@@ -101,4 +306,81 @@ public abstract class Context {
 
     return ((Context) obj).attributes.equals(this.attributes);
   }
+
+  private final class Subscription implements Runnable {
+    private final AttributeListener listener;
+    private final Set<String> changedKeys = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private Subscription(AttributeListener listener) {
+      this.listener = listener;
+    }
+
+    private void changed(String key) {
+      changedKeys.add(key);
+      if (scheduled.compareAndSet(false, true)) {
+        try {
+          Notifier.EXECUTOR.execute(this);
+        } catch (RejectedExecutionException e) {
+          // the keys stay pending and are delivered with the next change
+          scheduled.set(false);
+          logger.warning("Attribute notifier queue is full, delaying notification of " + key);
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      // keys that change while the listener runs are delivered by the next iteration,
+      // so a listener is never called concurrently with itself
+      do {
+        Set<String> keys = new HashSet<>();
+        for (String key : changedKeys) {
+          if (changedKeys.remove(key)) {
+            keys.add(key);
+          }
+        }
+        if (!keys.isEmpty()) {
+          try {
+            listener.onAttributesChanged(Context.this, keys);
+          } catch (Exception e) {
+            logger.log(Level.SEVERE, "Attribute listener failed on " + keys, e);
+          }
+        }
+        scheduled.set(false);
+      } while (!changedKeys.isEmpty() && scheduled.compareAndSet(false, true));
+    }
+  }
+
+  private static final class ExposedSnapshot {
+    private final long modCount;
+    private final Map<String, Attribute> attributes;
+
+    private ExposedSnapshot(long modCount, Map<String, Attribute> attributes) {
+      this.modCount = modCount;
+      this.attributes = attributes;
+    }
+  }
+
+  private static final class PinnedSnapshot {
+    private final Context context;
+    private final Map<String, Attribute> attributes;
+
+    private PinnedSnapshot(Context context, Map<String, Attribute> attributes) {
+      this.context = context;
+      this.attributes = attributes;
+    }
+  }
+
+  private static final class Notifier {
+    private static final int THREADS = 2;
+    private static final int QUEUE_SIZE = 10000;
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(THREADS, THREADS, 60,
+        TimeUnit.SECONDS, new ArrayBlockingQueue<>(QUEUE_SIZE),
+        new ThreadFactoryBuilder().setNameFormat("attribute-notifier-%d").setDaemon(true).build());
+
+    static {
+      EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+  }
 }
@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * Copyright 2020 Pinterest, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.pinterest.orion.core;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import com.google.common.collect.Sets;
+
+/**
+ * Node map whose entries restored from a checkpoint are decoded on first access.
+ *
+ * Pending entries hold a decoder instead of a node. Point lookups only decode the
+ * requested node, the size and the keys are served without decoding anything and
+ * only iterating the entries or values decodes everything that is still pending.
+ * Checkpoints and API responses go through {@link #getPendingKeys} and
+ * {@link #forEachPeeked} so that they don't decode the map either.
+ */
+public class LazyNodeMap extends AbstractMap<String, Node> implements ConcurrentMap<String, Node> {
+
+  private final ConcurrentHashMap<String, Node> nodes = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Supplier<Node>> pending = new ConcurrentHashMap<>();
+  private volatile Consumer<Node> onDecode = node -> { };
+
+  /**
+   * Add an entry that is decoded the first time it is accessed, the decoder may
+   * return null if the entry cannot be decoded.
+   */
+  public void putLazy(String nodeId, Supplier<Node> decoder) {
+    nodes.remove(nodeId);
+    pending.put(nodeId, decoder);
+  }
+
+  /**
+   * @return the number of entries that have not been decoded yet
+   */
+  public int getPendingCount() {
+    return pending.size();
+  }
+
+  /**
+   * @return the keys of the entries that have not been decoded yet
+   */
+  public List<String> getPendingKeys() {
+    return new ArrayList<>(pending.keySet());
+  }
+
+  /**
+   * Pass the entries that have been decoded to the action, an entry decoded
+   * concurrently may also be part of the preceding {@link #getPendingKeys}.
+   */
+  public void forEachDecoded(BiConsumer<String, Node> action) {
+    nodes.forEach(action);
+  }
+
+  /**
+   * Pass every entry to the action, pending entries are decoded for the action
+   * only and stay pending.
+   */
+  public void forEachPeeked(BiConsumer<String, Node> action) {
+    Set<String> keys = new LinkedHashSet<>(pending.keySet());
+    keys.addAll(nodes.keySet());
+    for (String nodeId : keys) {
+      Node node = nodes.get(nodeId);
+      if (node == null) {
+        Supplier<Node> decoder = pending.get(nodeId);
+        if (decoder == null) {
+          // decoded and removed since the keys were listed
+          continue;
+        }
+        node = decoder.get();
+        if (node != null) {
+          onDecode.accept(node);
+        }
+      }
+      if (node != null) {
+        action.accept(nodeId, node);
+      }
+    }
+  }
+
+  /**
+   * Take over the entries of a restored node map, they replace the entries that
+   * are already present. Restored nodes are passed to onRestore when they are
+   * decoded.
+   */
+  void restore(Map<String, Node> restoredNodes, Consumer<Node> onRestore) {
+    onDecode = onRestore;
+    if (restoredNodes instanceof LazyNodeMap) {
+      LazyNodeMap lazyNodes = (LazyNodeMap) restoredNodes;
+      lazyNodes.pending.forEach(this::putLazy);
+      lazyNodes.nodes.forEach((nodeId, node) -> {
+        onRestore.accept(node);
+        put(nodeId, node);
+      });
+    } else {
+      restoredNodes.forEach((nodeId, node) -> {
+        onRestore.accept(node);
+        put(nodeId, node);
+      });
+    }
+  }
+
+  private void decode(Object key) {
+    if (pending.containsKey(key)) {
+      // computeIfPresent blocks concurrent lookups of the same key until it is decoded
+      pending.computeIfPresent((String) key, (nodeId, decoder) -> {
+        Node node = decoder.get();
+        if (node != null) {
+          onDecode.accept(node);
+          nodes.put(nodeId, node);
+        }
+        return null;
+      });
+    }
+  }
+
+  private void decodeAll() {
+    for (String nodeId : pending.keySet()) {
+      decode(nodeId);
+    }
+  }
+
+  @Override
+  public Node get(Object key) {
+    Node node = nodes.get(key);
+    if (node == null && key != null) {
+      decode(key);
+      node = nodes.get(key);
+    }
+    return node;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return get(key) != null;
+  }
+
+  /**
+   * Entries that fail to decode are counted until they are accessed.
+   */
+  @Override
+  public int size() {
+    return keySet().size();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return pending.isEmpty() && nodes.isEmpty();
+  }
+
+  @Override
+  public Node put(String key, Node value) {
+    Node previous = get(key);
+    nodes.put(key, value);
+    return previous;
+  }
+
+  @Override
+  public Node remove(Object key) {
+    decode(key);
+    return nodes.remove(key);
+  }
+
+  @Override
+  public void clear() {
+    pending.clear();
+    nodes.clear();
+  }
+
+  @Override
+  public Set<Entry<String, Node>> entrySet() {
+    decodeAll();
+    return nodes.entrySet();
+  }
+
+  /**
+   * @return an unmodifiable view of the keys of the pending and decoded entries
+   */
+  @Override
+  public Set<String> keySet() {
+    return Sets.union(pending.keySet(), nodes.keySet());
+  }
+
+  @Override
+  public Node putIfAbsent(String key, Node value) {
+    decode(key);
+    return nodes.putIfAbsent(key, value);
+  }
+
+  @Override
+  public boolean remove(Object key, Object value) {
+    decode(key);
+    return nodes.remove(key, value);
+  }
+
+  @Override
+  public boolean replace(String key, Node oldValue, Node newValue) {
+    decode(key);
+    return nodes.replace(key, oldValue, newValue);
+  }
+
+  @Override
+  public Node replace(String key, Node value) {
+    decode(key);
+    return nodes.replace(key, value);
+  }
+}
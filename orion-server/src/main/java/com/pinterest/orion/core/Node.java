@@ -137,6 +137,17 @@ public abstract class Node implements Serializable {
     return cmdQueue;
   }
 
+  /**
+   * Bind a node restored from a checkpoint to the live cluster, the command
+   * queue is not part of a checkpoint and starts empty.
+   */
+  void restoreTo(Cluster cluster) {
+    this.cluster = cluster;
+    if (cmdQueue == null) {
+      cmdQueue = new ArrayBlockingQueue<>(1);
+    }
+  }
+
   /**
    * @return the nodeStatus
    */
@@ -17,11 +17,13 @@ package com.pinterest.orion.core.actions;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Collection;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -67,6 +69,8 @@ public abstract class Action extends Context implements Plugin, Runnable, Future
   private String owner;
   @JsonIgnore
   private Set<String> postRunSensorKeys;
+  @JsonIgnore
+  private transient volatile CompletableFuture<Action> completion;
 
   public Action() {
     this.createTime = System.currentTimeMillis();
@@ -94,6 +98,49 @@ public abstract class Action extends Context implements Plugin, Runnable, Future
       markFailed(e);
     } finally {
       this.complete();
+      getCompletionFuture().complete(this);
+    }
+  }
+
+  /**
+   * @return a future that completes with this action once it has run or has been
+   * cancelled, so callers can wait for or react to the completion without polling
+   */
+  @JsonIgnore
+  public CompletableFuture<Action> getCompletionFuture() {
+    CompletableFuture<Action> future = completion;
+    if (future == null) {
+      synchronized (this) {
+        future = completion;
+        if (future == null) {
+          future = new CompletableFuture<>();
+          completion = future;
+        }
+      }
+    }
+    return future;
+  }
+
+  /**
+   * Wait until any of the actions completes.
+   *
+   * @return whether any of the actions completed within the timeout
+   */
+  public static boolean awaitAnyCompletion(Collection<Action> actions,
+                                           long timeout,
+                                           TimeUnit unit) throws InterruptedException {
+    if (actions.isEmpty()) {
+      return false;
+    }
+    CompletableFuture<?>[] futures = actions.stream().map(Action::getCompletionFuture)
+        .toArray(CompletableFuture[]::new);
+    try {
+      CompletableFuture.anyOf(futures).get(timeout, unit);
+      return true;
+    } catch (TimeoutException e) {
+      return false;
+    } catch (ExecutionException e) {
+      return true;
     }
   }
 
@@ -103,24 +150,19 @@ public abstract class Action extends Context implements Plugin, Runnable, Future
     Set<Future<?>> futures = engine.getCluster().getAutomationEngine()
         .triggerSensors(postRunSensorKeys);
     List<Exception> exceptions = new ArrayList<>();
-    long currentTime = System.currentTimeMillis();
-    while (!futures.isEmpty()) {
-      if ((System.currentTimeMillis() - currentTime) > TimeUnit.SECONDS
-          .toMillis(postRunSensorUpdateTimeout)) {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(postRunSensorUpdateTimeout);
+    for (Future<?> f : futures) {
+      try {
+        f.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+      } catch (TimeoutException e) {
         // timeout, don't care about the sensors that aren't done.
         break;
-      }
-      for (Iterator<Future<?>> it = futures.iterator(); it.hasNext();) {
-        Future<?> f = it.next();
-        if (f.isDone()) {
-          try {
-            f.get();
-            it.remove();
-          } catch (Exception e) { // best effort for re-triggering sensors, log the errors and move
-                                  // on
-            exceptions.add(e);
-          }
-        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      } catch (Exception e) { // best effort for re-triggering sensors, log the errors and move
+                              // on
+        exceptions.add(e);
       }
     }
     if (!exceptions.isEmpty()) {
@@ -180,6 +222,18 @@ public abstract class Action extends Context implements Plugin, Runnable, Future
     }
   }
 
+  /**
+   * Resources of the cluster this action operates on when it is dispatched as a
+   * parent action, parent actions with conflicting scopes never run concurrently.
+   * Actions are scoped to the whole cluster unless they narrow their scopes down.
+   *
+   * @return the scopes of this action
+   */
+  @JsonIgnore
+  public Set<ActionScope> getScopes() {
+    return Collections.singleton(ActionScope.cluster());
+  }
+
   public String getOwner() {
     return owner;
   }
@@ -296,6 +350,7 @@ public abstract class Action extends Context implements Plugin, Runnable, Future
     }
     status = Status.CANCELLED;
     result.setState(CmdState.CANCELLED);
+    getCompletionFuture().complete(this);
     return true;
   }
 
@@ -21,18 +21,16 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.SortedMap;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -46,10 +44,32 @@ import com.pinterest.orion.core.actions.alert.AlertLevel;
 import com.pinterest.orion.core.actions.alert.AlertMessage;
 import com.pinterest.orion.core.actions.audit.ActionAuditor;
 import com.pinterest.orion.core.actions.schema.ActionSchema;
+import com.pinterest.orion.core.utils.InstrumentedThreadPoolExecutor;
 import com.pinterest.orion.core.utils.OrionUUID;
 
+import io.dropwizard.metrics5.MetricName;
+
+/**
+ * Runs the parent actions of a cluster and the child actions and alerts they trigger.
+ *
+ * Up to maxConcurrentActions parent actions run at the same time as long as their
+ * {@link ActionScope}s don't conflict. Actions that conflict with a running action,
+ * or with an action queued before them, wait in dispatch order until the conflict
+ * clears, so healing a broker doesn't wait behind a rebalance of a topic.
+ *
+ * Child actions and alerts run on bounded pools of the engine, which makes their
+ * limits per cluster. Child actions are not queued: when all child action threads
+ * are busy the dispatching action runs the child itself, which slows it down
+ * instead of failing it. Child actions wait on children of their own, a child
+ * queued behind them could wait forever. Alerts that don't fit in the alert queue
+ * are dropped, they remain in the alerts of the engine.
+ */
 public class ActionEngine implements ActionDispatcher, Runnable {
   private static final int TASK_EXPIRE = 86400_000;
+  private static final String CONF_MAX_CONCURRENT_ACTIONS_KEY = "maxConcurrentActions";
+  private static final String CONF_MAX_CHILD_ACTION_THREADS_KEY = "maxChildActionThreads";
+  private static final String CONF_MAX_ALERT_THREADS_KEY = "maxAlertThreads";
+  private static final String CONF_ALERT_QUEUE_SIZE_KEY = "alertQueueSize";
 
   private static final Logger LOG = Logger.getLogger(ActionEngine.class.getCanonicalName());
   @JsonIgnore
@@ -72,7 +92,14 @@ public class ActionEngine implements ActionDispatcher, Runnable {
   @JsonIgnore
   private AlertFactory alertFactory;
 
-  private final AtomicInteger activeCounter = new AtomicInteger();
+  private int maxConcurrentActions = 4;
+  private int maxChildActionThreads = 64;
+  private int maxAlertThreads = 4;
+  private int alertQueueSize = 1000;
+  // guarded by itself
+  private final List<ScheduledAction> runningActions = new ArrayList<>();
+  // guarded by runningActions
+  private final List<ScheduledAction> queuedActions = new ArrayList<>();
 
   public ActionEngine(Cluster cluster,
                       ActionFactory actionFactory,
@@ -88,33 +115,73 @@ public class ActionEngine implements ActionDispatcher, Runnable {
     trackedActionsMap = new ConcurrentSkipListMap<>(Comparator.reverseOrder());
     alertsMap = new ConcurrentSkipListMap<>(Comparator.reverseOrder());
 
-    actionExecutors = new ControlledActionExecutor(1, 1, 0, TimeUnit.NANOSECONDS,
-        new LinkedBlockingQueue<>(), activeCounter);
-    childActionExecutors = Executors.newCachedThreadPool();
-    alertExecutors = Executors.newCachedThreadPool();
+    if (config != null) {
+      maxConcurrentActions = getPositiveInt(config, CONF_MAX_CONCURRENT_ACTIONS_KEY, maxConcurrentActions);
+      maxChildActionThreads = getPositiveInt(config, CONF_MAX_CHILD_ACTION_THREADS_KEY, maxChildActionThreads);
+      maxAlertThreads = getPositiveInt(config, CONF_MAX_ALERT_THREADS_KEY, maxAlertThreads);
+      alertQueueSize = getPositiveInt(config, CONF_ALERT_QUEUE_SIZE_KEY, alertQueueSize);
+    }
+    String clusterId = cluster.getClusterId();
+    MetricName metricPrefix = MetricName.build("action_engine").tagged("cluster", clusterId);
+    actionExecutors = Executors.newFixedThreadPool(maxConcurrentActions);
+    childActionExecutors = new InstrumentedThreadPoolExecutor(
+        metricPrefix.resolve("child_actions"), "child-action-" + clusterId + "-%d",
+        maxChildActionThreads, 0, new ThreadPoolExecutor.CallerRunsPolicy());
+    alertExecutors = new InstrumentedThreadPoolExecutor(
+        metricPrefix.resolve("alerts"), "alert-" + clusterId + "-%d",
+        maxAlertThreads, alertQueueSize, new ThreadPoolExecutor.DiscardPolicy());
     selfRunner = Executors.newSingleThreadScheduledExecutor();
   }
 
+  private static int getPositiveInt(Map<String, Object> config, String key, int defaultValue)
+      throws PluginConfigurationException {
+    if (!config.containsKey(key)) {
+      return defaultValue;
+    }
+    int value = Integer.parseInt(config.get(key).toString());
+    if (value < 1) {
+      throw new PluginConfigurationException(key + " must be positive: " + value);
+    }
+    return value;
+  }
+
   @Override
   public void dispatch(Action action) {
     validateParentAction(action);
     initializeAction(action);
     action.setParent(true);
-    synchronized (activeCounter) {
+    synchronized (runningActions) {
       dispatchInternal(action);
+      startQueuedActions();
     }
   }
 
+  /**
+   * Dispatch the action only if it can start right away, that is if there is a free
+   * slot and it doesn't conflict with any running or queued action.
+   *
+   * @return whether the action was dispatched
+   */
   public boolean dispatchNow(Action action) {
     validateParentAction(action);
     initializeAction(action);
     action.setParent(true);
-    if (activeCounter.get() == 0) {
-      synchronized (activeCounter) {
-        if (activeCounter.get() == 0) {
-          dispatchInternal(action);
-          return true;
-        }
+    Set<ActionScope> scopes = action.getScopes();
+    synchronized (runningActions) {
+      if (runningActions.size() >= maxConcurrentActions
+          || conflicts(scopes, runningActions) || conflicts(scopes, queuedActions)) {
+        return false;
+      }
+      dispatchInternal(action);
+      startQueuedActions();
+      return true;
+    }
+  }
+
+  private static boolean conflicts(Set<ActionScope> scopes, List<ScheduledAction> actions) {
+    for (ScheduledAction scheduled : actions) {
+      if (ActionScope.conflict(scopes, scheduled.scopes)) {
+        return true;
       }
     }
     return false;
@@ -125,18 +192,87 @@ public class ActionEngine implements ActionDispatcher, Runnable {
         new AlertMessage("Action triggered on cluster " + cluster.getClusterId(),
             "Action " + action.getName() + " scheduled on cluster " + cluster.getClusterId(),
             action.getOwner()));
-    Future<?> future = actionExecutors.submit(action);
-    action.setInternalFuture(future);
+    // the future exists from dispatch on so that queued actions can be waited on and cancelled
+    FutureTask<?> task = new FutureTask<>(action, null);
+    action.setInternalFuture(task);
     trackedActionsMap.put(action.getUuid(), action);
-    activeCounter.incrementAndGet();
+    queuedActions.add(new ScheduledAction(action, action.getScopes(), task));
+  }
+
+  /**
+   * Start the queued actions in dispatch order, skipping those that conflict with a
+   * running action or with an action that is queued before them.
+   */
+  private void startQueuedActions() {
+    List<ActionScope> blockedScopes = new ArrayList<>();
+    for (Iterator<ScheduledAction> iterator = queuedActions.iterator();
+         iterator.hasNext() && runningActions.size() < maxConcurrentActions;) {
+      ScheduledAction scheduled = iterator.next();
+      if (scheduled.action.isCancelled()) {
+        iterator.remove();
+        continue;
+      }
+      if (conflicts(scheduled.scopes, runningActions)
+          || ActionScope.conflict(scheduled.scopes, blockedScopes)) {
+        blockedScopes.addAll(scheduled.scopes);
+        continue;
+      }
+      iterator.remove();
+      runningActions.add(scheduled);
+      try {
+        actionExecutors.execute(() -> {
+          try {
+            scheduled.task.run();
+          } finally {
+            onActionComplete(scheduled);
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        runningActions.remove(scheduled);
+        LOG.log(Level.SEVERE, "Failed to start action " + scheduled.action.getName(), e);
+        scheduled.action.markFailed(e);
+        scheduled.task.cancel(false);
+      }
+    }
+  }
+
+  private void onActionComplete(ScheduledAction scheduled) {
+    synchronized (runningActions) {
+      runningActions.remove(scheduled);
+      startQueuedActions();
+    }
+  }
+
+  @JsonIgnore
+  public List<Action> getQueuedActionsList() {
+    synchronized (runningActions) {
+      return queuedActions.stream().map(scheduled -> scheduled.action).collect(Collectors.toList());
+    }
+  }
+
+  /**
+   * @return whether parent actions are running or queued
+   */
+  @JsonIgnore
+  public boolean hasActiveActions() {
+    synchronized (runningActions) {
+      return !runningActions.isEmpty() || !queuedActions.isEmpty();
+    }
+  }
+
+  @JsonIgnore
+  public int getMaxConcurrentActions() {
+    return maxConcurrentActions;
   }
 
   public void dispatchChild(Action parent, Action child) throws Exception {
     initializeAction(child);
     child.setOwner(parent.getOwner());
     child.setParent(false);
-    Future<?> future = childActionExecutors.submit(child);
-    child.setInternalFuture(future);
+    // the future is set first, the child may run right away on this thread
+    FutureTask<?> task = new FutureTask<>(child, null);
+    child.setInternalFuture(task);
+    childActionExecutors.execute(task);
   }
 
   public void alert(Alert alert, AlertMessage message) {
@@ -275,24 +411,15 @@ public class ActionEngine implements ActionDispatcher, Runnable {
     return actionFactory.getEnabledActionSchemas(this.cluster.getClusterId());
   }
 
-  private static class ControlledActionExecutor extends ThreadPoolExecutor {
-
-    private final AtomicInteger activeCounter;
-
-    public ControlledActionExecutor(int corePoolSize,
-                                    int maximumPoolSize,
-                                    long keepAliveTime,
-                                    TimeUnit unit,
-                                    BlockingQueue<Runnable> workQueue,
-                                    AtomicInteger activeCounter) {
-      super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue);
-      this.activeCounter = activeCounter;
-    }
+  private static final class ScheduledAction {
+    private final Action action;
+    private final Set<ActionScope> scopes;
+    private final FutureTask<?> task;
 
-    @Override
-    protected void afterExecute(Runnable r, Throwable t) {
-      super.afterExecute(r, t);
-      activeCounter.getAndDecrement();
+    private ScheduledAction(Action action, Set<ActionScope> scopes, FutureTask<?> task) {
+      this.action = action;
+      this.scopes = scopes;
+      this.task = task;
     }
   }
 }
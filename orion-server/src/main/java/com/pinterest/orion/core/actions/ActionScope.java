@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright 2020 Pinterest, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.pinterest.orion.core.actions;
+
+import java.util.Collection;
+import java.util.Objects;
+
+/**
+ * Resource of a cluster that a parent action operates on. The {@link ActionEngine}
+ * runs parent actions concurrently as long as their scopes don't conflict.
+ *
+ * A cluster scope conflicts with every other scope. Node, topic and resource scopes
+ * conflict with scopes of the same type and id, where the id {@link #ALL} stands for
+ * every node or topic. Resource scopes name a cluster wide resource that only one
+ * action may use at a time, like the pending partition reassignment.
+ */
+public final class ActionScope {
+
+  public static final String ALL = "*";
+
+  public enum Type {
+    CLUSTER,
+    NODE,
+    TOPIC,
+    RESOURCE
+  }
+
+  private static final ActionScope CLUSTER = new ActionScope(Type.CLUSTER, ALL);
+
+  private final Type type;
+  private final String id;
+
+  private ActionScope(Type type, String id) {
+    this.type = type;
+    this.id = id;
+  }
+
+  public static ActionScope cluster() {
+    return CLUSTER;
+  }
+
+  public static ActionScope node(String nodeId) {
+    return new ActionScope(Type.NODE, Objects.requireNonNull(nodeId));
+  }
+
+  public static ActionScope topic(String topic) {
+    return new ActionScope(Type.TOPIC, Objects.requireNonNull(topic));
+  }
+
+  public static ActionScope resource(String name) {
+    return new ActionScope(Type.RESOURCE, Objects.requireNonNull(name));
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public boolean conflictsWith(ActionScope other) {
+    if (type == Type.CLUSTER || other.type == Type.CLUSTER) {
+      return true;
+    }
+    return type == other.type && (id.equals(other.id) || ALL.equals(id) || ALL.equals(other.id));
+  }
+
+  /**
+   * @return whether any of the scopes conflicts with any of the other scopes
+   */
+  public static boolean conflict(Collection<ActionScope> scopes, Collection<ActionScope> otherScopes) {
+    for (ActionScope scope : scopes) {
+      for (ActionScope other : otherScopes) {
+        if (scope.conflictsWith(other)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof ActionScope)) {
+      return false;
+    }
+    ActionScope other = (ActionScope) obj;
+    return type == other.type && id.equals(other.id);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(type, id);
+  }
+
+  @Override
+  public String toString() {
+    return type == Type.CLUSTER ? "cluster" : type.name().toLowerCase() + ":" + id;
+  }
+}
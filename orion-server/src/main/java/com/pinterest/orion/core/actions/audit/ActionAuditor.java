@@ -15,6 +15,9 @@
  *******************************************************************************/
 package com.pinterest.orion.core.actions.audit;
 
+import java.util.Collections;
+import java.util.List;
+
 import javax.annotation.concurrent.ThreadSafe;
 
 import com.pinterest.orion.core.Cluster;
@@ -27,5 +30,14 @@ public interface ActionAuditor extends Plugin {
   
   void logAction(Cluster cluster, Action action);
   void loadActions(ClusterManager mgr);
-  
+
+  /**
+   * @return the audited actions of the cluster completed from startTime
+   * inclusive to endTime exclusive, oldest first, empty if the auditor can't
+   * look up its history
+   */
+  default List<HistoricAction> getActions(String clusterId, long startTime, long endTime) {
+    return Collections.emptyList();
+  }
+
 }
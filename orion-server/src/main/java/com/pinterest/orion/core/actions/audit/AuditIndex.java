@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright 2020 Pinterest, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.pinterest.orion.core.actions.audit;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.pinterest.orion.core.state.LocalKeyValueStore;
+
+/**
+ * Local index of the audit records, keyed by cluster id and completion time so
+ * that the history of a cluster over a time range is a single range scan.
+ *
+ * Keys are clusterId/time/actionId with the time zero-padded, so that the keys
+ * of a cluster sort by time. The index only holds the records audited by this
+ * server since {@link #getCreateTime}, callers fall back to the audit topic for
+ * older history.
+ */
+class AuditIndex implements Closeable {
+
+  private static final String KEY_SEPARATOR = "/";
+  // sorts before any cluster id
+  private static final String CREATE_TIME_KEY = KEY_SEPARATOR + "createTime";
+
+  private final LocalKeyValueStore store;
+  private final long createTime;
+
+  AuditIndex(File directory) throws IOException {
+    store = new LocalKeyValueStore(directory);
+    byte[] value = store.get(CREATE_TIME_KEY);
+    if (value == null) {
+      createTime = System.currentTimeMillis();
+      store.write(Collections.singletonMap(CREATE_TIME_KEY, toBytes(Long.toString(createTime))),
+          Collections.emptyList());
+    } else {
+      createTime = Long.parseLong(fromBytes(value));
+    }
+  }
+
+  private static String key(String clusterId, long time, String actionId) {
+    return clusterId + KEY_SEPARATOR + String.format("%020d", Math.max(0, time)) + KEY_SEPARATOR
+        + (actionId == null ? "" : actionId);
+  }
+
+  private static long timeOf(String key) {
+    int end = key.lastIndexOf(KEY_SEPARATOR);
+    return Long.parseLong(key.substring(key.lastIndexOf(KEY_SEPARATOR, end - 1) + 1, end));
+  }
+
+  private static byte[] toBytes(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static String fromBytes(byte[] value) {
+    return new String(value, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @return the time the index was created, it holds no records audited before
+   */
+  long getCreateTime() {
+    return createTime;
+  }
+
+  /**
+   * Durably add the records with a single fsync.
+   */
+  void append(List<AuditRecord> records) throws IOException {
+    Map<String, byte[]> puts = new LinkedHashMap<>();
+    for (AuditRecord record : records) {
+      puts.put(key(record.getClusterId(), record.getTime(), record.getActionId()), toBytes(record.getJson()));
+    }
+    store.write(puts, Collections.emptyList());
+  }
+
+  /**
+   * @return the json of the records of the cluster completed from startTime
+   * inclusive to endTime exclusive, oldest first
+   */
+  List<String> scan(String clusterId, long startTime, long endTime) throws IOException {
+    List<String> records = new ArrayList<>();
+    for (String key : store.keys(key(clusterId, startTime, ""), key(clusterId, endTime, ""))) {
+      byte[] value = store.get(key);
+      if (value != null) {
+        records.add(fromBytes(value));
+      }
+    }
+    return records;
+  }
+
+  /**
+   * Delete the records completed before the time and compact the store once
+   * deleted records take most of its file.
+   *
+   * @return the number of deleted records
+   */
+  int expire(long time) throws IOException {
+    List<String> expired = new ArrayList<>();
+    for (String key : store.keys("")) {
+      if (!key.equals(CREATE_TIME_KEY) && timeOf(key) < time) {
+        expired.add(key);
+      }
+    }
+    store.write(Collections.emptyMap(), expired);
+    long fileBytes = store.getFileBytes();
+    if (fileBytes > 0 && fileBytes - store.getLiveBytes() > fileBytes / 2) {
+      store.compact();
+    }
+    return expired.size();
+  }
+
+  @Override
+  public void close() throws IOException {
+    store.close();
+  }
+}
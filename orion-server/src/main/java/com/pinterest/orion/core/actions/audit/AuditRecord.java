@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright 2020 Pinterest, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.pinterest.orion.core.actions.audit;
+
+/**
+ * Serialized audit entry of an action, keyed by the cluster the action ran on.
+ */
+final class AuditRecord {
+
+  private final String clusterId;
+  private final String actionId;
+  private final long time;
+  private final String json;
+
+  AuditRecord(String clusterId, String actionId, long time, String json) {
+    this.clusterId = clusterId;
+    this.actionId = actionId;
+    this.time = time;
+    this.json = json;
+  }
+
+  String getClusterId() {
+    return clusterId;
+  }
+
+  String getActionId() {
+    return actionId;
+  }
+
+  /**
+   * @return the completion time of the action in milliseconds
+   */
+  long getTime() {
+    return time;
+  }
+
+  String getJson() {
+    return json;
+  }
+}
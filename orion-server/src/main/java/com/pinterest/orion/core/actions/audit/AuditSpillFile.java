@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * Copyright 2020 Pinterest, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.pinterest.orion.core.actions.audit;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Local file that keeps the audit records which couldn't be sent, so that they
+ * survive an outage of the audit cluster and a restart of the server.
+ *
+ * Records are appended in fsynced batches, each record carries a CRC so a torn
+ * tail left by a crash is ignored. Replay moves the spilled records aside to a
+ * replay file, new records keep being spilled to a fresh file meanwhile. The
+ * replay file is only deleted once all of its records were sent, so records may
+ * be sent more than once but are never lost.
+ */
+class AuditSpillFile {
+
+  private static final Logger logger = Logger.getLogger(AuditSpillFile.class.getCanonicalName());
+  private static final String SPILL_FILE_NAME = "audit.spill";
+  private static final String REPLAY_FILE_NAME = "audit.replay";
+
+  private final File directory;
+  private FileChannel channel;
+
+  AuditSpillFile(File directory) throws IOException {
+    this.directory = directory;
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Failed to create spill directory " + directory);
+    }
+  }
+
+  private File spillFile() {
+    return new File(directory, SPILL_FILE_NAME);
+  }
+
+  private File replayFile() {
+    return new File(directory, REPLAY_FILE_NAME);
+  }
+
+  /**
+   * Durably append the records with a single fsync.
+   */
+  synchronized void append(List<AuditRecord> records) throws IOException {
+    if (records.isEmpty()) {
+      return;
+    }
+    if (channel == null) {
+      openSpillFile();
+    }
+    Output output = new Output(4096, -1);
+    for (AuditRecord record : records) {
+      byte[] json = record.getJson().getBytes(StandardCharsets.UTF_8);
+      output.writeString(record.getClusterId());
+      output.writeString(record.getActionId());
+      output.writeLong(record.getTime());
+      output.writeInt(json.length);
+      output.writeBytes(json);
+      output.writeLong(checksum(json));
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(output.getBuffer(), 0, output.position());
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    channel.force(false);
+  }
+
+  private void openSpillFile() throws IOException {
+    long validLength = spillFile().exists() ? scan(spillFile(), null) : 0;
+    channel = FileChannel.open(spillFile().toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    if (channel.size() > validLength) {
+      // records appended after a torn record would never be read
+      logger.warning("Truncating " + (channel.size() - validLength) + " bytes of torn records in " + spillFile());
+      channel.truncate(validLength);
+    }
+    channel.position(validLength);
+  }
+
+  /**
+   * @return whether there are spilled records to replay
+   */
+  synchronized boolean hasRecords() {
+    return replayFile().exists() || spillFile().length() > 0;
+  }
+
+  /**
+   * Move the spilled records aside for replay, unless a previous replay didn't
+   * complete, in which case its records are replayed first.
+   *
+   * @return the records to replay
+   */
+  synchronized List<AuditRecord> takeForReplay() throws IOException {
+    if (!replayFile().exists()) {
+      if (spillFile().length() == 0) {
+        return new ArrayList<>();
+      }
+      if (channel != null) {
+        channel.close();
+        channel = null;
+      }
+      Files.move(spillFile().toPath(), replayFile().toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+    List<AuditRecord> records = new ArrayList<>();
+    scan(replayFile(), records);
+    return records;
+  }
+
+  /**
+   * Drop the replay file once all of its records were sent.
+   */
+  synchronized void replayed() throws IOException {
+    Files.deleteIfExists(replayFile().toPath());
+  }
+
+  /**
+   * Read the records of the file up to the first torn one.
+   *
+   * @param records collects the records, if not null
+   * @return the length of the file up to the last complete record
+   */
+  private static long scan(File file, List<AuditRecord> records) throws IOException {
+    long validLength = 0;
+    try (Input input = new Input(new FileInputStream(file))) {
+      while (!input.eof()) {
+        String clusterId = input.readString();
+        String actionId = input.readString();
+        long time = input.readLong();
+        int length = input.readInt();
+        byte[] json = input.readBytes(length);
+        if (input.readLong() != checksum(json)) {
+          logger.warning("Checksum mismatch in " + file + " at " + validLength);
+          break;
+        }
+        if (records != null) {
+          records.add(new AuditRecord(clusterId, actionId, time, new String(json, StandardCharsets.UTF_8)));
+        }
+        validLength = input.total();
+      }
+    } catch (KryoException e) {
+      logger.log(Level.WARNING, "Truncated record in " + file + " at " + validLength, e);
+    }
+    return validLength;
+  }
+
+  private static long checksum(byte[] value) {
+    CRC32 crc = new CRC32();
+    crc.update(value);
+    return crc.getValue();
+  }
+
+  synchronized void close() throws IOException {
+    if (channel != null) {
+      channel.close();
+      channel = null;
+    }
+  }
+}
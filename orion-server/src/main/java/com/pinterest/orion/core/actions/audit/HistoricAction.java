@@ -46,7 +46,7 @@ public class HistoricAction extends Action {
     this.setOwner(action.getOwner());
     this.setCreateTime(action.getCreateTime());
     this.setCompleteTime(action.getCompleteTime());
-    this.getAttributes().putAll(action.getAttributes());
+    copyAttributesFrom(action);
   }
 
   @Override
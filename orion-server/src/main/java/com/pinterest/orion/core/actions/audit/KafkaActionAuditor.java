@@ -20,11 +20,18 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -32,10 +39,12 @@ import java.util.stream.Stream;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
 import com.pinterest.orion.core.Cluster;
 import com.pinterest.orion.core.ClusterManager;
 import com.pinterest.orion.core.PluginConfigurationException;
 import com.pinterest.orion.core.actions.Action;
+import com.pinterest.orion.server.OrionServer;
 
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
@@ -43,26 +52,71 @@ import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.clients.consumer.OffsetAndTimestamp;
 import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.KafkaException;
 import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.AuthenticationException;
+import org.apache.kafka.common.errors.AuthorizationException;
+import org.apache.kafka.common.errors.RetriableException;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 
+/**
+ * Audits actions to a Kafka topic, keyed by cluster id.
+ *
+ * Actions are serialized by the caller and queued, a sender thread sends them in
+ * batches so that completing an action never waits on the audit cluster. Batches
+ * that fail to send and records that don't fit in the queue are spilled to a local
+ * {@link AuditSpillFile}. After a failure the sender spills everything for
+ * retryIntervalMs and then replays the spilled records, once the replay succeeds
+ * it sends directly again. Records are delivered at least once, a record whose
+ * send timed out may be sent again by the replay. Records the audit cluster
+ * rejects for good, such as records too large for the topic, are dropped and
+ * counted in action_auditor.lost.
+ *
+ * Records are also appended to a local {@link AuditIndex} once sent or spilled,
+ * {@link #loadActions} and {@link #getActions} read the history from it with range
+ * scans and only consume the topic when the index is younger than backfillSeconds.
+ */
 public class KafkaActionAuditor implements ActionAuditor {
 
   private static final Logger logger = Logger.getLogger(KafkaActionAuditor.class.getName());
   private static final String CONF_SERVERSET_PATH_KEY = "serversetPath";
   public static final String CONF_HISTORY_TOPIC_KEY = "historyTopic";
   public static final String CONF_BACKFILL_SECONDS_KEY = "backfillSeconds";
+  private static final String CONF_SPILL_DIRECTORY_KEY = "spillDirectory";
+  private static final String CONF_QUEUE_SIZE_KEY = "queueSize";
+  private static final String CONF_BATCH_SIZE_KEY = "batchSize";
+  private static final String CONF_SEND_TIMEOUT_MS_KEY = "sendTimeoutMs";
+  private static final String CONF_RETRY_INTERVAL_MS_KEY = "retryIntervalMs";
+  private static final String CONF_INDEX_DIRECTORY_KEY = "indexDirectory";
+  private static final String CONF_INDEX_RETENTION_SECONDS_KEY = "indexRetentionSeconds";
+  private static final long POLL_INTERVAL_MS = 1000;
+  private static final long EXPIRE_INTERVAL_MS = 3600_000;
   private static Duration clientTimeout = Duration.ofSeconds(10);
   private static ObjectMapper mapper = new ObjectMapper();
 
-  private KafkaProducer<String, String> kafkaProducer;
+  private Producer<String, String> kafkaProducer;
   private String topicName;
   private String bootstrapBrokers;
   private int backfillSeconds = 86400;
+  private int queueSize = 10000;
+  private int batchSize = 500;
+  private long sendTimeoutMs = 30000;
+  private long retryIntervalMs = 30000;
+  private long indexRetentionSeconds = 7 * 86400;
+  private BlockingQueue<AuditRecord> queue;
+  private AuditSpillFile spillFile;
+  private AuditIndex index;
+  private Thread sender;
+  private volatile boolean running;
+  // only accessed by the sender, 0 while the audit cluster is reachable
+  private long nextRetryTime;
+  private long nextExpireTime;
 
   @Override
   public void initialize(Map<String, Object> config) throws PluginConfigurationException {
@@ -81,11 +135,9 @@ public class KafkaActionAuditor implements ActionAuditor {
     } catch (IOException e) {
       throw new PluginConfigurationException("Failed to read serverset file " + serversetPath, e);
     }
-    topicName = config.get(CONF_HISTORY_TOPIC_KEY).toString();
-
-    if (config.containsKey(CONF_BACKFILL_SECONDS_KEY)) {
-      backfillSeconds = Integer.parseInt(config.get(CONF_BACKFILL_SECONDS_KEY).toString());
-    }
+    configure(config);
+    String spillDirectory = config.getOrDefault(CONF_SPILL_DIRECTORY_KEY, "/tmp/orion/audit").toString();
+    String indexDirectory = config.getOrDefault(CONF_INDEX_DIRECTORY_KEY, "/tmp/orion/audit/index").toString();
 
     Map<String, Object> producerConfigs = new HashMap<>();
     producerConfigs.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapBrokers);
@@ -93,7 +145,67 @@ public class KafkaActionAuditor implements ActionAuditor {
         .put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
     producerConfigs
         .put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-    kafkaProducer = new KafkaProducer<>(producerConfigs);
+    producerConfigs.put(ProducerConfig.MAX_BLOCK_MS_CONFIG, clientTimeout.toMillis());
+    producerConfigs.put(ProducerConfig.LINGER_MS_CONFIG, 50);
+    try {
+      open(new KafkaProducer<>(producerConfigs), new File(spillDirectory), new File(indexDirectory));
+    } catch (IOException e) {
+      throw new PluginConfigurationException(e);
+    }
+    startSender();
+  }
+
+  @VisibleForTesting
+  void configure(Map<String, Object> config) throws PluginConfigurationException {
+    if (config.containsKey(CONF_HISTORY_TOPIC_KEY)) {
+      topicName = config.get(CONF_HISTORY_TOPIC_KEY).toString();
+    }
+    if (config.containsKey(CONF_BACKFILL_SECONDS_KEY)) {
+      backfillSeconds = Integer.parseInt(config.get(CONF_BACKFILL_SECONDS_KEY).toString());
+    }
+    if (config.containsKey(CONF_QUEUE_SIZE_KEY)) {
+      queueSize = Integer.parseInt(config.get(CONF_QUEUE_SIZE_KEY).toString());
+    }
+    if (config.containsKey(CONF_BATCH_SIZE_KEY)) {
+      batchSize = Integer.parseInt(config.get(CONF_BATCH_SIZE_KEY).toString());
+    }
+    if (config.containsKey(CONF_SEND_TIMEOUT_MS_KEY)) {
+      sendTimeoutMs = Long.parseLong(config.get(CONF_SEND_TIMEOUT_MS_KEY).toString());
+    }
+    if (config.containsKey(CONF_RETRY_INTERVAL_MS_KEY)) {
+      retryIntervalMs = Long.parseLong(config.get(CONF_RETRY_INTERVAL_MS_KEY).toString());
+    }
+    if (config.containsKey(CONF_INDEX_RETENTION_SECONDS_KEY)) {
+      indexRetentionSeconds = Long.parseLong(config.get(CONF_INDEX_RETENTION_SECONDS_KEY).toString());
+    }
+    if (indexRetentionSeconds < backfillSeconds) {
+      throw new PluginConfigurationException(CONF_INDEX_RETENTION_SECONDS_KEY + " must be at least "
+          + CONF_BACKFILL_SECONDS_KEY + ": " + indexRetentionSeconds);
+    }
+    if (queueSize < 1 || batchSize < 1) {
+      throw new PluginConfigurationException(CONF_QUEUE_SIZE_KEY + " and " + CONF_BATCH_SIZE_KEY
+          + " must be positive: " + queueSize + ", " + batchSize);
+    }
+  }
+
+  @VisibleForTesting
+  void open(Producer<String, String> producer, File spillDirectory, File indexDirectory) throws IOException {
+    kafkaProducer = producer;
+    queue = new ArrayBlockingQueue<>(queueSize);
+    spillFile = new AuditSpillFile(spillDirectory);
+    index = new AuditIndex(indexDirectory);
+    // records spilled before a restart are replayed right away
+    nextRetryTime = spillFile.hasRecords() ? System.currentTimeMillis() : 0;
+    // the index was expired before the last shutdown, don't rescan it at startup
+    nextExpireTime = System.currentTimeMillis() + EXPIRE_INTERVAL_MS;
+  }
+
+  private void startSender() {
+    running = true;
+    sender = new Thread(this::sendLoop, "kafka-action-auditor");
+    sender.setDaemon(true);
+    sender.start();
+    Runtime.getRuntime().addShutdownHook(new Thread(this::close, "kafka-action-auditor-shutdown"));
   }
 
   @Override
@@ -101,22 +213,270 @@ public class KafkaActionAuditor implements ActionAuditor {
     return "KafkaActionAuditor";
   }
 
+  /**
+   * Queue the action to be sent, serializing it right away so that the record
+   * reflects the action as it completed.
+   */
   @Override
   public void logAction(Cluster cluster, Action action) {
+    AuditRecord record;
     try {
-      String json = mapper.writeValueAsString(new HistoricAction(action));
-      kafkaProducer
-          .send(new ProducerRecord<>(topicName, cluster.getClusterId(), json)).get();
-      logger.info("action " + action.getUuidString() + " logged to Kafka topic " + topicName);
-    } catch (InterruptedException | ExecutionException e) {
-      logger.log(Level.SEVERE, "Failed to log action " + action, e);
+      long time = action.getCompleteTime() > 0 ? action.getCompleteTime() : System.currentTimeMillis();
+      record = new AuditRecord(cluster.getClusterId(), String.valueOf(action.getUuid()), time,
+          mapper.writeValueAsString(new HistoricAction(action)));
     } catch (JsonProcessingException jpe) {
       logger.log(Level.SEVERE, "Failed to serialize action " + action + " to JSON", jpe);
+      return;
+    }
+    if (!queue.offer(record)) {
+      // the sender is behind, keep the record on disk rather than waiting for it
+      OrionServer.METRICS.counter("action_auditor.queue_full").inc();
+      spill(Collections.singletonList(record));
+      index(Collections.singletonList(record));
+    }
+  }
+
+  private void sendLoop() {
+    while (running) {
+      try {
+        sendPending(POLL_INTERVAL_MS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (Exception e) {
+        logger.log(Level.SEVERE, "Failed to send audit records", e);
+      }
+    }
+  }
+
+  /**
+   * Send or spill one batch of queued records and index it, then replay the
+   * spilled records if the retry interval elapsed.
+   *
+   * @param waitMs how long to wait for a record to be queued
+   */
+  @VisibleForTesting
+  void sendPending(long waitMs) throws InterruptedException {
+    List<AuditRecord> batch = new ArrayList<>(batchSize);
+    AuditRecord first = queue.poll(waitMs, TimeUnit.MILLISECONDS);
+    if (first != null) {
+      batch.add(first);
+      queue.drainTo(batch, batchSize - 1);
+    }
+    if (!batch.isEmpty()) {
+      List<AuditRecord> failed = batch;
+      if (nextRetryTime == 0) {
+        try {
+          failed = send(batch);
+        } catch (RuntimeException e) {
+          // the batch was drained from the queue, it must not be dropped
+          logger.log(Level.SEVERE, "Failed to send audit records", e);
+        }
+      }
+      if (!failed.isEmpty()) {
+        spill(failed);
+        if (nextRetryTime == 0) {
+          nextRetryTime = System.currentTimeMillis() + retryIntervalMs;
+        }
+      }
+      index(batch);
+    }
+    if (nextRetryTime != 0 && System.currentTimeMillis() >= nextRetryTime) {
+      nextRetryTime = replay() ? 0 : System.currentTimeMillis() + retryIntervalMs;
+    }
+    if (System.currentTimeMillis() >= nextExpireTime) {
+      expire();
+      nextExpireTime = System.currentTimeMillis() + EXPIRE_INTERVAL_MS;
+    }
+  }
+
+  /**
+   * @return whether all spilled records were sent
+   */
+  private boolean replay() {
+    try {
+      // a pending replay file is replayed first, then the records spilled meanwhile
+      while (spillFile.hasRecords()) {
+        List<AuditRecord> records = spillFile.takeForReplay();
+        for (int i = 0; i < records.size(); i += batchSize) {
+          if (!send(records.subList(i, Math.min(records.size(), i + batchSize))).isEmpty()) {
+            return false;
+          }
+        }
+        spillFile.replayed();
+        logger.info("Replayed " + records.size() + " spilled actions to Kafka topic " + topicName);
+      }
+      return true;
+    } catch (IOException | RuntimeException e) {
+      logger.log(Level.SEVERE, "Failed to replay spilled audit records", e);
+      return false;
     }
   }
 
+  /**
+   * Send the records and wait for them to be acknowledged within the send timeout.
+   * Records that can never be sent, such as records too large for the topic, are
+   * dropped so that they don't block the replay of the spill file.
+   *
+   * @return the records that failed to be sent and should be retried
+   */
+  private List<AuditRecord> send(List<AuditRecord> records) {
+    long deadline = System.currentTimeMillis() + sendTimeoutMs;
+    List<Future<RecordMetadata>> futures = new ArrayList<>(records.size());
+    for (AuditRecord record : records) {
+      try {
+        futures.add(kafkaProducer.send(new ProducerRecord<>(topicName, record.getClusterId(), record.getJson())));
+      } catch (KafkaException e) {
+        // serialization errors and buffer timeouts are thrown by send itself
+        CompletableFuture<RecordMetadata> failed = new CompletableFuture<>();
+        failed.completeExceptionally(e);
+        futures.add(failed);
+      }
+    }
+    List<AuditRecord> retry = new ArrayList<>();
+    int sent = 0;
+    int lost = 0;
+    Throwable lastError = null;
+    for (int i = 0; i < records.size(); i++) {
+      try {
+        futures.get(i).get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        sent++;
+      } catch (ExecutionException e) {
+        lastError = e.getCause();
+        if (isRetriable(e.getCause())) {
+          retry.add(records.get(i));
+        } else {
+          lost++;
+          logger.log(Level.SEVERE, "Dropping audit record of cluster " + records.get(i).getClusterId()
+              + " that can't be sent to " + topicName, e.getCause());
+        }
+      } catch (TimeoutException e) {
+        lastError = e;
+        retry.add(records.get(i));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        retry.addAll(records.subList(i, records.size()));
+        break;
+      }
+    }
+    OrionServer.METRICS.counter("action_auditor.sent").inc(sent);
+    OrionServer.METRICS.counter("action_auditor.lost").inc(lost);
+    if (!retry.isEmpty()) {
+      logger.log(Level.WARNING, "Failed to send " + retry.size() + " audit records to " + topicName, lastError);
+    }
+    return retry;
+  }
+
+  /**
+   * @return whether sending the record again may succeed, authentication and
+   * authorization errors affect every record and are fixed by configuration
+   */
+  private static boolean isRetriable(Throwable error) {
+    return !(error instanceof KafkaException) || error instanceof RetriableException
+        || error instanceof AuthenticationException || error instanceof AuthorizationException;
+  }
+
+  private void spill(List<AuditRecord> records) {
+    try {
+      spillFile.append(records);
+      OrionServer.METRICS.counter("action_auditor.spilled").inc(records.size());
+    } catch (IOException e) {
+      OrionServer.METRICS.counter("action_auditor.lost").inc(records.size());
+      logger.log(Level.SEVERE, "Failed to spill " + records.size() + " audit records", e);
+    }
+  }
+
+  private void index(List<AuditRecord> records) {
+    try {
+      index.append(records);
+    } catch (IOException e) {
+      OrionServer.METRICS.counter("action_auditor.index_failed").inc(records.size());
+      logger.log(Level.WARNING, "Failed to index " + records.size() + " audit records", e);
+    }
+  }
+
+  private void expire() {
+    try {
+      int expired = index.expire(System.currentTimeMillis() - indexRetentionSeconds * 1000);
+      logger.fine("Expired " + expired + " indexed audit records");
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to expire indexed audit records", e);
+    }
+  }
+
+  /**
+   * Stop the sender and spill the records it didn't get to, they are replayed
+   * after the next start.
+   */
+  @VisibleForTesting
+  void close() {
+    running = false;
+    if (sender != null) {
+      // not interrupted, an interrupt would close the spill file channel under the sender
+      try {
+        sender.join(sendTimeoutMs + POLL_INTERVAL_MS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    List<AuditRecord> remaining = new ArrayList<>();
+    queue.drainTo(remaining);
+    spill(remaining);
+    index(remaining);
+    try {
+      spillFile.close();
+      index.close();
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to close audit spill file and index", e);
+    }
+    kafkaProducer.close(clientTimeout);
+  }
+
+  /**
+   * Load the actions completed in the last backfillSeconds into the action
+   * engines, from the local index if it covers that window, otherwise from the
+   * audit topic.
+   */
   @Override
   public void loadActions(ClusterManager mgr) {
+    long startTime = System.currentTimeMillis() - backfillSeconds * 1000L;
+    if (index.getCreateTime() <= startTime) {
+      loadIndexedActions(mgr, startTime);
+    } else {
+      loadTopicActions(mgr);
+    }
+  }
+
+  private void loadIndexedActions(ClusterManager mgr, long startTime) {
+    logger.info("Loading previous actions from " + backfillSeconds + " seconds ago from the local index.");
+    int recordCount = 0;
+    for (Cluster cluster : mgr.getClusters().values()) {
+      for (HistoricAction action : getActions(cluster.getClusterId(), startTime, Long.MAX_VALUE)) {
+        cluster.getActionEngine().getTrackedActionsMap().put(action.getUuid(), action);
+        recordCount++;
+      }
+    }
+    logger.info("Backfilled " + recordCount + " actions.");
+  }
+
+  /**
+   * @return the actions audited by this server, the index doesn't hold actions
+   * completed before its creation or past indexRetentionSeconds
+   */
+  @Override
+  public List<HistoricAction> getActions(String clusterId, long startTime, long endTime) {
+    List<HistoricAction> actions = new ArrayList<>();
+    try {
+      for (String json : index.scan(clusterId, startTime, endTime)) {
+        actions.add(mapper.readValue(json, HistoricAction.class));
+      }
+    } catch (IOException e) {
+      logger.log(Level.SEVERE, "Failed to read indexed actions of " + clusterId, e);
+    }
+    return actions;
+  }
+
+  private void loadTopicActions(ClusterManager mgr) {
     logger.info("Loading previous actions from " + backfillSeconds + " seconds ago.");
     Map<String, Object> consumerConfigs = new HashMap<>();
     consumerConfigs.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapBrokers);
@@ -32,7 +32,9 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 
@@ -42,6 +44,8 @@ public abstract class ConcurrentAction extends GenericClusterWideAction.ClusterA
   private static final String ATTR_MAX_CONCURRENCY_KEY = CONF_MAX_CONCURRENCY_KEY;
   private static final String CONF_CHECKING_INTERVAL_MS_KEY = "checkingIntervalMs";
   private int maxConcurrency = 3; // default concurrency = 3
+  // child actions wake the parent up when they complete, the interval only bounds how
+  // long the parent waits before re-checking its state, e.g. whether it was cancelled
   protected long checkingIntervalMs = 30_000;  // default interval = 30 seconds;
 
   public ConcurrentAction(String actionName) {
@@ -123,7 +127,7 @@ public abstract class ConcurrentAction extends GenericClusterWideAction.ClusterA
       }
 
       generateChildActions(currentActions, remainingNodes, dependencyGraph, currentCover);
-      Thread.sleep(checkingIntervalMs);
+      awaitAnyCompletion(currentActions, checkingIntervalMs, TimeUnit.MILLISECONDS);
     }
 
     if (isCancelled()) {
@@ -161,8 +165,14 @@ public abstract class ConcurrentAction extends GenericClusterWideAction.ClusterA
     while (itr.hasNext()) {
       Action action = itr.next();
       String nodeId = action.getAttribute(OrionConstants.NODE_ID).getValue();
-      if (action.isDone()) {
-        action.get();
+      if (isFinished(action)) {
+        try {
+          action.get();
+        } catch (ExecutionException | CancellationException e) {
+          // the child didn't succeed, it goes through the failure handling below
+          logger().log(Level.WARNING, "Child action " + action.getName() + " on node " + nodeId
+              + " did not complete", e);
+        }
         itr.remove();
         if (!action.isSuccess() && handleFailure(action, currentActions, remainingNodes)) {
           return false;
@@ -174,6 +184,14 @@ public abstract class ConcurrentAction extends GenericClusterWideAction.ClusterA
     return true;
   }
 
+  /**
+   * A child that completed without being marked succeeded or failed is finished as
+   * well, it is treated as failed instead of being waited on forever.
+   */
+  private static boolean isFinished(Action action) {
+    return action.isDone() || action.getCompletionFuture().isDone();
+  }
+
   /**
    *
    * @param currentActions list of current actions
@@ -253,7 +271,7 @@ public abstract class ConcurrentAction extends GenericClusterWideAction.ClusterA
       while(itr.hasNext()) {
         Action a = itr.next();
         String nodeId = a.getAttribute(OrionConstants.NODE_ID).getValue();
-        if (a.isDone()) {
+        if (isFinished(a)) {
           try {
             itr.remove();
             a.get();
@@ -272,7 +290,7 @@ public abstract class ConcurrentAction extends GenericClusterWideAction.ClusterA
       }
       getResult().appendErr("Failed on brokers " + failedNodes + ", draining action on brokers " + currentNodes);
       try {
-        Thread.sleep(checkingIntervalMs);
+        awaitAnyCompletion(currentActions, checkingIntervalMs, TimeUnit.MILLISECONDS);
       } catch (InterruptedException ie) {
         logger().log(Level.SEVERE, "interrupted", ie);
         getEngine().alert(AlertLevel.MEDIUM, new AlertMessage(
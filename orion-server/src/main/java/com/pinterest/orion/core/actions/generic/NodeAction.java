@@ -15,6 +15,8 @@
  *******************************************************************************/
 package com.pinterest.orion.core.actions.generic;
 
+import java.util.Collections;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -24,6 +26,7 @@ import com.pinterest.orion.common.NodeCmd;
 import com.pinterest.orion.core.Attribute;
 import com.pinterest.orion.core.Node;
 import com.pinterest.orion.core.actions.Action;
+import com.pinterest.orion.core.actions.ActionScope;
 import com.pinterest.orion.utils.OrionConstants;
 
 public abstract class NodeAction extends Action {
@@ -45,6 +48,15 @@ public abstract class NodeAction extends Action {
   protected Node node;
   protected String nodeId;
 
+  @Override
+  public Set<ActionScope> getScopes() {
+    Attribute attribute = getAttribute(OrionConstants.NODE_ID);
+    if (attribute == null || attribute.getValue() == null) {
+      return super.getScopes();
+    }
+    return Collections.singleton(ActionScope.node(attribute.getValue().toString()));
+  }
+
   @Override
   public void runAction() throws Exception {
     if(!initializeNode(true)){
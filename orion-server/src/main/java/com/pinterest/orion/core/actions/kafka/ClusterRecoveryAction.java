@@ -1,11 +1,13 @@
 package com.pinterest.orion.core.actions.kafka;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import com.pinterest.orion.core.Attribute;
 import com.pinterest.orion.core.Cluster;
 import com.pinterest.orion.core.Node;
 import com.pinterest.orion.core.PluginConfigurationException;
 import com.pinterest.orion.core.actions.Action;
+import com.pinterest.orion.core.actions.ActionScope;
 import com.pinterest.orion.core.actions.alert.AlertLevel;
 import com.pinterest.orion.core.actions.alert.AlertMessage;
 import com.pinterest.orion.core.actions.generic.GenericClusterWideAction;
@@ -35,6 +37,10 @@ public class ClusterRecoveryAction extends GenericClusterWideAction.ClusterActio
     protected static final long cooldownMilliseconds = 3600_000L; // 1 hour
     protected static final long WAIT_TIME_BETWEEN_TRIGGERING_ACTIONS_MILLISECONDS = 5_000;
     protected static final String CONF_MAX_NUM_BROKERS_FOR_AUTOMATIC_RECOVERY = "maxNumBrokersForAutomaticRecovery";
+    private static final Set<ActionScope> RECOVERY_SCOPES = ImmutableSet.of(
+            ActionScope.node(ActionScope.ALL),
+            ActionScope.topic(ActionScope.ALL),
+            ReassignmentAction.REASSIGNMENT_SCOPE);
 
     @Override
     public void initialize(Map<String, Object> config) throws PluginConfigurationException {
@@ -48,6 +54,17 @@ public class ClusterRecoveryAction extends GenericClusterWideAction.ClusterActio
         }
     }
 
+    /**
+     * Recoveries exclude each other so that the number of recovering brokers stays
+     * bounded, and they exclude reassignments and topic changes since those may target
+     * the brokers being replaced. Actions on single nodes of other operators don't wait
+     * for them.
+     */
+    @Override
+    public Set<ActionScope> getScopes() {
+        return RECOVERY_SCOPES;
+    }
+
     @Override
     public String getName() {
         // Different action names are required for ClusterRecoveryAction to be dispatched from same cluster.
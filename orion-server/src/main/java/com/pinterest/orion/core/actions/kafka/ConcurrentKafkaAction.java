@@ -20,12 +20,10 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
-
-import org.apache.kafka.common.Node;
 
 import com.pinterest.orion.core.Cluster;
 import com.pinterest.orion.core.actions.generic.ConcurrentAction;
+import com.pinterest.orion.core.kafka.BrokerReplicaIndex;
 import com.pinterest.orion.core.kafka.KafkaCluster;
 
 public abstract class ConcurrentKafkaAction extends ConcurrentAction {
@@ -45,24 +43,17 @@ public abstract class ConcurrentKafkaAction extends ConcurrentAction {
   protected Map<String, Set<String>> generateDependencyGraph(Cluster cluster,
                                                              Collection<String> actionNodes) throws Exception {
     if (cluster instanceof KafkaCluster) {
-      Set<String> actionNodeSet = new HashSet<>(actionNodes);
       Map<String, Set<String>> coverMap = new HashMap<>();
-      actionNodes.forEach(node -> coverMap.compute(node, (k, v) -> new HashSet<>()).add(node));
       KafkaCluster kafkaCluster = (KafkaCluster) cluster;
-      kafkaCluster.getTopicDescriptionFromKafka().values().stream()
-          .flatMap(ktd -> ktd.getPartitions().stream())
-          .forEach(ktpi ->  {
-            Set<String> replicaSet = ktpi.getReplicas().stream()
-                .map(Node::idString)
-                .collect(Collectors.toSet());
-            replicaSet.stream()
-                .filter(actionNodeSet::contains)
-                .forEach(replica ->
-                    coverMap
-                        .computeIfAbsent(replica, r -> new HashSet<>())
-                        .addAll(replicaSet)
-                );
-          });
+      BrokerReplicaIndex brokerReplicaIndex = kafkaCluster.getTopicMetadataSnapshot().getBrokerReplicaIndex();
+      for (String node : actionNodes) {
+        Set<String> neighbors = new HashSet<>();
+        neighbors.add(node);
+        for (int coReplica : brokerReplicaIndex.getCoReplicas(Integer.parseInt(node))) {
+          neighbors.add(Integer.toString(coReplica));
+        }
+        coverMap.put(node, neighbors);
+      }
       return coverMap;
     }
     return null;
@@ -15,9 +15,11 @@
  *******************************************************************************/
 package com.pinterest.orion.core.actions.kafka;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.pinterest.orion.core.PluginConfigurationException;
 import com.pinterest.orion.core.actions.Action;
+import com.pinterest.orion.core.actions.ActionScope;
 import com.pinterest.orion.core.kafka.KafkaCluster;
 
 import java.util.ArrayList;
@@ -25,6 +27,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
@@ -212,6 +215,15 @@ public class KafkaIdealBalanceAction extends Action {
     return Collections.singletonMap(topic, topicReassignment);
   }
 
+  @Override
+  public Set<ActionScope> getScopes() {
+    if (!containsAttribute(ATTR_TOPIC_KEY)) {
+      return super.getScopes();
+    }
+    String topic = getAttribute(ATTR_TOPIC_KEY).getValue();
+    return ImmutableSet.of(ActionScope.topic(topic), ReassignmentAction.REASSIGNMENT_SCOPE);
+  }
+
   @Override
   public String getName() {
     return "Ideal Balance Topic " + getAttribute(this, ATTR_TOPIC_KEY).getValue();
@@ -23,7 +23,10 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
+import com.pinterest.orion.core.AttributeListener;
 import com.pinterest.orion.core.Cluster;
 import com.pinterest.orion.core.PluginConfigurationException;
 import com.pinterest.orion.core.actions.Action;
@@ -151,31 +154,47 @@ public class KafkaStuckConsumerGroupRecoveryAction extends Action {
 
   }
 
+  /**
+   * Wait until the groups leave the stuck state or the stable timeout elapses, the
+   * stuck groups are re-checked whenever the sensor publishes a change.
+   *
+   * @return the groups that are still stuck
+   */
   protected Set<String> checkIfGroupsAreUnstuck(Cluster cluster, Set<String> groupIds) throws InterruptedException {
-    long stableTimeoutStart = System.currentTimeMillis();
+    long deadline = System.currentTimeMillis() + stableTimeoutSeconds * 1000;
     Set<String> ret = new HashSet<>(groupIds);
-    while(System.currentTimeMillis() - stableTimeoutStart < stableTimeoutSeconds * 1000) {
-      if (cluster.containsAttribute(KafkaStuckConsumerGroupSensor.ATTR_STUCK_CONSUMER_GROUPS_ID_KEY)) {
-        Set<String>
-            newGroupIds = cluster.getAttribute(KafkaStuckConsumerGroupSensor.ATTR_STUCK_CONSUMER_GROUPS_ID_KEY).getValue();
-        Iterator<String> itr = ret.iterator();
-        while (itr.hasNext()) {
-          if(!newGroupIds.contains(itr.next())) {
-            // group is unstuck, swap back
-            getResult().appendOut("Consumer group is unstuck, restoring leader swap");
-            itr.remove();
+    Semaphore changed = new Semaphore(0);
+    AttributeListener listener = (context, keys) -> changed.release();
+    cluster.subscribe(Collections.singleton(KafkaStuckConsumerGroupSensor.ATTR_STUCK_CONSUMER_GROUPS_ID_KEY), listener);
+    try {
+      while (true) {
+        if (cluster.containsAttribute(KafkaStuckConsumerGroupSensor.ATTR_STUCK_CONSUMER_GROUPS_ID_KEY)) {
+          Set<String>
+              newGroupIds = cluster.getAttribute(KafkaStuckConsumerGroupSensor.ATTR_STUCK_CONSUMER_GROUPS_ID_KEY).getValue();
+          Iterator<String> itr = ret.iterator();
+          while (itr.hasNext()) {
+            if(!newGroupIds.contains(itr.next())) {
+              // group is unstuck, swap back
+              getResult().appendOut("Consumer group is unstuck, restoring leader swap");
+              itr.remove();
+            }
+          }
+          if (ret.isEmpty()) {
+            return ret;
           }
+        } else {
+          logger().warning("Missing cluster attribute" + KafkaStuckConsumerGroupSensor.ATTR_STUCK_CONSUMER_GROUPS_ID_KEY);
+          getResult().appendOut("Missing cluster attribute " + KafkaStuckConsumerGroupSensor.ATTR_STUCK_CONSUMER_GROUPS_ID_KEY);
         }
-        if (ret.isEmpty()) {
+        long remainingMs = deadline - System.currentTimeMillis();
+        if (remainingMs <= 0 || !changed.tryAcquire(remainingMs, TimeUnit.MILLISECONDS)) {
           return ret;
         }
-      } else {
-        logger().warning("Missing cluster attribute" + KafkaStuckConsumerGroupSensor.ATTR_STUCK_CONSUMER_GROUPS_ID_KEY);
-        getResult().appendOut("Missing cluster attribute " + KafkaStuckConsumerGroupSensor.ATTR_STUCK_CONSUMER_GROUPS_ID_KEY);
+        changed.drainPermits();
       }
-      Thread.sleep(10_000);
+    } finally {
+      cluster.unsubscribe(listener);
     }
-    return ret;
   }
 
   @Override
@@ -20,6 +20,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.kafka.clients.admin.AdminClient;
 import org.apache.kafka.clients.admin.AlterConfigsResult;
@@ -28,6 +29,7 @@ import org.apache.kafka.clients.admin.ConfigEntry;
 import org.apache.kafka.common.config.ConfigResource;
 
 import com.pinterest.orion.core.Attribute;
+import com.pinterest.orion.core.actions.ActionScope;
 
 public class KafkaTopicConfigUpdateAction extends AbstractKafkaAction {
 
@@ -65,6 +67,15 @@ public class KafkaTopicConfigUpdateAction extends AbstractKafkaAction {
         markSucceeded();
     }
 
+    @Override
+    public Set<ActionScope> getScopes() {
+        if (!containsAttribute(ATTR_TOPIC_NAME_KEY)) {
+            return super.getScopes();
+        }
+        String topicName = getAttribute(ATTR_TOPIC_NAME_KEY).getValue();
+        return Collections.singleton(ActionScope.topic(topicName));
+    }
+
     @Override
     public String getName() {
         return "Update Kafka Topic Configuration";
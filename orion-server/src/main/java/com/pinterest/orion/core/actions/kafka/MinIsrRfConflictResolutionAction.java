@@ -20,12 +20,15 @@ import org.apache.kafka.clients.admin.AdminClient;
 
 import com.pinterest.orion.core.Attribute;
 import com.pinterest.orion.core.actions.Action;
+import com.pinterest.orion.core.actions.ActionScope;
 import com.pinterest.orion.core.actions.alert.AlertLevel;
 import com.pinterest.orion.core.actions.alert.AlertMessage;
 import com.pinterest.orion.core.automation.conflicts.MinIsrRfConflict;
 
 import java.util.HashMap;
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 
 public class MinIsrRfConflictResolutionAction extends AbstractKafkaAction {
@@ -112,6 +115,15 @@ public class MinIsrRfConflictResolutionAction extends AbstractKafkaAction {
         return configUpdateAction;
     }
 
+    @Override
+    public Set<ActionScope> getScopes() {
+        if (!containsAttribute(ATTR_CONFLICT_OBJ_KEY)) {
+            return super.getScopes();
+        }
+        MinIsrRfConflict conflict = getAttribute(ATTR_CONFLICT_OBJ_KEY).getValue();
+        return Collections.singleton(ActionScope.topic(conflict.getTopicName()));
+    }
+
     @Override
     public String getName() {
         return "MinIsrRfConflictResolutionAction";
@@ -15,6 +15,7 @@
  *******************************************************************************/
 package com.pinterest.orion.core.actions.kafka;
 
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -31,6 +32,7 @@ import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.pinterest.orion.core.Attribute;
+import com.pinterest.orion.core.actions.ActionScope;
 import com.pinterest.orion.core.kafka.KafkaCluster;
 import com.pinterest.orion.core.kafka.KafkaTopicDescription;
 import com.pinterest.orion.core.kafka.KafkaTopicPartitionInfo;
@@ -42,6 +44,24 @@ public class ReassignmentAction extends AbstractKafkaAction {
       .getLogger(ReassignmentAction.class.getCanonicalName());
   public static final String REASSIGNMENT_PATH = "/admin/reassign_partitions";
   public static final String ATTR_REASSIGNMENT_KEY = "reassignment";
+  // kafka only tracks a single pending reassignment per cluster
+  public static final ActionScope REASSIGNMENT_SCOPE = ActionScope.resource("partitionReassignment");
+
+  @Override
+  public Set<ActionScope> getScopes() {
+    Set<ActionScope> scopes = new HashSet<>();
+    scopes.add(REASSIGNMENT_SCOPE);
+    Attribute attribute = getAttribute(ATTR_REASSIGNMENT_KEY);
+    if (attribute == null) {
+      scopes.add(ActionScope.topic(ActionScope.ALL));
+    } else {
+      Map<String, Map<Integer, List<Integer>>> assignmentMap = attribute.getValue();
+      for (String topic : assignmentMap.keySet()) {
+        scopes.add(ActionScope.topic(topic));
+      }
+    }
+    return scopes;
+  }
 
   @SuppressWarnings("unchecked")
   @Override
@@ -25,23 +25,26 @@ import com.pinterest.orion.core.automation.operator.OperatorContainer;
 import com.pinterest.orion.core.automation.operator.OperatorExecutor;
 import com.pinterest.orion.core.automation.sensor.Sensor;
 import com.pinterest.orion.core.automation.sensor.SensorContainer;
+import com.pinterest.orion.core.automation.sensor.SensorScheduler;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 public class AutomationEngine implements Plugin {
   private static final Logger logger = Logger.getLogger(AutomationEngine.class.getCanonicalName());
-  private static final int MONITOR_PARALLELISM = Runtime.getRuntime().availableProcessors();
 
   private Cluster cluster;
   @JsonIgnore
@@ -49,7 +52,6 @@ public class AutomationEngine implements Plugin {
   @JsonIgnore
   private Map<String, OperatorContainer> operatorMap = new LinkedHashMap<>();
 
-  private ScheduledExecutorService sensorThreadPool = new ScheduledThreadPoolExecutor(MONITOR_PARALLELISM);
   private OperatorExecutor operatorExecutor;
 
   public AutomationEngine(Cluster cluster, List<Sensor> sensors, List<Operator> operators) {
@@ -60,7 +62,72 @@ public class AutomationEngine implements Plugin {
 
   private void initializeSensors(List<Sensor> sensors) {
     for(Sensor sensor : sensors){
-      sensorMap.put(sensor.getSensorIdentifier(), new SensorContainer(sensor, cluster, sensorThreadPool));
+      sensorMap.put(sensor.getSensorIdentifier(), new SensorContainer(sensor, cluster, SensorScheduler.getInstance()));
+    }
+    buildSensorDependencies();
+  }
+
+  /**
+   * Link every sensor to the sensors consuming the attributes it produces, so
+   * that downstream sensors run as soon as their inputs are refreshed. Sensors
+   * that are part of a dependency cycle are left to their own intervals.
+   */
+  private void buildSensorDependencies() {
+    Map<String, List<SensorContainer>> producers = new HashMap<>();
+    for (SensorContainer container : sensorMap.values()) {
+      for (String attribute : container.getSensor().getProducedAttributes()) {
+        producers.computeIfAbsent(attribute, k -> new ArrayList<>()).add(container);
+      }
+    }
+    Map<SensorContainer, Set<SensorContainer>> dependents = new LinkedHashMap<>();
+    Map<SensorContainer, Integer> inDegrees = new HashMap<>();
+    for (SensorContainer container : sensorMap.values()) {
+      dependents.putIfAbsent(container, new LinkedHashSet<>());
+      inDegrees.putIfAbsent(container, 0);
+      for (String attribute : container.getSensor().getConsumedAttributes()) {
+        for (SensorContainer producer : producers.getOrDefault(attribute, Collections.emptyList())) {
+          if (producer != container
+              && dependents.computeIfAbsent(producer, k -> new LinkedHashSet<>()).add(container)) {
+            inDegrees.merge(container, 1, Integer::sum);
+          }
+        }
+      }
+    }
+    // Kahn's algorithm, whatever can't be sorted is part of a cycle
+    Deque<SensorContainer> queue = new ArrayDeque<>();
+    inDegrees.forEach((container, inDegree) -> {
+      if (inDegree == 0) {
+        queue.add(container);
+      }
+    });
+    while (!queue.isEmpty()) {
+      for (SensorContainer dependent : dependents.get(queue.poll())) {
+        if (inDegrees.merge(dependent, -1, Integer::sum) == 0) {
+          queue.add(dependent);
+        }
+      }
+    }
+    Set<SensorContainer> cyclic = new HashSet<>();
+    inDegrees.forEach((container, inDegree) -> {
+      if (inDegree > 0) {
+        cyclic.add(container);
+      }
+    });
+    if (!cyclic.isEmpty()) {
+      logger.warning("Sensor dependency cycle detected on cluster " + cluster.getClusterId() + ": "
+          + cyclic.stream().map(c -> c.getSensor().getName()).collect(Collectors.toList()));
+    }
+    for (Map.Entry<SensorContainer, Set<SensorContainer>> entry : dependents.entrySet()) {
+      if (cyclic.contains(entry.getKey())) {
+        continue;
+      }
+      List<SensorContainer> downstream = entry.getValue().stream().filter(c -> !cyclic.contains(c))
+          .collect(Collectors.toList());
+      if (!downstream.isEmpty()) {
+        entry.getKey().setDependents(downstream);
+        logger.info("Sensor " + entry.getKey().getSensor().getName() + " on cluster " + cluster.getClusterId()
+            + " triggers " + downstream.stream().map(c -> c.getSensor().getName()).collect(Collectors.toList()));
+      }
     }
   }
 
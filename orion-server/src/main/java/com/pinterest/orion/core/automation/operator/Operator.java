@@ -15,7 +15,9 @@
  *******************************************************************************/
 package com.pinterest.orion.core.automation.operator;
 
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.pinterest.orion.core.Cluster;
@@ -25,9 +27,11 @@ import com.pinterest.orion.core.actions.Action;
 import com.pinterest.orion.core.actions.ActionDispatcher;
 
 public abstract class Operator implements Plugin {
+  public static final String CONF_EVALUATION_TIMEOUT_SECONDS_KEY = "evaluationTimeoutSeconds";
 
   private ActionDispatcher dispatcher;
   private String message;
+  private long evaluationTimeoutSeconds = -1;
 
   public abstract void operate(Cluster cluster) throws Exception;
 
@@ -49,8 +53,46 @@ public abstract class Operator implements Plugin {
     return message;
   }
 
+  /**
+   * Attributes this operator derives its actions from. An operator that declares
+   * them must only depend on these attributes, it is evaluated as soon as one of
+   * them changes and its evaluations are skipped while they stay the same and it
+   * has nothing to dispatch. Operators that declare none are evaluated on every
+   * run of the executor.
+   *
+   * @return the attribute keys this operator consumes
+   */
+  @JsonIgnore
+  public Set<String> getConsumedAttributes() {
+    return Collections.emptySet();
+  }
+
+  /**
+   * @return how urgent the actions dispatched by this operator are
+   */
+  @JsonIgnore
+  public Urgency getUrgency() {
+    return Urgency.CONFIGURATION;
+  }
+
+  /**
+   * @return how long an evaluation of this operator may take before it is abandoned,
+   * a negative value if the timeout of the executor applies
+   */
+  @JsonIgnore
+  public long getEvaluationTimeoutSeconds() {
+    return evaluationTimeoutSeconds;
+  }
+
   @Override
   public void initialize(Map<String, Object> config) throws PluginConfigurationException {
+    if (config.containsKey(CONF_EVALUATION_TIMEOUT_SECONDS_KEY)) {
+      evaluationTimeoutSeconds = Long.parseLong(config.get(CONF_EVALUATION_TIMEOUT_SECONDS_KEY).toString());
+      if (evaluationTimeoutSeconds < 1) {
+        throw new PluginConfigurationException(CONF_EVALUATION_TIMEOUT_SECONDS_KEY
+            + " must be positive: " + evaluationTimeoutSeconds);
+      }
+    }
   }
-  
+
 }
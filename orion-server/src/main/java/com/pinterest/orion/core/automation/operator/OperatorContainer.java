@@ -15,23 +15,105 @@
  *******************************************************************************/
 package com.pinterest.orion.core.automation.operator;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.pinterest.orion.core.Attribute;
 import com.pinterest.orion.core.Cluster;
+import com.pinterest.orion.core.actions.Action;
+import com.pinterest.orion.core.actions.ActionDispatcher;
 
+/**
+ * Holds the state of the evaluations of an operator. The actions an operator
+ * dispatches are collected per evaluation and returned by {@link #operate(Cluster, Map)},
+ * so that operators can be evaluated concurrently.
+ */
 public class OperatorContainer {
   private static Logger logger = Logger.getLogger(OperatorContainer.class.getName());
   private Operator operator;
   private volatile boolean previousSuccess = true;
   private volatile String previousOutput = "";
   private volatile Exception previousError;
+  private volatile boolean evaluated;
+  private volatile int previousDispatchCount;
+  private volatile boolean evaluating;
+  private volatile List<Action> dispatchedActions = Collections.synchronizedList(new ArrayList<>());
 
   public OperatorContainer(Operator operator) {
     this.operator = operator;
+    operator.setDispatcher(new EvaluationDispatcher());
   }
 
-  public void operate(Cluster cluster) {
+  /**
+   * An operator needs to be evaluated unless it declares the attributes it consumes,
+   * none of them changed, and its previous evaluation succeeded without dispatching
+   * anything.
+   *
+   * @param changedAttributes the attributes that changed since the previous run
+   */
+  public boolean needsEvaluation(Set<String> changedAttributes) {
+    Set<String> consumedAttributes = operator.getConsumedAttributes();
+    if (consumedAttributes.isEmpty() || !evaluated || !previousSuccess || previousDispatchCount > 0) {
+      return true;
+    }
+    for (String key : consumedAttributes) {
+      if (changedAttributes.contains(key)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param dispatchCount the number of actions the operator dispatched in this evaluation
+   */
+  void setDispatchCount(int dispatchCount) {
+    previousDispatchCount = dispatchCount;
+  }
+
+  /**
+   * @return whether an evaluation of the operator is still running, which is the
+   * case for an evaluation that was abandoned and didn't return yet
+   */
+  public boolean isEvaluating() {
+    return evaluating;
+  }
+
+  public List<Action> operate(Cluster cluster) {
+    return operate(cluster, null);
+  }
+
+  /**
+   * Evaluate the operator, reading the attributes of the cluster from the snapshot
+   * if one is given.
+   *
+   * @return the actions the operator dispatched in this evaluation
+   */
+  public List<Action> operate(Cluster cluster, Map<String, Attribute> snapshot) {
+    List<Action> actions = Collections.synchronizedList(new ArrayList<>());
+    dispatchedActions = actions;
+    evaluating = true;
+    evaluated = true;
+    try {
+      if (snapshot == null) {
+        evaluate(cluster);
+      } else {
+        cluster.runOnSnapshot(snapshot, () -> evaluate(cluster));
+      }
+    } finally {
+      evaluating = false;
+    }
+    synchronized (actions) {
+      return new ArrayList<>(actions);
+    }
+  }
+
+  private void evaluate(Cluster cluster) {
     try {
       operator.setMessage("");
       operator.operate(cluster);
@@ -45,6 +127,16 @@ public class OperatorContainer {
     previousOutput = operator.getMessage();
   }
 
+  /**
+   * Record an evaluation that didn't complete, the actions it dispatched are discarded.
+   */
+  void abandon(Exception error) {
+    evaluated = true;
+    previousSuccess = false;
+    previousError = error;
+    previousDispatchCount = 0;
+  }
+
   public Operator getOperator() {
     return operator;
   }
@@ -60,4 +152,20 @@ public class OperatorContainer {
   public Exception getPreviousError() {
     return previousError;
   }
+
+  private class EvaluationDispatcher implements ActionDispatcher {
+
+    @Override
+    public void dispatch(Action action) {
+      dispatchedActions.add(action);
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void stop() {
+    }
+  }
 }
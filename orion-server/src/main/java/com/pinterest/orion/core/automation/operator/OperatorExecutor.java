@@ -16,30 +16,88 @@
 package com.pinterest.orion.core.automation.operator;
 
 import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.pinterest.orion.core.Attribute;
+import com.pinterest.orion.core.AttributeListener;
 import com.pinterest.orion.core.Cluster;
+import com.pinterest.orion.core.Context;
 import com.pinterest.orion.core.Plugin;
 import com.pinterest.orion.core.PluginConfigurationException;
 import com.pinterest.orion.core.actions.Action;
 import com.pinterest.orion.core.actions.ActionDispatcher;
 import com.pinterest.orion.core.actions.ActionEngine;
+import com.pinterest.orion.core.actions.ActionScope;
+import com.pinterest.orion.core.utils.InstrumentedThreadPoolExecutor;
+import com.pinterest.orion.server.OrionServer;
 
+import io.dropwizard.metrics5.MetricName;
+
+/**
+ * Evaluates the operators of a cluster and dispatches the actions they propose.
+ *
+ * Operators are evaluated concurrently on a bounded pool, all of them reading the
+ * attributes of the cluster from the same snapshot taken at the start of the run.
+ * Every evaluation is bounded by the timeout of its operator, an evaluation that
+ * exceeds it is abandoned, its actions are discarded and the operator is skipped
+ * until the evaluation returns. The actions of the operators are merged into the
+ * shadow list by the {@link Urgency} of their operators and then in the order of the
+ * operators, whichever finishes first. Actions proposed by several operators are
+ * only kept once.
+ *
+ * Every run dispatches up to a budget of pending actions, the most urgent first.
+ * Pending actions that can't start because of a running action don't hold back
+ * independent actions behind them.
+ *
+ * The interval between runs adapts to the state of the cluster. It tightens to the
+ * minimum interval while attributes change, actions are pending or the action engine
+ * is running actions, returns to the regular interval while operators propose actions
+ * that are all dispatched, and backs off up to the maximum interval while the cluster
+ * is idle. Changes of attributes consumed by operators bring the next run forward
+ * whatever the interval. Operators that don't declare the attributes they consume
+ * can't bring runs forward, so the executor only backs off beyond the regular
+ * interval when every operator declares them.
+ */
 public class OperatorExecutor implements ActionDispatcher, Runnable, Plugin {
   private static Logger logger = Logger.getLogger(OperatorExecutor.class.getCanonicalName());
   private static String CONF_OPERATOR_EXEC_INTERVAL_SEC_KEY = "operator_exec_interval";
+  private static String CONF_OPERATOR_MIN_EXEC_INTERVAL_SEC_KEY = "operator_min_exec_interval";
+  private static String CONF_OPERATOR_MAX_EXEC_INTERVAL_SEC_KEY = "operator_max_exec_interval";
+  private static String CONF_OPERATOR_TRIGGER_DELAY_MS_KEY = "operator_trigger_delay_ms";
+  private static String CONF_OPERATOR_THREADS_KEY = "operator_threads";
+  private static String CONF_OPERATOR_TIMEOUT_SEC_KEY = "operator_timeout_sec";
+  private static String CONF_OPERATOR_DISPATCH_BUDGET_KEY = "operator_dispatch_budget";
   private static String AUTOMATION_ACTION_OWNER = "orion";
 
   private long confOperatorExecIntervalSec = 30;
+  private long confOperatorMinExecIntervalSec = 5;
+  private long confOperatorMaxExecIntervalSec = 300;
+  private long confOperatorTriggerDelayMs = 100;
+  private int confOperatorThreads;
+  private long confOperatorTimeoutSec = 120;
+  private int confOperatorDispatchBudget = 4;
   private Cluster cluster;
   private ScheduledExecutorService executorThread = Executors.newSingleThreadScheduledExecutor();
+  private ExecutorService operatorPool;
+  private MetricName metricPrefix;
   private ActionEngine actionEngine;
   private List<OperatorContainer> operatorContainers;
 
@@ -47,6 +105,14 @@ public class OperatorExecutor implements ActionDispatcher, Runnable, Plugin {
   private List<Action> actualList = new ArrayList<>();
   private List<Action> shadowList = new ArrayList<>();
 
+  private final Set<String> changedAttributes = ConcurrentHashMap.newKeySet();
+  private final AttributeListener attributeListener = this::onAttributesChanged;
+  private final Object scheduleLock = new Object();
+  private ScheduledFuture<?> nextRun;
+  private long runToken;
+  private long intervalSec = confOperatorExecIntervalSec;
+  private long idleIntervalSec = confOperatorMaxExecIntervalSec;
+
   public OperatorExecutor(Cluster cluster, List<OperatorContainer> operatorContainers, ActionEngine actionEngine){
     this.cluster = cluster;
     this.operatorContainers = operatorContainers;
@@ -58,15 +124,105 @@ public class OperatorExecutor implements ActionDispatcher, Runnable, Plugin {
     if(config.containsKey(CONF_OPERATOR_EXEC_INTERVAL_SEC_KEY)){
       confOperatorExecIntervalSec = (Integer) config.get(CONF_OPERATOR_EXEC_INTERVAL_SEC_KEY);
     }
+    if(config.containsKey(CONF_OPERATOR_MIN_EXEC_INTERVAL_SEC_KEY)){
+      confOperatorMinExecIntervalSec = ((Number) config.get(CONF_OPERATOR_MIN_EXEC_INTERVAL_SEC_KEY)).longValue();
+    }
+    if(config.containsKey(CONF_OPERATOR_MAX_EXEC_INTERVAL_SEC_KEY)){
+      confOperatorMaxExecIntervalSec = ((Number) config.get(CONF_OPERATOR_MAX_EXEC_INTERVAL_SEC_KEY)).longValue();
+    }
+    // intervals configured before the bounds existed stay the interval while there is work
+    confOperatorMinExecIntervalSec = Math.min(confOperatorMinExecIntervalSec, confOperatorExecIntervalSec);
+    confOperatorMaxExecIntervalSec = Math.max(confOperatorMaxExecIntervalSec, confOperatorExecIntervalSec);
+    if(confOperatorMinExecIntervalSec < 1){
+      throw new PluginConfigurationException(CONF_OPERATOR_MIN_EXEC_INTERVAL_SEC_KEY
+          + " must be positive: " + confOperatorMinExecIntervalSec);
+    }
+    intervalSec = confOperatorExecIntervalSec;
+    if(config.containsKey(CONF_OPERATOR_TRIGGER_DELAY_MS_KEY)){
+      confOperatorTriggerDelayMs = ((Number) config.get(CONF_OPERATOR_TRIGGER_DELAY_MS_KEY)).longValue();
+    }
+    // by default every operator gets a thread, so that no operator waits behind a slow one
+    confOperatorThreads = Math.max(1, operatorContainers.size());
+    if(config.containsKey(CONF_OPERATOR_THREADS_KEY)){
+      confOperatorThreads = ((Number) config.get(CONF_OPERATOR_THREADS_KEY)).intValue();
+    }
+    if(config.containsKey(CONF_OPERATOR_TIMEOUT_SEC_KEY)){
+      confOperatorTimeoutSec = ((Number) config.get(CONF_OPERATOR_TIMEOUT_SEC_KEY)).longValue();
+    }
+    if(config.containsKey(CONF_OPERATOR_DISPATCH_BUDGET_KEY)){
+      confOperatorDispatchBudget = ((Number) config.get(CONF_OPERATOR_DISPATCH_BUDGET_KEY)).intValue();
+    }
+    if(confOperatorThreads < 1 || confOperatorTimeoutSec < 1 || confOperatorDispatchBudget < 1){
+      throw new PluginConfigurationException(CONF_OPERATOR_THREADS_KEY + ", " + CONF_OPERATOR_TIMEOUT_SEC_KEY
+          + " and " + CONF_OPERATOR_DISPATCH_BUDGET_KEY + " must be positive: " + confOperatorThreads + ", "
+          + confOperatorTimeoutSec + ", " + confOperatorDispatchBudget);
+    }
+    metricPrefix = MetricName.build("operator_executor").tagged("cluster", cluster.getClusterId());
+    operatorPool = new InstrumentedThreadPoolExecutor(metricPrefix.resolve("operators"),
+        "operator-" + cluster.getClusterId() + "-%d", confOperatorThreads,
+        Math.max(1, operatorContainers.size()), new ThreadPoolExecutor.AbortPolicy());
+    Set<String> consumedAttributes = new HashSet<>();
+    idleIntervalSec = confOperatorMaxExecIntervalSec;
     for(OperatorContainer operatorContainer : operatorContainers){
-      operatorContainer.getOperator().setDispatcher(this);
+      Set<String> operatorAttributes = operatorContainer.getOperator().getConsumedAttributes();
+      if(operatorAttributes.isEmpty()){
+        // nothing would trigger this operator early, keep running it at the regular interval
+        idleIntervalSec = confOperatorExecIntervalSec;
+      }
+      consumedAttributes.addAll(operatorAttributes);
+    }
+    if(!consumedAttributes.isEmpty()){
+      cluster.subscribe(consumedAttributes, attributeListener);
     }
   }
 
+  /**
+   * Record the changed attributes and bring the next run forward so that operators
+   * consuming them are evaluated within the trigger delay. A run that is in progress
+   * picks the changes up once it is done.
+   */
+  @VisibleForTesting
+  void onAttributesChanged(Context context, Set<String> keys) {
+    changedAttributes.addAll(keys);
+    synchronized (scheduleLock) {
+      if(nextRun != null && nextRun.getDelay(TimeUnit.MILLISECONDS) > confOperatorTriggerDelayMs) {
+        nextRun.cancel(false);
+        schedule(confOperatorTriggerDelayMs);
+      }
+    }
+  }
+
+  private void schedule(long delayMs) {
+    synchronized (scheduleLock) {
+      long token = ++runToken;
+      try {
+        nextRun = executorThread.schedule(() -> runIfCurrent(token), delayMs, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+        // the executor is stopped
+        nextRun = null;
+      }
+    }
+  }
+
+  /**
+   * Only the latest scheduled run proceeds, so a run that was brought forward
+   * doesn't leave a second chain of runs behind.
+   */
+  private void runIfCurrent(long token) {
+    synchronized (scheduleLock) {
+      if(token != runToken) {
+        return;
+      }
+      nextRun = null;
+    }
+    run();
+  }
+
   /* There are 3 stages in the run method:
-    1. Evaluate all the operators, collect the actions they dispatch inside the shadow queue
-    2. Compare the shadow queue with the actual queue and determine whether a swap is needed
-    3. Dispatch the head of the next action in the actual queue and wait until the action is done
+    1. Evaluate all the operators concurrently on a snapshot of the attributes, collect the actions
+       they dispatch inside the shadow queue by urgency and in the order of the operators
+    2. Compare the shadow queue with the actual queue and determine which actions were dispatched
+    3. Dispatch the pending actions of the actual queue that can start, up to the dispatch budget
     4. Go to 1.
 
    */
@@ -75,47 +231,188 @@ public class OperatorExecutor implements ActionDispatcher, Runnable, Plugin {
     // maintenance mode
     if(cluster.isUnderMaintenance()) {
       logger.log(Level.INFO, "Cluster " + cluster.getClusterId() + " is under maintenance mode.");
-      executorThread.schedule(this, confOperatorExecIntervalSec, TimeUnit.SECONDS);
+      schedule(TimeUnit.SECONDS.toMillis(confOperatorExecIntervalSec));
       return;
     }
-    // go through all operators and intercept the dispatch calls
-    for(OperatorContainer operatorContainer : operatorContainers){
-      try {
-        operatorContainer.operate(cluster);
-      } catch (Exception e){
-        logger.log(Level.SEVERE, "Operator " + operatorContainer.getOperator().getName() + " failed to operate", e);
-      }
-    }
+    // go through all operators and intercept the dispatch calls, idle operators whose
+    // inputs didn't change are skipped as they would dispatch nothing
+    Set<String> changed = drainChangedAttributes();
+    evaluateOperators(changed);
 
-    // compare the shadow list and actual list and determine where the nextIdx is in the shadow queue
-    // then swap actual list with shadow list, and clear shadow list
+    // compare the shadow list and actual list and determine which actions of the shadow list were
+    // dispatched, then replace the actual list with the shadow list, and clear shadow list
     commitShadowList();
 
-    // execute the next action in the actual list
-    boolean success = false;
-    if(nextIdx < actualList.size()){
-      Action nextAction = actualList.get(nextIdx);
+    // dispatch the pending actions in the order of urgency, up to the dispatch budget
+    int dispatched = dispatchPendingActions();
+
+    boolean active = !changed.isEmpty() || nextIdx < actualList.size() || actionEngine.hasActiveActions();
+    long nextIntervalSec = nextIntervalSec(active, !actualList.isEmpty());
+
+    // re-evaluate operators immediately if the budget ran out before the actual list did,
+    // otherwise run with the adaptive interval
+    if(dispatched == confOperatorDispatchBudget && nextIdx < actualList.size()){
+      schedule(0);
+    } else if(!changedAttributes.isEmpty()) {
+      schedule(confOperatorTriggerDelayMs);
+    } else {
+      schedule(TimeUnit.SECONDS.toMillis(nextIntervalSec));
+    }
+  }
+
+  /**
+   * @param active whether attributes changed, actions are pending or the action engine runs actions
+   * @param proposed whether operators proposed any action
+   * @return the interval until the next run
+   */
+  @VisibleForTesting
+  long nextIntervalSec(boolean active, boolean proposed) {
+    long previousIntervalSec = intervalSec;
+    if(active) {
+      intervalSec = confOperatorMinExecIntervalSec;
+    } else if(proposed) {
+      intervalSec = confOperatorExecIntervalSec;
+    } else {
+      intervalSec = Math.min(idleIntervalSec, Math.max(intervalSec, confOperatorExecIntervalSec) * 2);
+    }
+    if(intervalSec != previousIntervalSec) {
+      logger.fine("Operator interval of " + cluster.getClusterId() + " changed to " + intervalSec + "s");
+    }
+    return intervalSec;
+  }
+
+  /**
+   * Dispatch the pending actions of the actual list, the ones from nextIdx on, that
+   * can start right away. Actions that can't start are skipped, as are the less urgent
+   * actions conflicting with them, so that independent work still proceeds while
+   * actions blocked by a running action keep their turn. Dispatched actions are moved
+   * in front of nextIdx.
+   *
+   * @return the number of dispatched actions
+   */
+  @VisibleForTesting
+  int dispatchPendingActions() {
+    int dispatched = 0;
+    List<Set<ActionScope>> blockedScopes = new ArrayList<>();
+    for(int i = nextIdx; i < actualList.size() && dispatched < confOperatorDispatchBudget; i++){
+      Action nextAction = actualList.get(i);
+      Set<ActionScope> scopes = nextAction.getScopes();
+      if(conflicts(scopes, blockedScopes)) {
+        blockedScopes.add(scopes);
+        continue;
+      }
       nextAction.setOwner(AUTOMATION_ACTION_OWNER);
       try {
-        success = actionEngine.dispatchNow(nextAction);
-        if (!success) {
-          logger.info("Failed to dispatch action " + nextAction.getName() + " since there are existing actions in the ActionEngine");
+        if (!actionEngine.dispatchNow(nextAction)) {
+          logger.info("Failed to dispatch action " + nextAction.getName() + " since it conflicts with existing actions in the ActionEngine");
+          blockedScopes.add(scopes);
         } else {
           logger.info("Dispatched action: " + nextAction.getName() + " on " + cluster.getClusterId());
-          nextIdx++;
+          actualList.add(nextIdx++, actualList.remove(i));
+          dispatched++;
         }
       } catch (Exception e) {
         logger.severe("Failed to dispatch action " + nextAction.getName() + " from operator executor :" + e);
         nextAction.markFailed(e);
       }
     }
+    return dispatched;
+  }
 
-    // re-evaluate operators immediately if the actual list is not empty, otherwise run with fix interval
-    if(!actualList.isEmpty() && success && nextIdx < actualList.size()){
-      executorThread.schedule(this, 0, TimeUnit.SECONDS);
-    } else {
-      executorThread.schedule(this, confOperatorExecIntervalSec, TimeUnit.SECONDS);
+  private static boolean conflicts(Set<ActionScope> scopes, List<Set<ActionScope>> otherScopes) {
+    for(Set<ActionScope> other : otherScopes) {
+      if(ActionScope.conflict(scopes, other)) {
+        return true;
+      }
     }
+    return false;
+  }
+
+  private void evaluateOperators(Set<String> changed) {
+    Map<String, Attribute> snapshot = cluster.snapshotAttributes();
+    long start = System.nanoTime();
+    List<OperatorContainer> evaluated = new ArrayList<>();
+    List<Future<List<Action>>> futures = new ArrayList<>();
+    Map<Urgency, List<Action>> proposedActions = new EnumMap<>(Urgency.class);
+    for(OperatorContainer operatorContainer : operatorContainers){
+      if(!operatorContainer.needsEvaluation(changed)) {
+        continue;
+      }
+      String operatorName = operatorContainer.getOperator().getName();
+      if(operatorContainer.isEvaluating()) {
+        logger.warning("Operator " + operatorName + " on " + cluster.getClusterId()
+            + " is still running an abandoned evaluation, skipping it");
+        continue;
+      }
+      try {
+        futures.add(operatorPool.submit(() -> evaluate(operatorContainer, snapshot)));
+        evaluated.add(operatorContainer);
+      } catch (RejectedExecutionException e) {
+        logger.log(Level.SEVERE, "Failed to submit operator " + operatorName + " on " + cluster.getClusterId(), e);
+        operatorContainer.abandon(e);
+      }
+    }
+    // collect in the order of the operators so that the shadow list doesn't depend on timing
+    for(int i = 0; i < evaluated.size(); i++){
+      OperatorContainer operatorContainer = evaluated.get(i);
+      Future<List<Action>> future = futures.get(i);
+      String operatorName = operatorContainer.getOperator().getName();
+      long timeoutNanos = TimeUnit.SECONDS.toNanos(getTimeoutSec(operatorContainer));
+      try {
+        List<Action> actions = future.get(Math.max(0, start + timeoutNanos - System.nanoTime()),
+            TimeUnit.NANOSECONDS);
+        proposedActions.computeIfAbsent(operatorContainer.getOperator().getUrgency(), u -> new ArrayList<>())
+            .addAll(actions);
+        operatorContainer.setDispatchCount(actions.size());
+      } catch (TimeoutException e) {
+        future.cancel(true);
+        OrionServer.METRICS.counter(metricPrefix.resolve("timeouts").tagged("operator", operatorName)).inc();
+        logger.severe("Operator " + operatorName + " on " + cluster.getClusterId() + " didn't complete within "
+            + getTimeoutSec(operatorContainer) + "s, discarding its actions");
+        operatorContainer.abandon(e);
+      } catch (ExecutionException e) {
+        logger.log(Level.SEVERE, "Operator " + operatorName + " failed to operate", e.getCause());
+        operatorContainer.abandon(e);
+      } catch (InterruptedException e) {
+        future.cancel(true);
+        operatorContainer.abandon(e);
+        Thread.currentThread().interrupt();
+      }
+    }
+    // the most urgent actions go first, actions proposed by several operators are only kept once
+    for(List<Action> actions : proposedActions.values()){
+      for(Action action : actions){
+        if(!shadowList.contains(action)){
+          shadowList.add(action);
+        }
+      }
+    }
+  }
+
+  private List<Action> evaluate(OperatorContainer operatorContainer, Map<String, Attribute> snapshot) {
+    long start = System.nanoTime();
+    try {
+      return operatorContainer.operate(cluster, snapshot);
+    } finally {
+      OrionServer.METRICS.histogram(metricPrefix.resolve("evaluation_ms")
+          .tagged("operator", operatorContainer.getOperator().getName()))
+          .update(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+  }
+
+  private long getTimeoutSec(OperatorContainer operatorContainer) {
+    long timeoutSec = operatorContainer.getOperator().getEvaluationTimeoutSeconds();
+    return timeoutSec > 0 ? timeoutSec : confOperatorTimeoutSec;
+  }
+
+  private Set<String> drainChangedAttributes() {
+    Set<String> changed = new HashSet<>();
+    for(String key : changedAttributes) {
+      if(changedAttributes.remove(key)) {
+        changed.add(key);
+      }
+    }
+    return changed;
   }
 
   @Override
@@ -125,42 +422,44 @@ public class OperatorExecutor implements ActionDispatcher, Runnable, Plugin {
 
   @Override
   public void start() {
-    executorThread.schedule(this, confOperatorExecIntervalSec, TimeUnit.SECONDS);
+    schedule(TimeUnit.SECONDS.toMillis(confOperatorExecIntervalSec));
   }
 
   @Override
   public void stop() {
+    cluster.unsubscribe(attributeListener);
     executorThread.shutdown();
+    if(operatorPool != null) {
+      operatorPool.shutdownNow();
+    }
   }
 
   /**
-   * Compare actual list and shadow list to find out where the nextIdx of the shadowQueue should be
-   * 1. start from the beginning of the actual list and find the first element that matches the head
-   * of the shadow list
-   * 2. Find the longest consecutive sublist in the actual list before nextIdx. Swap all elements in
-   * the shadow list with corresponding elements in the actual list. These actions will be seen as
-   * done in the shadow list, so we need to persist that execution state. Also use shadowNextIdx to
-   * keep track of the first action in the shadow list that hasn't been executed.
-   * 3. Swap the actual list and shadow list
-   * 4. Set the nextIdx to shadowNextIdx
-   * 5. Empty the shadow list for the next run
+   * Compare actual list and shadow list to find out which actions of the shadow list were dispatched
+   * 1. Every action of the shadow list that equals an action of the actual list before nextIdx has
+   * already been dispatched, replace it with that action to persist the execution state. Each
+   * dispatched action is matched at most once.
+   * 2. The dispatched actions form the head of the new actual list, followed by the other actions
+   * of the shadow list in their order of urgency
+   * 3. Set the nextIdx to the number of dispatched actions
+   * 4. Empty the shadow list for the next run
    */
   void commitShadowList() {
-    int shadowNextIdx = 0;
-    for(int i = 0, j = 0; i < nextIdx && j < shadowList.size(); i++){
-      if(actualList.get(i).equals(shadowList.get(j))){
+    List<Action> dispatchedActions = new ArrayList<>(actualList.subList(0, Math.min(nextIdx, actualList.size())));
+    List<Action> committedList = new ArrayList<>(shadowList.size());
+    List<Action> pendingActions = new ArrayList<>();
+    for(Action action : shadowList){
+      int idx = dispatchedActions.indexOf(action);
+      if(idx >= 0){
         // replace the shadow list's element with actual list's element to persist execution state
-        shadowList.set(j, actualList.get(i));
-        j++;
-        shadowNextIdx++;
-      } else if(j != 0){
-        break;
+        committedList.add(dispatchedActions.remove(idx));
+      } else {
+        pendingActions.add(action);
       }
     }
-    List<Action> tmpList = shadowList;
-    shadowList = actualList;
-    actualList = tmpList;
-    nextIdx = shadowNextIdx;
+    nextIdx = committedList.size();
+    committedList.addAll(pendingActions);
+    actualList = committedList;
     shadowList.clear();
   }
 
@@ -0,0 +1,35 @@
+/*******************************************************************************
+ * Copyright 2020 Pinterest, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.pinterest.orion.core.automation.operator;
+
+/**
+ * How urgent the actions of an operator are, from the most to the least urgent.
+ * The {@link OperatorExecutor} dispatches more urgent actions first.
+ */
+public enum Urgency {
+  /**
+   * Restores the health of the cluster, like replacing dead brokers
+   */
+  HEALING,
+  /**
+   * Converges the cluster to its desired configuration, like topic config updates
+   */
+  CONFIGURATION,
+  /**
+   * Improves the layout of the cluster, like expanding brokersets and rebalancing
+   */
+  HOUSEKEEPING
+}
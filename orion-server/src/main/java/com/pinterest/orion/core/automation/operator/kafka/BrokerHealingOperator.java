@@ -17,10 +17,8 @@ package com.pinterest.orion.core.automation.operator.kafka;
 
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.function.Function;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
@@ -35,9 +33,9 @@ import com.pinterest.orion.core.PluginConfigurationException;
 import com.pinterest.orion.core.actions.alert.AlertLevel;
 import com.pinterest.orion.core.actions.alert.AlertMessage;
 import com.pinterest.orion.core.automation.sensor.kafka.KafkaTopicSensor;
+import com.pinterest.orion.core.kafka.BrokerReplicaIndex;
 import com.pinterest.orion.core.kafka.KafkaCluster;
 import com.pinterest.orion.core.kafka.KafkaTopicDescription;
-import com.pinterest.orion.core.kafka.KafkaTopicPartitionInfo;
 
 import static com.pinterest.orion.core.actions.kafka.ClusterRecoveryAction.removeRecoveringNodesFromCandidates;
 
@@ -123,8 +121,14 @@ public class BrokerHealingOperator extends KafkaOperator {
 
     // get unhealthy kafka brokers based on URP ratio thresholds
     Set<String> sensorSet = new HashSet<>(topicInfoAttr.getPublishingSensors());
-    Map<String, KafkaTopicDescription> kafkaPartitionMap = topicInfoAttr.getValue();
-    Set<String> unhealthyKafkaBrokers = getUnhealthyKafkaBrokers(kafkaPartitionMap);
+    BrokerReplicaIndex brokerReplicaIndex;
+    if (cluster.containsAttribute(KafkaTopicSensor.ATTR_BROKER_REPLICA_INDEX_KEY)) {
+      brokerReplicaIndex = cluster.getAttribute(KafkaTopicSensor.ATTR_BROKER_REPLICA_INDEX_KEY).getValue();
+    } else {
+      Map<String, KafkaTopicDescription> kafkaPartitionMap = topicInfoAttr.getValue();
+      brokerReplicaIndex = new BrokerReplicaIndex(kafkaPartitionMap);
+    }
+    Set<String> unhealthyKafkaBrokers = getUnhealthyKafkaBrokers(brokerReplicaIndex);
 
     // then we check nodes from agent health info
     Set<String> unhealthyAgentNodes = getDeadAgents(cluster);
@@ -248,32 +252,24 @@ public class BrokerHealingOperator extends KafkaOperator {
    * @return a set of broker id strings that are unhealthy
    */
   protected Set<String> getUnhealthyKafkaBrokers(Map<String, KafkaTopicDescription> kafkaPartitionMap) {
-    List<KafkaTopicPartitionInfo> partitionInfoList = kafkaPartitionMap.values().stream()
-        .flatMap(td -> td.getPartitions().stream())
-        .collect(Collectors.toList());
-
-    Map<String, Long> brokerReplicaCount = partitionInfoList.stream()
-        .flatMap(tpi -> tpi.getReplicas().stream())
-        .map(n -> n.idString())
-        .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
-
-    Map<String, Long> brokerISRCount = partitionInfoList.stream()
-        .flatMap(tpi -> tpi.getIsrs().stream())
-        .map( n -> n.idString())
-        .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
+    return getUnhealthyKafkaBrokers(new BrokerReplicaIndex(kafkaPartitionMap));
+  }
 
+  /**
+   * Same as {@link #getUnhealthyKafkaBrokers(Map)}, using the replica index published by the
+   * {@link KafkaTopicSensor} so the partitions don't have to be scanned again.
+   */
+  protected Set<String> getUnhealthyKafkaBrokers(BrokerReplicaIndex brokerReplicaIndex) {
     Set<String> unhealthyKafkaBrokers = new HashSet<>();
-    for(Map.Entry<String, Long> entry : brokerReplicaCount.entrySet()) {
-      String brokerId = entry.getKey();
-      long replicaCount = entry.getValue();
-      long isrCount = brokerISRCount.getOrDefault(entry.getKey(), 0L);
+    for (int brokerId : brokerReplicaIndex.getBrokerIds()) {
+      long replicaCount = brokerReplicaIndex.getReplicaCount(brokerId);
+      long urpCount = brokerReplicaIndex.getOutOfSyncReplicaCount(brokerId);
       // if replica count is larger than isr count, there are URPs
       // so we check if the number of URPs on that broker exceeds the threshold
       // if the threshold is 0, but there are no URPs, the condition will not be true since the
       // isr count == replica count
-      if (replicaCount > isrCount && (replicaCount - isrCount) >= (unhealthyBrokerURPRatioThreshold
-                                                                       * replicaCount)) {
-        unhealthyKafkaBrokers.add(brokerId);
+      if (urpCount > 0 && urpCount >= (unhealthyBrokerURPRatioThreshold * replicaCount)) {
+        unhealthyKafkaBrokers.add(Integer.toString(brokerId));
       }
     }
 
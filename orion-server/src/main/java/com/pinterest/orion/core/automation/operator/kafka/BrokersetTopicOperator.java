@@ -26,6 +26,7 @@ import com.pinterest.orion.core.actions.kafka.AssignmentExpandKafkaTopicAction;
 import com.pinterest.orion.core.actions.kafka.KafkaIdealBalanceAction;
 import com.pinterest.orion.core.actions.kafka.ReassignmentAction;
 import com.pinterest.orion.core.actions.kafka.AssignmentDeleteKafkaTopicAction;
+import com.pinterest.orion.core.automation.operator.Urgency;
 import com.pinterest.orion.core.automation.sensor.kafka.KafkaClusterInfoSensor;
 import com.pinterest.orion.core.automation.sensor.kafka.KafkaTopicSensor;
 import com.pinterest.orion.core.kafka.Brokerset;
@@ -364,6 +365,11 @@ public class BrokersetTopicOperator extends KafkaOperator {
     return partitions;
   }
 
+  @Override
+  public Urgency getUrgency() {
+    return Urgency.HOUSEKEEPING;
+  }
+
   @Override
   public String getName() {
     return "BrokersetTopicOperator";
@@ -17,6 +17,7 @@ package com.pinterest.orion.core.automation.operator.kafka;
 
 import org.apache.kafka.clients.admin.AdminClient;
 
+import com.google.common.collect.ImmutableSet;
 import com.pinterest.orion.core.Attribute;
 import com.pinterest.orion.core.PluginConfigurationException;
 import com.pinterest.orion.core.actions.Action;
@@ -44,6 +45,12 @@ public class ConfigConflictOperator extends KafkaOperator {
         super.initialize(config);
     }
 
+    @Override
+    public Set<String> getConsumedAttributes() {
+        return ImmutableSet.of(KafkaTopicSensor.ATTR_TOPICINFO_MAP_KEY,
+                KafkaClusterInfoSensor.ATTR_TOPIC_ASSIGNMENTS_KEY);
+    }
+
     @Override
     public void operate(KafkaCluster cluster) throws Exception {
         AdminClient adminClient = cluster.getAdminClient();
@@ -6,6 +6,7 @@ import com.pinterest.orion.core.PluginConfigurationException;
 import com.pinterest.orion.core.actions.Action;
 import com.pinterest.orion.core.actions.aws.Ec2Utils;
 import com.pinterest.orion.core.actions.kafka.KafkaDNSUpsertAction;
+import com.pinterest.orion.core.automation.operator.Urgency;
 import com.pinterest.orion.core.kafka.KafkaCluster;
 
 import java.net.InetAddress;
@@ -55,6 +56,11 @@ public class DNSRepairOperator extends KafkaOperator {
         return action;
     }
 
+    @Override
+    public Urgency getUrgency() {
+        return Urgency.HEALING;
+    }
+
     @Override
     public String getName() {
         return "DNSRepairOperator";
@@ -17,8 +17,10 @@ package com.pinterest.orion.core.automation.operator.kafka;
 
 import org.apache.kafka.common.Node;
 
+import com.google.common.collect.ImmutableSet;
 import com.pinterest.orion.core.actions.Action;
 import com.pinterest.orion.core.actions.kafka.KafkaStuckConsumerGroupRecoveryAction;
+import com.pinterest.orion.core.automation.operator.Urgency;
 import com.pinterest.orion.core.automation.sensor.kafka.KafkaStuckConsumerGroupSensor;
 import com.pinterest.orion.core.automation.sensor.kafka.KafkaTopicSensor;
 import com.pinterest.orion.core.kafka.KafkaCluster;
@@ -82,6 +84,17 @@ public class StuckConsumerGroupOperator extends KafkaOperator {
     return Collections.singletonMap(CONSUMER_OFFSETS_TOPIC_NAME, partitionAssignments);
   }
 
+  @Override
+  public Set<String> getConsumedAttributes() {
+    return ImmutableSet.of(KafkaStuckConsumerGroupSensor.ATTR_STUCK_CONSUMER_GROUPS_ID_KEY,
+        KafkaTopicSensor.ATTR_TOPICINFO_MAP_KEY);
+  }
+
+  @Override
+  public Urgency getUrgency() {
+    return Urgency.HEALING;
+  }
+
   @Override
   public String getName() {
     return "StuckConsumerGroupOperator";
@@ -15,7 +15,9 @@
  *******************************************************************************/
 package com.pinterest.orion.core.automation.sensor;
 
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import com.pinterest.orion.core.Cluster;
@@ -75,6 +77,24 @@ public abstract class Sensor implements Plugin {
 
   }
 
+  /**
+   * @return the attribute keys this sensor publishes
+   */
+  public Set<String> getProducedAttributes() {
+    return Collections.emptySet();
+  }
+
+  /**
+   * Attributes this sensor derives its own attributes from. Whenever a sensor
+   * producing one of these attributes completes a run, this sensor is
+   * triggered right away instead of waiting for its next interval.
+   *
+   * @return the attribute keys this sensor consumes
+   */
+  public Set<String> getConsumedAttributes() {
+    return Collections.emptySet();
+  }
+
   public void setAttribute(Context ctx, String key, Object value) {
     ctx.setAttribute(key, value, this.sensorIdentifier);
   }
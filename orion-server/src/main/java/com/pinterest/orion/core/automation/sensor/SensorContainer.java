@@ -16,10 +16,14 @@
 package com.pinterest.orion.core.automation.sensor;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.pinterest.orion.core.Attribute;
 import com.pinterest.orion.core.Cluster;
 
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -31,27 +35,52 @@ public class SensorContainer implements Runnable {
   private volatile boolean previousSuccess = true;
   private volatile Exception previousError = null;
   private volatile long previousFinishTime = 0;
-  private ScheduledExecutorService executor;
-  private ScheduledFuture<?> currentScheduledFuture;
+  private SensorScheduler scheduler;
+  private List<SensorContainer> dependents = Collections.emptyList();
+  // guarded by this
+  private Future<?> currentScheduledFuture;
+  private long scheduleSeq = 0;
+  private boolean rerunRequested = false;
 
-  public SensorContainer(Sensor monitor, Cluster cluster, ScheduledExecutorService executor) {
+  public SensorContainer(Sensor monitor, Cluster cluster, SensorScheduler scheduler) {
     this.sensor = monitor;
     this.cluster = cluster;
-    this.executor = executor;
+    this.scheduler = scheduler;
   }
 
-  public ScheduledFuture<?> scheduleNow() {
+  public synchronized Future<?> scheduleNow() {
     if(currentScheduledFuture != null ){
       currentScheduledFuture.cancel(true);
     }
-    currentScheduledFuture = this.executor.schedule(this, 0, TimeUnit.SECONDS);
-    return currentScheduledFuture;
+    return schedule(0);
+  }
+
+  /**
+   * Run the sensor as soon as possible because one of its consumed attributes
+   * was refreshed. Unlike {@link #scheduleNow()} this never interrupts a run in
+   * progress, the sensor is re-run right after the current run finishes instead.
+   * Multiple triggers arriving before the sensor gets to run are coalesced.
+   */
+  public synchronized void trigger() {
+    if (currentScheduledFuture != null && !currentScheduledFuture.isDone()
+        && !currentScheduledFuture.cancel(false)) {
+      // the sensor is running right now
+      rerunRequested = true;
+      return;
+    }
+    schedule(0);
   }
 
   public void start() {
     scheduleNow();
   }
 
+  private synchronized Future<?> schedule(long delaySeconds) {
+    long seq = ++scheduleSeq;
+    currentScheduledFuture = this.scheduler.schedule(cluster.getClusterId(), () -> run(seq), delaySeconds, TimeUnit.SECONDS);
+    return currentScheduledFuture;
+  }
+
   @Override
   public void run() {
     try {
@@ -64,7 +93,43 @@ public class SensorContainer implements Runnable {
       previousError = e;
     }
     previousFinishTime = System.currentTimeMillis();
-    currentScheduledFuture = this.executor.schedule(this, sensor.getInterval(), TimeUnit.SECONDS);
+  }
+
+  private void run(long seq) {
+    Map<String, Attribute> producedBefore = snapshotProducedAttributes();
+    run();
+    synchronized (this) {
+      // a newer run has been scheduled by scheduleNow in the meantime, leave rescheduling to it
+      if (seq != scheduleSeq) {
+        return;
+      }
+      schedule(rerunRequested ? 0 : sensor.getInterval());
+      rerunRequested = false;
+    }
+    if (previousSuccess && !dependents.isEmpty() && producedAttributesChanged(producedBefore)) {
+      for (SensorContainer dependent : dependents) {
+        logger.log(Level.FINE, "Triggering sensor " + dependent.getSensor().getName() + " after "
+            + sensor.getName() + " on cluster " + cluster.getClusterId());
+        dependent.trigger();
+      }
+    }
+  }
+
+  private Map<String, Attribute> snapshotProducedAttributes() {
+    Map<String, Attribute> attributes = new HashMap<>();
+    for (String key : sensor.getProducedAttributes()) {
+      attributes.put(key, cluster.getAttribute(key));
+    }
+    return attributes;
+  }
+
+  private boolean producedAttributesChanged(Map<String, Attribute> before) {
+    for (Map.Entry<String, Attribute> entry : before.entrySet()) {
+      if (cluster.getAttribute(entry.getKey()) != entry.getValue()) {
+        return true;
+      }
+    }
+    return false;
   }
 
   public Sensor getSensor() {
@@ -85,4 +150,13 @@ public class SensorContainer implements Runnable {
   public long getSensorInterval() {
     return sensor.getInterval();
   }
+
+  @JsonIgnore
+  public List<SensorContainer> getDependents() {
+    return dependents;
+  }
+
+  public void setDependents(List<SensorContainer> dependents) {
+    this.dependents = dependents;
+  }
 }
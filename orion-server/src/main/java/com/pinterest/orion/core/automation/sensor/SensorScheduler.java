@@ -0,0 +1,252 @@
+/*******************************************************************************
+ * Copyright 2020 Pinterest, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.pinterest.orion.core.automation.sensor;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.pinterest.orion.core.PluginConfigurationException;
+
+/**
+ * Server-wide scheduler shared by the {@link SensorContainer}s of every cluster.
+ *
+ * A single timer thread keeps track of when each sensor is due, and hands due
+ * sensors over to a bounded worker pool. Every cluster gets its own run queue
+ * and a cap on how many of its sensors may occupy workers at the same time, so
+ * a cluster with slow AdminClient calls can only tie up a bounded share of the
+ * pool while the sensors of the other clusters keep running.
+ */
+public class SensorScheduler {
+
+  private static final Logger logger = Logger.getLogger(SensorScheduler.class.getCanonicalName());
+  public static final String CONF_EXECUTOR_TYPE_KEY = "executorType";
+  public static final String CONF_PARALLELISM_KEY = "parallelism";
+  public static final String CONF_MAX_CONCURRENT_SENSORS_PER_CLUSTER_KEY = "maxConcurrentSensorsPerCluster";
+  public static final String EXECUTOR_TYPE_FIXED = "fixed";
+  public static final String EXECUTOR_TYPE_WORK_STEALING = "workStealing";
+  public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors() * 2;
+  public static final int DEFAULT_MAX_CONCURRENT_SENSORS_PER_CLUSTER = 4;
+
+  private static volatile SensorScheduler instance;
+
+  private final ScheduledExecutorService timer;
+  private final ExecutorService workers;
+  private final int maxConcurrentSensorsPerCluster;
+  private final Map<String, ClusterRunQueue> runQueues = new ConcurrentHashMap<>();
+
+  @VisibleForTesting
+  SensorScheduler(ExecutorService workers, int maxConcurrentSensorsPerCluster) {
+    this.timer = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("sensor-timer").setDaemon(true).build());
+    this.workers = workers;
+    this.maxConcurrentSensorsPerCluster = maxConcurrentSensorsPerCluster;
+  }
+
+  /**
+   * Configure the shared scheduler, this needs to be called before any cluster
+   * is initialized, otherwise the clusters will keep using the default scheduler.
+   *
+   * @param config scheduler configuration, may be null
+   * @throws PluginConfigurationException if the executor type is unknown
+   */
+  public static synchronized void initialize(Map<String, Object> config) throws PluginConfigurationException {
+    SensorScheduler scheduler = create(config);
+    if (instance != null) {
+      logger.warning("Sensor scheduler was already initialized, replacing it");
+      instance.shutdown();
+    }
+    instance = scheduler;
+  }
+
+  public static SensorScheduler getInstance() {
+    if (instance == null) {
+      synchronized (SensorScheduler.class) {
+        if (instance == null) {
+          instance = new SensorScheduler(newFixedWorkerPool(DEFAULT_PARALLELISM),
+              DEFAULT_MAX_CONCURRENT_SENSORS_PER_CLUSTER);
+        }
+      }
+    }
+    return instance;
+  }
+
+  private static SensorScheduler create(Map<String, Object> config) throws PluginConfigurationException {
+    String executorType = EXECUTOR_TYPE_FIXED;
+    int parallelism = DEFAULT_PARALLELISM;
+    int maxConcurrentSensorsPerCluster = DEFAULT_MAX_CONCURRENT_SENSORS_PER_CLUSTER;
+    if (config != null) {
+      if (config.containsKey(CONF_EXECUTOR_TYPE_KEY)) {
+        executorType = config.get(CONF_EXECUTOR_TYPE_KEY).toString();
+      }
+      if (config.containsKey(CONF_PARALLELISM_KEY)) {
+        parallelism = Integer.parseInt(config.get(CONF_PARALLELISM_KEY).toString());
+      }
+      if (config.containsKey(CONF_MAX_CONCURRENT_SENSORS_PER_CLUSTER_KEY)) {
+        maxConcurrentSensorsPerCluster = Integer
+            .parseInt(config.get(CONF_MAX_CONCURRENT_SENSORS_PER_CLUSTER_KEY).toString());
+      }
+    }
+    if (parallelism <= 0 || maxConcurrentSensorsPerCluster <= 0) {
+      throw new PluginConfigurationException("Sensor scheduler parallelism and per cluster concurrency must be positive");
+    }
+    ExecutorService workers;
+    if (EXECUTOR_TYPE_FIXED.equalsIgnoreCase(executorType)) {
+      workers = newFixedWorkerPool(parallelism);
+    } else if (EXECUTOR_TYPE_WORK_STEALING.equalsIgnoreCase(executorType)) {
+      workers = Executors.newWorkStealingPool(parallelism);
+    } else {
+      throw new PluginConfigurationException("Unknown sensor scheduler executor type: " + executorType);
+    }
+    logger.info("Sensor scheduler using " + executorType + " executor with parallelism " + parallelism
+        + " and " + maxConcurrentSensorsPerCluster + " concurrent sensors per cluster");
+    return new SensorScheduler(workers, maxConcurrentSensorsPerCluster);
+  }
+
+  private static ExecutorService newFixedWorkerPool(int parallelism) {
+    return Executors.newFixedThreadPool(parallelism,
+        new ThreadFactoryBuilder().setNameFormat("sensor-worker-%d").setDaemon(true).build());
+  }
+
+  /**
+   * Schedule a sensor run for a cluster.
+   *
+   * @return a future that completes when the run itself has finished, not when
+   * it was handed to the worker pool
+   */
+  public Future<?> schedule(String clusterId, Runnable task, long delay, TimeUnit unit) {
+    FutureTask<Void> run = new FutureTask<>(task, null);
+    ClusterRunQueue runQueue = runQueues.computeIfAbsent(clusterId, k -> new ClusterRunQueue(clusterId));
+    ScheduledFuture<?> timerFuture = timer.schedule(() -> runQueue.submit(run), delay, unit);
+    return new SensorRunFuture(timerFuture, run);
+  }
+
+  public void shutdown() {
+    timer.shutdownNow();
+    workers.shutdownNow();
+  }
+
+  @VisibleForTesting
+  int getPendingRuns(String clusterId) {
+    ClusterRunQueue runQueue = runQueues.get(clusterId);
+    return runQueue == null ? 0 : runQueue.pending.size();
+  }
+
+  /**
+   * Holds the due sensor runs of a single cluster and releases at most
+   * maxConcurrentSensorsPerCluster of them to the worker pool at a time.
+   */
+  private class ClusterRunQueue {
+
+    private final String clusterId;
+    private final Queue<FutureTask<Void>> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger running = new AtomicInteger();
+
+    private ClusterRunQueue(String clusterId) {
+      this.clusterId = clusterId;
+    }
+
+    private void submit(FutureTask<Void> run) {
+      pending.add(run);
+      drain();
+    }
+
+    private void drain() {
+      while (!pending.isEmpty()) {
+        int current = running.get();
+        if (current >= maxConcurrentSensorsPerCluster) {
+          return;
+        }
+        if (!running.compareAndSet(current, current + 1)) {
+          continue;
+        }
+        FutureTask<Void> run = pending.poll();
+        if (run == null) {
+          running.decrementAndGet();
+          continue;
+        }
+        try {
+          workers.execute(() -> {
+            try {
+              run.run();
+            } finally {
+              running.decrementAndGet();
+              drain();
+            }
+          });
+        } catch (RejectedExecutionException e) {
+          running.decrementAndGet();
+          run.cancel(false);
+          logger.log(Level.WARNING, "Sensor run rejected for cluster " + clusterId, e);
+        }
+      }
+    }
+  }
+
+  private static class SensorRunFuture implements Future<Void> {
+
+    private final ScheduledFuture<?> timerFuture;
+    private final FutureTask<Void> run;
+
+    private SensorRunFuture(ScheduledFuture<?> timerFuture, FutureTask<Void> run) {
+      this.timerFuture = timerFuture;
+      this.run = run;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      timerFuture.cancel(false);
+      return run.cancel(mayInterruptIfRunning);
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return run.isCancelled();
+    }
+
+    @Override
+    public boolean isDone() {
+      return run.isDone();
+    }
+
+    @Override
+    public Void get() throws InterruptedException, ExecutionException {
+      return run.get();
+    }
+
+    @Override
+    public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+                                                        TimeoutException {
+      return run.get(timeout, unit);
+    }
+  }
+}
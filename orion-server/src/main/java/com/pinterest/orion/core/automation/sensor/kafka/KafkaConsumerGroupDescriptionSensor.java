@@ -20,12 +20,14 @@ import org.apache.kafka.clients.admin.ConsumerGroupDescription;
 import org.apache.kafka.clients.admin.ConsumerGroupListing;
 import org.apache.kafka.clients.admin.DescribeConsumerGroupsOptions;
 
+import com.google.common.collect.ImmutableSet;
 import com.pinterest.orion.core.kafka.KafkaCluster;
 import org.apache.kafka.clients.admin.ListConsumerGroupsOptions;
 
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 public class KafkaConsumerGroupDescriptionSensor extends KafkaSensor {
@@ -62,4 +64,9 @@ public class KafkaConsumerGroupDescriptionSensor extends KafkaSensor {
   public String getName() {
     return "KafkaConsumerGroupDescriptionSensor";
   }
+
+  @Override
+  public Set<String> getProducedAttributes() {
+    return ImmutableSet.of(ATTR_CONSUMER_GROUP_IDS_KEY, ATTR_CONSUMER_GROUP_DESC_KEY);
+  }
 }
@@ -19,36 +19,90 @@ import org.apache.kafka.clients.admin.AdminClient;
 import org.apache.kafka.clients.admin.ConsumerGroupDescription;
 import org.apache.kafka.clients.admin.ConsumerGroupListing;
 import org.apache.kafka.clients.admin.ListConsumerGroupOffsetsOptions;
-import org.apache.kafka.clients.admin.ListConsumerGroupOffsetsResult;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.common.KafkaFuture;
 import org.apache.kafka.common.TopicPartition;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import com.pinterest.orion.core.PluginConfigurationException;
 import com.pinterest.orion.core.kafka.KafkaCluster;
 import com.pinterest.orion.core.kafka.KafkaConsumerGroupDescription;
 import com.pinterest.orion.core.kafka.KafkaConsumerGroupOffsetsAndLag;
-import com.pinterest.orion.core.kafka.TopicPartitionOffsets;
+import com.pinterest.orion.core.kafka.TopicOffsetsTable;
 
-import java.util.ArrayList;
-import java.util.Collection;
+import java.util.ArrayDeque;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
+/**
+ * Publishes the committed offsets and lag of every consumer group.
+ *
+ * Offset requests are sent concurrently, grouped by the coordinator of each group so
+ * that no single coordinator has more than maxInFlightRequestsPerCoordinator
+ * outstanding requests, and the lag is computed against the {@link TopicOffsetsTable}
+ * as each response arrives. Groups whose offsets aren't fetched within
+ * offsetsTimeoutMs are published without offsets.
+ */
 public class KafkaConsumerGroupOffsetSensor extends KafkaSensor {
   private static final Logger logger = Logger.getLogger(KafkaConsumerGroupOffsetSensor.class.getCanonicalName());
   public static final String ATTR_CONSUMER_GROUPS_KEY = "consumerGroups";
+  private static final String CONF_MAX_IN_FLIGHT_REQUESTS_PER_COORDINATOR_KEY = "maxInFlightRequestsPerCoordinator";
+  private static final String CONF_OFFSETS_TIMEOUT_MS_KEY = "offsetsTimeoutMs";
+  private static final int NO_COORDINATOR = -1;
+
+  private int maxInFlightRequestsPerCoordinator = 50;
+  private long offsetsTimeoutMs = 300000;
+
+  @Override
+  public void initialize(Map<String, Object> config) throws PluginConfigurationException {
+    super.initialize(config);
+    if (config.containsKey(CONF_MAX_IN_FLIGHT_REQUESTS_PER_COORDINATOR_KEY)) {
+      maxInFlightRequestsPerCoordinator = Integer.parseInt(
+          config.get(CONF_MAX_IN_FLIGHT_REQUESTS_PER_COORDINATOR_KEY).toString());
+    }
+    if (maxInFlightRequestsPerCoordinator <= 0) {
+      throw new PluginConfigurationException(CONF_MAX_IN_FLIGHT_REQUESTS_PER_COORDINATOR_KEY
+          + " must be positive: " + maxInFlightRequestsPerCoordinator);
+    }
+    if (config.containsKey(CONF_OFFSETS_TIMEOUT_MS_KEY)) {
+      offsetsTimeoutMs = Long.parseLong(config.get(CONF_OFFSETS_TIMEOUT_MS_KEY).toString());
+    }
+    if (offsetsTimeoutMs <= 0) {
+      throw new PluginConfigurationException(CONF_OFFSETS_TIMEOUT_MS_KEY + " must be positive: "
+          + offsetsTimeoutMs);
+    }
+  }
 
   @Override
   public String getName() {
     return "KafkaConsumerGroupOffsetSensor";
   }
 
+  @Override
+  public Set<String> getProducedAttributes() {
+    return ImmutableSet.of(ATTR_CONSUMER_GROUPS_KEY);
+  }
+
+  @Override
+  public Set<String> getConsumedAttributes() {
+    return ImmutableSet.of(KafkaTopicOffsetSensor.ATTR_TOPIC_OFFSET_KEY,
+        KafkaConsumerGroupDescriptionSensor.ATTR_CONSUMER_GROUP_DESC_KEY);
+  }
+
   @Override
   public void sense(KafkaCluster cluster) throws Exception {
     logger.info(() -> "Started updating consumer groups for cluster: " + cluster.getName());
@@ -73,44 +127,18 @@ public class KafkaConsumerGroupOffsetSensor extends KafkaSensor {
     }
 
 
-    Map<String, Map<TopicPartition, KafkaConsumerGroupOffsetsAndLag>> consumerGroupOffsetsMap = new HashMap<>();
     List<String> groupIds = cluster.getAttribute(KafkaConsumerGroupDescriptionSensor.ATTR_CONSUMER_GROUP_IDS_KEY).getValue();
     Map<String, ConsumerGroupDescription> consumerGroupDescriptionMap = cluster.getAttribute(KafkaConsumerGroupDescriptionSensor.ATTR_CONSUMER_GROUP_DESC_KEY).getValue();
-    Map<TopicPartition, TopicPartitionOffsets> topicPartitionOffsetsMap = cluster.getAttribute(KafkaTopicOffsetSensor.ATTR_TOPIC_OFFSET_KEY).getValue();
-    List<KafkaFuture<Map<TopicPartition, OffsetAndMetadata>>> offsetFutures = new ArrayList<>();
+    TopicOffsetsTable topicOffsets = cluster.getAttribute(KafkaTopicOffsetSensor.ATTR_TOPIC_OFFSET_KEY).getValue();
     ListConsumerGroupOffsetsOptions listConsumerGroupOffsetsOptions = new ListConsumerGroupOffsetsOptions();
     int kafkaAdminClientConsumerGroupRequestTimeoutMs = cluster.getKafkaAdminClientConsumerGroupRequestTimeoutMilliseconds();
     if (kafkaAdminClientConsumerGroupRequestTimeoutMs > 0) {
       listConsumerGroupOffsetsOptions.timeoutMs(kafkaAdminClientConsumerGroupRequestTimeoutMs);
     }
-    for (String groupId : groupIds) {
-      ListConsumerGroupOffsetsResult listConsumerGroupOffsetsResult = adminClient.listConsumerGroupOffsets(
-              groupId, listConsumerGroupOffsetsOptions);
-      offsetFutures.add(listConsumerGroupOffsetsResult.partitionsToOffsetAndMetadata());
-    }
 
-    for( int i = 0; i < groupIds.size(); i++ ) {
-      String groupId = groupIds.get(i);
-      try {
-        Map<TopicPartition, OffsetAndMetadata> offsets = offsetFutures.get(i).get();
-        consumerGroupOffsetsMap.put(groupId, offsets.entrySet().stream().collect(Collectors.toMap(
-            Map.Entry::getKey,
-            entry -> {
-              long offset = entry.getValue().offset();
-              TopicPartitionOffsets partitionOffsets = topicPartitionOffsetsMap.get(entry.getKey());
-              if(partitionOffsets == null) {
-                return new KafkaConsumerGroupOffsetsAndLag(-1, -1, offset, -1);
-              }
-              long beginningOffset = partitionOffsets.getBeginningOffset();
-              long endOffset = partitionOffsets.getEndOffset();
-              long lag = Math.max(endOffset - offset, 0);
-              return new KafkaConsumerGroupOffsetsAndLag(beginningOffset, endOffset, offset, lag);
-            }
-        )));
-      } catch (InterruptedException | ExecutionException e) {
-        logger.log(Level.SEVERE, "Failed to extract offsets for consumer group " + groupId, e);
-      }
-    }
+    Map<String, Map<TopicPartition, KafkaConsumerGroupOffsetsAndLag>> consumerGroupOffsetsMap =
+        getConsumerGroupOffsets(adminClient, groupIds, consumerGroupDescriptionMap, topicOffsets,
+            listConsumerGroupOffsetsOptions);
 
     setHiddenAttribute(cluster, ATTR_CONSUMER_GROUPS_KEY,
             groupIds.stream().map(groupId -> new KafkaConsumerGroupDescription(
@@ -120,4 +148,132 @@ public class KafkaConsumerGroupOffsetSensor extends KafkaSensor {
     logger.info(() ->"Updated consumer groups for cluster: " + cluster.getName());
   }
 
+  /**
+   * Fetch the committed offsets of all the groups, at most maxInFlightRequestsPerCoordinator
+   * requests are outstanding against a single coordinator at any time. Requests are
+   * dispatched from the calling thread, coordinators without a free permit are skipped
+   * and revisited whenever a request completes, so a slow coordinator doesn't hold back
+   * the others. Groups of coordinators that are still saturated when offsetsTimeoutMs
+   * expires are skipped.
+   */
+  private Map<String, Map<TopicPartition, KafkaConsumerGroupOffsetsAndLag>> getConsumerGroupOffsets(
+      AdminClient adminClient,
+      List<String> groupIds,
+      Map<String, ConsumerGroupDescription> consumerGroupDescriptionMap,
+      TopicOffsetsTable topicOffsets,
+      ListConsumerGroupOffsetsOptions options) throws InterruptedException {
+    Map<Integer, Queue<String>> groupsByCoordinator = new LinkedHashMap<>();
+    for (String groupId : groupIds) {
+      groupsByCoordinator.computeIfAbsent(coordinatorOf(consumerGroupDescriptionMap.get(groupId)),
+          k -> new ArrayDeque<>()).add(groupId);
+    }
+    Map<Integer, Semaphore> permits = new HashMap<>();
+    for (Integer coordinator : groupsByCoordinator.keySet()) {
+      permits.put(coordinator, new Semaphore(maxInFlightRequestsPerCoordinator));
+    }
+
+    Map<String, Map<TopicPartition, KafkaConsumerGroupOffsetsAndLag>> consumerGroupOffsetsMap =
+        new ConcurrentHashMap<>();
+    CountDownLatch remaining = new CountDownLatch(groupIds.size());
+    // released by every completed request, wakes up the dispatch loop to revisit the coordinators
+    Semaphore completions = new Semaphore(0);
+    long deadline = System.currentTimeMillis() + offsetsTimeoutMs;
+    while (!groupsByCoordinator.isEmpty()) {
+      completions.drainPermits();
+      for (Iterator<Entry<Integer, Queue<String>>> it = groupsByCoordinator.entrySet().iterator(); it.hasNext();) {
+        Entry<Integer, Queue<String>> entry = it.next();
+        Semaphore permit = permits.get(entry.getKey());
+        Queue<String> groups = entry.getValue();
+        while (!groups.isEmpty() && permit.tryAcquire()) {
+          requestGroupOffsets(adminClient, groups.poll(), permit, completions, topicOffsets, options,
+              consumerGroupOffsetsMap, remaining);
+        }
+        if (groups.isEmpty()) {
+          it.remove();
+        }
+      }
+      if (groupsByCoordinator.isEmpty()) {
+        break;
+      }
+      if (!completions.tryAcquire(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+        for (Entry<Integer, Queue<String>> entry : groupsByCoordinator.entrySet()) {
+          logger.warning("Timed out requesting consumer group offsets from coordinator " + entry.getKey()
+              + ", skipping " + entry.getValue().size() + " groups");
+          for (int i = entry.getValue().size(); i > 0; i--) {
+            remaining.countDown();
+          }
+        }
+        break;
+      }
+    }
+    if (!remaining.await(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+      logger.warning("Timed out waiting for the offsets of " + remaining.getCount() + " consumer groups");
+    }
+    // late responses keep updating the concurrent map
+    return new HashMap<>(consumerGroupOffsetsMap);
+  }
+
+  private static int coordinatorOf(ConsumerGroupDescription description) {
+    return description == null || description.coordinator() == null
+        ? NO_COORDINATOR : description.coordinator().id();
+  }
+
+  private void requestGroupOffsets(AdminClient adminClient,
+                                   String groupId,
+                                   Semaphore permit,
+                                   Semaphore completions,
+                                   TopicOffsetsTable topicOffsets,
+                                   ListConsumerGroupOffsetsOptions options,
+                                   Map<String, Map<TopicPartition, KafkaConsumerGroupOffsetsAndLag>> consumerGroupOffsetsMap,
+                                   CountDownLatch remaining) {
+    KafkaFuture<Map<TopicPartition, OffsetAndMetadata>> future;
+    try {
+      future = adminClient.listConsumerGroupOffsets(groupId, options).partitionsToOffsetAndMetadata();
+    } catch (Exception e) {
+      logger.log(Level.SEVERE, "Failed to request offsets for consumer group " + groupId, e);
+      permit.release();
+      remaining.countDown();
+      return;
+    }
+    // may run right away on this thread if the future is already complete
+    future.whenComplete((offsets, throwable) -> {
+      try {
+        if (throwable != null) {
+          logger.log(Level.SEVERE, "Failed to extract offsets for consumer group " + groupId, throwable);
+        } else {
+          consumerGroupOffsetsMap.put(groupId, computeOffsetsAndLag(offsets, topicOffsets));
+        }
+      } finally {
+        permit.release();
+        completions.release();
+        remaining.countDown();
+      }
+    });
+  }
+
+  @VisibleForTesting
+  static Map<TopicPartition, KafkaConsumerGroupOffsetsAndLag> computeOffsetsAndLag(
+      Map<TopicPartition, OffsetAndMetadata> offsets,
+      TopicOffsetsTable topicOffsets) {
+    Map<TopicPartition, KafkaConsumerGroupOffsetsAndLag> offsetsAndLag =
+        new HashMap<>((int) (offsets.size() / 0.75f) + 1);
+    for (Map.Entry<TopicPartition, OffsetAndMetadata> entry : offsets.entrySet()) {
+      if (entry.getValue() == null) {
+        continue;
+      }
+      TopicPartition topicPartition = entry.getKey();
+      long offset = entry.getValue().offset();
+      if (!topicOffsets.contains(topicPartition)) {
+        offsetsAndLag.put(topicPartition, new KafkaConsumerGroupOffsetsAndLag(-1, -1, offset, -1));
+        continue;
+      }
+      long beginningOffset = topicOffsets.getBeginningOffset(topicPartition);
+      long endOffset = topicOffsets.getEndOffset(topicPartition);
+      long lag = Math.max(endOffset - offset, 0);
+      offsetsAndLag.put(topicPartition,
+          new KafkaConsumerGroupOffsetsAndLag(beginningOffset, endOffset, offset, lag));
+    }
+    return offsetsAndLag;
+  }
+
 }
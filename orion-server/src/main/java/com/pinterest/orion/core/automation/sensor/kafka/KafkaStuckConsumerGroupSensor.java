@@ -15,6 +15,7 @@
  *******************************************************************************/
 package com.pinterest.orion.core.automation.sensor.kafka;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import com.pinterest.orion.core.PluginConfigurationException;
 import com.pinterest.orion.core.kafka.ConsumerInfo;
@@ -108,7 +109,7 @@ public class KafkaStuckConsumerGroupSensor extends KafkaSensor {
         }
       }
     }
-    cluster.setHiddenAttribute(ATTR_STUCK_CONSUMER_GROUPS_ID_KEY, stuckConsumerGroupIds);
+    setHiddenAttribute(cluster, ATTR_STUCK_CONSUMER_GROUPS_ID_KEY, stuckConsumerGroupIds);
     //4. consumer is in the map, and consumer doesn't exist in the description map => CG was deleted? need some sort of purging (LRU?), ignore for now
 
   }
@@ -118,6 +119,16 @@ public class KafkaStuckConsumerGroupSensor extends KafkaSensor {
     return "StuckConsumerGroupSensor";
   }
 
+  @Override
+  public Set<String> getProducedAttributes() {
+    return ImmutableSet.of(ATTR_STUCK_CONSUMER_GROUPS_ID_KEY);
+  }
+
+  @Override
+  public Set<String> getConsumedAttributes() {
+    return ImmutableSet.of(KafkaConsumerGroupDescriptionSensor.ATTR_CONSUMER_GROUP_DESC_KEY);
+  }
+
   private static class StuckConsumerGroup {
     private long timestamp;
     private int count;
@@ -15,36 +15,86 @@
  *******************************************************************************/
 package com.pinterest.orion.core.automation.sensor.kafka;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.pinterest.orion.core.PluginConfigurationException;
 import com.pinterest.orion.core.kafka.KafkaCluster;
 import com.pinterest.orion.core.kafka.KafkaTopicDescription;
 import com.pinterest.orion.core.kafka.KafkaTopicPartitionInfo;
-import com.pinterest.orion.core.kafka.TopicPartitionOffsets;
+import com.pinterest.orion.core.kafka.TopicOffsetsTable;
 
 import org.apache.kafka.clients.admin.AdminClient;
 import org.apache.kafka.clients.admin.ListOffsetsOptions;
-import org.apache.kafka.clients.admin.ListOffsetsResult;
+import org.apache.kafka.clients.admin.ListOffsetsResult.ListOffsetsResultInfo;
 import org.apache.kafka.clients.admin.OffsetSpec;
 import org.apache.kafka.common.KafkaFuture;
+import org.apache.kafka.common.Node;
 import org.apache.kafka.common.TopicPartition;
-import org.apache.kafka.common.internals.Topic;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 import java.util.logging.Level;
-import java.util.stream.Collectors;
 
+/**
+ * Publishes the beginning and end offsets of every partition in a {@link TopicOffsetsTable}.
+ *
+ * Partitions are grouped by leader broker and requested in batches whose size adapts
+ * to the observed latency of the previous run. End offsets are fetched on every run,
+ * beginning offsets only move with retention and are refreshed every
+ * earliestOffsetRefreshIntervalSeconds, in between they are carried over from the
+ * previous table.
+ */
 public class KafkaTopicOffsetSensor extends KafkaSensor {
   public static final String ATTR_TOPIC_OFFSET_KEY = "topicOffsets";
+  private static final String CONF_OFFSET_BATCH_SIZE_KEY = "offsetBatchSize";
+  private static final String CONF_MIN_OFFSET_BATCH_SIZE_KEY = "minOffsetBatchSize";
+  private static final String CONF_MAX_OFFSET_BATCH_SIZE_KEY = "maxOffsetBatchSize";
+  private static final String CONF_TARGET_OFFSET_BATCH_LATENCY_MS_KEY = "targetOffsetBatchLatencyMs";
+  private static final String CONF_EARLIEST_OFFSET_REFRESH_INTERVAL_SECONDS_KEY = "earliestOffsetRefreshIntervalSeconds";
+  private static final int NO_LEADER = -1;
 
-  private static final int OFFSET_API_BATCH_SIZE = 1_000;
   private static int kafkaAdminClientTopicRequestTimeoutMs = -1; // -1 means using default value.
+  private int minBatchSize = 100;
+  private int maxBatchSize = 10_000;
+  private long targetBatchLatencyMs = 1_000;
+  private long earliestOffsetRefreshIntervalMs = 300_000;
+  private volatile int batchSize = 1_000;
+  private volatile long lastEarliestOffsetRefreshTime = 0;
+
+  @Override
+  public void initialize(Map<String, Object> config) throws PluginConfigurationException {
+    super.initialize(config);
+    if (config.containsKey(CONF_OFFSET_BATCH_SIZE_KEY)) {
+      batchSize = Integer.parseInt(config.get(CONF_OFFSET_BATCH_SIZE_KEY).toString());
+    }
+    if (config.containsKey(CONF_MIN_OFFSET_BATCH_SIZE_KEY)) {
+      minBatchSize = Integer.parseInt(config.get(CONF_MIN_OFFSET_BATCH_SIZE_KEY).toString());
+    }
+    if (config.containsKey(CONF_MAX_OFFSET_BATCH_SIZE_KEY)) {
+      maxBatchSize = Integer.parseInt(config.get(CONF_MAX_OFFSET_BATCH_SIZE_KEY).toString());
+    }
+    if (config.containsKey(CONF_TARGET_OFFSET_BATCH_LATENCY_MS_KEY)) {
+      targetBatchLatencyMs = Long.parseLong(config.get(CONF_TARGET_OFFSET_BATCH_LATENCY_MS_KEY).toString());
+    }
+    if (config.containsKey(CONF_EARLIEST_OFFSET_REFRESH_INTERVAL_SECONDS_KEY)) {
+      earliestOffsetRefreshIntervalMs = 1000L
+          * Long.parseLong(config.get(CONF_EARLIEST_OFFSET_REFRESH_INTERVAL_SECONDS_KEY).toString());
+    }
+    if (minBatchSize <= 0 || minBatchSize > maxBatchSize) {
+      throw new PluginConfigurationException("Offset batch size bounds are invalid: ["
+          + minBatchSize + ", " + maxBatchSize + "]");
+    }
+    batchSize = Math.max(minBatchSize, Math.min(maxBatchSize, batchSize));
+  }
 
   @Override
   public void sense(KafkaCluster cluster) throws Exception {
@@ -60,84 +110,157 @@ public class KafkaTopicOffsetSensor extends KafkaSensor {
 
     Map<String, KafkaTopicDescription> topicDescriptionMap = cluster.getAttribute(KafkaTopicSensor.ATTR_TOPICINFO_MAP_KEY).getValue();
     kafkaAdminClientTopicRequestTimeoutMs = cluster.getKafkaAdminClientTopicRequestTimeoutMilliseconds();
+    TopicOffsetsTable previousOffsets = null;
+    if (cluster.containsAttribute(ATTR_TOPIC_OFFSET_KEY)) {
+      previousOffsets = cluster.getAttribute(ATTR_TOPIC_OFFSET_KEY).getValue();
+    }
 
     try {
-      Map<TopicPartition, TopicPartitionOffsets> topicPartitionOffsetMap = getTopicOffsets(adminClient, topicDescriptionMap.values());
-      setHiddenAttribute(cluster, ATTR_TOPIC_OFFSET_KEY, topicPartitionOffsetMap);
+      TopicOffsetsTable topicOffsets = getTopicOffsets(adminClient, topicDescriptionMap.values(), previousOffsets);
+      setHiddenAttribute(cluster, ATTR_TOPIC_OFFSET_KEY, topicOffsets);
     } catch (InterruptedException | ExecutionException e) {
       logger.log(Level.WARNING, "Failed to populate topic offset info", e);
     }
   }
 
-  private Map<TopicPartition, TopicPartitionOffsets> getTopicOffsets(
-      AdminClient adminClient, Collection<KafkaTopicDescription> kafkaTopicDescriptions) throws
-                                                                                         ExecutionException, InterruptedException {
+  private TopicOffsetsTable getTopicOffsets(AdminClient adminClient,
+                                            Collection<KafkaTopicDescription> kafkaTopicDescriptions,
+                                            TopicOffsetsTable previousOffsets) throws
+                                                                              ExecutionException, InterruptedException {
     long startMs = System.currentTimeMillis();
-    Map<TopicPartition, OffsetSpec> partitionsBeginningOffsetsReq = new HashMap<>();
-    Map<TopicPartition, OffsetSpec> partitionsEndOffsetsReq = new HashMap<>();
-    List<Map<TopicPartition, OffsetSpec>> partitionsBeginningOffsetsReqBatches = new ArrayList<>();
-    List<Map<TopicPartition, OffsetSpec>> partitionsEndOffsetsReqBatches = new ArrayList<>();
+    boolean refreshEarliest = previousOffsets == null
+        || startMs - lastEarliestOffsetRefreshTime >= earliestOffsetRefreshIntervalMs;
+    TopicOffsetsTable topicOffsets = new TopicOffsetsTable(kafkaTopicDescriptions);
+    if (previousOffsets != null) {
+      // partitions of failed batches and beginning offsets that are not due keep their previous value
+      topicOffsets.copyFrom(previousOffsets, true, true);
+    }
 
-    int currentBatchSize = 0;
+    Map<Integer, List<TopicPartition>> partitionsByLeader = new HashMap<>();
+    // partitions that are new since the previous run get their beginning offset right away
+    Map<Integer, List<TopicPartition>> newPartitionsByLeader = new HashMap<>();
     int partitionCount = 0;
     for (KafkaTopicDescription kafkaTopicDescription: kafkaTopicDescriptions) {
       for (KafkaTopicPartitionInfo kafkaTopicPartitionInfo : kafkaTopicDescription.getPartitions()) {
-        TopicPartition topicPartition = new TopicPartition(kafkaTopicDescription.getName(), kafkaTopicPartitionInfo.getPartition());
-        partitionsBeginningOffsetsReq.put(topicPartition, OffsetSpec.earliest());
-        partitionsEndOffsetsReq.put(topicPartition, OffsetSpec.latest());
-        ++currentBatchSize;
-        ++partitionCount;
-        if (currentBatchSize == OFFSET_API_BATCH_SIZE) {
-          partitionsBeginningOffsetsReqBatches.add(partitionsBeginningOffsetsReq);
-          partitionsBeginningOffsetsReq = new HashMap<>();
-          partitionsEndOffsetsReqBatches.add(partitionsEndOffsetsReq);
-          partitionsEndOffsetsReq = new HashMap<>();
-          currentBatchSize = 0;
+        Node leader = kafkaTopicPartitionInfo.getLeader();
+        int leaderId = leader == null || leader.isEmpty() ? NO_LEADER : leader.id();
+        TopicPartition topicPartition =
+            new TopicPartition(kafkaTopicDescription.getName(), kafkaTopicPartitionInfo.getPartition());
+        partitionsByLeader.computeIfAbsent(leaderId, k -> new ArrayList<>()).add(topicPartition);
+        if (!refreshEarliest && !previousOffsets.contains(topicPartition)) {
+          newPartitionsByLeader.computeIfAbsent(leaderId, k -> new ArrayList<>()).add(topicPartition);
         }
+        ++partitionCount;
       }
     }
-    if (currentBatchSize > 0) {
-      partitionsBeginningOffsetsReqBatches.add(partitionsBeginningOffsetsReq);
-      partitionsEndOffsetsReqBatches.add(partitionsEndOffsetsReq);
-    }
 
-    int batchCount = partitionsBeginningOffsetsReqBatches.size();
-    Map<TopicPartition, ListOffsetsResult.ListOffsetsResultInfo> beginningOffsets = new HashMap<>();
-    Map<TopicPartition, ListOffsetsResult.ListOffsetsResultInfo> endOffsets = new HashMap<>();
-    List<KafkaFuture<Map<TopicPartition, ListOffsetsResult.ListOffsetsResultInfo>>> beginningOffsetsFutures = new ArrayList<>();
-    List<KafkaFuture<Map<TopicPartition, ListOffsetsResult.ListOffsetsResultInfo>>> endOffsetsFutures = new ArrayList<>();
     ListOffsetsOptions listOffsetsOptions = new ListOffsetsOptions();
     if (kafkaAdminClientTopicRequestTimeoutMs > 0) {
       listOffsetsOptions.timeoutMs(kafkaAdminClientTopicRequestTimeoutMs);
     }
-    for (int i = 0; i < batchCount; ++i) {
-      beginningOffsetsFutures.add(adminClient.listOffsets(partitionsBeginningOffsetsReqBatches.get(i), listOffsetsOptions).all());
-      endOffsetsFutures.add(adminClient.listOffsets(partitionsEndOffsetsReqBatches.get(i), listOffsetsOptions).all());
+    int currentBatchSize = batchSize;
+    List<KafkaFuture<Void>> futures = new ArrayList<>();
+    AtomicLong totalBatchLatencyMs = new AtomicLong();
+    AtomicInteger failedBatches = new AtomicInteger();
+    for (List<TopicPartition> leaderPartitions : partitionsByLeader.values()) {
+      for (List<TopicPartition> batch : Lists.partition(leaderPartitions, currentBatchSize)) {
+        futures.add(listOffsets(adminClient, batch, OffsetSpec.latest(), listOffsetsOptions,
+            topicOffsets::setEndOffset, totalBatchLatencyMs, failedBatches));
+        if (refreshEarliest) {
+          futures.add(listOffsets(adminClient, batch, OffsetSpec.earliest(), listOffsetsOptions,
+              topicOffsets::setBeginningOffset, totalBatchLatencyMs, failedBatches));
+        }
+      }
     }
-
-    for (KafkaFuture<Map<TopicPartition, ListOffsetsResult.ListOffsetsResultInfo>> f: beginningOffsetsFutures) {
-      beginningOffsets.putAll(f.get());
+    for (List<TopicPartition> leaderPartitions : newPartitionsByLeader.values()) {
+      for (List<TopicPartition> batch : Lists.partition(leaderPartitions, currentBatchSize)) {
+        futures.add(listOffsets(adminClient, batch, OffsetSpec.earliest(), listOffsetsOptions,
+            topicOffsets::setBeginningOffset, totalBatchLatencyMs, failedBatches));
+      }
+    }
+    // failed batches are counted, their partitions keep the previous offsets
+    for (KafkaFuture<Void> future : futures) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        logger.log(Level.FINE, "Offset batch failed", e);
+      }
+    }
+    if (refreshEarliest) {
+      lastEarliestOffsetRefreshTime = startMs;
+    }
+    if (!futures.isEmpty()) {
+      batchSize = nextBatchSize(currentBatchSize, totalBatchLatencyMs.get() / futures.size());
     }
+    if (failedBatches.get() > 0) {
+      logger.warning(String.format("%d of %d offset batches failed, their partitions keep the previous offsets",
+          failedBatches.get(), futures.size()));
+    }
+
+    logger.info(String.format("Spent %d ms on fetching %s offsets of %d partitions in %d batches of up to %d partitions.",
+        System.currentTimeMillis() - startMs, refreshEarliest ? "earliest and latest" : "latest",
+        partitionCount, futures.size(), currentBatchSize));
+    return topicOffsets;
+  }
 
-    for (KafkaFuture<Map<TopicPartition, ListOffsetsResult.ListOffsetsResultInfo>> f: endOffsetsFutures) {
-      endOffsets.putAll(f.get());
+  private KafkaFuture<Void> listOffsets(AdminClient adminClient,
+                                        List<TopicPartition> batch,
+                                        OffsetSpec offsetSpec,
+                                        ListOffsetsOptions listOffsetsOptions,
+                                        BiConsumer<TopicPartition, Long> offsetConsumer,
+                                        AtomicLong totalBatchLatencyMs,
+                                        AtomicInteger failedBatches) {
+    Map<TopicPartition, OffsetSpec> request = new HashMap<>();
+    for (TopicPartition topicPartition : batch) {
+      request.put(topicPartition, offsetSpec);
     }
+    long batchStartMs = System.currentTimeMillis();
+    return adminClient.listOffsets(request, listOffsetsOptions).all().whenComplete((offsets, error) -> {
+      totalBatchLatencyMs.addAndGet(System.currentTimeMillis() - batchStartMs);
+      if (error != null) {
+        failedBatches.incrementAndGet();
+        return;
+      }
+      for (Map.Entry<TopicPartition, ListOffsetsResultInfo> entry : offsets.entrySet()) {
+        offsetConsumer.accept(entry.getKey(), entry.getValue().offset());
+      }
+    }).thenApply(offsets -> null);
+  }
 
-    Map<TopicPartition, TopicPartitionOffsets> topicOffsets = new HashMap<>();
-    partitionsBeginningOffsetsReqBatches.stream().flatMap(m -> m.keySet().stream()).forEach(tp -> {
-      topicOffsets.put(tp,
-          new TopicPartitionOffsets(
-              beginningOffsets.containsKey(tp) ? beginningOffsets.get(tp).offset() : -1,
-              endOffsets.containsKey(tp) ? endOffsets.get(tp).offset() : -1
-          ));
-    });
+  /**
+   * Grow the batch size while batches complete within the target latency and
+   * halve it once they take longer.
+   */
+  @VisibleForTesting
+  int nextBatchSize(int currentBatchSize, long averageBatchLatencyMs) {
+    int next;
+    if (averageBatchLatencyMs > targetBatchLatencyMs) {
+      next = currentBatchSize / 2;
+    } else if (averageBatchLatencyMs < targetBatchLatencyMs / 2) {
+      next = currentBatchSize + currentBatchSize / 2;
+    } else {
+      next = currentBatchSize;
+    }
+    return Math.max(minBatchSize, Math.min(maxBatchSize, next));
+  }
 
-    logger.info(String.format("Spent %d ms on fetching offsets of %d partitions in %d batches.",
-        System.currentTimeMillis() - startMs, partitionCount, batchCount));
-    return topicOffsets;
+  @VisibleForTesting
+  int getBatchSize() {
+    return batchSize;
   }
+
   @Override
   public String getName() {
     return "KafkaTopicOffsetSensor";
   }
+
+  @Override
+  public Set<String> getProducedAttributes() {
+    return ImmutableSet.of(ATTR_TOPIC_OFFSET_KEY);
+  }
+
+  @Override
+  public Set<String> getConsumedAttributes() {
+    return ImmutableSet.of(KafkaTopicSensor.ATTR_TOPICINFO_MAP_KEY);
+  }
 }
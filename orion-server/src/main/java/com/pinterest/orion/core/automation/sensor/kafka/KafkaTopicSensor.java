@@ -22,32 +22,45 @@ import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.pinterest.orion.server.OrionServer;
 import org.apache.kafka.clients.admin.AdminClient;
 import org.apache.kafka.clients.admin.Config;
 import org.apache.kafka.clients.admin.ConfigEntry;
 import org.apache.kafka.clients.admin.DescribeConfigsOptions;
 import org.apache.kafka.clients.admin.DescribeConfigsResult;
+import org.apache.kafka.common.KafkaFuture;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.config.ConfigResource;
 import org.apache.kafka.common.config.ConfigResource.Type;
 import org.apache.kafka.common.requests.DescribeLogDirsResponse.LogDirInfo;
 import org.apache.kafka.common.requests.DescribeLogDirsResponse.ReplicaInfo;
 
+import com.pinterest.orion.core.Attribute;
+import com.pinterest.orion.core.kafka.BrokerReplicaIndex;
 import com.pinterest.orion.core.kafka.KafkaCluster;
+import com.pinterest.orion.core.kafka.KafkaTopicConfigs;
 import com.pinterest.orion.core.kafka.KafkaTopicDescription;
 import com.pinterest.orion.core.kafka.KafkaTopicPartitionInfo;
 import com.pinterest.orion.core.kafka.TopicAssignment;
 
 public class KafkaTopicSensor extends KafkaSensor {
   public static final String ATTR_TOPICINFO_MAP_KEY = "topicinfo";
+  public static final String ATTR_BROKER_REPLICA_INDEX_KEY = "brokerReplicaIndex";
   private static int kafkaAdminClientClusterRequestTimeoutMs = -1; // -1 means using default value.
+  private Attribute lastLogDirsAttribute;
 
   @Override
   public String getName() {
     return "KafkaTopicSensor";
   }
 
+  @Override
+  public Set<String> getProducedAttributes() {
+    return ImmutableSet.of(ATTR_TOPICINFO_MAP_KEY, ATTR_BROKER_REPLICA_INDEX_KEY);
+  }
+
   @Override
   public void sense(KafkaCluster cluster) throws Exception {
     AdminClient adminClient = cluster.getAdminClient();
@@ -64,11 +77,17 @@ public class KafkaTopicSensor extends KafkaSensor {
     kafkaAdminClientClusterRequestTimeoutMs = cluster.getKafkaAdminClientClusterRequestTimeoutMilliseconds();
     Map<String, KafkaTopicDescription> topicDescriptionMap = getTopicDescriptionFromKafka(cluster);
     try {
-      populateTopicBrokersetInfo(assignments, topicDescriptionMap);
-      populateTopicLogDirectoryInfo(cluster, topicDescriptionMap);
-      populateTopicConfigInfo(adminClient, topicDescriptionMap);
-      populateTopicMetrics(cluster, topicDescriptionMap);
+      if (cluster.isTopicInfoChangeDetection()) {
+        topicDescriptionMap = enrichChangedTopics(cluster, adminClient, assignments, topicDescriptionMap);
+      } else {
+        populateTopicBrokersetInfo(assignments, topicDescriptionMap);
+        populateTopicLogDirectoryInfo(cluster, topicDescriptionMap);
+        populateTopicConfigInfo(adminClient, topicDescriptionMap, cluster.getTopicDescribeBatchSize(),
+            cluster.isCompactTopicConfigs());
+        populateTopicMetrics(cluster, topicDescriptionMap);
+      }
 
+      setHiddenAttribute(cluster, ATTR_BROKER_REPLICA_INDEX_KEY, new BrokerReplicaIndex(topicDescriptionMap));
       setAttribute(cluster, ATTR_TOPICINFO_MAP_KEY, topicDescriptionMap);
 
       logger.info(() -> "Updated topic info for cluster: " + cluster.getName());
@@ -77,32 +96,138 @@ public class KafkaTopicSensor extends KafkaSensor {
     }
   }
 
+  /**
+   * Enrich only the topics that changed since the last run and reuse the previously
+   * published description of the others. A topic is recomputed when its partition
+   * layout or brokerset changed, and its configs are fetched again when they are older
+   * than topicConfigRefreshIntervalSeconds. Replica log directory info and topic metrics
+   * of unchanged topics are refreshed only when the log directory sensor published new data.
+   *
+   * @return the enriched topic descriptions to publish
+   */
+  private Map<String, KafkaTopicDescription> enrichChangedTopics(KafkaCluster cluster,
+                                                                 AdminClient adminClient,
+                                                                 List<TopicAssignment> assignments,
+                                                                 Map<String, KafkaTopicDescription> topicDescriptionMap)
+      throws ExecutionException, InterruptedException {
+    Map<String, KafkaTopicDescription> previousTopicDescriptionMap = Collections.emptyMap();
+    if (cluster.containsAttribute(ATTR_TOPICINFO_MAP_KEY)) {
+      previousTopicDescriptionMap = cluster.getAttribute(ATTR_TOPICINFO_MAP_KEY).getValue();
+    }
+    Attribute logDirsAttribute = cluster.getAttribute(KafkaLogDirectorySensor.ATTR_BROKER_LOG_DIRS_KEY);
+    boolean logDirsChanged = logDirsAttribute != lastLogDirsAttribute;
+    Map<String, String> brokersets = new HashMap<>();
+    for (TopicAssignment assignment : assignments) {
+      brokersets.put(assignment.getTopicName(), assignment.getBrokerset());
+    }
+    long configExpiryTime = System.currentTimeMillis()
+        - cluster.getTopicConfigRefreshIntervalSeconds() * 1000L;
+
+    Map<String, KafkaTopicDescription> enriched = new HashMap<>();
+    Map<String, KafkaTopicDescription> refreshed = new HashMap<>();
+    Map<String, KafkaTopicDescription> changed = new HashMap<>();
+    for (Entry<String, KafkaTopicDescription> entry : topicDescriptionMap.entrySet()) {
+      KafkaTopicDescription current = entry.getValue();
+      KafkaTopicDescription previous = previousTopicDescriptionMap.get(entry.getKey());
+      if (previous == null || previous.getTopicConfigs() == null
+          || previous.getConfigFetchTime() < configExpiryTime
+          || !Objects.equals(previous.getBrokersetAlias(), brokersets.get(entry.getKey()))
+          || !previous.hasSameLayout(current)) {
+        changed.put(entry.getKey(), current);
+        refreshed.put(entry.getKey(), current);
+        enriched.put(entry.getKey(), current);
+      } else if (logDirsChanged) {
+        // copy so the published description is never modified
+        KafkaTopicDescription copy = new KafkaTopicDescription(previous);
+        copy.copyEnrichment(previous);
+        refreshed.put(entry.getKey(), copy);
+        enriched.put(entry.getKey(), copy);
+      } else {
+        enriched.put(entry.getKey(), previous);
+      }
+    }
+
+    populateTopicBrokersetInfo(assignments, changed);
+    populateTopicLogDirectoryInfo(cluster, refreshed);
+    populateTopicConfigInfo(adminClient, changed, cluster.getTopicDescribeBatchSize(),
+        cluster.isCompactTopicConfigs());
+    populateTopicMetrics(cluster, refreshed);
+    lastLogDirsAttribute = logDirsAttribute;
+    logger.fine(() -> "Topic info of " + cluster.getClusterId() + ": " + changed.size() + " changed, "
+        + refreshed.size() + " refreshed of " + topicDescriptionMap.size() + " topics");
+    return enriched;
+  }
+
   public static void populateTopicConfigInfo(AdminClient adminClient,
                                          Map<String, KafkaTopicDescription> topicDescriptionMap) throws ExecutionException, InterruptedException {
-    List<ConfigResource> request = topicDescriptionMap.keySet().stream()
-        .map(m -> new ConfigResource(Type.TOPIC, m)).collect(Collectors.toList());
+    populateTopicConfigInfo(adminClient, topicDescriptionMap, KafkaCluster.DEFAULT_TOPIC_DESCRIBE_BATCH_SIZE, false);
+  }
+
+  /**
+   * Describe the configs of the topics in batches of batchSize topics, all batches are
+   * sent before waiting on any of them.
+   *
+   * @param compact if true only the entries that differ from the broker defaults are
+   *                kept per topic, the defaults are shared by all topics
+   */
+  public static void populateTopicConfigInfo(AdminClient adminClient,
+                                             Map<String, KafkaTopicDescription> topicDescriptionMap,
+                                             int batchSize,
+                                             boolean compact) throws ExecutionException, InterruptedException {
     DescribeConfigsOptions describeConfigsOptions = new DescribeConfigsOptions();
     if (kafkaAdminClientClusterRequestTimeoutMs > 0) {
       describeConfigsOptions.timeoutMs(kafkaAdminClientClusterRequestTimeoutMs);
     }
-    DescribeConfigsResult describeConfigs = adminClient.describeConfigs(request, describeConfigsOptions);
-    Map<ConfigResource, Config> map = describeConfigs.all().get();
-    map.entrySet().stream().forEach(e -> {
-      KafkaTopicDescription kafkaTopicDescription = topicDescriptionMap.get(e.getKey().name());
-      if (kafkaTopicDescription != null) {
+    List<DescribeConfigsResult> results = new ArrayList<>();
+    for (List<String> batch : Iterables.partition(topicDescriptionMap.keySet(), batchSize)) {
+      List<ConfigResource> request = batch.stream()
+          .map(m -> new ConfigResource(Type.TOPIC, m)).collect(Collectors.toList());
+      results.add(adminClient.describeConfigs(request, describeConfigsOptions));
+    }
+    KafkaFuture.allOf(results.stream().map(DescribeConfigsResult::all).toArray(KafkaFuture[]::new)).get();
+
+    long fetchTime = System.currentTimeMillis();
+    Map<String, String> sharedDefaults = new HashMap<>();
+    if (compact) {
+      // the first value seen for a non topic-level config is used as the shared default
+      for (DescribeConfigsResult result : results) {
+        for (Config config : result.all().get().values()) {
+          for (ConfigEntry configEntry : config.entries()) {
+            if (!isTopicOverride(configEntry)) {
+              sharedDefaults.putIfAbsent(configEntry.name(), configEntry.value());
+            }
+          }
+        }
+      }
+      sharedDefaults = Collections.unmodifiableMap(sharedDefaults);
+    }
+    for (DescribeConfigsResult result : results) {
+      for (Entry<ConfigResource, Config> e : result.all().get().entrySet()) {
+        KafkaTopicDescription kafkaTopicDescription = topicDescriptionMap.get(e.getKey().name());
+        if (kafkaTopicDescription == null) {
+          continue;
+        }
         Map<String, String> value = new HashMap<>();
         Set<String> overrideConfigs = new HashSet<>();
         for (ConfigEntry configEntry : e.getValue().entries()) {
-          if (configEntry.source().equals(ConfigEntry.ConfigSource.DYNAMIC_TOPIC_CONFIG)
-                  && !configEntry.isDefault()) {
+          if (isTopicOverride(configEntry)) {
             overrideConfigs.add(configEntry.name());
+          } else if (compact && Objects.equals(sharedDefaults.get(configEntry.name()), configEntry.value())) {
+            continue;
           }
           value.put(configEntry.name(), configEntry.value());
         }
-        kafkaTopicDescription.setTopicConfigs(value);
+        kafkaTopicDescription.setTopicConfigs(
+            compact ? new KafkaTopicConfigs(Collections.unmodifiableMap(value), sharedDefaults) : value);
         kafkaTopicDescription.setOverrideConfigs(overrideConfigs);
+        kafkaTopicDescription.setConfigFetchTime(fetchTime);
       }
-    });
+    }
+  }
+
+  private static boolean isTopicOverride(ConfigEntry configEntry) {
+    return configEntry.source().equals(ConfigEntry.ConfigSource.DYNAMIC_TOPIC_CONFIG)
+        && !configEntry.isDefault();
   }
 
   public static void populateTopicBrokersetInfo(List<TopicAssignment> assignments,
@@ -132,7 +257,7 @@ public class KafkaTopicSensor extends KafkaSensor {
             if (tpInfo == null) {
               continue;
             }
-            tpInfo.getReplicaInfo().put(String.valueOf(entry.getKey()), entry3.getValue());
+            tpInfo.putReplicaInfo(entry.getKey(), entry3.getValue());
           }
         }
       }
@@ -141,7 +266,7 @@ public class KafkaTopicSensor extends KafkaSensor {
 
   private Map<String, KafkaTopicDescription> getTopicDescriptionFromKafka(KafkaCluster cluster)
           throws InterruptedException, ExecutionException, TimeoutException {
-    return cluster.getTopicDescriptionFromKafka();
+    return cluster.getTopicDescriptionFromKafka(true);
   }
 
   /**
@@ -184,9 +309,7 @@ public class KafkaTopicSensor extends KafkaSensor {
     // Calculate topic size by looping through all topic partitions and sum up the size of all replicas
     double topicSize = 0;
     for (KafkaTopicPartitionInfo partition : topicDescription.getPartitions()) {
-      for (ReplicaInfo replicaInfo : partition.getReplicaInfo().values()) {
-        topicSize += (double) replicaInfo.size; // Shouldn't reach Double.MAX_VALUE and value overflow is OK.
-      }
+      topicSize += (double) partition.getTotalReplicaSize(); // Shouldn't reach Double.MAX_VALUE and value overflow is OK.
     }
     return topicSize;
   }
@@ -19,7 +19,9 @@ import java.util.Properties;
 
 import com.pinterest.orion.common.NodeInfo;
 import com.pinterest.orion.core.Cluster;
+import com.pinterest.orion.core.state.CheckpointNodeType;
 
+@CheckpointNodeType(id = 32)
 public class RegionServerNode extends HBaseNode {
   
   private static final long serialVersionUID = 1L;
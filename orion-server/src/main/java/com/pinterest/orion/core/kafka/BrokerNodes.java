@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright 2020 Pinterest, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.pinterest.orion.core.kafka;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.apache.kafka.common.Node;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * Immutable list of brokers backed by an int array of broker ids and the
+ * interned {@link Node}s of those brokers.
+ *
+ * Partitions of a cluster are spread over a limited number of distinct replica
+ * assignments, so instances are interned and shared by every partition with the
+ * same replica (or ISR) list instead of each partition holding its own list.
+ */
+final class BrokerNodes extends AbstractList<Node> implements RandomAccess {
+
+  private static final Interner<Node> NODE_INTERNER = Interners.newWeakInterner();
+  private static final Interner<BrokerNodes> INTERNER = Interners.newWeakInterner();
+
+  private final int[] ids;
+  private final Node[] nodes;
+  private final int hash;
+
+  private BrokerNodes(Node[] nodes) {
+    this.nodes = nodes;
+    this.ids = new int[nodes.length];
+    for (int i = 0; i < nodes.length; i++) {
+      ids[i] = nodes[i].id();
+    }
+    this.hash = Arrays.hashCode(nodes);
+  }
+
+  static BrokerNodes of(List<Node> nodes) {
+    Node[] interned = new Node[nodes.size()];
+    for (int i = 0; i < interned.length; i++) {
+      interned[i] = intern(nodes.get(i));
+    }
+    return INTERNER.intern(new BrokerNodes(interned));
+  }
+
+  static Node intern(Node node) {
+    return node == null ? null : NODE_INTERNER.intern(node);
+  }
+
+  @Override
+  public Node get(int index) {
+    return nodes[index];
+  }
+
+  @Override
+  public int size() {
+    return nodes.length;
+  }
+
+  int getId(int index) {
+    return ids[index];
+  }
+
+  int[] getIds() {
+    return ids.clone();
+  }
+
+  boolean containsId(int brokerId) {
+    for (int id : ids) {
+      if (id == brokerId) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o instanceof BrokerNodes) {
+      BrokerNodes other = (BrokerNodes) o;
+      return hash == other.hash && Arrays.equals(nodes, other.nodes);
+    }
+    return super.equals(o);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+}
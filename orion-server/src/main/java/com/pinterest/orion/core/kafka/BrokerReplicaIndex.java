@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Copyright 2020 Pinterest, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.pinterest.orion.core.kafka;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+
+/**
+ * Per-broker view of the partition assignment of a Kafka cluster.
+ *
+ * The index is built once from the partitions of every topic and
+ * keeps, for every broker that hosts at least one replica, the number of
+ * replicas, in-sync replicas and under-replicated partitions it hosts together
+ * with the set of brokers it shares a partition with. Lookups are by broker id
+ * and cost O(log brokers), so callers that need per-broker information no longer
+ * have to scan every partition of the cluster.
+ */
+public class BrokerReplicaIndex {
+
+  private final int[] brokerIds;
+  private final int[] replicaCounts;
+  private final int[] inSyncReplicaCounts;
+  private final int[] urpCounts;
+  private final BitSet[] coReplicas;
+
+  public BrokerReplicaIndex(Map<String, KafkaTopicDescription> topicDescriptions) {
+    int replicaTotal = 0;
+    for (KafkaTopicDescription topicDescription : topicDescriptions.values()) {
+      for (KafkaTopicPartitionInfo partitionInfo : topicDescription.getPartitions()) {
+        replicaTotal += partitionInfo.getReplicas().size();
+      }
+    }
+    int[] allReplicas = new int[replicaTotal];
+    int r = 0;
+    for (KafkaTopicDescription topicDescription : topicDescriptions.values()) {
+      for (KafkaTopicPartitionInfo partitionInfo : topicDescription.getPartitions()) {
+        for (int brokerId : partitionInfo.getReplicaIds()) {
+          allReplicas[r++] = brokerId;
+        }
+      }
+    }
+    Arrays.sort(allReplicas);
+    int distinct = 0;
+    for (int i = 0; i < allReplicas.length; i++) {
+      if (i == 0 || allReplicas[i] != allReplicas[i - 1]) {
+        allReplicas[distinct++] = allReplicas[i];
+      }
+    }
+    brokerIds = Arrays.copyOf(allReplicas, distinct);
+
+    replicaCounts = new int[brokerIds.length];
+    inSyncReplicaCounts = new int[brokerIds.length];
+    urpCounts = new int[brokerIds.length];
+    coReplicas = new BitSet[brokerIds.length];
+    for (int i = 0; i < coReplicas.length; i++) {
+      coReplicas[i] = new BitSet(brokerIds.length);
+    }
+    int[] replicaSlots = new int[0];
+    for (KafkaTopicDescription topicDescription : topicDescriptions.values()) {
+      for (KafkaTopicPartitionInfo partitionInfo : topicDescription.getPartitions()) {
+        int[] replicas = partitionInfo.getReplicaIds();
+        boolean underReplicated = partitionInfo.getIsrs().size() != replicas.length;
+        if (replicaSlots.length < replicas.length) {
+          replicaSlots = new int[replicas.length];
+        }
+        for (int i = 0; i < replicas.length; i++) {
+          int brokerId = replicas[i];
+          int replicaSlot = Arrays.binarySearch(brokerIds, brokerId);
+          replicaSlots[i] = replicaSlot;
+          replicaCounts[replicaSlot]++;
+          if (partitionInfo.isInSync(brokerId)) {
+            inSyncReplicaCounts[replicaSlot]++;
+          }
+          if (underReplicated) {
+            urpCounts[replicaSlot]++;
+          }
+        }
+        for (int i = 0; i < replicas.length; i++) {
+          for (int j = 0; j < replicas.length; j++) {
+            if (i != j) {
+              coReplicas[replicaSlots[i]].set(replicaSlots[j]);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private int slotOf(int brokerId) {
+    int slot = Arrays.binarySearch(brokerIds, brokerId);
+    return slot < 0 ? -1 : slot;
+  }
+
+  /**
+   * @return the ids of the brokers hosting at least one replica, in ascending order
+   */
+  public int[] getBrokerIds() {
+    return brokerIds.clone();
+  }
+
+  public int size() {
+    return brokerIds.length;
+  }
+
+  public boolean containsBroker(int brokerId) {
+    return slotOf(brokerId) >= 0;
+  }
+
+  /**
+   * @return the number of partitions the broker is a replica of
+   */
+  public int getReplicaCount(int brokerId) {
+    int slot = slotOf(brokerId);
+    return slot < 0 ? 0 : replicaCounts[slot];
+  }
+
+  /**
+   * @return the number of partitions the broker is a replica of and in the ISR of
+   */
+  public int getInSyncReplicaCount(int brokerId) {
+    int slot = slotOf(brokerId);
+    return slot < 0 ? 0 : inSyncReplicaCounts[slot];
+  }
+
+  /**
+   * @return the number of partitions the broker is a replica of but not in the ISR of
+   */
+  public int getOutOfSyncReplicaCount(int brokerId) {
+    int slot = slotOf(brokerId);
+    return slot < 0 ? 0 : replicaCounts[slot] - inSyncReplicaCounts[slot];
+  }
+
+  /**
+   * @return the number of under-replicated partitions the broker is a replica of,
+   * regardless of which replica is out of sync
+   */
+  public int getURPCount(int brokerId) {
+    int slot = slotOf(brokerId);
+    return slot < 0 ? 0 : urpCounts[slot];
+  }
+
+  /**
+   * @return true if the broker is in the ISR of every partition it is a replica of
+   */
+  public boolean isInSync(int brokerId) {
+    return getOutOfSyncReplicaCount(brokerId) == 0;
+  }
+
+  /**
+   * @return the ids of the other brokers that share at least one partition with
+   * the broker, in ascending order
+   */
+  public int[] getCoReplicas(int brokerId) {
+    int slot = slotOf(brokerId);
+    if (slot < 0) {
+      return new int[0];
+    }
+    BitSet neighbors = coReplicas[slot];
+    int[] ret = new int[neighbors.cardinality()];
+    int i = 0;
+    for (int n = neighbors.nextSetBit(0); n >= 0; n = neighbors.nextSetBit(n + 1)) {
+      ret[i++] = brokerIds[n];
+    }
+    return ret;
+  }
+}
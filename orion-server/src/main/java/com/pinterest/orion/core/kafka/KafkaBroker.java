@@ -27,8 +27,10 @@ import java.util.Properties;
 import com.pinterest.orion.common.NodeInfo;
 import com.pinterest.orion.core.Node;
 import com.pinterest.orion.core.automation.sensor.kafka.KafkaTopicSensor;
+import com.pinterest.orion.core.state.CheckpointNodeType;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+@CheckpointNodeType(id = 30)
 public class KafkaBroker extends Node {
 
   private static final long serialVersionUID = 1L;
@@ -43,11 +45,11 @@ public class KafkaBroker extends Node {
       Map<String, KafkaTopicDescription> clusterMD = cluster
           .getAttribute(KafkaTopicSensor.ATTR_TOPICINFO_MAP_KEY).getValue();
       Map<String, KafkaBrokerTopicSummary> topicDescriptions = new HashMap<>();
+      int brokerId = Integer.parseInt(currentNodeInfo.getNodeId());
       for (Entry<String, KafkaTopicDescription> entry : clusterMD.entrySet()) {
         KafkaTopicDescription originalDescription = entry.getValue();
         for (KafkaTopicPartitionInfo topicPartitionInfo : originalDescription.getPartitions()) {
-          if (topicPartitionInfo.getReplicas().stream().anyMatch(
-              n -> String.valueOf(n.id()).equalsIgnoreCase(currentNodeInfo.getNodeId()))) {
+          if (topicPartitionInfo.isReplica(brokerId)) {
 
             topicDescriptions
                 .computeIfAbsent(entry.getKey(), KafkaBrokerTopicSummary::new)
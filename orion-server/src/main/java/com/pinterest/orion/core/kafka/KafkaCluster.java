@@ -24,10 +24,11 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -39,8 +40,8 @@ import org.apache.kafka.clients.admin.DescribeConfigsResult;
 import org.apache.kafka.clients.admin.ListTopicsOptions;
 import org.apache.kafka.clients.admin.TopicDescription;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.KafkaFuture;
 import org.apache.kafka.common.config.ConfigResource;
-import org.apache.kafka.common.requests.DescribeLogDirsResponse.ReplicaInfo;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.google.common.collect.Lists;
@@ -78,6 +79,28 @@ public class KafkaCluster extends Cluster {
   protected static final String ATTR_KAFKA_ADMIN_CLIENT_CONSUMER_GROUP_REQUEST_TIMEOUT_MILLISECONDS_KEY =
           "kafkaAdminClientConsumerGroupRequestTimeoutMs";
 
+  // These cluster attributes control how topic metadata is fetched from Kafka.
+  // topicDescribeBatchSize is the number of topics per describeTopics request.
+  // topicMetadataIncrementalRefresh lets KafkaTopicSensor only describe topics that are new or not healthy
+  //    in the cached topicinfo, and reuse the cached metadata of every other topic.
+  // topicMetadataFullRefreshIntervalSeconds is how often an incremental refresh falls back to describing
+  //    every topic, to pick up leadership and ISR changes of topics that looked healthy.
+  protected static final String ATTR_TOPIC_DESCRIBE_BATCH_SIZE_KEY = "topicDescribeBatchSize";
+  protected static final String ATTR_TOPIC_METADATA_INCREMENTAL_REFRESH_KEY = "topicMetadataIncrementalRefresh";
+  protected static final String ATTR_TOPIC_METADATA_FULL_REFRESH_INTERVAL_SECONDS_KEY =
+          "topicMetadataFullRefreshIntervalSeconds";
+  // compactTopicConfigs keeps only the topic specific config entries per topic, broker defaults are shared.
+  protected static final String ATTR_COMPACT_TOPIC_CONFIGS_KEY = "compactTopicConfigs";
+  // topicInfoChangeDetection lets the topic sensor reuse the enriched description of unchanged topics.
+  protected static final String ATTR_TOPIC_INFO_CHANGE_DETECTION_KEY = "topicInfoChangeDetection";
+  protected static final String ATTR_TOPIC_CONFIG_REFRESH_INTERVAL_SECONDS_KEY = "topicConfigRefreshIntervalSeconds";
+  public static final int DEFAULT_TOPIC_DESCRIBE_BATCH_SIZE = 200;
+  public static final long DEFAULT_TOPIC_CONFIG_REFRESH_INTERVAL_SECONDS = 300;
+  public static final long DEFAULT_TOPIC_METADATA_FULL_REFRESH_INTERVAL_SECONDS = 600;
+  // topicMetadataSnapshotTtlMs is how long the topic metadata fetched for health checks is reused.
+  protected static final String ATTR_TOPIC_METADATA_SNAPSHOT_TTL_MILLISECONDS_KEY = "topicMetadataSnapshotTtlMs";
+  public static final long DEFAULT_TOPIC_METADATA_SNAPSHOT_TTL_MS = 5_000L;
+
   private static final long serialVersionUID = 1L;
   private static final Logger logger = Logger.getLogger(KafkaCluster.class.getCanonicalName());
   public static final String ZOOKEEPER_CONNECT = "zookeeper.connect";
@@ -85,6 +108,10 @@ public class KafkaCluster extends Cluster {
   private transient Properties props;
   private AdminClient adminClient;
   private KafkaConsumer<byte[], byte[]> kafkaConsumer;
+  private transient volatile long lastFullTopicRefreshTime = 0;
+  private transient volatile TopicMetadataSnapshot topicMetadataSnapshot;
+  // created lazily since transient fields aren't initialized when the cluster is deserialized
+  private transient volatile AtomicReference<CompletableFuture<TopicMetadataSnapshot>> inflightTopicMetadataSnapshot;
   public static final String ATTR_EBS_VOLUME_SIZE_KEY = "ebs_volume_size";
 
   public KafkaCluster(String clusterId,
@@ -103,8 +130,7 @@ public class KafkaCluster extends Cluster {
   @Override
   public boolean clusterHealthy() {
     try {
-      Map<String, KafkaTopicDescription> urps = getURPFromClusters();
-      return urps.isEmpty();
+      return getTopicMetadataSnapshot().isHealthy();
     } catch (Exception e) {
       logger().log(Level.SEVERE, "Failed to fetch Kafka URP status", e);
       return false;
@@ -113,9 +139,7 @@ public class KafkaCluster extends Cluster {
 
   public boolean brokerHealthy(String brokerId) {
     try {
-      return getURPFromClusters().values().stream().flatMap(ktd -> ktd.getPartitions().stream())
-          .filter(ktpi -> ktpi.getReplicas().stream().anyMatch(n -> n.idString().equals(brokerId)))
-          .allMatch(ktpi -> ktpi.getIsrs().stream().anyMatch(n -> n.idString().equals(brokerId)));
+      return getTopicMetadataSnapshot().isBrokerInSync(Integer.parseInt(brokerId));
     } catch (Exception e) {
       logger().log(Level.SEVERE, "Failed to fetch broker URP status", e);
       return false;
@@ -200,24 +224,52 @@ public class KafkaCluster extends Cluster {
   @JsonIgnore
   public Map<String, KafkaTopicDescription> getTopicDescriptionFromKafka() throws InterruptedException,
                                                                                   ExecutionException, TimeoutException {
+    return getTopicDescriptionFromKafka(false);
+  }
+
+  @JsonIgnore
+  public Map<String, KafkaTopicDescription> getTopicDescriptionFromKafka(boolean allowIncremental) throws InterruptedException,
+                                                                                                          ExecutionException, TimeoutException {
     int kafkaAdminClientTopicRequestTimeoutMs = getKafkaAdminClientTopicRequestTimeoutMilliseconds();
     if (kafkaAdminClientTopicRequestTimeoutMs > 0) {
-      return getTopicDescriptionFromKafka(kafkaAdminClientTopicRequestTimeoutMs);
+      return getTopicDescriptionFromKafka(kafkaAdminClientTopicRequestTimeoutMs, allowIncremental);
     }
-    return getTopicDescriptionFromKafka(DEFAULT_METADATA_TIMEOUT_MS);
+    return getTopicDescriptionFromKafka(DEFAULT_METADATA_TIMEOUT_MS, allowIncremental);
   }
 
   @JsonIgnore
   public Map<String, KafkaTopicDescription> getTopicDescriptionFromKafka(long metadataFetchTimeoutMs)
           throws ExecutionException, InterruptedException, TimeoutException {
+    return getTopicDescriptionFromKafka(metadataFetchTimeoutMs, false);
+  }
+
+  /**
+   * @param allowIncremental whether the refresh may reuse the cached metadata of topics
+   *                         that are still healthy, if incremental refresh is enabled on this
+   *                         cluster and the last full refresh is recent enough
+   */
+  @JsonIgnore
+  public Map<String, KafkaTopicDescription> getTopicDescriptionFromKafka(long metadataFetchTimeoutMs,
+                                                                         boolean allowIncremental)
+          throws ExecutionException, InterruptedException, TimeoutException {
     AdminClient adminClient = getAdminClient();
     Map<String, KafkaTopicDescription> cachedTopicMap = containsAttribute(KafkaTopicSensor.ATTR_TOPICINFO_MAP_KEY)
             ? getAttribute(KafkaTopicSensor.ATTR_TOPICINFO_MAP_KEY).getValue()
             : null;
+    long now = System.currentTimeMillis();
+    boolean incremental = allowIncremental && cachedTopicMap != null && isTopicMetadataIncrementalRefresh()
+        && now - lastFullTopicRefreshTime < getTopicMetadataFullRefreshIntervalSeconds() * 1000;
     Map<String, KafkaTopicDescription> ret = getTopicDescriptions(adminClient, logger(),
                                                                   cachedTopicMap,
                                                                   clusterId,
-                                                                  metadataFetchTimeoutMs);
+                                                                  metadataFetchTimeoutMs,
+                                                                  getTopicDescribeBatchSize(),
+                                                                  incremental);
+    if (allowIncremental && !incremental) {
+      // only full refreshes of the sensor path count, other callers don't publish their
+      // result so they must not postpone the next full refresh of the topic info
+      lastFullTopicRefreshTime = now;
+    }
     // Set the topic cache if the cache has not been created by KafkaTopicSensor.
     // It will be refreshed by KafkaTopicSensor.
     if (!containsAttribute(KafkaTopicSensor.ATTR_TOPICINFO_MAP_KEY) && ret != null) {
@@ -232,6 +284,27 @@ public class KafkaCluster extends Cluster {
                                                                         String clusterId,
                                                                         long metadataFetchTimeoutMs) throws InterruptedException,
                                                                                           ExecutionException, TimeoutException {
+    return getTopicDescriptions(adminClient, logger, cachedTopicMap, clusterId, metadataFetchTimeoutMs,
+        DEFAULT_TOPIC_DESCRIBE_BATCH_SIZE, false);
+  }
+
+  /**
+   * Fetch topic metadata from Kafka. All describeTopics batches are sent up front
+   * and awaited together within metadataFetchTimeoutMs.
+   *
+   * In incremental mode only topics that are missing from cachedTopicMap or have
+   * under-replicated or leaderless partitions in it are described, every other
+   * listed topic reuses a copy of its cached metadata. Deleted topics are dropped
+   * in both modes since only listed topics are returned.
+   */
+  public static Map<String, KafkaTopicDescription> getTopicDescriptions(AdminClient adminClient,
+                                                                        Logger logger,
+                                                                        Map<String, KafkaTopicDescription> cachedTopicMap,
+                                                                        String clusterId,
+                                                                        long metadataFetchTimeoutMs,
+                                                                        int batchSize,
+                                                                        boolean incremental) throws InterruptedException,
+                                                                                          ExecutionException, TimeoutException {
     long start = System.currentTimeMillis();
     Map<String, KafkaTopicDescription> ret = new HashMap<>();
     Set<String> topics;
@@ -250,25 +323,122 @@ public class KafkaCluster extends Cluster {
     if (topics.isEmpty()) {
       return ret;
     }
-    List<Future<Map<String, TopicDescription>>> futures = Lists
-        .partition(new ArrayList<>(topics), Integer.min(topics.size(), 10)).stream()
-        .map(subset -> adminClient.describeTopics(subset).all()).collect(Collectors.toList());
-    for (Future<Map<String, TopicDescription>> f : futures) {
-      ret.putAll(f.get(metadataFetchTimeoutMs, TimeUnit.MILLISECONDS).entrySet().stream().collect(
-          Collectors.toMap(Entry::getKey, entry -> new KafkaTopicDescription(entry.getValue()))));
+    List<String> topicsToDescribe = new ArrayList<>();
+    for (String topic : topics) {
+      KafkaTopicDescription cached = incremental ? cachedTopicMap.get(topic) : null;
+      if (cached == null || !isFullyReplicated(cached)) {
+        topicsToDescribe.add(topic);
+      } else {
+        ret.put(topic, new KafkaTopicDescription(cached));
+      }
+    }
+    if (!topicsToDescribe.isEmpty()) {
+      List<KafkaFuture<Map<String, TopicDescription>>> futures = Lists
+          .partition(topicsToDescribe, Math.max(1, batchSize)).stream()
+          .map(subset -> adminClient.describeTopics(subset).all()).collect(Collectors.toList());
+      KafkaFuture.allOf(futures.toArray(new KafkaFuture<?>[0])).get(metadataFetchTimeoutMs, TimeUnit.MILLISECONDS);
+      for (KafkaFuture<Map<String, TopicDescription>> f : futures) {
+        for (Entry<String, TopicDescription> entry : f.get().entrySet()) {
+          ret.put(entry.getKey(), new KafkaTopicDescription(entry.getValue()));
+        }
+      }
     }
     long desc = System.currentTimeMillis();
     logger.info(
-        String.format("%s:getTopicDescriptionFromKafka: ListTopics %d ms, DescribeTopics %d ms",
-            clusterId, list - start, desc - list));
+        String.format("%s:getTopicDescriptionFromKafka: ListTopics %d ms, DescribeTopics %d ms (%d of %d topics described)",
+            clusterId, list - start, desc - list, topicsToDescribe.size(), topics.size()));
     return ret;
   }
 
+  private static boolean isFullyReplicated(KafkaTopicDescription topicDescription) {
+    for (KafkaTopicPartitionInfo partitionInfo : topicDescription.getPartitions()) {
+      if (partitionInfo.getLeader() == null || partitionInfo.getLeader().isEmpty()
+          || partitionInfo.getIsrs().size() != partitionInfo.getReplicas().size()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   @JsonIgnore
   public Map<String, KafkaTopicDescription> getURPFromClusters() throws InterruptedException,
                                                                         ExecutionException, TimeoutException {
-    Map<String, KafkaTopicDescription> clusterMD = getTopicDescriptionFromKafka();
-    return getURP(clusterMD);
+    return getTopicMetadataSnapshot().getURPs();
+  }
+
+  /**
+   * Returns a snapshot of the topic metadata that is at most topicMetadataSnapshotTtlMs old.
+   * Concurrent callers that find the snapshot expired share a single fetch from Kafka instead
+   * of each fetching the full topic metadata.
+   */
+  @JsonIgnore
+  public TopicMetadataSnapshot getTopicMetadataSnapshot() throws InterruptedException,
+                                                                 ExecutionException, TimeoutException {
+    while (true) {
+      TopicMetadataSnapshot snapshot = topicMetadataSnapshot;
+      if (snapshot != null
+          && System.currentTimeMillis() - snapshot.getFetchTime() < getTopicMetadataSnapshotTtlMs()) {
+        return snapshot;
+      }
+      AtomicReference<CompletableFuture<TopicMetadataSnapshot>> inflightReference = inflightTopicMetadataSnapshot();
+      CompletableFuture<TopicMetadataSnapshot> inflight = inflightReference.get();
+      if (inflight != null) {
+        int timeoutMs = getKafkaAdminClientTopicRequestTimeoutMilliseconds();
+        return awaitTopicMetadataSnapshot(inflight, timeoutMs > 0 ? timeoutMs : DEFAULT_METADATA_TIMEOUT_MS);
+      }
+      CompletableFuture<TopicMetadataSnapshot> fetch = new CompletableFuture<>();
+      if (!inflightReference.compareAndSet(null, fetch)) {
+        continue;
+      }
+      try {
+        long fetchTime = System.currentTimeMillis();
+        snapshot = new TopicMetadataSnapshot(getTopicDescriptionFromKafka(), fetchTime);
+        topicMetadataSnapshot = snapshot;
+        fetch.complete(snapshot);
+        return snapshot;
+      } catch (InterruptedException | ExecutionException | TimeoutException | RuntimeException e) {
+        fetch.completeExceptionally(e);
+        throw e;
+      } finally {
+        inflightReference.set(null);
+      }
+    }
+  }
+
+  private AtomicReference<CompletableFuture<TopicMetadataSnapshot>> inflightTopicMetadataSnapshot() {
+    AtomicReference<CompletableFuture<TopicMetadataSnapshot>> inflightReference = inflightTopicMetadataSnapshot;
+    if (inflightReference == null) {
+      synchronized (this) {
+        if (inflightTopicMetadataSnapshot == null) {
+          inflightTopicMetadataSnapshot = new AtomicReference<>();
+        }
+        inflightReference = inflightTopicMetadataSnapshot;
+      }
+    }
+    return inflightReference;
+  }
+
+  /**
+   * Wait for the fetch of another caller, bounded by the admin client timeout so that
+   * a hung fetch doesn't block every caller.
+   */
+  private static TopicMetadataSnapshot awaitTopicMetadataSnapshot(CompletableFuture<TopicMetadataSnapshot> inflight,
+                                                                  long timeoutMs)
+      throws InterruptedException, ExecutionException, TimeoutException {
+    try {
+      return inflight.get(timeoutMs, TimeUnit.MILLISECONDS);
+    } catch (ExecutionException e) {
+      // surface the same exception the fetching caller got
+      Throwable cause = e.getCause();
+      if (cause instanceof ExecutionException) {
+        throw (ExecutionException) cause;
+      } else if (cause instanceof TimeoutException) {
+        throw (TimeoutException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw e;
+    }
   }
 
   @JsonIgnore
@@ -311,9 +481,7 @@ public class KafkaCluster extends Cluster {
           }
           long totalTopicSize = 0;
           for (KafkaTopicPartitionInfo partition : value.getPartitions()) {
-            for (ReplicaInfo replicaInfo : partition.getReplicaInfo().values()) {
-              totalTopicSize += replicaInfo.size;
-            }
+            totalTopicSize += partition.getTotalReplicaSize();
           }
           totalTopicSize = totalTopicSize / 1024 / 1024;
           double sizePerSecond = ((double) totalTopicSize) / retentionSeconds;
@@ -360,10 +528,8 @@ public class KafkaCluster extends Cluster {
               costForNodeType = costCalculator.getCostForNodeType(nodeType);
             }
             for (KafkaTopicPartitionInfo partition : value.getPartitions()) {
-              replicationFactor += partition.getReplicaInfo().size();
-              for (ReplicaInfo replicaInfo : partition.getReplicaInfo().values()) {
-                totalTopicSize += replicaInfo.size;
-              }
+              replicationFactor += partition.getReplicaInfoCount();
+              totalTopicSize += partition.getTotalReplicaSize();
             }
             replicationFactor = replicationFactor / value.getPartitions().size();
             totalTopicSize = totalTopicSize / 1024 / 1024;
@@ -468,4 +634,51 @@ public class KafkaCluster extends Cluster {
     }
     return timeoutMs;
   }
+
+  public int getTopicDescribeBatchSize() {
+    Object batchSize = getClusterConfMap().get(ATTR_TOPIC_DESCRIBE_BATCH_SIZE_KEY);
+    if (batchSize instanceof Integer && (int) batchSize > 0) {
+      return (int) batchSize;
+    }
+    return DEFAULT_TOPIC_DESCRIBE_BATCH_SIZE;
+  }
+
+  public boolean isTopicMetadataIncrementalRefresh() {
+    Object incremental = getClusterConfMap().get(ATTR_TOPIC_METADATA_INCREMENTAL_REFRESH_KEY);
+    return incremental != null && Boolean.parseBoolean(incremental.toString());
+  }
+
+  public long getTopicMetadataFullRefreshIntervalSeconds() {
+    Object interval = getClusterConfMap().get(ATTR_TOPIC_METADATA_FULL_REFRESH_INTERVAL_SECONDS_KEY);
+    if (interval instanceof Number) {
+      return ((Number) interval).longValue();
+    }
+    return DEFAULT_TOPIC_METADATA_FULL_REFRESH_INTERVAL_SECONDS;
+  }
+
+  public long getTopicMetadataSnapshotTtlMs() {
+    Object ttl = getClusterConfMap().get(ATTR_TOPIC_METADATA_SNAPSHOT_TTL_MILLISECONDS_KEY);
+    if (ttl instanceof Number) {
+      return ((Number) ttl).longValue();
+    }
+    return DEFAULT_TOPIC_METADATA_SNAPSHOT_TTL_MS;
+  }
+
+  public boolean isCompactTopicConfigs() {
+    Object compact = getClusterConfMap().get(ATTR_COMPACT_TOPIC_CONFIGS_KEY);
+    return compact != null && Boolean.parseBoolean(compact.toString());
+  }
+
+  public boolean isTopicInfoChangeDetection() {
+    Object changeDetection = getClusterConfMap().get(ATTR_TOPIC_INFO_CHANGE_DETECTION_KEY);
+    return changeDetection != null && Boolean.parseBoolean(changeDetection.toString());
+  }
+
+  public long getTopicConfigRefreshIntervalSeconds() {
+    Object interval = getClusterConfMap().get(ATTR_TOPIC_CONFIG_REFRESH_INTERVAL_SECONDS_KEY);
+    if (interval instanceof Number) {
+      return ((Number) interval).longValue();
+    }
+    return DEFAULT_TOPIC_CONFIG_REFRESH_INTERVAL_SECONDS;
+  }
 }
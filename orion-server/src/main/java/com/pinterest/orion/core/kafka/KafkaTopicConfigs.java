@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright 2020 Pinterest, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.pinterest.orion.core.kafka;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Read-only topic config map made of the entries specific to one topic layered
+ * over a map of defaults shared by all the topics of a cluster.
+ *
+ * Every topic of a cluster reports the same set of config names, most of them
+ * with the broker default value, so only the entries that differ from the
+ * shared defaults are kept per topic.
+ */
+public class KafkaTopicConfigs extends AbstractMap<String, String> {
+
+  private final Map<String, String> topicEntries;
+  private final Map<String, String> sharedDefaults;
+  private final int size;
+
+  public KafkaTopicConfigs(Map<String, String> topicEntries, Map<String, String> sharedDefaults) {
+    this.topicEntries = topicEntries;
+    this.sharedDefaults = sharedDefaults;
+    int size = topicEntries.size();
+    for (String name : sharedDefaults.keySet()) {
+      if (!topicEntries.containsKey(name)) {
+        size++;
+      }
+    }
+    this.size = size;
+  }
+
+  /**
+   * @return the entries that are specific to this topic
+   */
+  public Map<String, String> getTopicEntries() {
+    return topicEntries;
+  }
+
+  @Override
+  public String get(Object key) {
+    String value = topicEntries.get(key);
+    if (value == null && !topicEntries.containsKey(key)) {
+      value = sharedDefaults.get(key);
+    }
+    return value;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return topicEntries.containsKey(key) || sharedDefaults.containsKey(key);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public Set<Entry<String, String>> entrySet() {
+    return new AbstractSet<Entry<String, String>>() {
+      @Override
+      public Iterator<Entry<String, String>> iterator() {
+        return new Iterator<Entry<String, String>>() {
+          private final Iterator<Entry<String, String>> topicIterator = topicEntries.entrySet().iterator();
+          private final Iterator<Entry<String, String>> defaultsIterator = sharedDefaults.entrySet().iterator();
+          private Entry<String, String> next = advance();
+
+          private Entry<String, String> advance() {
+            if (topicIterator.hasNext()) {
+              return topicIterator.next();
+            }
+            while (defaultsIterator.hasNext()) {
+              Entry<String, String> entry = defaultsIterator.next();
+              if (!topicEntries.containsKey(entry.getKey())) {
+                return entry;
+              }
+            }
+            return null;
+          }
+
+          @Override
+          public boolean hasNext() {
+            return next != null;
+          }
+
+          @Override
+          public Entry<String, String> next() {
+            if (next == null) {
+              throw new NoSuchElementException();
+            }
+            Entry<String, String> ret = next;
+            next = advance();
+            return ret;
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+}
@@ -30,6 +30,7 @@ public class KafkaTopicDescription {
   private Map<String, String> topicConfigs;
   private String brokersetAlias;
   private Set<String> overrideConfigs;
+  private long configFetchTime;
 
   public KafkaTopicDescription(TopicDescription description) {
     this.name = description.name();
@@ -39,6 +40,18 @@ public class KafkaTopicDescription {
     this.overrideConfigs = new HashSet<>();
   }
 
+  /**
+   * Copy the metadata of another topic description, everything populated on top
+   * of the Kafka metadata (configs, brokerset, replica info) is left empty.
+   */
+  public KafkaTopicDescription(KafkaTopicDescription other) {
+    this.name = other.name;
+    this.internal = other.internal;
+    this.partitions = other.partitions.values().stream().map(KafkaTopicPartitionInfo::new)
+        .collect(Collectors.toMap(KafkaTopicPartitionInfo::getPartition, tp -> tp));
+    this.overrideConfigs = new HashSet<>();
+  }
+
   public KafkaTopicDescription(String name,
                                boolean internal,
                                Map<Integer, KafkaTopicPartitionInfo> partitions) {
@@ -135,4 +148,50 @@ public class KafkaTopicDescription {
   public void setOverrideConfigs(Set<String> overrideConfigs) {
     this.overrideConfigs = overrideConfigs;
   }
+
+  /**
+   * @return when the topic configs were fetched from Kafka
+   */
+  public long getConfigFetchTime() {
+    return configFetchTime;
+  }
+
+  /**
+   * @param configFetchTime the configFetchTime to set
+   */
+  public void setConfigFetchTime(long configFetchTime) {
+    this.configFetchTime = configFetchTime;
+  }
+
+  /**
+   * Copy everything populated on top of the Kafka metadata except the replica
+   * log directory info (configs, override configs, brokerset) from another
+   * description of the same topic.
+   */
+  public void copyEnrichment(KafkaTopicDescription other) {
+    this.topicConfigs = other.topicConfigs;
+    this.overrideConfigs = other.overrideConfigs;
+    this.brokersetAlias = other.brokersetAlias;
+    this.configFetchTime = other.configFetchTime;
+  }
+
+  /**
+   * @return true if the other description has the same partitions with the same
+   * leader, replicas and ISRs
+   */
+  public boolean hasSameLayout(KafkaTopicDescription other) {
+    if (partitions.size() != other.partitions.size()) {
+      return false;
+    }
+    for (KafkaTopicPartitionInfo partitionInfo : partitions.values()) {
+      KafkaTopicPartitionInfo otherInfo = other.partitions.get(partitionInfo.getPartition());
+      if (otherInfo == null
+          || !Objects.equals(partitionInfo.getLeader(), otherInfo.getLeader())
+          || !partitionInfo.getReplicas().equals(otherInfo.getReplicas())
+          || !partitionInfo.getIsrs().equals(otherInfo.getIsrs())) {
+        return false;
+      }
+    }
+    return true;
+  }
 }
@@ -15,31 +15,61 @@
  *******************************************************************************/
 package com.pinterest.orion.core.kafka;
 
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 import org.apache.kafka.common.Node;
 import org.apache.kafka.common.TopicPartitionInfo;
 import org.apache.kafka.common.requests.DescribeLogDirsResponse.ReplicaInfo;
 
+/**
+ * Partition metadata kept for every partition of every topic, this is held for
+ * the whole cluster in the topicinfo attribute so it is stored compactly: the
+ * replica and ISR lists are interned int-backed {@link BrokerNodes} shared by
+ * all partitions with the same assignment, and the replica log directory info
+ * is stored column-wise in primitive arrays. The getters return views over
+ * this representation.
+ */
 public class KafkaTopicPartitionInfo {
 
+  private static final int[] NO_BROKERS = new int[0];
+  private static final long[] NO_VALUES = new long[0];
+  private static final boolean[] NO_FLAGS = new boolean[0];
+
   private final int partition;
   private final Node leader;
-  private final List<Node> replicas;
-  private final List<Node> isr;
+  private final BrokerNodes replicas;
+  private final BrokerNodes isr;
   private double mbin;
   private double mbout;
-  private Map<String, ReplicaInfo> replicaInfo;
+  // replica log directory info, one column entry per broker that reported the replica
+  private int[] replicaInfoBrokers = NO_BROKERS;
+  private long[] replicaSizes = NO_VALUES;
+  private long[] replicaOffsetLags = NO_VALUES;
+  private boolean[] futureReplicas = NO_FLAGS;
 
   public KafkaTopicPartitionInfo(TopicPartitionInfo info) {
     this.partition = info.partition();
-    this.leader = info.leader();
-    this.replicas = Collections.unmodifiableList(info.replicas());
-    this.isr = Collections.unmodifiableList(info.isr());
-    this.replicaInfo = new HashMap<>();
+    this.leader = BrokerNodes.intern(info.leader());
+    this.replicas = BrokerNodes.of(info.replicas());
+    this.isr = BrokerNodes.of(info.isr());
+  }
+
+  /**
+   * Copy the partition assignment of another partition info, replica log
+   * directory info is left empty to be populated again.
+   */
+  public KafkaTopicPartitionInfo(KafkaTopicPartitionInfo other) {
+    this.partition = other.partition;
+    this.leader = other.leader;
+    this.replicas = other.replicas;
+    this.isr = other.isr;
   }
 
   /**
@@ -70,6 +100,28 @@ public class KafkaTopicPartitionInfo {
     return isr;
   }
 
+  /**
+   * @return the broker ids of the replicas
+   */
+  public int[] getReplicaIds() {
+    return replicas.getIds();
+  }
+
+  /**
+   * @return the broker ids of the isr
+   */
+  public int[] getIsrIds() {
+    return isr.getIds();
+  }
+
+  public boolean isReplica(int brokerId) {
+    return replicas.containsId(brokerId);
+  }
+
+  public boolean isInSync(int brokerId) {
+    return isr.containsId(brokerId);
+  }
+
   /**
    * @return the mbin
    */
@@ -97,8 +149,81 @@ public class KafkaTopicPartitionInfo {
   public void setMbout(double mbout) {
     this.mbout = mbout;
   }
-  
+
+  /**
+   * @return read-only view of the replica log directory info keyed by broker id
+   */
   public Map<String, ReplicaInfo> getReplicaInfo() {
-    return replicaInfo;
+    return new ReplicaInfoView();
+  }
+
+  public void putReplicaInfo(int brokerId, ReplicaInfo replicaInfo) {
+    int i = 0;
+    while (i < replicaInfoBrokers.length && replicaInfoBrokers[i] != brokerId) {
+      i++;
+    }
+    if (i == replicaInfoBrokers.length) {
+      replicaInfoBrokers = Arrays.copyOf(replicaInfoBrokers, i + 1);
+      replicaSizes = Arrays.copyOf(replicaSizes, i + 1);
+      replicaOffsetLags = Arrays.copyOf(replicaOffsetLags, i + 1);
+      futureReplicas = Arrays.copyOf(futureReplicas, i + 1);
+      replicaInfoBrokers[i] = brokerId;
+    }
+    replicaSizes[i] = replicaInfo.size;
+    replicaOffsetLags[i] = replicaInfo.offsetLag;
+    futureReplicas[i] = replicaInfo.isFuture;
+  }
+
+  /**
+   * @return the number of brokers that reported log directory info for this partition
+   */
+  public int getReplicaInfoCount() {
+    return replicaInfoBrokers.length;
+  }
+
+  /**
+   * @return the sum of the sizes of the replicas of this partition in bytes
+   */
+  public long getTotalReplicaSize() {
+    long total = 0;
+    for (long size : replicaSizes) {
+      total += size;
+    }
+    return total;
+  }
+
+  private class ReplicaInfoView extends AbstractMap<String, ReplicaInfo> {
+
+    @Override
+    public Set<Entry<String, ReplicaInfo>> entrySet() {
+      return new AbstractSet<Entry<String, ReplicaInfo>>() {
+        @Override
+        public Iterator<Entry<String, ReplicaInfo>> iterator() {
+          return new Iterator<Entry<String, ReplicaInfo>>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+              return next < replicaInfoBrokers.length;
+            }
+
+            @Override
+            public Entry<String, ReplicaInfo> next() {
+              if (!hasNext()) {
+                throw new NoSuchElementException();
+              }
+              int i = next++;
+              return new SimpleImmutableEntry<>(String.valueOf(replicaInfoBrokers[i]),
+                  new ReplicaInfo(replicaSizes[i], replicaOffsetLags[i], futureReplicas[i]));
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return replicaInfoBrokers.length;
+        }
+      };
+    }
   }
 }
@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright 2020 Pinterest, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.pinterest.orion.core.kafka;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Point in time view of the topic metadata of a Kafka cluster, with the
+ * under-replicated partitions and the {@link BrokerReplicaIndex} computed once
+ * when the snapshot is taken.
+ */
+public class TopicMetadataSnapshot {
+
+  private final long fetchTime;
+  private final Map<String, KafkaTopicDescription> topicDescriptions;
+  private final Map<String, KafkaTopicDescription> urps;
+  private final BrokerReplicaIndex brokerReplicaIndex;
+
+  public TopicMetadataSnapshot(Map<String, KafkaTopicDescription> topicDescriptions, long fetchTime) {
+    this.fetchTime = fetchTime;
+    this.topicDescriptions = topicDescriptions;
+    Map<String, KafkaTopicDescription> urps = new HashMap<>();
+    for (Entry<String, KafkaTopicDescription> entry : topicDescriptions.entrySet()) {
+      KafkaTopicDescription originalDescription = entry.getValue();
+      for (KafkaTopicPartitionInfo topicPartitionInfo : originalDescription.getPartitions()) {
+        if (topicPartitionInfo.getIsrs().size() == topicPartitionInfo.getReplicas().size()) {
+          continue;
+        }
+        urps.computeIfAbsent(entry.getKey(),
+            k -> new KafkaTopicDescription(originalDescription.getName(),
+                originalDescription.isInternal(), new HashMap<>()))
+            .partitionMap().put(topicPartitionInfo.getPartition(), topicPartitionInfo);
+      }
+    }
+    this.urps = Collections.unmodifiableMap(urps);
+    this.brokerReplicaIndex = new BrokerReplicaIndex(topicDescriptions);
+  }
+
+  public long getFetchTime() {
+    return fetchTime;
+  }
+
+  public Map<String, KafkaTopicDescription> getTopicDescriptions() {
+    return topicDescriptions;
+  }
+
+  /**
+   * @return the under-replicated partitions keyed by topic
+   */
+  public Map<String, KafkaTopicDescription> getURPs() {
+    return urps;
+  }
+
+  public boolean isHealthy() {
+    return urps.isEmpty();
+  }
+
+  /**
+   * @return true if the broker is in the ISR of every partition it is a replica of
+   */
+  public boolean isBrokerInSync(int brokerId) {
+    return brokerReplicaIndex.isInSync(brokerId);
+  }
+
+  public BrokerReplicaIndex getBrokerReplicaIndex() {
+    return brokerReplicaIndex;
+  }
+}
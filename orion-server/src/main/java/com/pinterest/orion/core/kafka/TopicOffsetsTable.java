@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright 2020 Pinterest, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.pinterest.orion.core.kafka;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.kafka.common.TopicPartition;
+
+/**
+ * Beginning and end offsets of every partition of a cluster.
+ *
+ * The offsets are kept in two long arrays, every topic owns a contiguous range
+ * of slots indexed by partition number, so the table costs one small object per
+ * topic instead of several objects per partition.
+ */
+public class TopicOffsetsTable {
+
+  private final Map<String, int[]> topicSlots = new HashMap<>();
+  private final long[] beginningOffsets;
+  private final long[] endOffsets;
+
+  /**
+   * Create a table with a slot for every partition of the topics, all offsets
+   * are set to -1 until they are populated.
+   */
+  public TopicOffsetsTable(Collection<KafkaTopicDescription> topicDescriptions) {
+    int slots = 0;
+    for (KafkaTopicDescription topicDescription : topicDescriptions) {
+      int partitionCount = 0;
+      for (Integer partition : topicDescription.partitionMap().keySet()) {
+        partitionCount = Math.max(partitionCount, partition + 1);
+      }
+      topicSlots.put(topicDescription.getName(), new int[]{slots, partitionCount});
+      slots += partitionCount;
+    }
+    beginningOffsets = new long[slots];
+    endOffsets = new long[slots];
+    Arrays.fill(beginningOffsets, -1);
+    Arrays.fill(endOffsets, -1);
+  }
+
+  private int slotOf(String topic, int partition) {
+    int[] range = topicSlots.get(topic);
+    if (range == null || partition < 0 || partition >= range[1]) {
+      return -1;
+    }
+    return range[0] + partition;
+  }
+
+  public boolean contains(TopicPartition topicPartition) {
+    return slotOf(topicPartition.topic(), topicPartition.partition()) >= 0;
+  }
+
+  /**
+   * @return the beginning offset of the partition, -1 if unknown
+   */
+  public long getBeginningOffset(TopicPartition topicPartition) {
+    int slot = slotOf(topicPartition.topic(), topicPartition.partition());
+    return slot < 0 ? -1 : beginningOffsets[slot];
+  }
+
+  /**
+   * @return the end offset of the partition, -1 if unknown
+   */
+  public long getEndOffset(TopicPartition topicPartition) {
+    int slot = slotOf(topicPartition.topic(), topicPartition.partition());
+    return slot < 0 ? -1 : endOffsets[slot];
+  }
+
+  /**
+   * @return the offsets of the partition, null if the partition is not in the table
+   */
+  public TopicPartitionOffsets get(TopicPartition topicPartition) {
+    int slot = slotOf(topicPartition.topic(), topicPartition.partition());
+    return slot < 0 ? null : new TopicPartitionOffsets(beginningOffsets[slot], endOffsets[slot]);
+  }
+
+  public void setBeginningOffset(TopicPartition topicPartition, long offset) {
+    int slot = slotOf(topicPartition.topic(), topicPartition.partition());
+    if (slot >= 0) {
+      beginningOffsets[slot] = offset;
+    }
+  }
+
+  public void setEndOffset(TopicPartition topicPartition, long offset) {
+    int slot = slotOf(topicPartition.topic(), topicPartition.partition());
+    if (slot >= 0) {
+      endOffsets[slot] = offset;
+    }
+  }
+
+  /**
+   * Copy the offsets of the partitions that are in both tables from another table.
+   *
+   * @param beginning whether to copy the beginning offsets
+   * @param end whether to copy the end offsets
+   */
+  public void copyFrom(TopicOffsetsTable other, boolean beginning, boolean end) {
+    for (Entry<String, int[]> entry : topicSlots.entrySet()) {
+      int[] otherRange = other.topicSlots.get(entry.getKey());
+      if (otherRange == null) {
+        continue;
+      }
+      int[] range = entry.getValue();
+      int length = Math.min(range[1], otherRange[1]);
+      if (beginning) {
+        System.arraycopy(other.beginningOffsets, otherRange[0], beginningOffsets, range[0], length);
+      }
+      if (end) {
+        System.arraycopy(other.endOffsets, otherRange[0], endOffsets, range[0], length);
+      }
+    }
+  }
+
+  /**
+   * @return the number of partition slots in the table
+   */
+  public int size() {
+    return beginningOffsets.length;
+  }
+}
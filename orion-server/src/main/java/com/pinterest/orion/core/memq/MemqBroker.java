@@ -27,7 +27,9 @@ import com.pinterest.orion.core.Node;
 import com.pinterest.orion.core.automation.sensor.memq.Broker;
 import com.pinterest.orion.core.automation.sensor.memq.MemqClusterSensor;
 import com.pinterest.orion.core.automation.sensor.memq.TopicConfig;
+import com.pinterest.orion.core.state.CheckpointNodeType;
 
+@CheckpointNodeType(id = 31)
 public class MemqBroker extends Node {
 
   private static final long serialVersionUID = 1L;
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright 2020 Pinterest, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.pinterest.orion.core.state;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.objenesis.strategy.StdInstantiatorStrategy;
+import org.reflections.Reflections;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.pool.KryoPool;
+import com.esotericsoftware.kryo.serializers.FieldSerializer;
+import com.pinterest.orion.common.Metrics;
+import com.pinterest.orion.common.NodeInfo;
+import com.pinterest.orion.common.StatusInfo;
+import com.pinterest.orion.core.Node;
+
+/**
+ * Kryo configuration shared by the cluster state sinks to encode single nodes.
+ *
+ * Encoded nodes start with a marker byte and the format version. Classes of the
+ * node state are registered with fixed ids and written by the hand-written
+ * serializers in {@link NodeStateSerializers}, so no class names are written for
+ * them and field changes do not invalidate existing checkpoints. Cluster plugins
+ * register their node classes the same way by annotating them with
+ * {@link CheckpointNodeType}. Nodes encoded
+ * before the format was versioned have no marker and are read with the reflective
+ * configuration they were written with; they are written in the current format
+ * the next time they are checkpointed.
+ */
+final class CheckpointKryo {
+
+  private static final Logger logger = Logger.getLogger(CheckpointKryo.class.getCanonicalName());
+  static final int FORMAT_VERSION = 2;
+  private static final byte FORMAT_MARKER = (byte) 0xC5;
+  private static final int MIN_NODE_TYPE_ID = 30;
+  private static final Map<Integer, Class<? extends Node>> NODE_TYPES = findNodeTypes();
+  private static final KryoPool LEGACY_POOL = new KryoPool.Builder(CheckpointKryo::newLegacyKryo)
+      .softReferences().build();
+
+  private CheckpointKryo() {
+  }
+
+  private static Map<Integer, Class<? extends Node>> findNodeTypes() {
+    Map<Integer, Class<? extends Node>> nodeTypes = new TreeMap<>();
+    try {
+      Reflections reflections = new Reflections("com.pinterest.orion.core");
+      for (Class<?> annotatedClass : reflections.getTypesAnnotatedWith(CheckpointNodeType.class, true)) {
+        CheckpointNodeType nodeType = annotatedClass.getAnnotation(CheckpointNodeType.class);
+        if (nodeType == null || !Node.class.isAssignableFrom(annotatedClass)) {
+          logger.severe("Ignoring checkpoint node type " + annotatedClass + ", it is not a node");
+          continue;
+        }
+        if (nodeType.id() < MIN_NODE_TYPE_ID) {
+          logger.severe("Ignoring checkpoint node type " + annotatedClass + ", ids below " + MIN_NODE_TYPE_ID
+              + " are reserved: " + nodeType.id());
+          continue;
+        }
+        Class<? extends Node> previous = nodeTypes.putIfAbsent(nodeType.id(), annotatedClass.asSubclass(Node.class));
+        if (previous != null) {
+          logger.severe("Ignoring checkpoint node type " + annotatedClass + ", id " + nodeType.id()
+              + " is already used by " + previous);
+        }
+      }
+    } catch (Exception e) {
+      logger.log(Level.SEVERE, "Failed to pull checkpoint node types from annotations", e);
+    }
+    return nodeTypes;
+  }
+
+  static KryoPool newPool() {
+    return new KryoPool.Builder(CheckpointKryo::newKryo).softReferences().build();
+  }
+
+  private static Kryo newKryo() {
+    Kryo kryo = new Kryo();
+    kryo.setInstantiatorStrategy(new Kryo.DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
+    // ids are part of the format, never reuse or renumber them
+    kryo.register(NodeInfo.class, new NodeStateSerializers.NodeInfoSerializer(), 20);
+    kryo.register(StatusInfo.class, new NodeStateSerializers.StatusInfoSerializer(), 21);
+    kryo.register(Metrics.class, new NodeStateSerializers.MetricsSerializer(), 22);
+    for (Entry<Integer, Class<? extends Node>> nodeType : NODE_TYPES.entrySet()) {
+      kryo.register(nodeType.getValue(), new NodeStateSerializers.NodeSerializer<>(nodeType.getValue()),
+          nodeType.getKey());
+    }
+    // node types that aren't annotated are written with their class name
+    kryo.addDefaultSerializer(Node.class, (k, type) -> new NodeStateSerializers.NodeSerializer<>(
+        type.asSubclass(Node.class)));
+    return kryo;
+  }
+
+  private static Kryo newLegacyKryo() {
+    Kryo kryo = new Kryo();
+    kryo.setInstantiatorStrategy(new Kryo.DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
+    kryo.addDefaultSerializer(Node.class, (k, type) -> {
+      FieldSerializer<?> serializer = new FieldSerializer<>(k, type);
+      serializer.removeField("cluster");
+      serializer.removeField("cmdQueue");
+      return serializer;
+    });
+    return kryo;
+  }
+
+  static byte[] encode(KryoPool kryoPool, Node node) {
+    return kryoPool.run(kryo -> {
+      Output output = new Output(1024, -1);
+      output.writeByte(FORMAT_MARKER);
+      output.writeVarInt(FORMAT_VERSION, true);
+      kryo.writeClassAndObject(output, node);
+      return output.toBytes();
+    });
+  }
+
+  /**
+   * @return whether the bytes were encoded in the current format
+   */
+  static boolean isCurrentFormat(byte[] bytes) {
+    return bytes.length > 0 && bytes[0] == FORMAT_MARKER;
+  }
+
+  /**
+   * @throws KryoException if the bytes are not a node written by {@link #encode}
+   */
+  static Node decode(KryoPool kryoPool, byte[] bytes) {
+    if (!isCurrentFormat(bytes)) {
+      return LEGACY_POOL.run(kryo -> (Node) kryo.readClassAndObject(new Input(bytes)));
+    }
+    Input input = new Input(bytes);
+    input.readByte();
+    int version = input.readVarInt(true);
+    if (version != FORMAT_VERSION) {
+      throw new KryoException("Unsupported checkpoint format version " + version);
+    }
+    return kryoPool.run(kryo -> (Node) kryo.readClassAndObject(input));
+  }
+}
@@ -17,25 +17,96 @@ package com.pinterest.orion.core.state;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
 
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.pool.KryoPool;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.pinterest.orion.core.Cluster;
 import com.pinterest.orion.core.ClusterStateSink;
+import com.pinterest.orion.core.LazyNodeMap;
+import com.pinterest.orion.core.Node;
 import com.pinterest.orion.core.PluginConfigurationException;
 
+/**
+ * Checkpoints the nodes of every cluster to a snapshot file plus an append-only
+ * delta log in the checkpoint directory.
+ *
+ * The snapshot starts with a format version and an index of the offset, length and
+ * checksum of every node, on restore it is memory-mapped and nodes are decoded from
+ * the mapping when a {@link LazyNodeMap} entry is first accessed. Entries that were
+ * never decoded are checkpointed from their mapped state without decoding them, and
+ * a compaction maps the new snapshot so that the mapping of the old one can be
+ * released. The checksum of a mapped state is only verified when it is decoded or
+ * carried into a new snapshot, so restoring doesn't read the states of the nodes
+ * that are never accessed, and a corrupt state is dropped at that point.
+ *
+ * Every checkpoint serializes the nodes and appends a record only for the nodes
+ * whose state changed, or a tombstone for the nodes that were removed, so the
+ * bytes written scale with the number of changed nodes. The log is folded into a
+ * new snapshot every compactionIntervalSeconds. Snapshots are written to a temp
+ * file, fsynced and atomically renamed, and log appends are fsynced, so a crash
+ * never leaves a half written snapshot and at most loses the torn tail record of
+ * the log. The log is truncated to its last valid record on restore, so that the
+ * records appended afterwards can be read back.
+ */
 public class FileBackedClusterStateSink implements ClusterStateSink {
 
+  private static final Logger logger = Logger.getLogger(FileBackedClusterStateSink.class.getCanonicalName());
+  private static final String CONF_CHECKPOINT_DIRECTORY_KEY = "checkpointDirectory";
+  private static final String CONF_COMPACTION_INTERVAL_SECONDS_KEY = "compactionIntervalSeconds";
+  private static final int SNAPSHOT_MAGIC = 0x4f524e56;
+  private static final int SNAPSHOT_VERSION = 2;
+  // snapshots indexed before the header carried a version
+  private static final int UNVERSIONED_SNAPSHOT_MAGIC = 0x4f524e53;
+  private static final byte RECORD_PUT = 1;
+  private static final byte RECORD_DELETE = 2;
+
   private File checkPointDir;
+  private long compactionIntervalSeconds = 600;
+  private final KryoPool kryoPool = CheckpointKryo.newPool();
+  private final Map<String, ClusterCheckpoint> checkpoints = new ConcurrentHashMap<>();
+  private ScheduledExecutorService compactionExecutor;
 
   @Override
   public void initialize(Map<String, Object> config) throws PluginConfigurationException {
-    String checkPointDirPath = config.getOrDefault("checkpointDirectory", "/tmp/orion").toString();
+    String checkPointDirPath = config.getOrDefault(CONF_CHECKPOINT_DIRECTORY_KEY, "/tmp/orion").toString();
     checkPointDir = new File(checkPointDirPath);
+    if (!checkPointDir.isDirectory() && !checkPointDir.mkdirs()) {
+      throw new PluginConfigurationException("Failed to create checkpoint directory " + checkPointDirPath);
+    }
+    if (config.containsKey(CONF_COMPACTION_INTERVAL_SECONDS_KEY)) {
+      compactionIntervalSeconds = Long.parseLong(config.get(CONF_COMPACTION_INTERVAL_SECONDS_KEY).toString());
+    }
+    if (compactionIntervalSeconds > 0) {
+      compactionExecutor = Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder().setNameFormat("checkpoint-compaction").setDaemon(true).build());
+      compactionExecutor.scheduleWithFixedDelay(this::compactAll, compactionIntervalSeconds,
+          compactionIntervalSeconds, TimeUnit.SECONDS);
+    }
   }
 
   @Override
@@ -45,14 +116,105 @@ public class FileBackedClusterStateSink implements ClusterStateSink {
 
   @Override
   public void serialize(Cluster cluster) {
-    Kryo kryo = new Kryo();
-    try {
-      kryo.writeClassAndObject(
-          new Output(new FileOutputStream(checkPointFileForCluster(cluster.getClusterId()))),
-          cluster);
-    } catch (Exception e) {
-      // TODO Auto-generated catch block
-      e.printStackTrace();
+    String clusterId = cluster.getClusterId();
+    ClusterCheckpoint checkpoint = checkpoints.computeIfAbsent(clusterId, k -> new ClusterCheckpoint());
+    Map<String, ByteBuffer> nodeStates = new HashMap<>();
+    Map<String, Long> checksums = new HashMap<>();
+    Map<String, Node> nodeMap = cluster.getNodeMap();
+    if (nodeMap instanceof LazyNodeMap) {
+      LazyNodeMap lazyNodes = (LazyNodeMap) nodeMap;
+      // entries that were never decoded are unchanged since the restore, their
+      // checksums are still to be verified
+      Map<String, Long> restoredChecksums = checkpoint.checksums;
+      Map<String, ByteBuffer> restoredStates = checkpoint.nodeStates;
+      for (String nodeId : lazyNodes.getPendingKeys()) {
+        ByteBuffer state = restoredStates.get(nodeId);
+        if (state != null) {
+          nodeStates.put(nodeId, state);
+          Long checksum = restoredChecksums.get(nodeId);
+          if (checksum != null) {
+            checksums.put(nodeId, checksum);
+          }
+        } else {
+          Node node = nodeMap.get(nodeId);
+          if (node != null) {
+            nodeStates.put(nodeId, encode(node));
+          }
+        }
+      }
+      lazyNodes.forEachDecoded((nodeId, node) -> nodeStates.put(nodeId, encode(node)));
+    } else {
+      for (Entry<String, Node> entry : nodeMap.entrySet()) {
+        nodeStates.put(entry.getKey(), encode(entry.getValue()));
+      }
+    }
+
+    synchronized (checkpoint) {
+      try {
+        if (!checkpoint.synced) {
+          // nothing is known about the files on disk, start from a full snapshot
+          writeSnapshot(clusterId, nodeStates, checksums);
+          checkpoint.checksums = checksums;
+          checkpoint.nodeStates = nodeStates;
+          checkpoint.logRecords = 0;
+          checkpoint.synced = true;
+          return;
+        }
+        List<Record> delta = new ArrayList<>();
+        for (Entry<String, ByteBuffer> entry : nodeStates.entrySet()) {
+          if (!entry.getValue().equals(checkpoint.nodeStates.get(entry.getKey()))) {
+            delta.add(new Record(RECORD_PUT, entry.getKey(), entry.getValue()));
+          }
+        }
+        for (String nodeId : checkpoint.nodeStates.keySet()) {
+          if (!nodeStates.containsKey(nodeId)) {
+            delta.add(new Record(RECORD_DELETE, nodeId, null));
+          }
+        }
+        if (delta.isEmpty()) {
+          return;
+        }
+        appendToLog(clusterId, delta);
+        checkpoint.checksums = checksums;
+        checkpoint.nodeStates = nodeStates;
+        checkpoint.logRecords += delta.size();
+      } catch (IOException e) {
+        logger.log(Level.SEVERE, "Failed to checkpoint cluster " + clusterId, e);
+        // the files on disk may not match the in-memory view anymore
+        checkpoint.synced = false;
+      }
+    }
+  }
+
+  private ByteBuffer encode(Node node) {
+    return ByteBuffer.wrap(CheckpointKryo.encode(kryoPool, node));
+  }
+
+  /**
+   * Fold the delta log of every cluster into a new snapshot.
+   */
+  @VisibleForTesting
+  void compactAll() {
+    for (Entry<String, ClusterCheckpoint> entry : checkpoints.entrySet()) {
+      ClusterCheckpoint checkpoint = entry.getValue();
+      synchronized (checkpoint) {
+        if (!checkpoint.synced || checkpoint.logRecords == 0) {
+          continue;
+        }
+        try {
+          writeSnapshot(entry.getKey(), checkpoint.nodeStates, checkpoint.checksums);
+          checkpoint.logRecords = 0;
+          // point the states at the new snapshot, the old mapping is released once
+          // nothing references it anymore
+          Map<String, ByteBuffer> nodeStates = new HashMap<>();
+          Map<String, Long> checksums = new HashMap<>();
+          readSnapshot(snapshotFileForCluster(entry.getKey()), nodeStates, checksums);
+          checkpoint.checksums = checksums;
+          checkpoint.nodeStates = nodeStates;
+        } catch (IOException e) {
+          logger.log(Level.SEVERE, "Failed to compact checkpoint of cluster " + entry.getKey(), e);
+        }
+      }
     }
   }
 
@@ -60,19 +222,318 @@ public class FileBackedClusterStateSink implements ClusterStateSink {
     return new File(checkPointDir, clusterId + ".dat");
   }
 
+  protected File snapshotFileForCluster(String clusterId) {
+    return new File(checkPointDir, clusterId + ".snapshot");
+  }
+
+  protected File logFileForCluster(String clusterId) {
+    return new File(checkPointDir, clusterId + ".log");
+  }
+
+  /**
+   * Write the node states to a new snapshot, states whose checksum is still to be
+   * verified are left out if they don't match it.
+   */
+  private void writeSnapshot(String clusterId,
+                             Map<String, ByteBuffer> nodeStates,
+                             Map<String, Long> checksums) throws IOException {
+    List<Entry<String, ByteBuffer>> entries = new ArrayList<>();
+    Output index = new Output(4096, -1);
+    int offset = 0;
+    for (Entry<String, ByteBuffer> entry : nodeStates.entrySet()) {
+      ByteBuffer state = entry.getValue().duplicate();
+      long checksum = checksum(state);
+      Long expectedChecksum = checksums.get(entry.getKey());
+      if (expectedChecksum != null && expectedChecksum != checksum) {
+        logger.warning("Checksum mismatch for node " + entry.getKey() + " of cluster " + clusterId
+            + ", leaving it out of the snapshot");
+        continue;
+      }
+      entries.add(entry);
+      index.writeString(entry.getKey());
+      index.writeInt(offset);
+      index.writeInt(state.remaining());
+      index.writeLong(checksum);
+      offset += state.remaining();
+    }
+
+    File snapshotFile = snapshotFileForCluster(clusterId);
+    File tempFile = new File(checkPointDir, snapshotFile.getName() + ".tmp");
+    try (FileOutputStream fileOutputStream = new FileOutputStream(tempFile);
+         Output output = new Output(fileOutputStream)) {
+      output.writeInt(SNAPSHOT_MAGIC);
+      output.writeInt(SNAPSHOT_VERSION);
+      output.writeInt(index.position() + 4);
+      output.writeInt(entries.size());
+      output.writeBytes(index.getBuffer(), 0, index.position());
+      for (Entry<String, ByteBuffer> entry : entries) {
+        output.writeBytes(toBytes(entry.getValue()));
+      }
+      output.flush();
+      fileOutputStream.getFD().sync();
+    }
+    Files.move(tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+        StandardCopyOption.REPLACE_EXISTING);
+    // the snapshot contains everything the log had, replaying a log that survives a crash
+    // here is harmless since its last record for every node matches the snapshot
+    Files.deleteIfExists(logFileForCluster(clusterId).toPath());
+    syncDirectory();
+  }
+
+  private static long checksum(ByteBuffer state) {
+    CRC32 crc = new CRC32();
+    crc.update(state.duplicate());
+    return crc.getValue();
+  }
+
+  private static byte[] toBytes(ByteBuffer state) {
+    ByteBuffer buffer = state.duplicate();
+    if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.remaining() == buffer.array().length) {
+      return buffer.array();
+    }
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  private void appendToLog(String clusterId, List<Record> records) throws IOException {
+    try (FileOutputStream fileOutputStream = new FileOutputStream(logFileForCluster(clusterId), true);
+         Output output = new Output(fileOutputStream)) {
+      for (Record record : records) {
+        writeRecord(output, record);
+      }
+      output.flush();
+      fileOutputStream.getChannel().force(false);
+    }
+  }
+
+  private void syncDirectory() {
+    try (FileChannel channel = FileChannel.open(checkPointDir.toPath(), StandardOpenOption.READ)) {
+      channel.force(true);
+    } catch (IOException e) {
+      // not every platform allows syncing a directory
+      logger.log(Level.FINE, "Failed to sync checkpoint directory", e);
+    }
+  }
+
+  private static void writeRecord(Output output, Record record) {
+    output.writeByte(record.type);
+    output.writeString(record.nodeId);
+    if (record.type == RECORD_PUT) {
+      byte[] state = toBytes(record.state);
+      output.writeInt(state.length);
+      output.writeBytes(state);
+      output.writeLong(checksum(record.state));
+    }
+  }
+
+  /**
+   * Apply the records of a file to the node states, records are verified as they
+   * are read, so the nodes they replace or remove have no checksum left to verify.
+   *
+   * @param truncate whether to cut the file after the last valid record, so that
+   *                 records appended later aren't hidden behind a corrupt one
+   * @return the number of records that were read
+   */
+  private static int readRecords(File file,
+                                 Map<String, ByteBuffer> nodeStates,
+                                 Map<String, Long> checksums,
+                                 boolean truncate) throws IOException {
+    if (!file.exists()) {
+      return 0;
+    }
+    int count = 0;
+    long validLength = 0;
+    try (Input input = new Input(new FileInputStream(file))) {
+      while (!input.eof()) {
+        byte type = input.readByte();
+        String nodeId = input.readString();
+        checksums.remove(nodeId);
+        if (type == RECORD_DELETE) {
+          nodeStates.remove(nodeId);
+        } else {
+          byte[] state = input.readBytes(input.readInt());
+          CRC32 crc = new CRC32();
+          crc.update(state);
+          if (input.readLong() != crc.getValue()) {
+            logger.warning("Checksum mismatch in " + file + ", ignoring the rest of the file");
+            break;
+          }
+          nodeStates.put(nodeId, ByteBuffer.wrap(state));
+        }
+        count++;
+        validLength = input.total();
+      }
+    } catch (KryoException e) {
+      // a crash during an append leaves a torn record at the tail of the log
+      logger.log(Level.WARNING, "Truncated record in " + file + ", ignoring the rest of the file", e);
+    }
+    if (truncate && file.length() > validLength) {
+      logger.warning("Truncating " + (file.length() - validLength) + " bytes of invalid records in " + file);
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+        channel.truncate(validLength);
+        channel.force(false);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Map the snapshot and read its index, the node states are slices of the mapping.
+   * The checksums of the index are collected rather than verified, so that only the
+   * index is read here.
+   */
+  private static void readSnapshot(File file,
+                                   Map<String, ByteBuffer> nodeStates,
+                                   Map<String, Long> checksums) throws IOException {
+    if (!file.exists()) {
+      return;
+    }
+    MappedByteBuffer mapping;
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    int magic = mapping.remaining() < 8 ? 0 : mapping.getInt(0);
+    int indexStart;
+    if (magic == SNAPSHOT_MAGIC) {
+      int version = mapping.getInt(4);
+      if (version > SNAPSHOT_VERSION) {
+        throw new IOException("Unsupported snapshot version " + version + " in " + file);
+      }
+      indexStart = 12;
+    } else if (magic == UNVERSIONED_SNAPSHOT_MAGIC) {
+      indexStart = 8;
+    } else {
+      // snapshots without an index are a plain sequence of records
+      readRecords(file, nodeStates, checksums, false);
+      return;
+    }
+    int indexLength = mapping.getInt(indexStart - 4);
+    int dataStart = indexStart + indexLength;
+    byte[] index = new byte[indexLength];
+    ByteBuffer indexBuffer = mapping.duplicate();
+    indexBuffer.position(indexStart);
+    indexBuffer.get(index);
+    try (Input input = new Input(index)) {
+      int count = input.readInt();
+      for (int i = 0; i < count; i++) {
+        String nodeId = input.readString();
+        int offset = input.readInt();
+        int length = input.readInt();
+        ByteBuffer state = mapping.duplicate();
+        state.position(dataStart + offset);
+        state.limit(dataStart + offset + length);
+        nodeStates.put(nodeId, state.slice());
+        checksums.put(nodeId, input.readLong());
+      }
+    }
+  }
+
+  private Node decodeNode(String clusterId, String nodeId, ClusterCheckpoint checkpoint) {
+    // read the state from the checkpoint rather than holding on to it, so entries
+    // that are still pending after a compaction don't pin the old mapping
+    ByteBuffer state = checkpoint.nodeStates.get(nodeId);
+    if (state == null) {
+      return null;
+    }
+    Long expectedChecksum = checkpoint.checksums.get(nodeId);
+    if (expectedChecksum != null && expectedChecksum != checksum(state)) {
+      logger.warning("Checksum mismatch for node " + nodeId + " of cluster " + clusterId + ", dropping it");
+      return null;
+    }
+    try {
+      return CheckpointKryo.decode(kryoPool, toBytes(state));
+    } catch (KryoException e) {
+      logger.log(Level.WARNING, "Failed to restore node " + nodeId + " of cluster " + clusterId, e);
+      return null;
+    }
+  }
+
+  @Override
+  public Map<String, Node> deserializeNodes(String clusterId) {
+    File snapshotFile = snapshotFileForCluster(clusterId);
+    File logFile = logFileForCluster(clusterId);
+    if (!snapshotFile.exists() && !logFile.exists()) {
+      return ClusterStateSink.super.deserializeNodes(clusterId);
+    }
+    Map<String, ByteBuffer> nodeStates = new HashMap<>();
+    Map<String, Long> checksums = new HashMap<>();
+    int logRecords;
+    try {
+      readSnapshot(snapshotFile, nodeStates, checksums);
+      logRecords = readRecords(logFile, nodeStates, checksums, true);
+    } catch (IOException e) {
+      logger.log(Level.SEVERE, "Failed to read checkpoint of cluster " + clusterId, e);
+      return null;
+    }
+
+    ClusterCheckpoint checkpoint = checkpoints.computeIfAbsent(clusterId, k -> new ClusterCheckpoint());
+    synchronized (checkpoint) {
+      checkpoint.checksums = checksums;
+      checkpoint.nodeStates = nodeStates;
+      checkpoint.logRecords = logRecords;
+      checkpoint.synced = true;
+    }
+    LazyNodeMap nodes = new LazyNodeMap();
+    for (String nodeId : nodeStates.keySet()) {
+      nodes.putLazy(nodeId, () -> decodeNode(clusterId, nodeId, checkpoint));
+    }
+    return nodes;
+  }
+
+  /**
+   * Stop compacting, the log holds everything that was checkpointed.
+   */
+  @Override
+  public void close() {
+    if (compactionExecutor != null) {
+      compactionExecutor.shutdown();
+      try {
+        compactionExecutor.awaitTermination(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Read a checkpoint written by previous versions of this sink, which dumped the
+   * whole cluster object into a single file.
+   */
   @Override
   public Cluster deserialize(String clusterId) {
     File checkPointFileForCluster = checkPointFileForCluster(clusterId);
     if (checkPointFileForCluster.exists()) {
-      Kryo kryo = new Kryo();
-      try {
-        return (Cluster) kryo.readClassAndObject(new Input(new FileInputStream(checkPointFileForCluster)));
-      } catch (FileNotFoundException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
+      try (Input input = new Input(new FileInputStream(checkPointFileForCluster))) {
+        return (Cluster) new Kryo().readClassAndObject(input);
+      } catch (IOException | KryoException e) {
+        logger.log(Level.SEVERE, "Failed to read legacy checkpoint of cluster " + clusterId, e);
       }
     }
     return null;
   }
 
+  private static final class ClusterCheckpoint {
+    // serialized state of every node as of the last checkpoint or restore, replaced
+    // rather than modified so that pending entries can read it without the lock
+    private volatile Map<String, ByteBuffer> nodeStates = new HashMap<>();
+    // index checksums of the states that are still slices of a snapshot and haven't
+    // been verified yet, replaced before the node states
+    private volatile Map<String, Long> checksums = new HashMap<>();
+    // whether the files on disk match the node states
+    private boolean synced;
+    private int logRecords;
+  }
+
+  private static final class Record {
+    private final byte type;
+    private final String nodeId;
+    private final ByteBuffer state;
+
+    private Record(byte type, String nodeId, ByteBuffer state) {
+      this.type = type;
+      this.nodeId = nodeId;
+      this.state = state;
+    }
+  }
 }
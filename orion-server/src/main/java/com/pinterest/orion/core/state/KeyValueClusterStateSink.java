@@ -0,0 +1,270 @@
+/*******************************************************************************
+ * Copyright 2020 Pinterest, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.pinterest.orion.core.state;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.pool.KryoPool;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.pinterest.orion.core.Cluster;
+import com.pinterest.orion.core.ClusterStateSink;
+import com.pinterest.orion.core.LazyNodeMap;
+import com.pinterest.orion.core.Node;
+import com.pinterest.orion.core.PluginConfigurationException;
+
+/**
+ * Persists node state continuously in a {@link LocalKeyValueStore} keyed by
+ * cluster and node id.
+ *
+ * Agent heartbeats mark their node dirty, a committer thread encodes the dirty
+ * nodes every groupCommitIntervalMs and writes them as a single batch with one
+ * fsync, so a node that heartbeats several times within an interval is written
+ * once. Nodes that fail to encode, for example because a heartbeat changed them
+ * meanwhile, or fail to be written stay dirty for the next commit. The store is
+ * compacted when overwritten values exceed compactionGarbageRatio of its file.
+ */
+public class KeyValueClusterStateSink implements ClusterStateSink {
+
+  private static final Logger logger = Logger.getLogger(KeyValueClusterStateSink.class.getCanonicalName());
+  private static final String CONF_STORE_DIRECTORY_KEY = "storeDirectory";
+  private static final String CONF_GROUP_COMMIT_INTERVAL_MS_KEY = "groupCommitIntervalMs";
+  private static final String CONF_COMPACTION_GARBAGE_RATIO_KEY = "compactionGarbageRatio";
+  private static final String KEY_SEPARATOR = "/";
+
+  private LocalKeyValueStore store;
+  private long groupCommitIntervalMs = 200;
+  private double compactionGarbageRatio = 0.5;
+  private final KryoPool kryoPool = CheckpointKryo.newPool();
+  private final Map<String, Node> dirtyNodes = new ConcurrentHashMap<>();
+  private ScheduledExecutorService committer;
+
+  @Override
+  public void initialize(Map<String, Object> config) throws PluginConfigurationException {
+    String storeDirectory = config.getOrDefault(CONF_STORE_DIRECTORY_KEY, "/tmp/orion/state").toString();
+    if (config.containsKey(CONF_GROUP_COMMIT_INTERVAL_MS_KEY)) {
+      groupCommitIntervalMs = Long.parseLong(config.get(CONF_GROUP_COMMIT_INTERVAL_MS_KEY).toString());
+    }
+    if (config.containsKey(CONF_COMPACTION_GARBAGE_RATIO_KEY)) {
+      compactionGarbageRatio = Double.parseDouble(config.get(CONF_COMPACTION_GARBAGE_RATIO_KEY).toString());
+    }
+    if (compactionGarbageRatio <= 0 || compactionGarbageRatio >= 1) {
+      throw new PluginConfigurationException(CONF_COMPACTION_GARBAGE_RATIO_KEY
+          + " must be between 0 and 1: " + compactionGarbageRatio);
+    }
+    try {
+      store = new LocalKeyValueStore(new File(storeDirectory));
+    } catch (IOException e) {
+      throw new PluginConfigurationException(e);
+    }
+    if (groupCommitIntervalMs > 0) {
+      committer = Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder().setNameFormat("state-group-commit").setDaemon(true).build());
+      committer.scheduleWithFixedDelay(this::commit, groupCommitIntervalMs, groupCommitIntervalMs,
+          TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @Override
+  public String getName() {
+    return "KeyValueClusterStateSink";
+  }
+
+  private static String keyPrefix(String clusterId) {
+    return clusterId + KEY_SEPARATOR;
+  }
+
+  @Override
+  public void checkpointNode(Cluster cluster, String nodeId, Node node) {
+    dirtyNodes.put(keyPrefix(cluster.getClusterId()) + nodeId, node);
+  }
+
+  /**
+   * Write the nodes that changed since the last commit as a single batch.
+   */
+  @VisibleForTesting
+  void commit() {
+    // runs on a scheduled executor, which would cancel the later commits on an exception
+    try {
+      if (dirtyNodes.isEmpty()) {
+        return;
+      }
+      Map<String, Node> nodes = new HashMap<>();
+      for (String key : new ArrayList<>(dirtyNodes.keySet())) {
+        Node node = dirtyNodes.remove(key);
+        if (node != null) {
+          nodes.put(key, node);
+        }
+      }
+      Map<String, byte[]> batch = encode(nodes);
+      if (!write(batch, new ArrayList<>())) {
+        markDirty(nodes, batch.keySet());
+      }
+    } catch (RuntimeException e) {
+      logger.log(Level.SEVERE, "Failed to commit node states", e);
+    }
+  }
+
+  /**
+   * @return the encoded nodes, nodes that fail to encode are marked dirty again
+   */
+  private Map<String, byte[]> encode(Map<String, Node> nodes) {
+    Map<String, byte[]> encoded = new HashMap<>();
+    for (Map.Entry<String, Node> entry : nodes.entrySet()) {
+      try {
+        encoded.put(entry.getKey(), CheckpointKryo.encode(kryoPool, entry.getValue()));
+      } catch (RuntimeException e) {
+        logger.log(Level.WARNING, "Failed to encode node " + entry.getKey() + ", retrying with the next commit", e);
+        dirtyNodes.putIfAbsent(entry.getKey(), entry.getValue());
+      }
+    }
+    return encoded;
+  }
+
+  private void markDirty(Map<String, Node> nodes, Collection<String> keys) {
+    for (String key : keys) {
+      // a newer state from a heartbeat takes precedence
+      dirtyNodes.putIfAbsent(key, nodes.get(key));
+    }
+  }
+
+  /**
+   * @return whether the batch was written
+   */
+  private boolean write(Map<String, byte[]> puts, List<String> deletes) {
+    try {
+      store.write(puts, deletes);
+    } catch (IOException e) {
+      logger.log(Level.SEVERE, "Failed to write " + puts.size() + " node states", e);
+      return false;
+    }
+    try {
+      long fileBytes = store.getFileBytes();
+      if (fileBytes > 0 && fileBytes - store.getLiveBytes() > compactionGarbageRatio * fileBytes) {
+        store.compact();
+      }
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to compact the node state store", e);
+    }
+    return true;
+  }
+
+  /**
+   * Write every node of the cluster and drop the nodes that are no longer part of it.
+   */
+  @Override
+  public void serialize(Cluster cluster) {
+    String prefix = keyPrefix(cluster.getClusterId());
+    Map<String, Node> nodes = new HashMap<>();
+    Set<String> keys = new HashSet<>();
+    Map<String, Node> nodeMap = cluster.getNodeMap();
+    if (nodeMap instanceof LazyNodeMap) {
+      // entries that were never decoded are unchanged in the store
+      for (String nodeId : ((LazyNodeMap) nodeMap).getPendingKeys()) {
+        keys.add(prefix + nodeId);
+      }
+      ((LazyNodeMap) nodeMap).forEachDecoded((nodeId, node) -> nodes.put(prefix + nodeId, node));
+    } else {
+      nodeMap.forEach((nodeId, node) -> nodes.put(prefix + nodeId, node));
+    }
+    for (String key : nodes.keySet()) {
+      dirtyNodes.remove(key);
+      keys.add(key);
+    }
+    Map<String, byte[]> puts = encode(nodes);
+    List<String> deletes = new ArrayList<>();
+    for (String key : store.keys(prefix)) {
+      if (!keys.contains(key)) {
+        deletes.add(key);
+      }
+    }
+    if (!write(puts, deletes)) {
+      markDirty(nodes, puts.keySet());
+    }
+  }
+
+  /**
+   * Stop the committer and write the nodes that are still dirty.
+   */
+  @Override
+  public void close() {
+    if (committer != null) {
+      committer.shutdown();
+      try {
+        committer.awaitTermination(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    commit();
+    try {
+      store.close();
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to close the node state store", e);
+    }
+  }
+
+  @Override
+  public Cluster deserialize(String clusterId) {
+    // the store only holds node state
+    return null;
+  }
+
+  @Override
+  public Map<String, Node> deserializeNodes(String clusterId) {
+    String prefix = keyPrefix(clusterId);
+    List<String> keys = store.keys(prefix);
+    if (keys.isEmpty()) {
+      return null;
+    }
+    LazyNodeMap nodes = new LazyNodeMap();
+    for (String key : keys) {
+      nodes.putLazy(key.substring(prefix.length()), () -> {
+        try {
+          byte[] state = store.get(key);
+          if (state == null) {
+            return null;
+          }
+          Node node = CheckpointKryo.decode(kryoPool, state);
+          if (!CheckpointKryo.isCurrentFormat(state)) {
+            // rewrite nodes of older formats with the next commit
+            dirtyNodes.put(key, node);
+          }
+          return node;
+        } catch (IOException | KryoException e) {
+          logger.log(Level.WARNING, "Failed to restore node " + key, e);
+          return null;
+        }
+      });
+    }
+    return nodes;
+  }
+}
@@ -0,0 +1,279 @@
+/*******************************************************************************
+ * Copyright 2020 Pinterest, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.pinterest.orion.core.state;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Minimal embedded key-value store made of a single append-only data file and a
+ * sorted in-memory index of the position of the latest value of every key.
+ *
+ * Every {@link #write} appends one batch of records and issues a single fsync, so
+ * callers group commits by batching their updates. Overwritten and deleted values
+ * stay in the file until {@link #compact} rewrites the live records to a new file
+ * that atomically replaces the old one. A torn record at the tail of the file, left
+ * by a crash during a write, is truncated when the store is opened.
+ */
+public class LocalKeyValueStore implements Closeable {
+
+  private static final Logger logger = Logger.getLogger(LocalKeyValueStore.class.getCanonicalName());
+  private static final String DATA_FILE_NAME = "store.dat";
+  private static final byte RECORD_PUT = 1;
+  private static final byte RECORD_DELETE = 2;
+
+  private final File directory;
+  private final NavigableMap<String, long[]> index = new TreeMap<>();
+  private FileChannel channel;
+  private long liveBytes;
+
+  public LocalKeyValueStore(File directory) throws IOException {
+    this.directory = directory;
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Failed to create store directory " + directory);
+    }
+    long validLength = loadIndex(dataFile());
+    channel = FileChannel.open(dataFile().toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    if (channel.size() > validLength) {
+      logger.warning("Truncating " + (channel.size() - validLength) + " bytes of torn records in " + dataFile());
+      channel.truncate(validLength);
+    }
+    channel.position(validLength);
+  }
+
+  private File dataFile() {
+    return new File(directory, DATA_FILE_NAME);
+  }
+
+  /**
+   * Replay the data file into the index.
+   *
+   * @return the length of the file up to the last complete record
+   */
+  private long loadIndex(File file) throws IOException {
+    if (!file.exists()) {
+      return 0;
+    }
+    long validLength = 0;
+    try (Input input = new Input(new FileInputStream(file))) {
+      while (!input.eof()) {
+        byte type = input.readByte();
+        String key = input.readString();
+        if (type == RECORD_DELETE) {
+          remove(key);
+        } else {
+          int length = input.readInt();
+          long valuePosition = input.total();
+          byte[] value = input.readBytes(length);
+          if (input.readLong() != checksum(value)) {
+            logger.warning("Checksum mismatch in " + file + " at " + valuePosition);
+            break;
+          }
+          put(key, valuePosition, length);
+        }
+        validLength = input.total();
+      }
+    } catch (KryoException e) {
+      logger.log(Level.WARNING, "Truncated record in " + file, e);
+    }
+    return validLength;
+  }
+
+  private void put(String key, long position, int length) {
+    remove(key);
+    index.put(key, new long[]{position, length});
+    liveBytes += length;
+  }
+
+  private void remove(String key) {
+    long[] previous = index.remove(key);
+    if (previous != null) {
+      liveBytes -= previous[1];
+    }
+  }
+
+  private static long checksum(byte[] value) {
+    CRC32 crc = new CRC32();
+    crc.update(value);
+    return crc.getValue();
+  }
+
+  /**
+   * @return the latest value of the key, null if it is not present
+   */
+  public synchronized byte[] get(String key) throws IOException {
+    long[] location = index.get(key);
+    if (location == null) {
+      return null;
+    }
+    ByteBuffer value = ByteBuffer.allocate((int) location[1]);
+    while (value.hasRemaining()) {
+      if (channel.read(value, location[0] + value.position()) < 0) {
+        throw new IOException("Unexpected end of " + dataFile() + " reading " + key);
+      }
+    }
+    return value.array();
+  }
+
+  /**
+   * @return the keys that start with the prefix, in order
+   */
+  public synchronized List<String> keys(String prefix) {
+    List<String> keys = new ArrayList<>();
+    for (String key : index.tailMap(prefix, true).keySet()) {
+      if (!key.startsWith(prefix)) {
+        break;
+      }
+      keys.add(key);
+    }
+    return keys;
+  }
+
+  /**
+   * @return the keys from fromKey inclusive to toKey exclusive, in order
+   */
+  public synchronized List<String> keys(String fromKey, String toKey) {
+    if (fromKey.compareTo(toKey) >= 0) {
+      return new ArrayList<>();
+    }
+    return new ArrayList<>(index.subMap(fromKey, true, toKey, false).keySet());
+  }
+
+  /**
+   * Durably apply a batch of puts and deletes with a single fsync.
+   */
+  public synchronized void write(Map<String, byte[]> puts, Collection<String> deletes) throws IOException {
+    if (puts.isEmpty() && deletes.isEmpty()) {
+      return;
+    }
+    long start = channel.position();
+    Output output = new Output(4096, -1);
+    Map<String, long[]> locations = new LinkedHashMap<>();
+    for (Entry<String, byte[]> entry : puts.entrySet()) {
+      output.writeByte(RECORD_PUT);
+      output.writeString(entry.getKey());
+      output.writeInt(entry.getValue().length);
+      locations.put(entry.getKey(), new long[]{start + output.position(), entry.getValue().length});
+      output.writeBytes(entry.getValue());
+      output.writeLong(checksum(entry.getValue()));
+    }
+    for (String key : deletes) {
+      output.writeByte(RECORD_DELETE);
+      output.writeString(key);
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(output.getBuffer(), 0, output.position());
+    try {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      channel.force(false);
+    } catch (IOException e) {
+      // drop whatever part of the batch made it to the file
+      channel.truncate(start);
+      channel.position(start);
+      throw e;
+    }
+    for (Entry<String, long[]> location : locations.entrySet()) {
+      put(location.getKey(), location.getValue()[0], (int) location.getValue()[1]);
+    }
+    for (String key : deletes) {
+      remove(key);
+    }
+  }
+
+  /**
+   * @return the bytes of the latest values of all keys
+   */
+  public synchronized long getLiveBytes() {
+    return liveBytes;
+  }
+
+  /**
+   * @return the size of the data file, including overwritten and deleted values
+   */
+  public synchronized long getFileBytes() throws IOException {
+    return channel.size();
+  }
+
+  /**
+   * Rewrite the live records to a new data file and atomically swap it in.
+   */
+  public synchronized void compact() throws IOException {
+    File tempFile = new File(directory, DATA_FILE_NAME + ".tmp");
+    Files.deleteIfExists(tempFile.toPath());
+    NavigableMap<String, long[]> compacted = new TreeMap<>();
+    try (FileChannel tempChannel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE_NEW,
+        StandardOpenOption.WRITE)) {
+      Output output = new Output(4096, -1);
+      long position = 0;
+      for (String key : index.keySet()) {
+        byte[] value = get(key);
+        output.clear();
+        output.writeByte(RECORD_PUT);
+        output.writeString(key);
+        output.writeInt(value.length);
+        compacted.put(key, new long[]{position + output.position(), value.length});
+        output.writeBytes(value);
+        output.writeLong(checksum(value));
+        ByteBuffer buffer = ByteBuffer.wrap(output.getBuffer(), 0, output.position());
+        while (buffer.hasRemaining()) {
+          tempChannel.write(buffer);
+        }
+        position += output.position();
+      }
+      tempChannel.force(true);
+    }
+    channel.close();
+    try {
+      Files.move(tempFile.toPath(), dataFile().toPath(), StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+      index.clear();
+      index.putAll(compacted);
+    } finally {
+      // reopen whichever file is in place so a failed swap keeps the store usable
+      channel = FileChannel.open(dataFile().toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+      channel.position(channel.size());
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    channel.close();
+  }
+}
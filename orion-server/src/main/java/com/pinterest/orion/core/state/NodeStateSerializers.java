@@ -0,0 +1,348 @@
+/*******************************************************************************
+ * Copyright 2020 Pinterest, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.pinterest.orion.core.state;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.pinterest.orion.common.Metric;
+import com.pinterest.orion.common.MetricType;
+import com.pinterest.orion.common.Metrics;
+import com.pinterest.orion.common.NodeInfo;
+import com.pinterest.orion.common.StatusInfo;
+import com.pinterest.orion.common.StatusType;
+import com.pinterest.orion.common.Value;
+import com.pinterest.orion.core.Node;
+
+/**
+ * Hand-written Kryo serializers for the node state that is checkpointed.
+ *
+ * Fields are written explicitly in a fixed order, enums by name, and collections
+ * with a length prefix where -1 stands for null, so the encoding does not depend
+ * on the field layout of the classes. Any change to what is written here must
+ * bump {@link CheckpointKryo#FORMAT_VERSION} and keep reading the older versions.
+ */
+final class NodeStateSerializers {
+
+  private NodeStateSerializers() {
+  }
+
+  /**
+   * Writes the state of {@link Node} explicitly, the fields declared by the node
+   * subclass are written by name so that subclasses can add and drop fields.
+   */
+  static class NodeSerializer<T extends Node> extends Serializer<T> {
+
+    private final Class<T> type;
+    private final Map<String, Field> subclassFields = new LinkedHashMap<>();
+
+    NodeSerializer(Class<T> type) {
+      this.type = type;
+      for (Class<?> clazz = type; clazz != Node.class; clazz = clazz.getSuperclass()) {
+        for (Field field : clazz.getDeclaredFields()) {
+          int modifiers = field.getModifiers();
+          if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+            field.setAccessible(true);
+            subclassFields.putIfAbsent(field.getName(), field);
+          }
+        }
+      }
+    }
+
+    @Override
+    public void write(Kryo kryo, Output output, T node) {
+      kryo.writeObjectOrNull(output, node.getCurrentNodeInfo(), NodeInfo.class);
+      kryo.writeObjectOrNull(output, node.getAgentNodeInfo(), NodeInfo.class);
+      kryo.writeObjectOrNull(output, node.getCurrentNodeMetrics(), Metrics.class);
+      writeEnum(output, node.getNodeStatus());
+      kryo.writeObjectOrNull(output, node.getAgentStatus(), StatusInfo.class);
+      kryo.writeObjectOrNull(output, node.getServiceStatus(), StatusInfo.class);
+      output.writeBoolean(node.isUnderMaintenance());
+      output.writeVarInt(subclassFields.size(), true);
+      for (Field field : subclassFields.values()) {
+        output.writeString(field.getName());
+        try {
+          kryo.writeClassAndObject(output, field.get(node));
+        } catch (IllegalAccessException e) {
+          throw new KryoException(e);
+        }
+      }
+    }
+
+    @Override
+    public T read(Kryo kryo, Input input, Class<T> ignored) {
+      T node = kryo.newInstance(type);
+      node.setCurrentNodeInfo(kryo.readObjectOrNull(input, NodeInfo.class));
+      node.setAgentNodeInfo(kryo.readObjectOrNull(input, NodeInfo.class));
+      node.setCurrentNodeMetrics(kryo.readObjectOrNull(input, Metrics.class));
+      node.setNodeStatus(readEnum(input, Node.NodeStatus.class));
+      node.setAgentStatus(kryo.readObjectOrNull(input, StatusInfo.class));
+      node.setServiceStatus(kryo.readObjectOrNull(input, StatusInfo.class));
+      node.setMaintenance(input.readBoolean());
+      int fieldCount = input.readVarInt(true);
+      for (int i = 0; i < fieldCount; i++) {
+        String name = input.readString();
+        Object value = kryo.readClassAndObject(input);
+        Field field = subclassFields.get(name);
+        // fields that were removed from the class are dropped
+        if (field != null && (value == null || wrap(field.getType()).isInstance(value))) {
+          try {
+            field.set(node, value);
+          } catch (IllegalAccessException e) {
+            throw new KryoException(e);
+          }
+        }
+      }
+      return node;
+    }
+
+    private static Class<?> wrap(Class<?> type) {
+      if (!type.isPrimitive()) {
+        return type;
+      }
+      if (type == int.class) {
+        return Integer.class;
+      } else if (type == long.class) {
+        return Long.class;
+      } else if (type == boolean.class) {
+        return Boolean.class;
+      } else if (type == double.class) {
+        return Double.class;
+      } else if (type == float.class) {
+        return Float.class;
+      } else if (type == short.class) {
+        return Short.class;
+      } else if (type == byte.class) {
+        return Byte.class;
+      }
+      return Character.class;
+    }
+  }
+
+  static class NodeInfoSerializer extends Serializer<NodeInfo> {
+
+    @Override
+    public void write(Kryo kryo, Output output, NodeInfo info) {
+      output.writeLong(info.getTimestamp());
+      output.writeString(info.getNodeId());
+      output.writeString(info.getHostname());
+      output.writeString(info.getIp());
+      output.writeString(info.getClusterId());
+      output.writeInt(info.getServicePort());
+      output.writeLong(info.getLocaltime());
+      output.writeString(info.getRack());
+      output.writeString(info.getNodeType());
+      writeStringMap(output, info.getServiceInfo());
+      writeStringMap(output, info.getAgentSettings());
+      writeStringMap(output, info.getEnvironment());
+      writeStringSet(output, info.getBrokersets());
+      writeStringMap(output, info.getBrokerStatus());
+      Map<String, Double> rawBrokerStatus = info.getRawBrokerStatus();
+      writeLength(output, rawBrokerStatus == null ? -1 : rawBrokerStatus.size());
+      if (rawBrokerStatus != null) {
+        for (Map.Entry<String, Double> entry : rawBrokerStatus.entrySet()) {
+          output.writeString(entry.getKey());
+          output.writeDouble(entry.getValue());
+        }
+      }
+    }
+
+    @Override
+    public NodeInfo read(Kryo kryo, Input input, Class<NodeInfo> type) {
+      NodeInfo info = new NodeInfo();
+      info.setTimestamp(input.readLong());
+      info.setNodeId(input.readString());
+      info.setHostname(input.readString());
+      info.setIp(input.readString());
+      info.setClusterId(input.readString());
+      info.setServicePort(input.readInt());
+      info.setLocaltime(input.readLong());
+      info.setRack(input.readString());
+      info.setNodeType(input.readString());
+      info.setServiceInfo(readStringMap(input));
+      info.setAgentSettings(readStringMap(input));
+      info.setEnvironment(readStringMap(input));
+      info.setBrokersets(readStringSet(input));
+      info.setBrokerStatus(readStringMap(input));
+      int length = readLength(input);
+      if (length >= 0) {
+        Map<String, Double> rawBrokerStatus = new HashMap<>(length * 2);
+        for (int i = 0; i < length; i++) {
+          rawBrokerStatus.put(input.readString(), input.readDouble());
+        }
+        info.setRawBrokerStatus(rawBrokerStatus);
+      }
+      return info;
+    }
+  }
+
+  static class StatusInfoSerializer extends Serializer<StatusInfo> {
+
+    @Override
+    public void write(Kryo kryo, Output output, StatusInfo status) {
+      output.writeLong(status.getUptime());
+      writeEnum(output, status.getStatusType());
+      output.writeString(status.getReason());
+    }
+
+    @Override
+    public StatusInfo read(Kryo kryo, Input input, Class<StatusInfo> type) {
+      StatusInfo status = new StatusInfo();
+      status.setUptime(input.readLong());
+      status.setStatusType(readEnum(input, StatusType.class));
+      status.setReason(input.readString());
+      return status;
+    }
+  }
+
+  static class MetricsSerializer extends Serializer<Metrics> {
+
+    @Override
+    public void write(Kryo kryo, Output output, Metrics metrics) {
+      List<Metric> metricList = metrics.getMetrics();
+      writeLength(output, metricList == null ? -1 : metricList.size());
+      if (metricList == null) {
+        return;
+      }
+      for (Metric metric : metricList) {
+        output.writeString(metric.getSeries());
+        writeStringMap(output, metric.getTags());
+        output.writeLong(metric.getTimestamp());
+        List<Value> values = metric.getValues();
+        writeLength(output, values == null ? -1 : values.size());
+        if (values != null) {
+          for (Value value : values) {
+            writeEnum(output, value.getType());
+            output.writeString(value.getName());
+            output.writeDouble(value.getValue());
+            output.writeBoolean(value.isFp());
+          }
+        }
+        writeStringSet(output, metric.getTransmission());
+      }
+    }
+
+    @Override
+    public Metrics read(Kryo kryo, Input input, Class<Metrics> type) {
+      Metrics metrics = new Metrics();
+      int metricCount = readLength(input);
+      if (metricCount < 0) {
+        metrics.setMetrics(null);
+        return metrics;
+      }
+      for (int i = 0; i < metricCount; i++) {
+        Metric metric = new Metric();
+        metric.setSeries(input.readString());
+        metric.setTags(readStringMap(input));
+        metric.setTimestamp(input.readLong());
+        int valueCount = readLength(input);
+        if (valueCount >= 0) {
+          List<Value> values = new ArrayList<>(valueCount);
+          for (int j = 0; j < valueCount; j++) {
+            MetricType metricType = readEnum(input, MetricType.class);
+            String name = input.readString();
+            double value = input.readDouble();
+            values.add(new Value(metricType, name, value, input.readBoolean()));
+          }
+          metric.setValues(values);
+        }
+        metric.setTransmission(readStringSet(input));
+        metrics.addToMetrics(metric);
+      }
+      return metrics;
+    }
+  }
+
+  private static void writeLength(Output output, int length) {
+    output.writeVarInt(length + 1, true);
+  }
+
+  private static int readLength(Input input) {
+    return input.readVarInt(true) - 1;
+  }
+
+  private static void writeEnum(Output output, Enum<?> value) {
+    output.writeString(value == null ? null : value.name());
+  }
+
+  private static <E extends Enum<E>> E readEnum(Input input, Class<E> type) {
+    String name = input.readString();
+    if (name == null) {
+      return null;
+    }
+    try {
+      return Enum.valueOf(type, name);
+    } catch (IllegalArgumentException e) {
+      // constants that no longer exist are dropped
+      return null;
+    }
+  }
+
+  private static void writeStringMap(Output output, Map<String, String> map) {
+    writeLength(output, map == null ? -1 : map.size());
+    if (map != null) {
+      for (Map.Entry<String, String> entry : map.entrySet()) {
+        output.writeString(entry.getKey());
+        output.writeString(entry.getValue());
+      }
+    }
+  }
+
+  private static Map<String, String> readStringMap(Input input) {
+    int length = readLength(input);
+    if (length < 0) {
+      return null;
+    }
+    Map<String, String> map = new HashMap<>(length * 2);
+    for (int i = 0; i < length; i++) {
+      map.put(input.readString(), input.readString());
+    }
+    return map;
+  }
+
+  private static void writeStringSet(Output output, Set<String> set) {
+    writeLength(output, set == null ? -1 : set.size());
+    if (set != null) {
+      for (String value : set) {
+        output.writeString(value);
+      }
+    }
+  }
+
+  private static Set<String> readStringSet(Input input) {
+    int length = readLength(input);
+    if (length < 0) {
+      return null;
+    }
+    Set<String> set = new HashSet<>(length * 2);
+    for (int i = 0; i < length; i++) {
+      set.add(input.readString());
+    }
+    return set;
+  }
+}
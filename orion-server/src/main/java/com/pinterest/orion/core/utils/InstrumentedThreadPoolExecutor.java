@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright 2020 Pinterest, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.pinterest.orion.core.utils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.pinterest.orion.server.OrionServer;
+
+import io.dropwizard.metrics5.Counter;
+import io.dropwizard.metrics5.Gauge;
+import io.dropwizard.metrics5.Histogram;
+import io.dropwizard.metrics5.MetricName;
+
+/**
+ * Thread pool with a bounded number of named daemon threads and a bounded queue
+ * that reports its queue depth, active threads, queue wait time, execution time
+ * and rejected tasks to the {@link OrionServer#METRICS} registry under the given
+ * metric name.
+ *
+ * Threads are created up to maxThreads before tasks are queued and time out when
+ * idle. Tasks submitted while the queue is full are passed to the rejection handler.
+ * A pool with a queue size of 0 hands tasks directly to its threads, tasks submitted
+ * while all threads are busy are passed to the rejection handler.
+ */
+public class InstrumentedThreadPoolExecutor extends ThreadPoolExecutor {
+
+  private static final Logger logger = Logger.getLogger(InstrumentedThreadPoolExecutor.class.getCanonicalName());
+  private static final long KEEP_ALIVE_SECONDS = 60;
+
+  private final MetricName metricName;
+  private final Histogram waitTime;
+  private final Histogram executionTime;
+  private final Counter rejected;
+  private final Gauge<Integer> queueDepth = () -> getQueue().size();
+  private final Gauge<Integer> activeThreads = this::getActiveCount;
+
+  /**
+   * @param metricName name the metrics of this pool are reported under
+   * @param threadNameFormat format of the thread names, %d is replaced by the thread number
+   * @param maxThreads maximum number of threads
+   * @param queueSize maximum number of tasks waiting for a thread, 0 for none
+   * @param rejectionHandler handles the tasks submitted while the queue is full
+   */
+  public InstrumentedThreadPoolExecutor(MetricName metricName,
+                                        String threadNameFormat,
+                                        int maxThreads,
+                                        int queueSize,
+                                        RejectedExecutionHandler rejectionHandler) {
+    super(maxThreads, maxThreads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+        queueSize == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(queueSize),
+        new ThreadFactoryBuilder().setNameFormat(threadNameFormat).setDaemon(true).build());
+    allowCoreThreadTimeOut(true);
+    this.metricName = metricName;
+    this.waitTime = OrionServer.METRICS.histogram(metricName.resolve("wait_ms"));
+    this.executionTime = OrionServer.METRICS.histogram(metricName.resolve("execution_ms"));
+    this.rejected = OrionServer.METRICS.counter(metricName.resolve("rejected"));
+    setRejectedExecutionHandler((task, executor) -> {
+      rejected.inc();
+      logger.warning("Queue of " + metricName + " is full with " + getQueue().size() + " tasks");
+      rejectionHandler.rejectedExecution(unwrap(task), executor);
+    });
+    registerGauge(metricName.resolve("queue_depth"), queueDepth);
+    registerGauge(metricName.resolve("active_threads"), activeThreads);
+  }
+
+  private static void registerGauge(MetricName name, Gauge<Integer> gauge) {
+    // replaces the gauge of a previous pool with the same name
+    OrionServer.METRICS.remove(name);
+    OrionServer.METRICS.register(name, gauge);
+  }
+
+  private static void removeGauge(MetricName name, Gauge<Integer> gauge) {
+    OrionServer.METRICS.removeMatching((registered, metric) -> registered.equals(name) && metric == gauge);
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    super.execute(new TimedTask(command));
+  }
+
+  @Override
+  protected void terminated() {
+    super.terminated();
+    removeGauge(metricName.resolve("queue_depth"), queueDepth);
+    removeGauge(metricName.resolve("active_threads"), activeThreads);
+  }
+
+  private static Runnable unwrap(Runnable task) {
+    return task instanceof TimedTask ? ((TimedTask) task).task : task;
+  }
+
+  private final class TimedTask implements Runnable {
+
+    private final Runnable task;
+    private final long enqueueTime = System.nanoTime();
+
+    private TimedTask(Runnable task) {
+      this.task = task;
+    }
+
+    @Override
+    public void run() {
+      long start = System.nanoTime();
+      waitTime.update(TimeUnit.NANOSECONDS.toMillis(start - enqueueTime));
+      try {
+        task.run();
+      } finally {
+        executionTime.update(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      }
+    }
+  }
+}
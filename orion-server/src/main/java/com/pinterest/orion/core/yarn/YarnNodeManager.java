@@ -3,7 +3,9 @@ package com.pinterest.orion.core.yarn;
 import java.util.Properties;
 
 import com.pinterest.orion.common.NodeInfo;
+import com.pinterest.orion.core.state.CheckpointNodeType;
 
+@CheckpointNodeType(id = 33)
 public class YarnNodeManager extends YarnNode {
 
   private static final long serialVersionUID = 1L;
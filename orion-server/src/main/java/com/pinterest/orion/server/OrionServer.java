@@ -42,6 +42,7 @@ import com.pinterest.orion.core.automation.operator.Operator;
 import com.pinterest.orion.core.automation.operator.OperatorFactory;
 import com.pinterest.orion.core.automation.sensor.Sensor;
 import com.pinterest.orion.core.automation.sensor.SensorFactory;
+import com.pinterest.orion.core.automation.sensor.SensorScheduler;
 import com.pinterest.orion.core.configs.ClusterConfig;
 import com.pinterest.orion.core.configs.PluginConfig;
 import com.pinterest.orion.core.global.sensor.GlobalPluginManager;
@@ -70,6 +71,7 @@ import io.dropwizard.jersey.DropwizardResourceConfig;
 import io.dropwizard.jersey.jackson.JacksonMessageBodyProvider;
 import io.dropwizard.jersey.setup.JerseyContainerHolder;
 import io.dropwizard.jersey.setup.JerseyEnvironment;
+import io.dropwizard.lifecycle.AutoCloseableManager;
 import io.dropwizard.metrics5.MetricRegistry;
 import io.dropwizard.metrics5.SharedMetricRegistries;
 import io.dropwizard.setup.Bootstrap;
@@ -107,6 +109,9 @@ public class OrionServer extends Application<OrionConf> {
 
     ActionAuditor actionAuditor = initializeActionAuditor(configuration);
     ClusterStateSink clusterStateSink = initializeClusterStateSink(configuration);
+    if (clusterStateSink != null) {
+      environment.lifecycle().manage(new AutoCloseableManager(clusterStateSink::close));
+    }
     OrionPluginConfig pluginConfigs = configuration.getPlugins();
     MetricsStore metricsStore = initializeMetricsStore(configuration);
     CostCalculator costCalculator = initializeCostCalculator(configuration);
@@ -115,6 +120,7 @@ public class OrionServer extends Application<OrionConf> {
     registerAdminAPIs(environment, configuration);
     registerAPIs(environment, configuration);
     initializeGlobalPlugins(configuration, environment);
+    SensorScheduler.initialize(configuration.getSensorSchedulerConfigs());
     initializeClusters(configuration);
     initializeMetrics(configuration, environment);
     additionalModules(configuration, environment);
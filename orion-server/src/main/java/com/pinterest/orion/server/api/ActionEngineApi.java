@@ -15,7 +15,9 @@
  *******************************************************************************/
 package com.pinterest.orion.server.api;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import javax.validation.constraints.NotNull;
 import javax.ws.rs.GET;
@@ -23,11 +25,14 @@ import javax.ws.rs.NotFoundException;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 
 import com.pinterest.orion.core.Cluster;
 import com.pinterest.orion.core.ClusterManager;
 import com.pinterest.orion.core.actions.Action;
+import com.pinterest.orion.core.actions.audit.ActionAuditor;
+import com.pinterest.orion.core.actions.audit.HistoricAction;
 import com.pinterest.orion.core.utils.OrionUUID;
 
 @Path("/clusters/{clusterId}/actions")
@@ -44,6 +49,26 @@ public class ActionEngineApi extends BaseClustersApi {
     return cluster.getActionEngine().getTrackedActionsList();
   }
 
+  /**
+   * Audited actions of the cluster completed in the time range, by default the
+   * last day. Unlike the tracked actions this covers the audit retention of the
+   * server rather than the last day only.
+   */
+  @Path("/history")
+  @GET
+  public List<HistoricAction> getActionHistory(@PathParam("clusterId") @NotNull String clusterId,
+                                               @QueryParam("startTime") Long startTime,
+                                               @QueryParam("endTime") Long endTime) {
+    checkAndGetCluster(clusterId);
+    ActionAuditor actionAuditor = mgr.getActionAuditor();
+    if (actionAuditor == null) {
+      return Collections.emptyList();
+    }
+    long end = endTime != null ? endTime : System.currentTimeMillis();
+    long start = startTime != null ? startTime : end - TimeUnit.DAYS.toMillis(1);
+    return actionAuditor.getActions(clusterId, start, end);
+  }
+
 //  @Path("/{actionKey}")
 //  @GET
   public Action getAction(@PathParam("clusterId") @NotNull String clusterId,
@@ -18,21 +18,71 @@ package com.pinterest.orion.server.api;
 import java.io.IOException;
 
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.ObjectCodec;
 import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializerProvider;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.pinterest.orion.core.Attribute;
 
+/**
+ * Writes the value of an attribute.
+ *
+ * The JSON of an attribute is cached against the attribute instance and its
+ * version, so attributes that didn't change since the last request, like large
+ * topic descriptions polled by dashboards, are copied into the response instead of
+ * being serialized again.
+ */
 public class AttributeSerializer extends JsonSerializer<Attribute> {
 
+  private static final long MAX_CACHED_CHARS = 256L * 1024 * 1024;
+  // attributes are weakly referenced and compared by identity, a replaced attribute
+  // drops out of the cache once it is garbage collected
+  private static final Cache<Attribute, CachedJson> CACHE = CacheBuilder.newBuilder()
+      .weakKeys()
+      .maximumWeight(MAX_CACHED_CHARS)
+      .<Attribute, CachedJson>weigher((attribute, cached) -> cached.json.length())
+      .build();
+
   @Override
   public void serialize(Attribute value,
                         JsonGenerator gen,
                         SerializerProvider serializers) throws IOException {
-    if (value != null) {
-      gen.writeObject(value.getValue());
-    } else {
+    if (value == null) {
       gen.writeObject(null);
+      return;
+    }
+    ObjectCodec codec = gen.getCodec();
+    if (!(codec instanceof ObjectMapper)) {
+      gen.writeObject(value.getValue());
+      return;
+    }
+    long version = value.getVersion();
+    CachedJson cached = CACHE.getIfPresent(value);
+    if (cached == null || cached.version != version || cached.codec != codec) {
+      cached = new CachedJson(codec, version, ((ObjectMapper) codec).writeValueAsString(value.getValue()));
+      CACHE.put(value, cached);
+    }
+    gen.writeRawValue(cached.json);
+  }
+
+  @VisibleForTesting
+  static void invalidateCache() {
+    CACHE.invalidateAll();
+  }
+
+  private static final class CachedJson {
+    private final ObjectCodec codec;
+    private final long version;
+    private final String json;
+
+    private CachedJson(ObjectCodec codec, long version, String json) {
+      this.codec = codec;
+      this.version = version;
+      this.json = json;
     }
   }
 
-}
\ No newline at end of file
+}
@@ -18,6 +18,7 @@ package com.pinterest.orion.server.api;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.pinterest.orion.core.Attribute;
 import com.pinterest.orion.core.ClusterManager;
+import com.pinterest.orion.core.LazyNodeMap;
 
 import io.dropwizard.jersey.setup.JerseyEnvironment;
 import io.dropwizard.setup.Environment;
@@ -28,6 +29,7 @@ public abstract class CustomApiFactory extends SimpleModule {
 
   public CustomApiFactory() {
     addSerializer(Attribute.class, new AttributeSerializer());
+    addSerializer(LazyNodeMap.class, new LazyNodeMapSerializer());
   }
 
   public abstract void registerAPIs(Environment globalEnv,
@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright 2020 Pinterest, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.pinterest.orion.server.api;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.pinterest.orion.core.LazyNodeMap;
+
+/**
+ * Writes the nodes of a cluster.
+ *
+ * Restored nodes that haven't been accessed yet are decoded for the response only,
+ * so polling the cluster doesn't keep every checkpointed node decoded in memory.
+ */
+public class LazyNodeMapSerializer extends JsonSerializer<LazyNodeMap> {
+
+  @Override
+  public void serialize(LazyNodeMap value,
+                        JsonGenerator gen,
+                        SerializerProvider serializers) throws IOException {
+    gen.writeStartObject();
+    try {
+      value.forEachPeeked((nodeId, node) -> {
+        try {
+          gen.writeFieldName(nodeId);
+          serializers.defaultSerializeValue(node, gen);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    gen.writeEndObject();
+  }
+}
@@ -40,6 +40,7 @@ public class OrionConf extends Configuration {
   private Map<String, Object> additionalConfigs = new HashMap<>();
   private PluginConfig metricsStoreConfigs;
   private List<PluginConfig> globalSensorConfigs;
+  private Map<String, Object> sensorSchedulerConfigs;
 
   public List<ClusterConfig> getClusterConfigs() {
     return clusterConfigs;
@@ -171,6 +172,20 @@ public class OrionConf extends Configuration {
     this.globalSensorConfigs = globalSensorConfigs;
   }
 
+  /**
+   * @return the sensorSchedulerConfigs
+   */
+  public Map<String, Object> getSensorSchedulerConfigs() {
+    return sensorSchedulerConfigs;
+  }
+
+  /**
+   * @param sensorSchedulerConfigs the sensorSchedulerConfigs to set
+   */
+  public void setSensorSchedulerConfigs(Map<String, Object> sensorSchedulerConfigs) {
+    this.sensorSchedulerConfigs = sensorSchedulerConfigs;
+  }
+
   /* (non-Javadoc)
    * @see java.lang.Object#toString()
    */
@@ -181,6 +196,6 @@ public class OrionConf extends Configuration {
         + actionAuditorConfigs + ", clusterStateSinkConfigs=" + clusterStateSinkConfigs
         + ", alertConfigs=" + alertConfigs + ", plugins=" + plugins + ", statsConfiguration="
         + statsConfiguration + ", additionalConfigs=" + additionalConfigs + ", metricsStoreConfigs="
-        + metricsStoreConfigs + "]";
+        + metricsStoreConfigs + ", sensorSchedulerConfigs=" + sensorSchedulerConfigs + "]";
   }
 }
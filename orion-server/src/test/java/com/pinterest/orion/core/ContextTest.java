@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright 2020 Pinterest, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.pinterest.orion.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ContextTest {
+
+  @Test
+  public void testEqualValueKeepsAttribute() throws Exception {
+    Context context = new Context() { };
+    assertEquals(0, context.getAttributeVersion("key"));
+    context.setAttribute("key", Arrays.asList(1, 2), "sensor");
+    Attribute first = context.getAttribute("key");
+    assertEquals(1, context.getAttributeVersion("key"));
+
+    Thread.sleep(2);
+    context.setAttribute("key", Arrays.asList(1, 2), "sensor");
+    assertSame(first, context.getAttribute("key"));
+    assertEquals(1, context.getAttributeVersion("key"));
+    assertTrue(first.getUpdateTimestamp() > 0);
+
+    context.setAttribute("key", Arrays.asList(1, 3), "sensor");
+    assertNotSame(first, context.getAttribute("key"));
+    assertEquals(2, context.getAttributeVersion("key"));
+
+    // switching visibility is a change even if the value is equal
+    context.setHiddenAttribute("key", Arrays.asList(1, 3), "sensor");
+    assertTrue(context.getAttribute("key").isHidden());
+    assertEquals(3, context.getAttributeVersion("key"));
+    context.setAttribute("nullable", null);
+    context.setAttribute("nullable", null);
+    assertEquals(1, context.getAttributeVersion("nullable"));
+
+    // setting the value directly follows the same rule
+    Attribute attribute = context.getAttribute("key");
+    attribute.setValue(Arrays.asList(1, 3));
+    assertEquals(3, attribute.getVersion());
+    attribute.setValue(Arrays.asList(2, 3));
+    assertEquals(4, attribute.getVersion());
+  }
+
+  @Test
+  public void testCompareAndSet() {
+    Context context = new Context() { };
+    assertTrue(context.compareAndSetAttribute("key", null, "a", null, false));
+    assertFalse(context.compareAndSetAttribute("key", null, "b", null, false));
+    Attribute current = context.getAttribute("key");
+    assertTrue(context.compareAndSetAttribute("key", current, "b", null, false));
+    assertFalse(context.compareAndSetAttribute("key", current, "c", null, false));
+    assertEquals("b", context.getAttribute("key").getValue());
+    assertEquals(2, context.getAttributeVersion("key"));
+  }
+
+  @Test
+  public void testSubscribe() throws Exception {
+    Context context = new Context() { };
+    CountDownLatch blocked = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(2);
+    AtomicInteger calls = new AtomicInteger();
+    Set<String> notified = Collections.synchronizedSet(new HashSet<>());
+    AttributeListener listener = (ctx, keys) -> {
+      assertSame(context, ctx);
+      notified.addAll(keys);
+      if (calls.incrementAndGet() == 1) {
+        blocked.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      done.countDown();
+    };
+    context.subscribe(new HashSet<>(Arrays.asList("a", "b")), listener);
+    context.setAttribute("a", 1);
+    assertTrue(blocked.await(10, TimeUnit.SECONDS));
+
+    // changes while the listener is busy are coalesced into a single call
+    context.setAttribute("a", 2);
+    context.setAttribute("b", 1);
+    context.setAttribute("b", 1);
+    context.setAttribute("c", 1);
+    release.countDown();
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    Thread.sleep(100);
+    assertEquals(2, calls.get());
+    assertEquals(new HashSet<>(Arrays.asList("a", "b")), notified);
+
+    context.unsubscribe(listener);
+    context.setAttribute("a", 3);
+    Thread.sleep(100);
+    assertEquals(2, calls.get());
+  }
+
+  @Test
+  public void testExposedAttributesSnapshot() {
+    Context context = new Context() { };
+    context.setAttribute("visible", 1);
+    context.setHiddenAttribute("hidden", 1);
+    Map<String, Attribute> exposed = context.getExposedAttributes();
+    assertEquals(Collections.singleton("visible"), exposed.keySet());
+    assertSame(exposed, context.getExposedAttributes());
+
+    // neither hidden changes nor unchanged values rebuild the snapshot
+    context.setHiddenAttribute("hidden", 2);
+    context.setAttribute("visible", 1);
+    assertSame(exposed, context.getExposedAttributes());
+
+    context.setAttribute("visible", 2);
+    Map<String, Attribute> updated = context.getExposedAttributes();
+    assertNotSame(exposed, updated);
+    assertEquals(2, (int) updated.get("visible").getValue());
+
+    context.setAttribute("hidden", 3);
+    assertEquals(new HashSet<>(Arrays.asList("visible", "hidden")), context.getExposedAttributes().keySet());
+  }
+
+  @Test
+  public void testRunOnSnapshot() {
+    Context context = new Context() { };
+    Context other = new Context() { };
+    context.setAttribute("key", 1);
+    other.setAttribute("key", 1);
+    Map<String, Attribute> snapshot = context.snapshotAttributes();
+    context.runOnSnapshot(snapshot, () -> {
+      context.setAttribute("key", 2);
+      context.setAttribute("added", 1);
+      other.setAttribute("key", 2);
+      // reads of the context come from the snapshot, other contexts are read live
+      assertEquals(1, (int) context.getAttribute("key").getValue());
+      assertEquals(1, context.getAttributeVersion("key"));
+      assertFalse(context.containsAttribute("added"));
+      assertEquals(2, (int) other.getAttribute("key").getValue());
+    });
+    assertEquals(2, (int) context.getAttribute("key").getValue());
+    assertTrue(context.containsAttribute("added"));
+  }
+}
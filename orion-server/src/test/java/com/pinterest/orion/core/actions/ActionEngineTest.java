@@ -0,0 +1,246 @@
+/*******************************************************************************
+ * Copyright 2020 Pinterest, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.pinterest.orion.core.actions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.google.common.collect.ImmutableSet;
+import com.pinterest.orion.core.Cluster;
+import com.pinterest.orion.core.actions.kafka.ClusterRecoveryAction;
+import com.pinterest.orion.core.actions.kafka.KafkaIdealBalanceAction;
+import com.pinterest.orion.core.actions.kafka.KafkaTopicConfigUpdateAction;
+import com.pinterest.orion.core.actions.kafka.ReassignmentAction;
+import com.pinterest.orion.core.actions.alert.AlertFactory;
+import com.pinterest.orion.server.OrionServer;
+
+import io.dropwizard.metrics5.MetricName;
+
+public class ActionEngineTest {
+
+  private ActionEngine engine;
+
+  @Before
+  public void before() throws Exception {
+    Cluster cluster = Mockito.mock(Cluster.class);
+    Mockito.when(cluster.getClusterId()).thenReturn("test");
+    ActionFactory actionFactory = Mockito.mock(ActionFactory.class);
+    Mockito.when(actionFactory.isActionEnabledOnCluster(Mockito.anyString(), Mockito.anyString())).thenReturn(true);
+    Mockito.when(actionFactory.getActionConfiguration(Mockito.anyString(), Mockito.any())).thenReturn(new HashMap<>());
+    AlertFactory alertFactory = Mockito.mock(AlertFactory.class);
+    Mockito.when(alertFactory.getAlertInstancesOfLevel(Mockito.anyString(), Mockito.any()))
+        .thenReturn(Collections.emptyList());
+    engine = new ActionEngine(cluster, actionFactory, alertFactory, null);
+    Map<String, Object> config = new HashMap<>();
+    config.put("maxConcurrentActions", 2);
+    config.put("maxChildActionThreads", 1);
+    engine.initialize(config);
+  }
+
+  @After
+  public void after() {
+    engine.stop();
+  }
+
+  @Test
+  public void testScopes() {
+    ActionScope cluster = ActionScope.cluster();
+    assertTrue(cluster.conflictsWith(ActionScope.node("1")));
+    assertTrue(ActionScope.node("1").conflictsWith(ActionScope.node("1")));
+    assertFalse(ActionScope.node("1").conflictsWith(ActionScope.node("2")));
+    assertTrue(ActionScope.node(ActionScope.ALL).conflictsWith(ActionScope.node("2")));
+    assertFalse(ActionScope.node("1").conflictsWith(ActionScope.topic("1")));
+    assertFalse(ActionScope.resource("a").conflictsWith(ActionScope.topic(ActionScope.ALL)));
+  }
+
+  @Test
+  public void testConflictingActionsAreQueued() throws Exception {
+    BlockingAction rebalance = new BlockingAction("rebalance", ActionScope.topic("t1"));
+    BlockingAction configUpdate = new BlockingAction("config", ActionScope.topic("t1"));
+    BlockingAction healing = new BlockingAction("healing", ActionScope.node("1"));
+    engine.dispatch(rebalance);
+    engine.dispatch(configUpdate);
+    assertTrue(rebalance.started.await(10, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList(configUpdate), engine.getQueuedActionsList());
+
+    // healing doesn't wait behind the rebalance
+    assertTrue(engine.dispatchNow(healing));
+    assertTrue(healing.started.await(10, TimeUnit.SECONDS));
+    // both slots are taken
+    assertFalse(engine.dispatchNow(new BlockingAction("other", ActionScope.topic("t2"))));
+
+    rebalance.release.countDown();
+    rebalance.get(10, TimeUnit.SECONDS);
+    assertTrue(configUpdate.started.await(10, TimeUnit.SECONDS));
+    assertTrue(engine.getQueuedActionsList().isEmpty());
+
+    configUpdate.release.countDown();
+    healing.release.countDown();
+    configUpdate.get(10, TimeUnit.SECONDS);
+    healing.get(10, TimeUnit.SECONDS);
+    assertTrue(configUpdate.isSuccess());
+    assertTrue(healing.isSuccess());
+  }
+
+  @Test
+  public void testRecoveryExcludesReassignments() throws Exception {
+    KafkaIdealBalanceAction balance = new KafkaIdealBalanceAction();
+    balance.setAttribute(KafkaIdealBalanceAction.ATTR_TOPIC_KEY, "t1");
+    KafkaTopicConfigUpdateAction configUpdate = new KafkaTopicConfigUpdateAction();
+    configUpdate.setAttribute(KafkaTopicConfigUpdateAction.ATTR_TOPIC_NAME_KEY, "t2");
+    Set<ActionScope> recoveryScopes = new ClusterRecoveryAction().getScopes();
+    assertTrue(ActionScope.conflict(recoveryScopes, new ReassignmentAction().getScopes()));
+    assertTrue(ActionScope.conflict(recoveryScopes, balance.getScopes()));
+    assertTrue(ActionScope.conflict(recoveryScopes, configUpdate.getScopes()));
+
+    // a reassignment queues behind a running recovery
+    BlockingAction recovery = new BlockingAction("recovery", recoveryScopes);
+    BlockingAction reassignment = new BlockingAction("reassignment", balance.getScopes());
+    engine.dispatch(recovery);
+    assertTrue(recovery.started.await(10, TimeUnit.SECONDS));
+    engine.dispatch(reassignment);
+    assertEquals(Arrays.asList(reassignment), engine.getQueuedActionsList());
+
+    recovery.release.countDown();
+    recovery.get(10, TimeUnit.SECONDS);
+    assertTrue(reassignment.started.await(10, TimeUnit.SECONDS));
+    reassignment.release.countDown();
+    reassignment.get(10, TimeUnit.SECONDS);
+    assertTrue(reassignment.isSuccess());
+  }
+
+  @Test
+  public void testQueuedActionsKeepOrder() throws Exception {
+    BlockingAction first = new BlockingAction("first", ActionScope.node("1"));
+    BlockingAction clusterWide = new BlockingAction("cluster", ActionScope.cluster());
+    BlockingAction second = new BlockingAction("second", ActionScope.node("2"));
+    engine.dispatch(first);
+    engine.dispatch(clusterWide);
+    engine.dispatch(second);
+    assertTrue(first.started.await(10, TimeUnit.SECONDS));
+    // the second node action doesn't overtake the cluster wide action queued before it
+    assertEquals(Arrays.asList(clusterWide, second), engine.getQueuedActionsList());
+    assertFalse(engine.dispatchNow(new BlockingAction("third", ActionScope.node("3"))));
+
+    first.release.countDown();
+    assertTrue(clusterWide.started.await(10, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList(second), engine.getQueuedActionsList());
+    clusterWide.release.countDown();
+    assertTrue(second.started.await(10, TimeUnit.SECONDS));
+    second.release.countDown();
+    second.get(10, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testChildActionBackPressure() throws Exception {
+    MetricName metricName = MetricName.build("action_engine").tagged("cluster", "test").resolve("child_actions");
+    long rejected = OrionServer.METRICS.counter(metricName.resolve("rejected")).getCount();
+    BlockingAction parent = new BlockingAction("parent", ActionScope.cluster());
+    BlockingAction running = new BlockingAction("running", ActionScope.cluster());
+    BlockingAction inline = new BlockingAction("inline", ActionScope.cluster());
+    inline.release.countDown();
+    engine.dispatchChild(parent, running);
+    assertTrue(running.started.await(10, TimeUnit.SECONDS));
+    assertTrue(running.thread.getName().startsWith("child-action-test-"));
+
+    // the only thread is busy, the dispatching thread runs the child itself
+    engine.dispatchChild(parent, inline);
+    assertTrue(inline.isSuccess());
+    assertEquals(Thread.currentThread(), inline.thread);
+    assertEquals(0, OrionServer.METRICS.getGauges().get(metricName.resolve("queue_depth")).getValue());
+    assertEquals(rejected + 1, OrionServer.METRICS.counter(metricName.resolve("rejected")).getCount());
+    inline.get(10, TimeUnit.SECONDS);
+
+    running.release.countDown();
+    running.get(10, TimeUnit.SECONDS);
+    assertTrue(running.isSuccess());
+  }
+
+  @Test
+  public void testNestedChildActions() throws Exception {
+    BlockingAction parent = new BlockingAction("parent", ActionScope.cluster());
+    BlockingAction grandchild = new BlockingAction("grandchild", ActionScope.cluster());
+    grandchild.release.countDown();
+    Action child = new Action() {
+      @Override
+      public void runAction() throws Exception {
+        // waits on its own child while holding the only child action thread
+        getEngine().dispatchChild(this, grandchild);
+        grandchild.get();
+        markSucceeded();
+      }
+
+      @Override
+      public String getName() {
+        return "child";
+      }
+    };
+    engine.dispatchChild(parent, child);
+    child.get(10, TimeUnit.SECONDS);
+    assertTrue(child.isSuccess());
+    assertTrue(grandchild.isSuccess());
+  }
+
+  private static class BlockingAction extends Action {
+    private final String name;
+    private final Set<ActionScope> scopes;
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private volatile Thread thread;
+
+    BlockingAction(String name, ActionScope scope) {
+      this(name, ImmutableSet.of(scope));
+    }
+
+    BlockingAction(String name, Set<ActionScope> scopes) {
+      this.name = name;
+      this.scopes = scopes;
+      setOwner("test");
+    }
+
+    @Override
+    public void runAction() throws Exception {
+      thread = Thread.currentThread();
+      started.countDown();
+      release.await();
+      markSucceeded();
+    }
+
+    @Override
+    public Set<ActionScope> getScopes() {
+      return scopes;
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+  }
+}
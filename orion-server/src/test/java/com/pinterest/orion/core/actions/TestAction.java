@@ -16,8 +16,13 @@
 package com.pinterest.orion.core.actions;
 
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import org.junit.Test;
 
 public class TestAction {
@@ -62,5 +67,39 @@ public class TestAction {
     act2.setCompleteTime(System.currentTimeMillis());
     assertTrue(act1.isSameAs(act2));
   }
-  
+
+  @Test
+  public void testCompletionFuture() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    class BlockingAction extends Action {
+
+      @Override
+      public String getName() {
+        return "blocking";
+      }
+
+      @Override
+      public void runAction() throws Exception {
+        release.await();
+        markSucceeded();
+      }
+
+    }
+    Action running = new BlockingAction();
+    Action idle = new BlockingAction();
+    assertFalse(Action.awaitAnyCompletion(Arrays.asList(running, idle), 10, TimeUnit.MILLISECONDS));
+
+    Thread thread = new Thread(running);
+    thread.start();
+    release.countDown();
+    assertTrue(Action.awaitAnyCompletion(Arrays.asList(running, idle), 10, TimeUnit.SECONDS));
+    assertSame(running, running.getCompletionFuture().get());
+    assertTrue(running.isSuccess());
+    assertFalse(idle.getCompletionFuture().isDone());
+
+    idle.cancel(false);
+    assertTrue(idle.getCompletionFuture().isDone());
+    thread.join();
+  }
+
 }
@@ -0,0 +1,254 @@
+/*******************************************************************************
+ * Copyright 2020 Pinterest, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.pinterest.orion.core.actions.audit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.errors.RecordTooLargeException;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import com.pinterest.orion.core.Cluster;
+import com.pinterest.orion.core.actions.Action;
+import com.pinterest.orion.server.OrionServer;
+
+public class KafkaActionAuditorTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static final ObjectMapper mapper = new ObjectMapper();
+  private final AtomicBoolean available = new AtomicBoolean();
+  private final List<String> sentActions = new ArrayList<>();
+  private final AtomicReference<String> brokenAction = new AtomicReference<>();
+
+  @SuppressWarnings("unchecked")
+  private Producer<String, String> newProducer() {
+    Producer<String, String> producer = Mockito.mock(Producer.class);
+    Mockito.when(producer.send(Mockito.any())).thenAnswer(invocation -> {
+      ProducerRecord<String, String> record = invocation.getArgument(0);
+      String name = mapper.readTree(record.value()).get("name").asText();
+      if (name.equals(brokenAction.getAndSet(null))) {
+        throw new IllegalStateException("producer failure");
+      }
+      CompletableFuture<RecordMetadata> future = new CompletableFuture<>();
+      if (name.startsWith("huge")) {
+        future.completeExceptionally(new RecordTooLargeException("too large"));
+      } else if (available.get()) {
+        sentActions.add(record.key() + ":" + name);
+        future.complete(null);
+      } else {
+        future.completeExceptionally(new TimeoutException("audit cluster unavailable"));
+      }
+      return future;
+    });
+    return producer;
+  }
+
+  private KafkaActionAuditor newAuditor(File directory) throws Exception {
+    KafkaActionAuditor auditor = new KafkaActionAuditor();
+    auditor.configure(ImmutableMap.of(KafkaActionAuditor.CONF_HISTORY_TOPIC_KEY, "audit",
+        "retryIntervalMs", 0, "queueSize", 2));
+    auditor.open(newProducer(), directory, new File(directory, "index"));
+    return auditor;
+  }
+
+  @Test
+  public void testSpillAndReplay() throws Exception {
+    File spillDirectory = folder.newFolder();
+    Cluster cluster = Mockito.mock(Cluster.class);
+    Mockito.when(cluster.getClusterId()).thenReturn("c1");
+    KafkaActionAuditor auditor = newAuditor(spillDirectory);
+
+    available.set(true);
+    auditor.logAction(cluster, new NamedAction("a1"));
+    auditor.sendPending(0);
+    assertEquals(Collections.singletonList("c1:a1"), sentActions);
+
+    // a failed batch is spilled, and so is everything queued until a replay succeeds
+    available.set(false);
+    auditor.logAction(cluster, new NamedAction("a2"));
+    auditor.sendPending(0);
+    auditor.logAction(cluster, new NamedAction("a3"));
+    auditor.sendPending(0);
+    assertEquals(1, sentActions.size());
+
+    available.set(true);
+    auditor.sendPending(0);
+    assertEquals(Arrays.asList("c1:a1", "c1:a2", "c1:a3"), sentActions);
+    auditor.logAction(cluster, new NamedAction("a4"));
+    auditor.sendPending(0);
+    assertEquals("c1:a4", sentActions.get(3));
+
+    // records that don't fit in the queue are spilled by the caller and replayed after a restart
+    available.set(false);
+    for (int i = 5; i < 8; i++) {
+      auditor.logAction(cluster, new NamedAction("a" + i));
+    }
+    auditor.close();
+    available.set(true);
+    auditor = newAuditor(spillDirectory);
+    auditor.sendPending(0);
+    assertEquals(Arrays.asList("c1:a1", "c1:a2", "c1:a3", "c1:a4", "c1:a7", "c1:a5", "c1:a6"), sentActions);
+    auditor.close();
+  }
+
+  @Test
+  public void testUnsendableRecords() throws Exception {
+    Cluster cluster = Mockito.mock(Cluster.class);
+    Mockito.when(cluster.getClusterId()).thenReturn("c1");
+    KafkaActionAuditor auditor = newAuditor(folder.newFolder());
+    long lost = OrionServer.METRICS.counter("action_auditor.lost").getCount();
+
+    // a record the topic rejects is dropped rather than spilled
+    available.set(true);
+    auditor.logAction(cluster, new NamedAction("huge1"));
+    auditor.logAction(cluster, new NamedAction("a1"));
+    auditor.sendPending(0);
+    assertEquals(Collections.singletonList("c1:a1"), sentActions);
+    assertEquals(lost + 1, OrionServer.METRICS.counter("action_auditor.lost").getCount());
+
+    // and doesn't block the replay of the records spilled with it
+    available.set(false);
+    auditor.logAction(cluster, new NamedAction("huge2"));
+    auditor.logAction(cluster, new NamedAction("a2"));
+    auditor.sendPending(0);
+    available.set(true);
+    auditor.sendPending(0);
+    auditor.logAction(cluster, new NamedAction("a3"));
+    auditor.sendPending(0);
+    assertEquals(Arrays.asList("c1:a1", "c1:a2", "c1:a3"), sentActions);
+    assertEquals(lost + 2, OrionServer.METRICS.counter("action_auditor.lost").getCount());
+
+    // a batch whose send throws is spilled and replayed
+    brokenAction.set("a4");
+    auditor.logAction(cluster, new NamedAction("a4"));
+    auditor.sendPending(0);
+    assertEquals(Arrays.asList("c1:a1", "c1:a2", "c1:a3", "c1:a4"), sentActions);
+    auditor.close();
+  }
+
+  @Test
+  public void testIndexedHistory() throws Exception {
+    File directory = folder.newFolder();
+    Cluster cluster = Mockito.mock(Cluster.class);
+    Mockito.when(cluster.getClusterId()).thenReturn("c1");
+    Cluster otherCluster = Mockito.mock(Cluster.class);
+    Mockito.when(otherCluster.getClusterId()).thenReturn("c10");
+    KafkaActionAuditor auditor = newAuditor(directory);
+    long now = System.currentTimeMillis();
+
+    // records are indexed whether they were sent or spilled
+    available.set(true);
+    auditor.logAction(cluster, new NamedAction("a1", now - 4000));
+    auditor.logAction(otherCluster, new NamedAction("b1", now - 3500));
+    auditor.sendPending(0);
+    available.set(false);
+    auditor.logAction(cluster, new NamedAction("a2", now - 3000));
+    auditor.logAction(cluster, new NamedAction("a3", now - 2000));
+    auditor.sendPending(0);
+    auditor.close();
+
+    auditor = newAuditor(directory);
+    assertEquals(Arrays.asList("a1", "a2", "a3"), names(auditor.getActions("c1", now - 5000, now)));
+    assertEquals(Arrays.asList("a2"), names(auditor.getActions("c1", now - 3000, now - 2000)));
+    assertEquals(Arrays.asList("b1"), names(auditor.getActions("c10", now - 5000, now)));
+    auditor.close();
+
+    try (AuditIndex index = new AuditIndex(new File(directory, "index"))) {
+      assertTrue(index.getCreateTime() <= System.currentTimeMillis());
+      assertEquals(2, index.expire(now - 3000));
+      assertEquals(2, index.scan("c1", now - 5000, now).size());
+    }
+  }
+
+  private static List<String> names(List<HistoricAction> actions) {
+    List<String> names = new ArrayList<>();
+    for (HistoricAction action : actions) {
+      names.add(action.getName());
+    }
+    return names;
+  }
+
+  @Test
+  public void testSpillFileIgnoresTornTail() throws Exception {
+    File spillDirectory = folder.newFolder();
+    AuditSpillFile spillFile = new AuditSpillFile(spillDirectory);
+    spillFile.append(Arrays.asList(new AuditRecord("c1", "a1", 1, "{}"),
+        new AuditRecord("c2", "a2", 2, "[]")));
+    spillFile.close();
+    try (FileOutputStream out = new FileOutputStream(new File(spillDirectory, "audit.spill"), true)) {
+      out.write(new byte[]{1, 5, 6});
+    }
+    // the torn tail is truncated before appending
+    spillFile.append(Collections.singletonList(new AuditRecord("c3", "a3", 3, "{}")));
+    assertTrue(spillFile.hasRecords());
+    List<AuditRecord> records = spillFile.takeForReplay();
+    assertEquals(3, records.size());
+    assertEquals("c3", records.get(2).getClusterId());
+    assertEquals("[]", records.get(1).getJson());
+    assertEquals(2, records.get(1).getTime());
+
+    // the replay file is read again until it is marked replayed
+    spillFile.append(Collections.singletonList(new AuditRecord("c4", "a4", 4, "{}")));
+    assertEquals(3, spillFile.takeForReplay().size());
+    spillFile.replayed();
+    assertEquals("c4", spillFile.takeForReplay().get(0).getClusterId());
+    spillFile.close();
+  }
+
+  private static class NamedAction extends Action {
+
+    private final String name;
+
+    NamedAction(String name) {
+      this.name = name;
+    }
+
+    NamedAction(String name, long completeTime) {
+      this(name);
+      setCompleteTime(completeTime);
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public void runAction() {
+    }
+  }
+}
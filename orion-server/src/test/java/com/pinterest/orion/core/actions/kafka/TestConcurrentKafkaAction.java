@@ -26,6 +26,7 @@ import com.pinterest.orion.core.kafka.KafkaBroker;
 import com.pinterest.orion.core.kafka.KafkaCluster;
 import com.pinterest.orion.core.kafka.KafkaTopicDescription;
 import com.pinterest.orion.core.kafka.KafkaTopicPartitionInfo;
+import com.pinterest.orion.core.kafka.TopicMetadataSnapshot;
 import com.pinterest.orion.utils.OrionConstants;
 import com.google.common.collect.Sets;
 import org.apache.kafka.common.TopicPartitionInfo;
@@ -36,6 +37,7 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -45,6 +47,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -144,20 +147,23 @@ public class TestConcurrentKafkaAction {
   private void setSingleTopic() throws Exception {
     Map<String, KafkaTopicDescription> descriptions = new HashMap<>();
     descriptions.put(TEST_TOPICS[0], getTopicAssignments(TEST_TOPICS[0], simpleAssignment));
-    Mockito.when(cluster.getTopicDescriptionFromKafka()).thenReturn(descriptions);
+    Mockito.when(cluster.getTopicMetadataSnapshot())
+        .thenReturn(new TopicMetadataSnapshot(descriptions, System.currentTimeMillis()));
   }
 
   private void setIsolatedNodeSingleTopic() throws Exception {
     Map<String, KafkaTopicDescription> descriptions = new HashMap<>();
     descriptions.put(TEST_TOPICS[0], getTopicAssignments(TEST_TOPICS[0], isolatedNodeAssignment));
-    Mockito.when(cluster.getTopicDescriptionFromKafka()).thenReturn(descriptions);
+    Mockito.when(cluster.getTopicMetadataSnapshot())
+        .thenReturn(new TopicMetadataSnapshot(descriptions, System.currentTimeMillis()));
   }
 
   private void setMultiTopics() throws Exception {
     Map<String, KafkaTopicDescription> descriptions = new HashMap<>();
     descriptions.put(TEST_TOPICS[0], getTopicAssignments(TEST_TOPICS[0], isolatedNodeAssignment));
     descriptions.put(TEST_TOPICS[1], getTopicAssignments(TEST_TOPICS[1], multiTopicAdditionalAssignment));
-    Mockito.when(cluster.getTopicDescriptionFromKafka()).thenReturn(descriptions);
+    Mockito.when(cluster.getTopicMetadataSnapshot())
+        .thenReturn(new TopicMetadataSnapshot(descriptions, System.currentTimeMillis()));
   }
 
   @Test
@@ -267,7 +273,6 @@ public class TestConcurrentKafkaAction {
     setSingleTopic();
 
     Set<String> failIds = Sets.newHashSet("1");
-    Set<String> remainingIds = Sets.newHashSet("3", "4");
 
     ConcurrentKafkaAction action = new TestConcurrentFailableNoOpAction();
     action.setAttribute("failIds", failIds);
@@ -276,21 +281,27 @@ public class TestConcurrentKafkaAction {
     engine.dispatch(action);
 
     long startTs = System.currentTimeMillis();
-    while(System.currentTimeMillis() - startTs < 21_000) { // will fail on the second iteration
+    // children wake the parent up as they complete, so the order in which nodes of
+    // the second round start depends on which child of the first round completes first
+    while(System.currentTimeMillis() - startTs < 41_000 && !action.isDone()) {
       checkIfActionsAreDependent(action.getChildren(), dependencyGraph);
       Thread.sleep(1000);
     }
     assertEquals(Action.Status.FAILED, action.getStatus());
+    long failedTs = action.getChildren().stream()
+        .filter(child -> failIds.contains(child.getAttribute(OrionConstants.NODE_ID).getValue()))
+        .mapToLong(Action::getCompleteTime).min().getAsLong();
     for(Action child : action.getChildren()) {
       String nodeId = child.getAttribute(OrionConstants.NODE_ID).getValue();
       if (failIds.contains(nodeId)) {
         assertEquals(Action.Status.FAILED, child.getStatus());
-      } else if (remainingIds.contains(nodeId)){
-        fail("node " + nodeId + " should not have started action since it is in remaining nodes: " + failIds);
+      } else if (child.getCreateTime() > failedTs){
+        fail("node " + nodeId + " should not have started action after the failure on: " + failIds);
       } else {
         assertEquals(Action.Status.SUCCEEDED, child.getStatus());
       }
     }
+    assertTrue(action.getChildren().size() < cluster.getNodeMap().size());
   }
 
   @Test
@@ -326,6 +337,22 @@ public class TestConcurrentKafkaAction {
     }
   }
 
+  @Test
+  public void testCancelledChild() throws Exception {
+    TestConcurrentFailableNoOpAction action = new TestConcurrentFailableNoOpAction();
+    action.setEngine(engine);
+    Action child = new TestNoOpAction();
+    child.setAttribute(OrionConstants.NODE_ID, "0");
+    child.setInternalFuture(new FutureTask<>(() -> null));
+    child.cancel(true);
+    List<Action> currentActions = new ArrayList<>(Collections.singletonList(child));
+
+    // the cancelled child goes through the failure handling instead of throwing out of the parent
+    assertFalse(action.processCurrentActions(currentActions, Sets.newHashSet("1")));
+    assertTrue(currentActions.isEmpty());
+    assertEquals(Action.Status.FAILED, action.getStatus());
+  }
+
   @Test
   public void testMultipleTopic() throws Exception {
     setMultiTopics();
@@ -426,6 +453,10 @@ public class TestConcurrentKafkaAction {
       return super.handleFailure(failedAction, currentActions, remainingNodes);
     }
 
+    boolean processCurrentActions(List<Action> currentActions, Set<String> remainingNodes) throws Exception {
+      return processCurrentActionsAndGenerateCover(currentActions, remainingNodes, new HashMap<>(), new HashSet<>());
+    }
+
     @Override
     protected Action getChildAction() {
       Action action = new TestFailableNoOpAction();
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright 2020 Pinterest, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.pinterest.orion.core.automation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.pinterest.orion.core.Cluster;
+import com.pinterest.orion.core.automation.sensor.Sensor;
+import com.pinterest.orion.core.demo.DemoCluster;
+
+public class AutomationEngineTest {
+
+  @Test
+  public void testSensorDependencies() throws Exception {
+    TestSensor topics = new TestSensor("topics", ImmutableSet.of("topicinfo"), Collections.emptySet());
+    TestSensor offsets = new TestSensor("offsets", ImmutableSet.of("offsets"), ImmutableSet.of("topicinfo"));
+    TestSensor lag = new TestSensor("lag", ImmutableSet.of("lag"), ImmutableSet.of("offsets", "topicinfo"));
+    TestSensor cycleA = new TestSensor("cycleA", ImmutableSet.of("a"), ImmutableSet.of("b"));
+    TestSensor cycleB = new TestSensor("cycleB", ImmutableSet.of("b"), ImmutableSet.of("a"));
+    Cluster cluster = new DemoCluster("test", "test", "demo",
+        Arrays.asList(topics, offsets, lag, cycleA, cycleB), Collections.emptyList(), null, null,
+        null, null, null);
+    AutomationEngine engine = cluster.getAutomationEngine();
+
+    assertEquals(ImmutableSet.of(engine.getSensorMap().get("offsets"), engine.getSensorMap().get("lag")),
+        new HashSet<>(engine.getSensorMap().get("topics").getDependents()));
+    assertEquals(Collections.singletonList(engine.getSensorMap().get("lag")),
+        engine.getSensorMap().get("offsets").getDependents());
+    assertTrue(engine.getSensorMap().get("lag").getDependents().isEmpty());
+    assertTrue(engine.getSensorMap().get("cycleA").getDependents().isEmpty());
+    assertTrue(engine.getSensorMap().get("cycleB").getDependents().isEmpty());
+
+    // only the upstream sensor is started, downstream sensors run once it refreshes its attribute
+    engine.getSensorMap().get("topics").start();
+    assertTrue(offsets.ran.await(10, TimeUnit.SECONDS));
+    assertTrue(lag.ran.await(10, TimeUnit.SECONDS));
+  }
+
+  private static class TestSensor extends Sensor {
+
+    private final Set<String> produced;
+    private final Set<String> consumed;
+    private final CountDownLatch ran = new CountDownLatch(1);
+
+    private TestSensor(String key, Set<String> produced, Set<String> consumed) {
+      this.produced = produced;
+      this.consumed = consumed;
+      setSensorIdentifier(key);
+      setInterval(3600);
+    }
+
+    @Override
+    public void observe(Cluster cluster) throws Exception {
+      for (String attribute : produced) {
+        setAttribute(cluster, attribute, System.nanoTime());
+      }
+      ran.countDown();
+    }
+
+    @Override
+    public Set<String> getProducedAttributes() {
+      return produced;
+    }
+
+    @Override
+    public Set<String> getConsumedAttributes() {
+      return consumed;
+    }
+
+    @Override
+    public String getName() {
+      return getSensorIdentifier();
+    }
+  }
+}
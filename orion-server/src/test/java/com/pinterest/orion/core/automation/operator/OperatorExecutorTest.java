@@ -19,12 +19,26 @@ import static org.junit.Assert.*;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.pinterest.orion.core.Cluster;
 import com.pinterest.orion.core.actions.Action;
+import com.pinterest.orion.core.actions.ActionEngine;
+import com.pinterest.orion.core.actions.ActionScope;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class OperatorExecutorTest {
   private static Action[] actionList;
@@ -189,21 +203,47 @@ public class OperatorExecutorTest {
     executor.setActualList(new ArrayList<>(actualList));
     executor.setShadowList(new ArrayList<>(shadowList));
     executor.setNextIdx(4);
-    executor.commitShadowList(); // result: shadow = [], actual = [1,4,5], nextIdx = 1
-    assertEquals(1, executor.getNextIdx());
+    executor.commitShadowList(); // result: shadow = [], actual = [1,4,5], nextIdx = 2
+    assertEquals(2, executor.getNextIdx());
     assertEquals(emptyList, executor.getShadowList());
     resActualList = executor.getActualList();
     assertEquals(shadowList, resActualList);
     assertEquals(actionList[1].getUuid(), resActualList.get(0).getUuid());
-    assertEquals(shadowActionList[4].getUuid(), resActualList.get(1).getUuid());
+    assertEquals(actionList[4].getUuid(), resActualList.get(1).getUuid());
     assertEquals(shadowActionList[5].getUuid(), resActualList.get(2).getUuid());
+
+    // original: shadow = [3, 1], actual = [1, 3]
+    actualList = Arrays.asList(actionList[1], actionList[3]);
+    shadowList = Arrays.asList(shadowActionList[3], shadowActionList[1]);
+
+    // nextIdx = 1
+    executor.setActualList(new ArrayList<>(actualList));
+    executor.setShadowList(new ArrayList<>(shadowList));
+    executor.setNextIdx(1);
+    executor.commitShadowList(); // result: shadow = [], actual = [1,3], nextIdx = 1
+    assertEquals(1, executor.getNextIdx());
+    resActualList = executor.getActualList();
+    assertEquals(Arrays.asList(actionList[1], actionList[3]), resActualList);
+    assertEquals(actionList[1].getUuid(), resActualList.get(0).getUuid());
+    assertEquals(shadowActionList[3].getUuid(), resActualList.get(1).getUuid());
   }
 
   private static class TestAction extends Action {
 
     private String name;
+    private Set<ActionScope> scopes;
     public TestAction(String name){
+      this(name, ActionScope.cluster());
+    }
+
+    public TestAction(String name, ActionScope scope){
       this.name = name;
+      this.scopes = Collections.singleton(scope);
+    }
+
+    @Override
+    public Set<ActionScope> getScopes() {
+      return scopes;
     }
 
     @Override
@@ -217,4 +257,267 @@ public class OperatorExecutorTest {
       
     }
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testSkipIdleOperators() throws Exception {
+    Cluster cluster = Mockito.mock(Cluster.class);
+    CountingOperator triggered = new CountingOperator(ImmutableSet.of("topicinfo"));
+    CountingOperator periodic = new CountingOperator(Collections.emptySet());
+    OperatorExecutor executor = new OperatorExecutor(cluster,
+        Arrays.asList(new OperatorContainer(triggered), new OperatorContainer(periodic)),
+        Mockito.mock(ActionEngine.class));
+    executor.initialize(new HashMap<>());
+    Mockito.verify(cluster).subscribe(Mockito.eq(ImmutableSet.of("topicinfo")), Mockito.any());
+    try {
+      executor.run();
+      assertEquals(1, triggered.evaluations);
+      assertEquals(1, periodic.evaluations);
+
+      // nothing changed and nothing was dispatched
+      executor.run();
+      assertEquals(1, triggered.evaluations);
+      assertEquals(2, periodic.evaluations);
+
+      executor.onAttributesChanged(cluster, ImmutableSet.of("brokerset"));
+      executor.run();
+      assertEquals(1, triggered.evaluations);
+
+      executor.onAttributesChanged(cluster, ImmutableSet.of("topicinfo"));
+      executor.run();
+      assertEquals(2, triggered.evaluations);
+      assertEquals(4, periodic.evaluations);
+    } finally {
+      executor.stop();
+    }
+  }
+
+  private static class CountingOperator extends Operator {
+    private final Set<String> consumedAttributes;
+    private int evaluations;
+
+    CountingOperator(Set<String> consumedAttributes) {
+      this.consumedAttributes = consumedAttributes;
+    }
+
+    @Override
+    public void operate(Cluster cluster) {
+      evaluations++;
+    }
+
+    @Override
+    public Set<String> getConsumedAttributes() {
+      return consumedAttributes;
+    }
+
+    @Override
+    public String getName() {
+      return "CountingOperator";
+    }
+  }
+
+  @Test
+  public void testParallelEvaluation() throws Exception {
+    Cluster cluster = Mockito.mock(Cluster.class);
+    Mockito.when(cluster.getClusterId()).thenReturn("test");
+    ActionEngine actionEngine = Mockito.mock(ActionEngine.class);
+    CountDownLatch fastDone = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    // the slow operator can only complete if the fast one runs concurrently
+    ScriptedOperator slow = new ScriptedOperator("slow", operator -> {
+      assertTrue(fastDone.await(10, TimeUnit.SECONDS));
+      operator.dispatch(new TestAction("slow"));
+    });
+    ScriptedOperator fast = new ScriptedOperator("fast", operator -> {
+      operator.dispatch(new TestAction("fast"));
+      fastDone.countDown();
+    });
+    ScriptedOperator hanging = new ScriptedOperator("hanging", operator -> {
+      operator.dispatch(new TestAction("hanging"));
+      while (release.getCount() > 0) {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          // keeps running past its timeout
+        }
+      }
+    });
+    hanging.initialize(ImmutableMap.of(Operator.CONF_EVALUATION_TIMEOUT_SECONDS_KEY, 1));
+    OperatorContainer hangingContainer = new OperatorContainer(hanging);
+    OperatorExecutor executor = new OperatorExecutor(cluster, Arrays.asList(new OperatorContainer(slow),
+        new OperatorContainer(fast), hangingContainer), actionEngine);
+    executor.initialize(new HashMap<>());
+    try {
+      executor.run();
+      // merged in the order of the operators, the actions of the abandoned evaluation are discarded
+      assertEquals(Arrays.asList(new TestAction("slow"), new TestAction("fast")), executor.getActualList());
+      assertFalse(hangingContainer.isPreviousSuccess());
+      assertTrue(hangingContainer.getPreviousError() instanceof TimeoutException);
+      assertTrue(hangingContainer.isEvaluating());
+
+      // the operator isn't evaluated again while its abandoned evaluation is running
+      executor.run();
+      assertEquals(1, hanging.evaluations.get());
+      assertEquals(2, slow.evaluations.get());
+
+      release.countDown();
+      long deadline = System.currentTimeMillis() + 10_000;
+      while (hangingContainer.isEvaluating() && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      executor.run();
+      assertEquals(2, hanging.evaluations.get());
+      assertEquals(Arrays.asList(new TestAction("slow"), new TestAction("fast"), new TestAction("hanging")),
+          executor.getActualList());
+    } finally {
+      executor.stop();
+    }
+  }
+
+  @Test
+  public void testDispatchByUrgency() throws Exception {
+    Cluster cluster = Mockito.mock(Cluster.class);
+    Mockito.when(cluster.getClusterId()).thenReturn("test");
+    ActionEngine actionEngine = Mockito.mock(ActionEngine.class);
+    Mockito.when(actionEngine.dispatchNow(Mockito.any())).thenReturn(true);
+    ScriptedOperator housekeeping = new ScriptedOperator("housekeeping", Urgency.HOUSEKEEPING, operator -> {
+      operator.dispatch(new TestAction("expand", ActionScope.topic("a")));
+      operator.dispatch(new TestAction("rebalance", ActionScope.topic("b")));
+    });
+    ScriptedOperator healing = new ScriptedOperator("healing", Urgency.HEALING, operator -> {
+      operator.dispatch(new TestAction("heal", ActionScope.node("1")));
+      operator.dispatch(new TestAction("expand", ActionScope.topic("a")));
+    });
+    OperatorExecutor executor = new OperatorExecutor(cluster,
+        Arrays.asList(new OperatorContainer(housekeeping), new OperatorContainer(healing)), actionEngine);
+    executor.initialize(new HashMap<>());
+    try {
+      executor.run();
+      // healing actions go first and the action proposed twice is only kept once
+      List<Action> expected = Arrays.asList(new TestAction("heal"), new TestAction("expand"),
+          new TestAction("rebalance"));
+      assertEquals(expected, executor.getActualList());
+      assertEquals(3, executor.getNextIdx());
+      InOrder inOrder = Mockito.inOrder(actionEngine);
+      for (Action action : expected) {
+        inOrder.verify(actionEngine).dispatchNow(action);
+      }
+
+      // dispatched actions that are still proposed aren't dispatched again
+      executor.run();
+      assertEquals(3, executor.getNextIdx());
+      Mockito.verify(actionEngine, Mockito.times(3)).dispatchNow(Mockito.any());
+    } finally {
+      executor.stop();
+    }
+  }
+
+  @Test
+  public void testDispatchBudget() throws Exception {
+    Cluster cluster = Mockito.mock(Cluster.class);
+    Mockito.when(cluster.getClusterId()).thenReturn("test");
+    ActionEngine actionEngine = Mockito.mock(ActionEngine.class);
+    Action heal = new TestAction("heal", ActionScope.node("1"));
+    Action blocked = new TestAction("blocked", ActionScope.topic("a"));
+    Action expand = new TestAction("expand", ActionScope.topic("a"));
+    Action rebalance = new TestAction("rebalance", ActionScope.topic("b"));
+    Action delete = new TestAction("delete", ActionScope.topic("c"));
+    Mockito.when(actionEngine.dispatchNow(Mockito.any())).thenAnswer(invocation -> invocation.getArgument(0) != blocked);
+    OperatorExecutor executor = new OperatorExecutor(cluster, Collections.emptyList(), actionEngine);
+    executor.initialize(new HashMap<>(Collections.singletonMap("operator_dispatch_budget", 2)));
+    try {
+      executor.setActualList(new ArrayList<>(Arrays.asList(heal, blocked, expand, rebalance, delete)));
+      executor.setNextIdx(0);
+      // expand waits behind the blocked action it conflicts with, rebalance is independent
+      assertEquals(2, executor.dispatchPendingActions());
+      assertEquals(Arrays.asList(heal, rebalance, blocked, expand, delete), executor.getActualList());
+      assertEquals(2, executor.getNextIdx());
+      Mockito.verify(actionEngine, Mockito.never()).dispatchNow(expand);
+      Mockito.verify(actionEngine, Mockito.never()).dispatchNow(delete);
+    } finally {
+      executor.stop();
+    }
+  }
+
+  @Test
+  public void testAdaptiveInterval() throws Exception {
+    Cluster cluster = Mockito.mock(Cluster.class);
+    Mockito.when(cluster.getClusterId()).thenReturn("test");
+    OperatorExecutor executor = new OperatorExecutor(cluster,
+        Arrays.asList(new OperatorContainer(new CountingOperator(ImmutableSet.of("topicinfo")))),
+        Mockito.mock(ActionEngine.class));
+    executor.initialize(new HashMap<>());
+    try {
+      // an idle cluster backs off up to the maximum interval
+      assertEquals(60, executor.nextIntervalSec(false, false));
+      assertEquals(120, executor.nextIntervalSec(false, false));
+      assertEquals(240, executor.nextIntervalSec(false, false));
+      assertEquals(300, executor.nextIntervalSec(false, false));
+      assertEquals(300, executor.nextIntervalSec(false, false));
+
+      // pending work tightens it to the minimum until the proposals are all dispatched
+      assertEquals(5, executor.nextIntervalSec(true, true));
+      assertEquals(5, executor.nextIntervalSec(true, false));
+      assertEquals(30, executor.nextIntervalSec(false, true));
+      assertEquals(60, executor.nextIntervalSec(false, false));
+    } finally {
+      executor.stop();
+    }
+  }
+
+  @Test
+  public void testAdaptiveIntervalWithUndeclaredInputs() throws Exception {
+    Cluster cluster = Mockito.mock(Cluster.class);
+    Mockito.when(cluster.getClusterId()).thenReturn("test");
+    OperatorExecutor executor = new OperatorExecutor(cluster,
+        Arrays.asList(new OperatorContainer(new CountingOperator(ImmutableSet.of("topicinfo"))),
+            new OperatorContainer(new CountingOperator(Collections.emptySet()))),
+        Mockito.mock(ActionEngine.class));
+    executor.initialize(new HashMap<>());
+    try {
+      // no attribute change triggers the periodic operator, so an idle cluster stays at the regular interval
+      assertEquals(30, executor.nextIntervalSec(false, false));
+      assertEquals(30, executor.nextIntervalSec(false, false));
+      assertEquals(5, executor.nextIntervalSec(true, false));
+      assertEquals(30, executor.nextIntervalSec(false, false));
+    } finally {
+      executor.stop();
+    }
+  }
+
+  private interface OperatorScript {
+    void operate(Operator operator) throws Exception;
+  }
+
+  private static class ScriptedOperator extends Operator {
+    private final String name;
+    private final OperatorScript script;
+    private final Urgency urgency;
+    private final AtomicInteger evaluations = new AtomicInteger();
+
+    ScriptedOperator(String name, OperatorScript script) {
+      this(name, Urgency.CONFIGURATION, script);
+    }
+
+    ScriptedOperator(String name, Urgency urgency, OperatorScript script) {
+      this.name = name;
+      this.urgency = urgency;
+      this.script = script;
+    }
+
+    @Override
+    public Urgency getUrgency() {
+      return urgency;
+    }
+
+    @Override
+    public void operate(Cluster cluster) throws Exception {
+      evaluations.incrementAndGet();
+      script.operate(this);
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+  }
+}
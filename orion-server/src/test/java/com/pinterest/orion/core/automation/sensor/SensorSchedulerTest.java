@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright 2020 Pinterest, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.pinterest.orion.core.automation.sensor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SensorSchedulerTest {
+
+  @Test
+  public void testPerClusterConcurrencyCap() throws Exception {
+    SensorScheduler scheduler = new SensorScheduler(Executors.newFixedThreadPool(8), 2);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    List<Future<?>> slowRuns = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      slowRuns.add(scheduler.schedule("slow", () -> {
+        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        running.decrementAndGet();
+      }, 0, TimeUnit.MILLISECONDS));
+    }
+    // a different cluster is not blocked by the slow one
+    Future<?> otherRun = scheduler.schedule("other", () -> { }, 0, TimeUnit.MILLISECONDS);
+    otherRun.get(5, TimeUnit.SECONDS);
+    assertTrue(otherRun.isDone());
+    assertEquals(3, scheduler.getPendingRuns("slow"));
+    assertFalse(slowRuns.get(4).isDone());
+
+    release.countDown();
+    for (Future<?> f : slowRuns) {
+      f.get(5, TimeUnit.SECONDS);
+    }
+    assertEquals(2, maxRunning.get());
+    assertEquals(0, scheduler.getPendingRuns("slow"));
+    scheduler.shutdown();
+  }
+
+  @Test
+  public void testCancelBeforeRun() throws Exception {
+    SensorScheduler scheduler = new SensorScheduler(Executors.newFixedThreadPool(1), 1);
+    AtomicInteger runs = new AtomicInteger();
+    Future<?> future = scheduler.schedule("cluster", runs::incrementAndGet, 1, TimeUnit.HOURS);
+    assertTrue(future.cancel(true));
+    assertTrue(future.isDone());
+    assertEquals(0, runs.get());
+    scheduler.shutdown();
+  }
+}
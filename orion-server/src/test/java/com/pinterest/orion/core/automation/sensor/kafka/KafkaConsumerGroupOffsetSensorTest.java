@@ -0,0 +1,274 @@
+/*******************************************************************************
+ * Copyright 2020 Pinterest, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.pinterest.orion.core.automation.sensor.kafka;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.ConsumerGroupDescription;
+import org.apache.kafka.clients.admin.ListConsumerGroupOffsetsOptions;
+import org.apache.kafka.clients.admin.ListConsumerGroupOffsetsResult;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.ConsumerGroupState;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.TopicPartitionInfo;
+import org.apache.kafka.common.internals.KafkaFutureImpl;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.google.common.collect.ImmutableMap;
+import com.pinterest.orion.core.Attribute;
+import com.pinterest.orion.core.kafka.KafkaCluster;
+import com.pinterest.orion.core.kafka.KafkaConsumerGroupDescription;
+import com.pinterest.orion.core.kafka.KafkaConsumerGroupOffsetsAndLag;
+import com.pinterest.orion.core.kafka.KafkaTopicDescription;
+import com.pinterest.orion.core.kafka.TopicOffsetsTable;
+
+public class KafkaConsumerGroupOffsetSensorTest {
+
+  @Test
+  public void testInFlightLimitPerCoordinator() throws Exception {
+    Node[] coordinators = new Node[]{new Node(1, "b1", 9092), new Node(2, "b2", 9092)};
+    TopicOffsetsTable topicOffsets = new TopicOffsetsTable(Collections.singletonList(
+        new KafkaTopicDescription(new TopicDescription("topic", false, Collections.singletonList(
+            new TopicPartitionInfo(0, coordinators[0], Arrays.asList(coordinators), Arrays.asList(coordinators)))))));
+    TopicPartition tp = new TopicPartition("topic", 0);
+    topicOffsets.setBeginningOffset(tp, 10);
+    topicOffsets.setEndOffset(tp, 100);
+
+    List<String> groupIds = new ArrayList<>();
+    Map<String, ConsumerGroupDescription> descriptions = new HashMap<>();
+    for (int i = 0; i < 20; i++) {
+      String groupId = "group" + i;
+      groupIds.add(groupId);
+      descriptions.put(groupId, new ConsumerGroupDescription(groupId, false, Collections.emptyList(), "",
+          ConsumerGroupState.STABLE, coordinators[i % 2]));
+    }
+
+    Map<Integer, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+    Map<Integer, AtomicInteger> maxInFlight = new ConcurrentHashMap<>();
+    List<Runnable> pending = Collections.synchronizedList(new ArrayList<>());
+    AdminClient adminClient = mock(AdminClient.class);
+    when(adminClient.listConsumerGroupOffsets(anyString(), any(ListConsumerGroupOffsetsOptions.class)))
+        .thenAnswer(invocation -> {
+          String groupId = invocation.getArgument(0);
+          int coordinator = descriptions.get(groupId).coordinator().id();
+          int current = inFlight.computeIfAbsent(coordinator, k -> new AtomicInteger()).incrementAndGet();
+          maxInFlight.computeIfAbsent(coordinator, k -> new AtomicInteger()).accumulateAndGet(current, Math::max);
+          KafkaFutureImpl<Map<TopicPartition, OffsetAndMetadata>> future = new KafkaFutureImpl<>();
+          pending.add(() -> {
+            inFlight.get(coordinator).decrementAndGet();
+            if (groupId.equals("group0")) {
+              future.completeExceptionally(new RuntimeException("coordinator not available"));
+            } else {
+              future.complete(Collections.singletonMap(tp, new OffsetAndMetadata(40)));
+            }
+          });
+          ListConsumerGroupOffsetsResult result = mock(ListConsumerGroupOffsetsResult.class);
+          when(result.partitionsToOffsetAndMetadata()).thenReturn(future);
+          return result;
+        });
+
+    KafkaCluster cluster = mock(KafkaCluster.class);
+    when(cluster.getAdminClient()).thenReturn(adminClient);
+    when(cluster.containsAttribute(any())).thenReturn(true);
+    when(cluster.getAttribute(KafkaTopicOffsetSensor.ATTR_TOPIC_OFFSET_KEY))
+        .thenReturn(new Attribute(null, topicOffsets, 0L));
+    when(cluster.getAttribute(KafkaConsumerGroupDescriptionSensor.ATTR_CONSUMER_GROUP_IDS_KEY))
+        .thenReturn(new Attribute(null, groupIds, 0L));
+    when(cluster.getAttribute(KafkaConsumerGroupDescriptionSensor.ATTR_CONSUMER_GROUP_DESC_KEY))
+        .thenReturn(new Attribute(null, descriptions, 0L));
+    AtomicReference<List<KafkaConsumerGroupDescription>> published = new AtomicReference<>();
+    doAnswer(invocation -> {
+      published.set(invocation.getArgument(1));
+      return null;
+    }).when(cluster).setHiddenAttribute(eq(KafkaConsumerGroupOffsetSensor.ATTR_CONSUMER_GROUPS_KEY), any(),
+        nullable(String.class));
+
+    // complete outstanding requests one at a time from another thread, like the admin client would
+    Thread responder = new Thread(() -> {
+      while (published.get() == null) {
+        Runnable next = null;
+        synchronized (pending) {
+          if (!pending.isEmpty()) {
+            next = pending.remove(0);
+          }
+        }
+        if (next != null) {
+          next.run();
+        } else {
+          Thread.yield();
+        }
+      }
+    });
+    responder.setDaemon(true);
+    responder.start();
+
+    KafkaConsumerGroupOffsetSensor sensor = new KafkaConsumerGroupOffsetSensor();
+    sensor.initialize(ImmutableMap.of("maxInFlightRequestsPerCoordinator", 3));
+    sensor.sense(cluster);
+    responder.join(10_000);
+
+    assertTrue(maxInFlight.get(1).get() <= 3);
+    assertTrue(maxInFlight.get(2).get() <= 3);
+    assertEquals(20, published.get().size());
+    assertNull(published.get().get(0).getOffsets());
+    KafkaConsumerGroupOffsetsAndLag offsetsAndLag = published.get().get(1).getOffsets().get(tp);
+    assertEquals(40, offsetsAndLag.getOffset());
+    assertEquals(60, offsetsAndLag.getLag());
+  }
+
+  @Test(timeout = 60_000)
+  public void testCompletedRequests() throws Exception {
+    TopicOffsetsTable topicOffsets = new TopicOffsetsTable(Collections.emptyList());
+    TopicPartition tp = new TopicPartition("topic", 0);
+    Node coordinator = new Node(1, "b1", 9092);
+    List<String> groupIds = new ArrayList<>();
+    Map<String, ConsumerGroupDescription> descriptions = new HashMap<>();
+    for (int i = 0; i < 20000; i++) {
+      String groupId = "group" + i;
+      groupIds.add(groupId);
+      descriptions.put(groupId, new ConsumerGroupDescription(groupId, false, Collections.emptyList(), "",
+          ConsumerGroupState.STABLE, coordinator));
+    }
+    // futures completed before they are returned run their callbacks on the dispatching thread
+    AdminClient adminClient = mock(AdminClient.class);
+    when(adminClient.listConsumerGroupOffsets(anyString(), any(ListConsumerGroupOffsetsOptions.class)))
+        .thenAnswer(invocation -> {
+          KafkaFutureImpl<Map<TopicPartition, OffsetAndMetadata>> future = new KafkaFutureImpl<>();
+          future.complete(Collections.singletonMap(tp, new OffsetAndMetadata(1)));
+          ListConsumerGroupOffsetsResult result = mock(ListConsumerGroupOffsetsResult.class);
+          when(result.partitionsToOffsetAndMetadata()).thenReturn(future);
+          return result;
+        });
+
+    KafkaCluster cluster = mock(KafkaCluster.class);
+    when(cluster.getAdminClient()).thenReturn(adminClient);
+    when(cluster.containsAttribute(any())).thenReturn(true);
+    when(cluster.getAttribute(KafkaTopicOffsetSensor.ATTR_TOPIC_OFFSET_KEY))
+        .thenReturn(new Attribute(null, topicOffsets, 0L));
+    when(cluster.getAttribute(KafkaConsumerGroupDescriptionSensor.ATTR_CONSUMER_GROUP_IDS_KEY))
+        .thenReturn(new Attribute(null, groupIds, 0L));
+    when(cluster.getAttribute(KafkaConsumerGroupDescriptionSensor.ATTR_CONSUMER_GROUP_DESC_KEY))
+        .thenReturn(new Attribute(null, descriptions, 0L));
+    AtomicReference<List<KafkaConsumerGroupDescription>> published = new AtomicReference<>();
+    doAnswer(invocation -> {
+      published.set(invocation.getArgument(1));
+      return null;
+    }).when(cluster).setHiddenAttribute(eq(KafkaConsumerGroupOffsetSensor.ATTR_CONSUMER_GROUPS_KEY), any(),
+        nullable(String.class));
+
+    KafkaConsumerGroupOffsetSensor sensor = new KafkaConsumerGroupOffsetSensor();
+    sensor.initialize(ImmutableMap.of("maxInFlightRequestsPerCoordinator", 1));
+    sensor.sense(cluster);
+
+    assertEquals(20000, published.get().size());
+    assertEquals(1, published.get().get(19999).getOffsets().get(tp).getOffset());
+  }
+
+  @Test(timeout = 60_000)
+  public void testStalledCoordinator() throws Exception {
+    TopicOffsetsTable topicOffsets = new TopicOffsetsTable(Collections.emptyList());
+    TopicPartition tp = new TopicPartition("topic", 0);
+    Node[] coordinators = new Node[]{new Node(1, "b1", 9092), new Node(2, "b2", 9092), new Node(3, "b3", 9092)};
+    List<String> groupIds = new ArrayList<>();
+    Map<String, ConsumerGroupDescription> descriptions = new HashMap<>();
+    for (int i = 0; i < 30; i++) {
+      String groupId = "group" + i;
+      groupIds.add(groupId);
+      // the groups of the stalled coordinator come first
+      descriptions.put(groupId, new ConsumerGroupDescription(groupId, false, Collections.emptyList(), "",
+          ConsumerGroupState.STABLE, coordinators[i / 10]));
+    }
+    // requests to the first coordinator never complete
+    AdminClient adminClient = mock(AdminClient.class);
+    when(adminClient.listConsumerGroupOffsets(anyString(), any(ListConsumerGroupOffsetsOptions.class)))
+        .thenAnswer(invocation -> {
+          String groupId = invocation.getArgument(0);
+          KafkaFutureImpl<Map<TopicPartition, OffsetAndMetadata>> future = new KafkaFutureImpl<>();
+          if (descriptions.get(groupId).coordinator().id() != 1) {
+            future.complete(Collections.singletonMap(tp, new OffsetAndMetadata(1)));
+          }
+          ListConsumerGroupOffsetsResult result = mock(ListConsumerGroupOffsetsResult.class);
+          when(result.partitionsToOffsetAndMetadata()).thenReturn(future);
+          return result;
+        });
+
+    KafkaCluster cluster = mock(KafkaCluster.class);
+    when(cluster.getAdminClient()).thenReturn(adminClient);
+    when(cluster.containsAttribute(any())).thenReturn(true);
+    when(cluster.getAttribute(KafkaTopicOffsetSensor.ATTR_TOPIC_OFFSET_KEY))
+        .thenReturn(new Attribute(null, topicOffsets, 0L));
+    when(cluster.getAttribute(KafkaConsumerGroupDescriptionSensor.ATTR_CONSUMER_GROUP_IDS_KEY))
+        .thenReturn(new Attribute(null, groupIds, 0L));
+    when(cluster.getAttribute(KafkaConsumerGroupDescriptionSensor.ATTR_CONSUMER_GROUP_DESC_KEY))
+        .thenReturn(new Attribute(null, descriptions, 0L));
+    AtomicReference<List<KafkaConsumerGroupDescription>> published = new AtomicReference<>();
+    doAnswer(invocation -> {
+      published.set(invocation.getArgument(1));
+      return null;
+    }).when(cluster).setHiddenAttribute(eq(KafkaConsumerGroupOffsetSensor.ATTR_CONSUMER_GROUPS_KEY), any(),
+        nullable(String.class));
+
+    KafkaConsumerGroupOffsetSensor sensor = new KafkaConsumerGroupOffsetSensor();
+    sensor.initialize(ImmutableMap.of("maxInFlightRequestsPerCoordinator", 2, "offsetsTimeoutMs", 500));
+    sensor.sense(cluster);
+
+    // only the groups of the stalled coordinator are missing their offsets
+    assertEquals(30, published.get().size());
+    for (int i = 0; i < 30; i++) {
+      if (i < 10) {
+        assertNull(published.get().get(i).getOffsets());
+      } else {
+        assertEquals(1, published.get().get(i).getOffsets().get(tp).getOffset());
+      }
+    }
+    Mockito.verify(adminClient, Mockito.times(22))
+        .listConsumerGroupOffsets(anyString(), any(ListConsumerGroupOffsetsOptions.class));
+  }
+
+  @Test
+  public void testComputeOffsetsAndLag() {
+    TopicOffsetsTable topicOffsets = new TopicOffsetsTable(Collections.emptyList());
+    TopicPartition tp = new TopicPartition("unknown", 0);
+    Map<TopicPartition, KafkaConsumerGroupOffsetsAndLag> offsetsAndLag =
+        KafkaConsumerGroupOffsetSensor.computeOffsetsAndLag(
+            Collections.singletonMap(tp, new OffsetAndMetadata(5)), topicOffsets);
+    assertEquals(5, offsetsAndLag.get(tp).getOffset());
+    assertEquals(-1, offsetsAndLag.get(tp).getLag());
+  }
+}
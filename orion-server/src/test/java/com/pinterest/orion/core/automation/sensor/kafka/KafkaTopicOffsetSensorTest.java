@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright 2020 Pinterest, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.pinterest.orion.core.automation.sensor.kafka;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.ListOffsetsOptions;
+import org.apache.kafka.clients.admin.ListOffsetsResult;
+import org.apache.kafka.clients.admin.ListOffsetsResult.ListOffsetsResultInfo;
+import org.apache.kafka.clients.admin.OffsetSpec;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.common.KafkaFuture;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.TopicPartitionInfo;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.pinterest.orion.core.Attribute;
+import com.pinterest.orion.core.kafka.KafkaCluster;
+import com.pinterest.orion.core.kafka.KafkaTopicDescription;
+import com.pinterest.orion.core.kafka.TopicOffsetsTable;
+
+public class KafkaTopicOffsetSensorTest {
+
+  @Test
+  public void testOffsetsByLeader() throws Exception {
+    Node[] nodes = new Node[]{new Node(1, "b1", 9092), new Node(2, "b2", 9092)};
+    List<TopicPartitionInfo> partitions = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      partitions.add(new TopicPartitionInfo(i, nodes[i % 2], Arrays.asList(nodes), Arrays.asList(nodes)));
+    }
+    Map<String, KafkaTopicDescription> topics = Collections.singletonMap("topic",
+        new KafkaTopicDescription(new TopicDescription("topic", false, partitions)));
+
+    AtomicLong latestOffset = new AtomicLong(100);
+    List<Map<TopicPartition, OffsetSpec>> requests = new ArrayList<>();
+    AdminClient adminClient = mock(AdminClient.class);
+    when(adminClient.listOffsets(anyMap(), any(ListOffsetsOptions.class))).thenAnswer(invocation -> {
+      Map<TopicPartition, OffsetSpec> request = invocation.getArgument(0);
+      requests.add(request);
+      Map<TopicPartition, ListOffsetsResultInfo> offsets = new HashMap<>();
+      for (Map.Entry<TopicPartition, OffsetSpec> entry : request.entrySet()) {
+        ListOffsetsResultInfo info = mock(ListOffsetsResultInfo.class);
+        when(info.offset()).thenReturn(isEarliest(entry.getValue())
+            ? 10L : latestOffset.get());
+        offsets.put(entry.getKey(), info);
+      }
+      ListOffsetsResult result = mock(ListOffsetsResult.class);
+      when(result.all()).thenReturn(KafkaFuture.completedFuture(offsets));
+      return result;
+    });
+
+    KafkaCluster cluster = mock(KafkaCluster.class);
+    when(cluster.getAdminClient()).thenReturn(adminClient);
+    when(cluster.containsAttribute(KafkaTopicSensor.ATTR_TOPICINFO_MAP_KEY)).thenReturn(true);
+    when(cluster.getAttribute(KafkaTopicSensor.ATTR_TOPICINFO_MAP_KEY)).thenReturn(new Attribute(null, topics, 0L));
+    AtomicReference<TopicOffsetsTable> published = new AtomicReference<>();
+    doAnswer(invocation -> {
+      published.set(invocation.getArgument(1));
+      return null;
+    }).when(cluster).setHiddenAttribute(eq(KafkaTopicOffsetSensor.ATTR_TOPIC_OFFSET_KEY), any(), nullable(String.class));
+    when(cluster.containsAttribute(KafkaTopicOffsetSensor.ATTR_TOPIC_OFFSET_KEY))
+        .thenAnswer(invocation -> published.get() != null);
+    when(cluster.getAttribute(KafkaTopicOffsetSensor.ATTR_TOPIC_OFFSET_KEY))
+        .thenAnswer(invocation -> new Attribute(null, published.get(), 0L));
+
+    KafkaTopicOffsetSensor sensor = new KafkaTopicOffsetSensor();
+    sensor.initialize(ImmutableMap.of("offsetBatchSize", 10, "minOffsetBatchSize", 1));
+    sensor.sense(cluster);
+    // every request only holds partitions of a single leader, earliest and latest on the first run
+    assertEquals(4, requests.size());
+    for (Map<TopicPartition, OffsetSpec> request : requests) {
+      assertEquals(2, request.size());
+      assertEquals(1, request.keySet().stream().map(p -> p.partition() % 2).distinct().count());
+    }
+    TopicPartition tp = new TopicPartition("topic", 3);
+    assertEquals(10, published.get().getBeginningOffset(tp));
+    assertEquals(100, published.get().getEndOffset(tp));
+
+    // the second run only refreshes latest offsets and keeps the earliest ones
+    requests.clear();
+    latestOffset.set(200);
+    sensor.sense(cluster);
+    assertEquals(2, requests.size());
+    for (Map<TopicPartition, OffsetSpec> request : requests) {
+      assertFalse(isEarliest(request.values().iterator().next()));
+    }
+    assertEquals(10, published.get().getBeginningOffset(tp));
+    assertEquals(200, published.get().getEndOffset(tp));
+    assertEquals(-1, published.get().getEndOffset(new TopicPartition("other", 0)));
+  }
+
+  @Test
+  public void testAdaptiveBatchSize() throws Exception {
+    KafkaTopicOffsetSensor sensor = new KafkaTopicOffsetSensor();
+    sensor.initialize(ImmutableMap.of("minOffsetBatchSize", 100, "maxOffsetBatchSize", 2000,
+        "targetOffsetBatchLatencyMs", 1000));
+    assertEquals(1500, sensor.nextBatchSize(1000, 100));
+    assertEquals(2000, sensor.nextBatchSize(1500, 100));
+    assertEquals(1000, sensor.nextBatchSize(1000, 800));
+    assertEquals(500, sensor.nextBatchSize(1000, 3000));
+    assertEquals(100, sensor.nextBatchSize(150, 3000));
+  }
+
+  private static boolean isEarliest(OffsetSpec offsetSpec) {
+    return offsetSpec.getClass().getSimpleName().equals("EarliestSpec");
+  }
+}
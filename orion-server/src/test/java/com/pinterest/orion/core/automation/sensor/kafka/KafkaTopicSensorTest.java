@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright 2020 Pinterest, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.pinterest.orion.core.automation.sensor.kafka;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.Config;
+import org.apache.kafka.clients.admin.ConfigEntry;
+import org.apache.kafka.clients.admin.ConfigEntry.ConfigSource;
+import org.apache.kafka.clients.admin.DescribeConfigsOptions;
+import org.apache.kafka.clients.admin.DescribeConfigsResult;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.common.KafkaFuture;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.TopicPartitionInfo;
+import org.apache.kafka.common.config.ConfigResource;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.pinterest.orion.core.Attribute;
+import com.pinterest.orion.core.kafka.KafkaCluster;
+import com.pinterest.orion.core.kafka.KafkaTopicConfigs;
+import com.pinterest.orion.core.kafka.KafkaTopicDescription;
+
+public class KafkaTopicSensorTest {
+
+  @Test
+  public void testPopulateTopicConfigInfoCompact() throws Exception {
+    AdminClient adminClient = mock(AdminClient.class);
+    when(adminClient.describeConfigs(anyCollection(), any(DescribeConfigsOptions.class))).thenAnswer(invocation -> {
+      Collection<ConfigResource> resources = invocation.getArgument(0);
+      Map<ConfigResource, Config> configs = resources.stream().collect(Collectors.toMap(r -> r, r -> {
+        if (r.name().equals("override")) {
+          return new Config(Arrays.asList(
+              entry("retention.ms", "1000", ConfigSource.DYNAMIC_TOPIC_CONFIG),
+              entry("cleanup.policy", "delete", ConfigSource.DEFAULT_CONFIG)));
+        }
+        return new Config(Arrays.asList(
+            entry("retention.ms", "604800000", ConfigSource.DEFAULT_CONFIG),
+            entry("cleanup.policy", "delete", ConfigSource.DEFAULT_CONFIG)));
+      }));
+      DescribeConfigsResult result = mock(DescribeConfigsResult.class);
+      when(result.all()).thenReturn(KafkaFuture.completedFuture(configs));
+      return result;
+    });
+    Map<String, KafkaTopicDescription> topics = new HashMap<>();
+    for (String topic : Arrays.asList("override", "default1", "default2")) {
+      topics.put(topic, new KafkaTopicDescription(topic, false, Collections.emptyMap()));
+    }
+
+    KafkaTopicSensor.populateTopicConfigInfo(adminClient, topics, 2, true);
+
+    verify(adminClient, times(2)).describeConfigs(anyCollection(), any(DescribeConfigsOptions.class));
+    assertEquals(ImmutableMap.of("retention.ms", "1000", "cleanup.policy", "delete"),
+        topics.get("override").getTopicConfigs());
+    assertEquals(ImmutableSet.of("retention.ms"), topics.get("override").getOverrideConfigs());
+    assertEquals(ImmutableMap.of("retention.ms", "604800000", "cleanup.policy", "delete"),
+        topics.get("default1").getTopicConfigs());
+    assertTrue(topics.get("default1").getOverrideConfigs().isEmpty());
+
+    KafkaTopicConfigs default1 = (KafkaTopicConfigs) topics.get("default1").getTopicConfigs();
+    KafkaTopicConfigs default2 = (KafkaTopicConfigs) topics.get("default2").getTopicConfigs();
+    assertTrue(default1.getTopicEntries().isEmpty());
+    assertTrue(default2.getTopicEntries().isEmpty());
+  }
+
+  @Test
+  public void testChangeDetection() throws Exception {
+    AdminClient adminClient = mock(AdminClient.class);
+    List<Set<String>> describedTopics = new ArrayList<>();
+    when(adminClient.describeConfigs(anyCollection(), any(DescribeConfigsOptions.class))).thenAnswer(invocation -> {
+      Collection<ConfigResource> resources = invocation.getArgument(0);
+      describedTopics.add(resources.stream().map(ConfigResource::name).collect(Collectors.toSet()));
+      Map<ConfigResource, Config> configs = resources.stream().collect(Collectors.toMap(r -> r,
+          r -> new Config(Collections.singletonList(
+              entry("retention.ms", "604800000", ConfigSource.DEFAULT_CONFIG)))));
+      DescribeConfigsResult result = mock(DescribeConfigsResult.class);
+      when(result.all()).thenReturn(KafkaFuture.completedFuture(configs));
+      return result;
+    });
+    Node[] nodes = new Node[]{new Node(1, "b1", 9092), new Node(2, "b2", 9092)};
+    List<Node> replicas = Arrays.asList(nodes);
+    AtomicReference<List<Node>> topicBIsr = new AtomicReference<>(replicas);
+    KafkaCluster cluster = mock(KafkaCluster.class);
+    when(cluster.getAdminClient()).thenReturn(adminClient);
+    when(cluster.getClusterId()).thenReturn("test");
+    when(cluster.isTopicInfoChangeDetection()).thenReturn(true);
+    when(cluster.getTopicConfigRefreshIntervalSeconds()).thenReturn(3600L);
+    when(cluster.getTopicDescribeBatchSize()).thenReturn(200);
+    when(cluster.getTopicDescriptionFromKafka(true)).thenAnswer(invocation -> {
+      Map<String, KafkaTopicDescription> topics = new HashMap<>();
+      topics.put("a", new KafkaTopicDescription(new TopicDescription("a", false,
+          Collections.singletonList(new TopicPartitionInfo(0, nodes[0], replicas, replicas)))));
+      topics.put("b", new KafkaTopicDescription(new TopicDescription("b", false,
+          Collections.singletonList(new TopicPartitionInfo(0, nodes[1], replicas, topicBIsr.get())))));
+      return topics;
+    });
+    AtomicReference<Map<String, KafkaTopicDescription>> published = new AtomicReference<>();
+    doAnswer(invocation -> {
+      published.set(invocation.getArgument(1));
+      return null;
+    }).when(cluster).setAttribute(eq(KafkaTopicSensor.ATTR_TOPICINFO_MAP_KEY), any(), nullable(String.class));
+    when(cluster.containsAttribute(KafkaTopicSensor.ATTR_TOPICINFO_MAP_KEY))
+        .thenAnswer(invocation -> published.get() != null);
+    when(cluster.getAttribute(KafkaTopicSensor.ATTR_TOPICINFO_MAP_KEY))
+        .thenAnswer(invocation -> new Attribute(null, published.get(), 0L));
+
+    KafkaTopicSensor sensor = new KafkaTopicSensor();
+    sensor.sense(cluster);
+    Map<String, KafkaTopicDescription> first = published.get();
+    assertEquals(Collections.singletonList(ImmutableSet.of("a", "b")), describedTopics);
+
+    // only the topic with a different ISR is recomputed
+    topicBIsr.set(Collections.singletonList(nodes[1]));
+    sensor.sense(cluster);
+    Map<String, KafkaTopicDescription> second = published.get();
+    assertEquals(Arrays.asList(ImmutableSet.of("a", "b"), ImmutableSet.of("b")), describedTopics);
+    assertSame(first.get("a"), second.get("a"));
+    assertNotSame(first.get("b"), second.get("b"));
+    assertEquals(1, second.get("b").partitionMap().get(0).getIsrs().size());
+    assertEquals("604800000", second.get("b").getTopicConfigs().get("retention.ms"));
+  }
+
+  private static ConfigEntry entry(String name, String value, ConfigSource source) {
+    ConfigEntry entry = mock(ConfigEntry.class);
+    when(entry.name()).thenReturn(name);
+    when(entry.value()).thenReturn(value);
+    when(entry.source()).thenReturn(source);
+    return entry;
+  }
+}
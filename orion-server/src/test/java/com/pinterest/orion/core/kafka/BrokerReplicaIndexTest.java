@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright 2020 Pinterest, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.pinterest.orion.core.kafka;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.TopicPartitionInfo;
+import org.junit.Test;
+
+public class BrokerReplicaIndexTest {
+
+  private static Node[] nodes = new Node[]{
+      new Node(100, "100", 9092),
+      new Node(101, "101", 9092),
+      new Node(102, "102", 9092),
+      new Node(103, "103", 9092),
+  };
+
+  @Test
+  public void testBrokerReplicaIndex() {
+    Map<String, KafkaTopicDescription> topicMap = new HashMap<>();
+    topicMap.put("topic", new KafkaTopicDescription(
+        new TopicDescription("topic", false,
+            Arrays.asList(
+                new TopicPartitionInfo(0, nodes[0], Arrays.asList(nodes[0], nodes[1], nodes[2]), Arrays.asList(nodes[0], nodes[1])),
+                new TopicPartitionInfo(1, nodes[1], Arrays.asList(nodes[1], nodes[3]), Arrays.asList(nodes[1], nodes[3]))
+            )))
+    );
+    BrokerReplicaIndex index = new BrokerReplicaIndex(topicMap);
+
+    assertArrayEquals(new int[]{100, 101, 102, 103}, index.getBrokerIds());
+    assertEquals(2, index.getReplicaCount(101));
+    assertEquals(2, index.getInSyncReplicaCount(101));
+    assertEquals(1, index.getURPCount(101));
+    assertTrue(index.isInSync(101));
+
+    assertEquals(1, index.getReplicaCount(102));
+    assertEquals(1, index.getOutOfSyncReplicaCount(102));
+    assertFalse(index.isInSync(102));
+
+    assertArrayEquals(new int[]{100, 102, 103}, index.getCoReplicas(101));
+    assertArrayEquals(new int[]{101}, index.getCoReplicas(103));
+
+    assertFalse(index.containsBroker(104));
+    assertEquals(0, index.getReplicaCount(104));
+    assertArrayEquals(new int[0], index.getCoReplicas(104));
+  }
+}
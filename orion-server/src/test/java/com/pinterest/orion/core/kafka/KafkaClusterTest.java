@@ -1,12 +1,36 @@
 package com.pinterest.orion.core.kafka;
 
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.DescribeTopicsResult;
+import org.apache.kafka.clients.admin.ListTopicsOptions;
+import org.apache.kafka.clients.admin.ListTopicsResult;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.common.KafkaFuture;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.TopicPartitionInfo;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
 
 
 public class KafkaClusterTest {
@@ -68,4 +92,127 @@ public class KafkaClusterTest {
         cluster.setAttribute(cluster.ATTR_CONF_KEY, RESULT_INT_MAP);
         assertEquals(33333, cluster.getKafkaAdminClientConsumerGroupRequestTimeoutMilliseconds());
     }
+
+    @Test
+    public void testIncrementalTopicDescriptions() throws Exception {
+        Node n0 = new Node(0, "0", 9092);
+        Node n1 = new Node(1, "1", 9092);
+        Map<String, KafkaTopicDescription> cachedTopicMap = new HashMap<>();
+        cachedTopicMap.put("healthy", new KafkaTopicDescription(
+                topicDescription("healthy", Arrays.asList(n0, n1), Arrays.asList(n0, n1))));
+        cachedTopicMap.put("urp", new KafkaTopicDescription(
+                topicDescription("urp", Arrays.asList(n0, n1), Collections.singletonList(n0))));
+        cachedTopicMap.put("deleted", new KafkaTopicDescription(
+                topicDescription("deleted", Arrays.asList(n0, n1), Arrays.asList(n0, n1))));
+
+        AdminClient adminClient = Mockito.mock(AdminClient.class);
+        ListTopicsResult listTopicsResult = Mockito.mock(ListTopicsResult.class);
+        Mockito.when(listTopicsResult.names()).thenReturn(
+                KafkaFuture.completedFuture(new HashSet<>(Arrays.asList("healthy", "urp", "new"))));
+        Mockito.when(adminClient.listTopics(any(ListTopicsOptions.class))).thenReturn(listTopicsResult);
+        Mockito.when(adminClient.describeTopics(anyCollection())).thenAnswer(invocation -> {
+            Collection<String> topics = invocation.getArgument(0);
+            DescribeTopicsResult result = Mockito.mock(DescribeTopicsResult.class);
+            Mockito.when(result.all()).thenReturn(KafkaFuture.completedFuture(topics.stream().collect(
+                    Collectors.toMap(t -> t, t -> topicDescription(t, Arrays.asList(n0, n1), Arrays.asList(n0, n1))))));
+            return result;
+        });
+
+        Map<String, KafkaTopicDescription> incremental = KafkaCluster.getTopicDescriptions(adminClient,
+                Logger.getAnonymousLogger(), cachedTopicMap, "test", 1000, 1, true);
+        ArgumentCaptor<Collection<String>> described = ArgumentCaptor.forClass(Collection.class);
+        Mockito.verify(adminClient, Mockito.times(2)).describeTopics(described.capture());
+        assertEquals(new HashSet<>(Arrays.asList("urp", "new")), described.getAllValues().stream()
+                .flatMap(Collection::stream).collect(Collectors.toSet()));
+        assertEquals(new HashSet<>(Arrays.asList("healthy", "urp", "new")), incremental.keySet());
+        assertEquals(2, incremental.get("urp").partitionMap().get(0).getIsrs().size());
+
+        Mockito.clearInvocations(adminClient);
+        Map<String, KafkaTopicDescription> full = KafkaCluster.getTopicDescriptions(adminClient,
+                Logger.getAnonymousLogger(), cachedTopicMap, "test", 1000, 10, false);
+        Mockito.verify(adminClient, Mockito.times(1)).describeTopics(described.capture());
+        assertEquals(3, described.getValue().size());
+        assertEquals(incremental.keySet(), full.keySet());
+    }
+
+    @Test
+    public void testSingleFlightTopicMetadataSnapshot() throws Exception {
+        Node n0 = new Node(0, "0", 9092);
+        Node n1 = new Node(1, "1", 9092);
+        AdminClient adminClient = Mockito.mock(AdminClient.class);
+        ListTopicsResult listTopicsResult = Mockito.mock(ListTopicsResult.class);
+        Mockito.when(listTopicsResult.names()).thenReturn(
+                KafkaFuture.completedFuture(Collections.singleton("urp")));
+        Mockito.when(adminClient.listTopics(any(ListTopicsOptions.class))).thenAnswer(invocation -> {
+            Thread.sleep(200);
+            return listTopicsResult;
+        });
+        DescribeTopicsResult describeTopicsResult = Mockito.mock(DescribeTopicsResult.class);
+        Mockito.when(describeTopicsResult.all()).thenReturn(KafkaFuture.completedFuture(Collections.singletonMap(
+                "urp", topicDescription("urp", Arrays.asList(n0, n1), Collections.singletonList(n0)))));
+        Mockito.when(adminClient.describeTopics(anyCollection())).thenReturn(describeTopicsResult);
+
+        KafkaCluster cluster = new KafkaCluster("", "", Collections.emptyList(),
+                Collections.emptyList(), null, null, null, null, null);
+        cluster.setAdminClient(adminClient);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(executor.submit(cluster::clusterHealthy));
+        }
+        for (Future<Boolean> future : futures) {
+            assertFalse(future.get());
+        }
+        executor.shutdown();
+        assertTrue(cluster.brokerHealthy("0"));
+        assertFalse(cluster.brokerHealthy("1"));
+        assertEquals(1, cluster.getURPFromClusters().size());
+        Mockito.verify(adminClient, Mockito.times(1)).listTopics(any(ListTopicsOptions.class));
+    }
+
+    @Test
+    public void testHealthCheckDoesNotPostponeFullRefresh() throws Exception {
+        Node n0 = new Node(0, "0", 9092);
+        Node n1 = new Node(1, "1", 9092);
+        AdminClient adminClient = Mockito.mock(AdminClient.class);
+        ListTopicsResult listTopicsResult = Mockito.mock(ListTopicsResult.class);
+        Mockito.when(listTopicsResult.names()).thenReturn(
+                KafkaFuture.completedFuture(Collections.singleton("healthy")));
+        Mockito.when(adminClient.listTopics(any(ListTopicsOptions.class))).thenReturn(listTopicsResult);
+        Mockito.when(adminClient.describeTopics(anyCollection())).thenAnswer(invocation -> {
+            DescribeTopicsResult result = Mockito.mock(DescribeTopicsResult.class);
+            Mockito.when(result.all()).thenReturn(KafkaFuture.completedFuture(Collections.singletonMap(
+                    "healthy", topicDescription("healthy", Arrays.asList(n0, n1), Arrays.asList(n0, n1)))));
+            return result;
+        });
+
+        KafkaCluster cluster = new KafkaCluster("", "", Collections.emptyList(),
+                Collections.emptyList(), null, null, null, null, null);
+        cluster.setAdminClient(adminClient);
+        Map<String, Object> conf = new HashMap<>();
+        conf.put(KafkaCluster.ATTR_TOPIC_METADATA_INCREMENTAL_REFRESH_KEY, true);
+        conf.put(KafkaCluster.ATTR_TOPIC_METADATA_FULL_REFRESH_INTERVAL_SECONDS_KEY, 1);
+        cluster.setAttribute(cluster.ATTR_CONF_KEY, conf);
+
+        // the first sensor run is full and publishes the topic info
+        cluster.getTopicDescriptionFromKafka(true);
+        Mockito.verify(adminClient, Mockito.times(1)).describeTopics(anyCollection());
+
+        // a health check after the full refresh interval doesn't reset it
+        Thread.sleep(1100);
+        cluster.getTopicMetadataSnapshot();
+        Mockito.clearInvocations(adminClient);
+        cluster.getTopicDescriptionFromKafka(true);
+        Mockito.verify(adminClient, Mockito.times(1)).describeTopics(anyCollection());
+
+        // the full sensor run does, the next run only describes unhealthy topics
+        Mockito.clearInvocations(adminClient);
+        cluster.getTopicDescriptionFromKafka(true);
+        Mockito.verify(adminClient, Mockito.never()).describeTopics(anyCollection());
+    }
+
+    private static TopicDescription topicDescription(String topic, List<Node> replicas, List<Node> isr) {
+        return new TopicDescription(topic, false,
+                Collections.singletonList(new TopicPartitionInfo(0, replicas.get(0), replicas, isr)));
+    }
 }
@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright 2020 Pinterest, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.pinterest.orion.core.kafka;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.TopicPartitionInfo;
+import org.apache.kafka.common.requests.DescribeLogDirsResponse.ReplicaInfo;
+import org.junit.Test;
+
+public class KafkaTopicPartitionInfoTest {
+
+  @Test
+  public void testSharedAssignment() {
+    KafkaTopicPartitionInfo p0 = new KafkaTopicPartitionInfo(new TopicPartitionInfo(0,
+        new Node(1, "b1", 9092),
+        Arrays.asList(new Node(1, "b1", 9092), new Node(2, "b2", 9092)),
+        Arrays.asList(new Node(1, "b1", 9092), new Node(2, "b2", 9092))));
+    KafkaTopicPartitionInfo p1 = new KafkaTopicPartitionInfo(new TopicPartitionInfo(1,
+        new Node(2, "b2", 9092),
+        Arrays.asList(new Node(1, "b1", 9092), new Node(2, "b2", 9092)),
+        Arrays.asList(new Node(2, "b2", 9092))));
+
+    assertEquals(Arrays.asList(new Node(1, "b1", 9092), new Node(2, "b2", 9092)), p0.getReplicas());
+    assertSame(p0.getReplicas(), p0.getIsrs());
+    assertSame(p0.getReplicas(), p1.getReplicas());
+    assertSame(p0.getReplicas().get(1), p1.getLeader());
+    assertArrayEquals(new int[]{2}, p1.getIsrIds());
+    assertTrue(p1.isReplica(1));
+    assertFalse(p1.isInSync(1));
+  }
+
+  @Test
+  public void testReplicaInfo() {
+    KafkaTopicPartitionInfo p0 = new KafkaTopicPartitionInfo(new TopicPartitionInfo(0,
+        new Node(1, "b1", 9092),
+        Arrays.asList(new Node(1, "b1", 9092), new Node(2, "b2", 9092)),
+        Arrays.asList(new Node(1, "b1", 9092), new Node(2, "b2", 9092))));
+    assertTrue(p0.getReplicaInfo().isEmpty());
+
+    p0.putReplicaInfo(1, new ReplicaInfo(100, 0, false));
+    p0.putReplicaInfo(2, new ReplicaInfo(50, 5, false));
+    p0.putReplicaInfo(2, new ReplicaInfo(80, 1, false));
+    assertEquals(2, p0.getReplicaInfoCount());
+    assertEquals(180, p0.getTotalReplicaSize());
+    assertEquals(80, p0.getReplicaInfo().get("2").size);
+    assertEquals(1, p0.getReplicaInfo().get("2").offsetLag);
+
+    assertTrue(new KafkaTopicPartitionInfo(p0).getReplicaInfo().isEmpty());
+  }
+}
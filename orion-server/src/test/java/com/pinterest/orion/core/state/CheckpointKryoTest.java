@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright 2020 Pinterest, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.pinterest.orion.core.state;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Properties;
+
+import org.junit.Test;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.pool.KryoPool;
+import com.esotericsoftware.kryo.serializers.FieldSerializer;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.pinterest.orion.common.Metric;
+import com.pinterest.orion.common.MetricType;
+import com.pinterest.orion.common.Metrics;
+import com.pinterest.orion.common.NodeInfo;
+import com.pinterest.orion.common.StatusInfo;
+import com.pinterest.orion.common.StatusType;
+import com.pinterest.orion.common.Value;
+import com.pinterest.orion.core.Node;
+import com.pinterest.orion.core.hbase.RegionServerNode;
+import com.pinterest.orion.core.kafka.KafkaBroker;
+import com.pinterest.orion.core.kafka.KafkaCluster;
+
+public class CheckpointKryoTest {
+
+  @Test
+  public void testRoundTrip() {
+    KafkaBroker broker = newBroker();
+    Metrics metrics = new Metrics();
+    metrics.addToMetrics(new Metric("cpu", ImmutableMap.of("host", "b1"), 5L,
+        Collections.singletonList(new Value(MetricType.GAUGE, "usage", 0.5)), null));
+    broker.setCurrentNodeMetrics(metrics);
+    broker.setServiceStatus(new StatusInfo(StatusType.OK));
+    broker.setMaintenance(true);
+    broker.setNodeStatus(Node.NodeStatus.MAINTENANCE);
+
+    KryoPool pool = CheckpointKryo.newPool();
+    byte[] bytes = CheckpointKryo.encode(pool, broker);
+    assertTrue(CheckpointKryo.isCurrentFormat(bytes));
+    // the annotated node class is written by its id
+    assertFalse(new String(bytes, StandardCharsets.ISO_8859_1).contains(KafkaBroker.class.getSimpleName()));
+    Node restored = CheckpointKryo.decode(pool, bytes);
+    assertEquals(KafkaBroker.class, restored.getClass());
+    assertEquals("b1", restored.getCurrentNodeInfo().getHostname());
+    assertEquals(ImmutableSet.of("set1"), restored.getCurrentNodeInfo().getBrokersets());
+    assertEquals(ImmutableMap.of("k", "v"), restored.getCurrentNodeInfo().getServiceInfo());
+    assertEquals(0.5, restored.getCurrentNodeMetrics().getMetrics().get(0).getValues().get(0).getValue(), 0);
+    assertEquals(StatusType.OK, restored.getServiceStatus().getStatusType());
+    assertTrue(restored.isUnderMaintenance());
+    assertEquals(Node.NodeStatus.MAINTENANCE, restored.getNodeStatus());
+
+    // fields declared by node subclasses are kept
+    RegionServerNode regionServer = new RegionServerNode(null, new NodeInfo(), new Properties());
+    Node restoredRegionServer = CheckpointKryo.decode(pool, CheckpointKryo.encode(pool, regionServer));
+    assertEquals(regionServer.getHbaseNodeType(), ((RegionServerNode) restoredRegionServer).getHbaseNodeType());
+  }
+
+  @Test
+  public void testReadsUnversionedFormat() {
+    Kryo legacyKryo = new Kryo();
+    legacyKryo.setInstantiatorStrategy(new Kryo.DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
+    legacyKryo.addDefaultSerializer(Node.class, (k, type) -> {
+      FieldSerializer<?> serializer = new FieldSerializer<>(k, type);
+      serializer.removeField("cluster");
+      serializer.removeField("cmdQueue");
+      return serializer;
+    });
+    Output output = new Output(1024, -1);
+    legacyKryo.writeClassAndObject(output, newBroker());
+    byte[] legacyBytes = output.toBytes();
+
+    KryoPool pool = CheckpointKryo.newPool();
+    assertFalse(CheckpointKryo.isCurrentFormat(legacyBytes));
+    assertEquals("b1", CheckpointKryo.decode(pool, legacyBytes).getCurrentNodeInfo().getHostname());
+    // registered classes and explicit fields take a fraction of the space
+    assertTrue(CheckpointKryo.encode(pool, newBroker()).length * 2 < legacyBytes.length);
+  }
+
+  private static KafkaBroker newBroker() {
+    NodeInfo info = new NodeInfo();
+    info.setNodeId("1");
+    info.setHostname("b1");
+    info.setServicePort(9092);
+    info.setServiceInfo(new HashMap<>(ImmutableMap.of("k", "v")));
+    info.setBrokersets(new HashSet<>(Collections.singleton("set1")));
+    return new KafkaBroker(mock(KafkaCluster.class), info, new Properties());
+  }
+}
@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright 2020 Pinterest, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.pinterest.orion.core.state;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableMap;
+import com.pinterest.orion.common.NodeInfo;
+import com.pinterest.orion.core.LazyNodeMap;
+import com.pinterest.orion.core.Node;
+import com.pinterest.orion.core.kafka.KafkaBroker;
+import com.pinterest.orion.core.kafka.KafkaCluster;
+
+public class FileBackedClusterStateSinkTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testDeltaCheckpointAndRestore() throws Exception {
+    File dir = folder.newFolder();
+    FileBackedClusterStateSink sink = newSink(dir);
+    Map<String, Node> nodeMap = new ConcurrentHashMap<>();
+    KafkaCluster cluster = mock(KafkaCluster.class);
+    when(cluster.getClusterId()).thenReturn("c1");
+    when(cluster.getNodeMap()).thenReturn(nodeMap);
+    for (int i = 0; i < 10; i++) {
+      nodeMap.put(String.valueOf(i), newBroker(cluster, i, "host" + i));
+    }
+
+    // the first checkpoint is a full snapshot
+    sink.serialize(cluster);
+    assertTrue(new File(dir, "c1.snapshot").exists());
+    assertFalse(new File(dir, "c1.log").exists());
+
+    // later checkpoints only log the nodes that changed
+    sink.serialize(cluster);
+    assertFalse(new File(dir, "c1.log").exists());
+    nodeMap.get("3").getCurrentNodeInfo().setHostname("changed");
+    nodeMap.remove("7");
+    sink.serialize(cluster);
+    File log = new File(dir, "c1.log");
+    assertTrue(log.exists());
+    assertTrue(log.length() < new File(dir, "c1.snapshot").length() / 3);
+
+    // a torn record at the tail of the log is ignored
+    try (FileOutputStream out = new FileOutputStream(log, true)) {
+      out.write(new byte[]{1, 2, 3});
+    }
+    FileBackedClusterStateSink restoredSink = newSink(dir);
+    Map<String, Node> restored = restoredSink.deserializeNodes("c1");
+    // nodes are only decoded when they are accessed
+    LazyNodeMap lazyNodes = (LazyNodeMap) restored;
+    assertEquals(9, lazyNodes.getPendingCount());
+    assertNull(restored.get("7"));
+    assertEquals("changed", restored.get("3").getCurrentNodeInfo().getHostname());
+    assertEquals("host4", restored.get("4").getCurrentNodeInfo().getHostname());
+    assertEquals(7, lazyNodes.getPendingCount());
+    assertEquals(9, restored.size());
+    assertEquals(9, restored.keySet().size());
+    assertEquals(7, lazyNodes.getPendingCount());
+    assertNull(restored.get("4").getCluster());
+
+    // the torn record was truncated, records appended after the restore are read back
+    nodeMap.get("5").getCurrentNodeInfo().setHostname("after restore");
+    restoredSink.serialize(cluster);
+    assertEquals("after restore", newSink(dir).deserializeNodes("c1").get("5").getCurrentNodeInfo().getHostname());
+    restoredSink.close();
+
+    sink.compactAll();
+    assertFalse(log.exists());
+    assertEquals(9, newSink(dir).deserializeNodes("c1").size());
+  }
+
+  @Test
+  public void testCheckpointPendingNodes() throws Exception {
+    File dir = folder.newFolder();
+    Map<String, Node> nodeMap = new ConcurrentHashMap<>();
+    KafkaCluster cluster = mock(KafkaCluster.class);
+    when(cluster.getClusterId()).thenReturn("c1");
+    when(cluster.getNodeMap()).thenReturn(nodeMap);
+    for (int i = 0; i < 10; i++) {
+      nodeMap.put(String.valueOf(i), newBroker(cluster, i, "host" + i));
+    }
+    newSink(dir).serialize(cluster);
+
+    // corrupt the state of the last node of the snapshot
+    File snapshot = new File(dir, "c1.snapshot");
+    try (RandomAccessFile file = new RandomAccessFile(snapshot, "rw")) {
+      file.seek(file.length() - 1);
+      int last = file.read();
+      file.seek(file.length() - 1);
+      file.write(last ^ 0xff);
+    }
+    Map<String, Node> accessed = newSink(dir).deserializeNodes("c1");
+    assertNull(accessed.get("9"));
+    assertEquals(9, accessed.size());
+
+    FileBackedClusterStateSink sink = newSink(dir);
+    LazyNodeMap restored = (LazyNodeMap) sink.deserializeNodes("c1");
+    // the corrupt state is only detected once it is accessed
+    assertEquals(10, restored.size());
+    assertTrue(restored.keySet().contains("9"));
+    KafkaCluster restoredCluster = mock(KafkaCluster.class);
+    when(restoredCluster.getClusterId()).thenReturn("c1");
+    when(restoredCluster.getNodeMap()).thenReturn(restored);
+    restored.get("3").getCurrentNodeInfo().setHostname("changed");
+
+    // pending nodes are checkpointed and compacted without being decoded, the
+    // corrupt one is left out of the new snapshot
+    sink.serialize(restoredCluster);
+    sink.compactAll();
+    assertFalse(new File(dir, "c1.log").exists());
+    assertEquals(9, restored.getPendingCount());
+    AtomicInteger peeked = new AtomicInteger();
+    restored.forEachPeeked((nodeId, node) -> peeked.incrementAndGet());
+    assertEquals(9, peeked.get());
+    assertEquals(9, restored.getPendingCount());
+    assertEquals("host4", restored.get("4").getCurrentNodeInfo().getHostname());
+    assertNull(restored.get("9"));
+    assertEquals(9, restored.size());
+
+    Map<String, Node> compacted = newSink(dir).deserializeNodes("c1");
+    assertEquals(9, compacted.size());
+    assertEquals("changed", compacted.get("3").getCurrentNodeInfo().getHostname());
+    assertEquals("host8", compacted.get("8").getCurrentNodeInfo().getHostname());
+    assertNull(compacted.get("9"));
+  }
+
+  @Test
+  public void testMissingCheckpoint() throws Exception {
+    assertNull(newSink(folder.newFolder()).deserializeNodes("c1"));
+  }
+
+  private static FileBackedClusterStateSink newSink(File dir) throws Exception {
+    FileBackedClusterStateSink sink = new FileBackedClusterStateSink();
+    sink.initialize(ImmutableMap.of("checkpointDirectory", dir.getAbsolutePath(),
+        "compactionIntervalSeconds", 0));
+    return sink;
+  }
+
+  private static KafkaBroker newBroker(KafkaCluster cluster, int id, String hostname) {
+    NodeInfo info = new NodeInfo();
+    info.setNodeId(String.valueOf(id));
+    info.setHostname(hostname);
+    info.setClusterId("c1");
+    return new KafkaBroker(cluster, info, new Properties());
+  }
+}
@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright 2020 Pinterest, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.pinterest.orion.core.state;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.Map;
+import java.util.ConcurrentModificationException;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableMap;
+import com.pinterest.orion.common.NodeInfo;
+import com.pinterest.orion.core.Node;
+import com.pinterest.orion.core.kafka.KafkaBroker;
+import com.pinterest.orion.core.kafka.KafkaCluster;
+
+public class KeyValueClusterStateSinkTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testPointUpdatesAndRestore() throws Exception {
+    File dir = folder.newFolder();
+    KeyValueClusterStateSink sink = newSink(dir);
+    Map<String, Node> nodeMap = new ConcurrentHashMap<>();
+    KafkaCluster cluster = mock(KafkaCluster.class);
+    when(cluster.getClusterId()).thenReturn("c1");
+    when(cluster.getNodeMap()).thenReturn(nodeMap);
+    for (int i = 0; i < 3; i++) {
+      nodeMap.put(String.valueOf(i), newBroker(cluster, i));
+    }
+    sink.serialize(cluster);
+
+    // heartbeats of the same node within a commit interval are written once
+    nodeMap.get("1").getCurrentNodeInfo().setHostname("first");
+    sink.checkpointNode(cluster, "1", nodeMap.get("1"));
+    nodeMap.get("1").getCurrentNodeInfo().setHostname("second");
+    sink.checkpointNode(cluster, "1", nodeMap.get("1"));
+    KafkaBroker added = newBroker(cluster, 3);
+    sink.checkpointNode(cluster, "3", added);
+    sink.commit();
+
+    Map<String, Node> restored = newSink(dir).deserializeNodes("c1");
+    assertEquals(4, restored.size());
+    assertEquals("second", restored.get("1").getCurrentNodeInfo().getHostname());
+    assertEquals("host3", restored.get("3").getCurrentNodeInfo().getHostname());
+
+    // a full checkpoint drops the nodes that left the cluster
+    nodeMap.remove("0");
+    sink.serialize(cluster);
+    restored = newSink(dir).deserializeNodes("c1");
+    assertNull(restored.get("0"));
+    assertEquals(2, restored.size());
+    assertNull(newSink(dir).deserializeNodes("c2"));
+  }
+
+  @Test
+  public void testFailedEncodeIsRetried() throws Exception {
+    File dir = folder.newFolder();
+    KeyValueClusterStateSink sink = newSink(dir);
+    KafkaCluster cluster = mock(KafkaCluster.class);
+    when(cluster.getClusterId()).thenReturn("c1");
+    NodeInfo info = new NodeInfo();
+    info.setNodeId("1");
+    info.setHostname("host1");
+    FlakyBroker broker = new FlakyBroker(cluster, info);
+    broker.fail.set(true);
+
+    // the node changed while it was encoded, it stays dirty
+    sink.checkpointNode(cluster, "1", broker);
+    sink.commit();
+    assertNull(newSink(dir).deserializeNodes("c1"));
+    sink.commit();
+    assertEquals("host1", newSink(dir).deserializeNodes("c1").get("1").getCurrentNodeInfo().getHostname());
+
+    // closing writes the pending heartbeats
+    info.setHostname("last");
+    sink.checkpointNode(cluster, "1", broker);
+    sink.close();
+    assertEquals("last", newSink(dir).deserializeNodes("c1").get("1").getCurrentNodeInfo().getHostname());
+  }
+
+  private static KeyValueClusterStateSink newSink(File dir) throws Exception {
+    KeyValueClusterStateSink sink = new KeyValueClusterStateSink();
+    sink.initialize(ImmutableMap.of("storeDirectory", dir.getAbsolutePath(), "groupCommitIntervalMs", 0));
+    return sink;
+  }
+
+  private static KafkaBroker newBroker(KafkaCluster cluster, int id) {
+    NodeInfo info = new NodeInfo();
+    info.setNodeId(String.valueOf(id));
+    info.setHostname("host" + id);
+    return new KafkaBroker(cluster, info, new Properties());
+  }
+
+  private static class FlakyBroker extends KafkaBroker {
+
+    private final transient AtomicBoolean fail = new AtomicBoolean();
+
+    FlakyBroker(KafkaCluster cluster, NodeInfo info) {
+      super(cluster, info, new Properties());
+    }
+
+    @Override
+    public NodeInfo getCurrentNodeInfo() {
+      // null on restored copies, which are created without running the constructor
+      if (fail != null && fail.getAndSet(false)) {
+        throw new ConcurrentModificationException();
+      }
+      return super.getCurrentNodeInfo();
+    }
+  }
+}
@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright 2020 Pinterest, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.pinterest.orion.core.state;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableMap;
+
+public class LocalKeyValueStoreTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testWriteReopenAndCompact() throws Exception {
+    File dir = folder.newFolder();
+    try (LocalKeyValueStore store = new LocalKeyValueStore(dir)) {
+      store.write(ImmutableMap.of("c1/1", new byte[]{1}, "c1/2", new byte[]{2}, "c2/1", new byte[]{3}),
+          Collections.emptyList());
+      store.write(ImmutableMap.of("c1/1", new byte[]{4, 4}), Collections.singletonList("c1/2"));
+      assertArrayEquals(new byte[]{4, 4}, store.get("c1/1"));
+      assertNull(store.get("c1/2"));
+      assertEquals(Arrays.asList("c1/1"), store.keys("c1/"));
+      assertEquals(3, store.getLiveBytes());
+    }
+
+    // a torn record at the tail is truncated on open
+    try (FileOutputStream out = new FileOutputStream(new File(dir, "store.dat"), true)) {
+      out.write(new byte[]{1, 5, 6});
+    }
+    try (LocalKeyValueStore store = new LocalKeyValueStore(dir)) {
+      assertArrayEquals(new byte[]{4, 4}, store.get("c1/1"));
+      assertArrayEquals(new byte[]{3}, store.get("c2/1"));
+      long fileBytes = store.getFileBytes();
+      store.compact();
+      assertTrue(store.getFileBytes() < fileBytes);
+      assertArrayEquals(new byte[]{4, 4}, store.get("c1/1"));
+      store.write(ImmutableMap.of("c2/2", new byte[]{5}), Collections.emptyList());
+    }
+    try (LocalKeyValueStore store = new LocalKeyValueStore(dir)) {
+      assertEquals(Arrays.asList("c2/1", "c2/2"), store.keys("c2/"));
+      assertEquals(Arrays.asList("c1/1", "c2/1"), store.keys("c1/", "c2/2"));
+      assertArrayEquals(new byte[]{5}, store.get("c2/2"));
+    }
+  }
+}
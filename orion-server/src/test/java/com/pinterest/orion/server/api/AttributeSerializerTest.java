@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright 2020 Pinterest, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.pinterest.orion.server.api;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.pinterest.orion.core.Context;
+
+public class AttributeSerializerTest {
+
+  private final AtomicInteger serializations = new AtomicInteger();
+  private ObjectMapper mapper;
+
+  @Before
+  public void before() {
+    AttributeSerializer.invalidateCache();
+    SimpleModule module = new SimpleModule();
+    module.addSerializer(Context.class, new JsonSerializer<Context>() {
+      @Override
+      public void serialize(Context value, JsonGenerator gen, SerializerProvider serializers) throws IOException {
+        gen.writeObject(value.getExposedAttributes());
+      }
+    });
+    module.addSerializer(Payload.class, new JsonSerializer<Payload>() {
+      @Override
+      public void serialize(Payload value, JsonGenerator gen, SerializerProvider serializers) throws IOException {
+        serializations.incrementAndGet();
+        gen.writeNumber(value.size);
+      }
+    });
+    module.addSerializer(com.pinterest.orion.core.Attribute.class, new AttributeSerializer());
+    mapper = new ObjectMapper().registerModule(module);
+  }
+
+  @Test
+  public void testCachedAgainstVersion() throws Exception {
+    Context context = new Context() { };
+    Map<String, Object> topics = new HashMap<>();
+    topics.put("topic", new Payload(3));
+    context.setAttribute("topicinfo", topics);
+    context.setAttribute("count", 1);
+
+    assertJson("{\"topicinfo\":{\"topic\":3},\"count\":1}", context);
+    assertJson("{\"topicinfo\":{\"topic\":3},\"count\":1}", context);
+    assertEquals(1, serializations.get());
+
+    // an equal value keeps the attribute and its cached json
+    Map<String, Object> sameTopics = new HashMap<>(topics);
+    context.setAttribute("topicinfo", sameTopics);
+    mapper.writeValueAsString(context);
+    assertEquals(1, serializations.get());
+
+    Map<String, Object> newTopics = new HashMap<>();
+    newTopics.put("topic", new Payload(4));
+    context.setAttribute("topicinfo", newTopics);
+    assertJson("{\"topicinfo\":{\"topic\":4},\"count\":1}", context);
+    assertEquals(2, serializations.get());
+
+    context.getAttribute("count").setValue(2);
+    assertJson("{\"topicinfo\":{\"topic\":4},\"count\":2}", context);
+  }
+
+  private void assertJson(String expected, Context context) throws IOException {
+    assertEquals(mapper.readTree(expected), mapper.readTree(mapper.writeValueAsString(context)));
+  }
+
+  private static class Payload {
+    private final int size;
+
+    Payload(int size) {
+      this.size = size;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof Payload && ((Payload) obj).size == size;
+    }
+
+    @Override
+    public int hashCode() {
+      return size;
+    }
+  }
+}